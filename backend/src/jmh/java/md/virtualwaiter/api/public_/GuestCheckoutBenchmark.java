@@ -0,0 +1,110 @@
+package md.virtualwaiter.api.public_;
+
+import md.virtualwaiter.domain.BranchDiscount;
+import md.virtualwaiter.domain.MenuItemModifierGroup;
+import md.virtualwaiter.domain.ModifierOption;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** Per-line and per-bill CPU work of order placement and bill requests: modifier validation and discounts. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GuestCheckoutBenchmark {
+
+  private static final long ITEM_ID = 10L;
+
+  private PublicController.ModifierContext modifiers;
+  private String selection;
+  private List<BranchDiscount> happyHours;
+  private BranchDiscount coupon;
+  private Instant now;
+
+  @Setup
+  public void setup() {
+    // Three groups on the item (size, sauce, extras) and options of other items in the same order.
+    Map<Long, List<MenuItemModifierGroup>> linksByItem = new HashMap<>();
+    Map<Long, ModifierOption> optionById = new HashMap<>();
+    List<MenuItemModifierGroup> links = new ArrayList<>();
+    long optionId = 100;
+    for (long g = 1; g <= 3; g++) {
+      MenuItemModifierGroup link = new MenuItemModifierGroup();
+      link.id = g;
+      link.menuItemId = ITEM_ID;
+      link.groupId = g;
+      link.isRequired = g == 1;
+      link.minSelect = g == 1 ? 1 : null;
+      link.maxSelect = g == 3 ? 4 : 1;
+      link.sortOrder = (int) g;
+      links.add(link);
+      for (int o = 0; o < 6; o++) {
+        ModifierOption opt = new ModifierOption();
+        opt.id = optionId++;
+        opt.groupId = g;
+        opt.priceCents = o * 500;
+        optionById.put(opt.id, opt);
+      }
+    }
+    linksByItem.put(ITEM_ID, links);
+    for (long g = 4; g <= 12; g++) {
+      for (int o = 0; o < 6; o++) {
+        ModifierOption opt = new ModifierOption();
+        opt.id = optionId++;
+        opt.groupId = g;
+        optionById.put(opt.id, opt);
+      }
+    }
+    modifiers = new PublicController.ModifierContext(linksByItem, optionById);
+    selection = "{\"optionIds\":[101, 107, 112, 113, 115]}";
+
+    happyHours = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      BranchDiscount d = new BranchDiscount();
+      d.scope = "HAPPY_HOUR";
+      d.type = i % 2 == 0 ? "PERCENT" : "FIXED";
+      d.value = i % 2 == 0 ? 10 + i : 1500;
+      d.daysMask = 0b1111111;
+      d.startMinute = 16 * 60 + i * 30;
+      d.endMinute = (i == 5) ? 60 : 19 * 60;
+      d.tzOffsetMinutes = 180;
+      happyHours.add(d);
+    }
+    coupon = new BranchDiscount();
+    coupon.type = "PERCENT";
+    coupon.value = 15;
+    now = Instant.parse("2026-03-14T15:20:00Z");
+  }
+
+  @Benchmark
+  public int parseAndValidateModifiers() {
+    return PublicController.parseAndValidateModifiers(ITEM_ID, selection, modifiers).totalPriceCents;
+  }
+
+  @Benchmark
+  public int bestHappyHour() {
+    int best = 0;
+    for (BranchDiscount d : happyHours) {
+      if (!PublicController.isDiscountWindowActive(d, now)) continue;
+      best = Math.max(best, PublicController.calculateDiscountCents(18_450, d));
+    }
+    return best;
+  }
+
+  @Benchmark
+  public void couponAmount(Blackhole bh) {
+    bh.consume(PublicController.calculateDiscountCents(18_450, coupon));
+  }
+}
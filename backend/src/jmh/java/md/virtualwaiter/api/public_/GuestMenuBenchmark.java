@@ -0,0 +1,139 @@
+package md.virtualwaiter.api.public_;
+
+import md.virtualwaiter.domain.MenuItem;
+import md.virtualwaiter.service.MenuSnapshotService;
+import md.virtualwaiter.util.MenuText;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Menu DTO assembly for one guest request: localizing raw items (what a snapshot rebuild does per locale)
+ * and turning a cached snapshot into the /menu response, including the time-slot check per item.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GuestMenuBenchmark {
+
+  @Param({"50", "300"})
+  int items;
+
+  @Param({"ru", "en"})
+  String locale;
+
+  private List<MenuItem> rawItems;
+  private Map<Long, List<String>> tagsByItem;
+  private MenuSnapshotService.MenuSnapshot snapshot;
+  private Map<Long, Boolean> lowStockByItem;
+  private ZonedDateTime now;
+
+  @Setup
+  public void setup() {
+    rawItems = new ArrayList<>(items);
+    tagsByItem = new HashMap<>();
+    lowStockByItem = new HashMap<>();
+    Map<Long, List<MenuSnapshotService.Item>> byCategory = new HashMap<>();
+    Map<Long, MenuSnapshotService.Item> itemsById = new HashMap<>();
+    Map<Long, List<MenuSnapshotService.Slot>> slotsByItem = new HashMap<>();
+    List<Long> itemIds = new ArrayList<>(items);
+    for (int i = 0; i < items; i++) {
+      long id = i + 1;
+      MenuItem mi = new MenuItem();
+      mi.id = id;
+      mi.categoryId = (long) (i % 8) + 1;
+      mi.nameRu = "Блюдо " + id;
+      mi.nameRo = i % 3 == 0 ? null : "Fel " + id;
+      mi.nameEn = i % 2 == 0 ? "Dish " + id : "";
+      mi.descriptionRu = "Описание блюда " + id;
+      mi.descriptionEn = "Description of dish " + id;
+      mi.ingredientsRu = "мука, вода, соль";
+      mi.photoUrls = "https://cdn.example.md/p/" + id + "-1.jpg, https://cdn.example.md/p/" + id + "-2.jpg";
+      mi.tags = i % 4 == 0 ? "spicy, vegan" : "";
+      mi.priceCents = 4500 + i * 10;
+      mi.currency = "MDL";
+      rawItems.add(mi);
+      if (i % 5 == 0) tagsByItem.put(id, List.of("vegan", "new"));
+      if (i % 10 == 0) lowStockByItem.put(id, true);
+
+      MenuSnapshotService.Item item = new MenuSnapshotService.Item(
+        id,
+        mi.categoryId,
+        MenuText.pick(locale, mi.nameRu, mi.nameRo, mi.nameEn),
+        MenuText.pick(locale, mi.descriptionRu, mi.descriptionRo, mi.descriptionEn),
+        MenuText.pick(locale, mi.ingredientsRu, mi.ingredientsRo, mi.ingredientsEn),
+        null,
+        "250 g",
+        420,
+        12,
+        18,
+        40,
+        List.copyOf(MenuText.splitCsv(mi.photoUrls)),
+        null,
+        List.copyOf(MenuText.mergeTags(mi.tags, tagsByItem.get(id))),
+        mi.priceCents,
+        mi.currency,
+        i % 17 == 0
+      );
+      byCategory.computeIfAbsent(mi.categoryId, k -> new ArrayList<>()).add(item);
+      itemsById.put(id, item);
+      itemIds.add(id);
+      // Breakfast and late-night items carry slots; the rest are always available.
+      if (i % 6 == 0) {
+        slotsByItem.put(id, List.of(
+          new MenuSnapshotService.Slot(0b0011111, LocalTime.of(7, 0), LocalTime.of(11, 30)),
+          new MenuSnapshotService.Slot(0b1100000, LocalTime.of(22, 0), LocalTime.of(2, 0))
+        ));
+      }
+    }
+    List<MenuSnapshotService.Category> categories = new ArrayList<>();
+    for (long c = 1; c <= 8; c++) {
+      List<MenuSnapshotService.Item> catItems = byCategory.get(c);
+      if (catItems != null) categories.add(new MenuSnapshotService.Category(c, "Категория " + c, (int) c, List.copyOf(catItems)));
+    }
+    snapshot = new MenuSnapshotService.MenuSnapshot(
+      1L, 1L, locale, 1L, List.copyOf(categories), List.copyOf(itemIds), Map.copyOf(itemsById), slotsByItem
+    );
+    now = ZonedDateTime.of(2026, 3, 14, 9, 15, 0, 0, ZoneId.of("Europe/Chisinau"));
+  }
+
+  @Benchmark
+  public void localizeItems(Blackhole bh) {
+    for (MenuItem it : rawItems) {
+      bh.consume(MenuText.pick(locale, it.nameRu, it.nameRo, it.nameEn));
+      bh.consume(MenuText.pick(locale, it.descriptionRu, it.descriptionRo, it.descriptionEn));
+      bh.consume(MenuText.pick(locale, it.ingredientsRu, it.ingredientsRo, it.ingredientsEn));
+      bh.consume(MenuText.splitCsv(it.photoUrls));
+      bh.consume(MenuText.mergeTags(it.tags, tagsByItem.get(it.id)));
+    }
+  }
+
+  @Benchmark
+  public List<PublicController.MenuCategoryDto> menuResponse() {
+    return PublicController.menuCategories(snapshot, now, lowStockByItem);
+  }
+
+  @Benchmark
+  public int timeSlots() {
+    int available = 0;
+    for (Long id : snapshot.itemIds()) {
+      if (snapshot.isAvailableNow(id, now)) available++;
+    }
+    return available;
+  }
+}
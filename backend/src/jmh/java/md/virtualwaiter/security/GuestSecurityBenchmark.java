@@ -0,0 +1,64 @@
+package md.virtualwaiter.security;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks paid on every request: QR link signature (guest), auth cookie (staff) and the admin IP rules
+ * that {@link AdminIpFilter} applies.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GuestSecurityBenchmark {
+
+  private QrSignatureService qr;
+  private AuthTokenService tokens;
+  private IpRules ipRules;
+  private String tablePublicId;
+  private long ts;
+  private String sig;
+  private String token;
+
+  @Setup
+  public void setup() {
+    qr = new QrSignatureService("bench_qr_hmac_secret", null, 300, 60, false);
+    tokens = new AuthTokenService("bench_auth_cookie_secret", null);
+    ipRules = IpRules.parse(
+      "10.0.0.0/8, 172.16.0.0/12, 192.168.10.0/24, 85.14.26.7, 2001:db8:abcd::/48, 89.28.0.0/17, 188.237.0.0/16"
+    );
+    tablePublicId = "TBL_7f3k2m9q";
+    // Refreshed per trial so the signature stays inside its TTL for the whole run.
+    ts = Instant.now().getEpochSecond();
+    sig = qr.signTablePublicId(tablePublicId, ts);
+    token = tokens.mint("waiter1", 3600);
+  }
+
+  @Benchmark
+  public boolean verifyTablePublicId() {
+    return qr.verifyTablePublicId(tablePublicId, sig, ts);
+  }
+
+  @Benchmark
+  public String verifyAuthToken() {
+    return tokens.verify(token);
+  }
+
+  @Benchmark
+  public boolean ipRulesHit() {
+    return ipRules.matches("188.237.141.20");
+  }
+
+  @Benchmark
+  public boolean ipRulesMiss() {
+    return ipRules.matches("46.97.1.3");
+  }
+}
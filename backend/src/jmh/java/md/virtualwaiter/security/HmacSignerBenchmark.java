@@ -0,0 +1,65 @@
+package md.virtualwaiter.security;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link HmacSigner} against the previous per-call {@code Mac.getInstance}/{@code init} code. With the gc
+ * profiler the verify benchmarks should report zero bytes per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HmacSignerBenchmark {
+
+  private static final String TABLE = "TBL_7f3k2m9q";
+  private static final long TS = 1_773_500_000L;
+
+  private HmacSigner signer;
+  private HmacSigner rotated;
+  private byte[] secret;
+  private String sig;
+
+  @Setup
+  public void setup() {
+    signer = new HmacSigner("bench_qr_hmac_secret", null);
+    // Signed with the old key, so verification falls through to the previous one.
+    rotated = new HmacSigner("bench_qr_hmac_secret_next", "bench_qr_hmac_secret");
+    secret = "bench_qr_hmac_secret".getBytes(StandardCharsets.UTF_8);
+    sig = signer.sign(signer.payload().append(TABLE).append('|').append(TS));
+  }
+
+  @Benchmark
+  public boolean verify() {
+    return signer.verify(signer.payload().append(TABLE).append('|').append(TS), sig);
+  }
+
+  @Benchmark
+  public boolean verifyPreviousKey() {
+    return rotated.verify(rotated.payload().append(TABLE).append('|').append(TS), sig);
+  }
+
+  @Benchmark
+  public String sign() {
+    return signer.sign(signer.payload().append(TABLE).append('|').append(TS));
+  }
+
+  @Benchmark
+  public boolean verifyPerCallMac() throws Exception {
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+    byte[] raw = mac.doFinal((TABLE + "|" + TS).getBytes(StandardCharsets.UTF_8));
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(raw).equals(sig);
+  }
+}
@@ -0,0 +1,376 @@
+package md.virtualwaiter.load;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import md.virtualwaiter.service.BranchSettingsService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/**
+ * Dinner rush against a seeded multi-tenant dataset. Tenants, branches and staff are created through the
+ * super-admin API and each branch is filled by its own admin through the onboarding seed and template
+ * import, so the data has the same shape as a real onboarding. Guests then arrive over the ramp: QR scan,
+ * menu loads, one or two orders, a bill request and, for online payers, the payment and provider webhook,
+ * while every branch's waiter and kitchen poll their queues.
+ *
+ * <p>Sizing comes from system properties ({@code -Pload.tenants=10} on the Gradle command line); the report
+ * is printed and written to {@code build/reports/load/dinner-rush.csv}.
+ */
+@Testcontainers
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@Import(LoadTestConfig.class)
+class DinnerRushLoadTest {
+
+  private static final String WEBHOOK_SECRET = "load_dummy_webhook_secret";
+  private static final String PASSWORD = "load123";
+
+  private static final int TENANTS = intProp("tenants", 3);
+  private static final int BRANCHES_PER_TENANT = intProp("branchesPerTenant", 2);
+  private static final int TABLES_PER_BRANCH = intProp("tablesPerBranch", 20);
+  private static final int MENU_ITEMS = intProp("menuItems", 40);
+  private static final int GUESTS_PER_TABLE = intProp("guestsPerTable", 3);
+  private static final int RAMP_SECONDS = intProp("rampSeconds", 60);
+  private static final int THINK_MS = intProp("thinkMs", 1500);
+  private static final int CONCURRENCY = intProp("concurrency", 64);
+  private static final int POLL_MS = intProp("pollMs", 2000);
+  private static final int ONLINE_PERCENT = intProp("onlinePercent", 50);
+  private static final int DB_POOL = intProp("dbPool", 20);
+
+  @Container
+  static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16")
+    .withDatabaseName("vw")
+    .withUsername("vw")
+    .withPassword("vw");
+
+  @DynamicPropertySource
+  static void props(DynamicPropertyRegistry registry) {
+    if (!POSTGRES.isRunning()) {
+      POSTGRES.start();
+    }
+    registry.add("spring.datasource.url", POSTGRES::getJdbcUrl);
+    registry.add("spring.datasource.username", POSTGRES::getUsername);
+    registry.add("spring.datasource.password", POSTGRES::getPassword);
+    registry.add("spring.datasource.hikari.maximum-pool-size", () -> DB_POOL);
+    registry.add("app.qr.hmacSecret", () -> "load_qr_hmac_secret");
+    registry.add("app.auth.cookieSecret", () -> "load_auth_cookie_secret");
+    registry.add("app.payments.dummy.webhookSecret", () -> WEBHOOK_SECRET);
+    // Every simulated guest shares one client address; per-IP limits would turn the rush into 429s.
+    for (String limit : List.of("otp", "otpVerify", "order", "party", "waiterCall", "sessionStart", "menu", "chat")) {
+      registry.add("app.rateLimit." + limit + ".maxRequests", () -> 1_000_000);
+    }
+  }
+
+  private record Table(String publicId, String sig, long ts) {}
+
+  private record Branch(long id, String waiterCookie, String kitchenCookie, List<Table> tables) {}
+
+  @LocalServerPort
+  int port;
+
+  @Autowired
+  JdbcTemplate jdbc;
+
+  @Autowired
+  BranchSettingsService branchSettingsService;
+
+  @Test
+  void dinnerRush() throws Exception {
+    ExecutorService httpPool = Executors.newCachedThreadPool();
+    LoadClient client = new LoadClient(port, httpPool);
+    LoadStats stats = LoadStats.INSTANCE;
+    try {
+      long seedStart = System.nanoTime();
+      List<Branch> branches = seed(client);
+      System.out.printf("Seeded %d branches, %d tables in %.1fs%n", branches.size(),
+        branches.stream().mapToInt(b -> b.tables().size()).sum(), (System.nanoTime() - seedStart) / 1e9);
+
+      stats.reset();
+      stats.recording = true;
+      int guests = rush(client, branches);
+      stats.recording = false;
+
+      List<LoadStats.Row> rows = stats.rows();
+      System.out.println(stats.table(rows));
+      Path dir = Path.of(System.getProperty("vw.load.reportDir", "build/reports/load"));
+      Files.createDirectories(dir);
+      try (Writer w = Files.newBufferedWriter(dir.resolve("dinner-rush.csv"), StandardCharsets.UTF_8)) {
+        stats.writeCsv(rows, w);
+      }
+
+      assertThat(guests).isEqualTo(branches.size() * TABLES_PER_BRANCH * GUESTS_PER_TABLE);
+      assertThat(rows).allSatisfy(r -> assertThat(r.serverErrors()).as(r.endpoint()).isZero());
+    } finally {
+      httpPool.shutdownNow();
+    }
+  }
+
+  private List<Branch> seed(LoadClient client) throws Exception {
+    String superCookie = client.login("superadmin", "demo123");
+    Map<String, String> superAuth = Map.of("Cookie", superCookie);
+    Map<String, Object> template = menuTemplate();
+    List<Branch> out = new ArrayList<>();
+    for (int t = 1; t <= TENANTS; t++) {
+      long tenantId = id(ok(client.post("seed", "/api/super/tenants", Map.of("name", "Load tenant " + t), superAuth)).json());
+      ok(client.post("seed", "/api/super/tenants/" + tenantId + "/restaurants", Map.of("name", "Load restaurant " + t), superAuth));
+      for (int b = 1; b <= BRANCHES_PER_TENANT; b++) {
+        long branchId = id(ok(client.post("seed", "/api/super/tenants/" + tenantId + "/branches",
+          Map.of("name", "Load branch " + t + "-" + b), superAuth)).json());
+        for (String role : List.of("ADMIN", "WAITER", "KITCHEN")) {
+          ok(client.post("seed", "/api/super/staff", Map.of(
+            "branchId", branchId,
+            "username", username(role, branchId),
+            "password", PASSWORD,
+            "role", role
+          ), superAuth));
+        }
+        Map<String, String> adminAuth = Map.of("Cookie", client.login(username("ADMIN", branchId), PASSWORD));
+        ok(client.post("seed", "/api/admin/onboarding/seed", Map.of(), adminAuth));
+        ok(client.post("seed", "/api/admin/onboarding/template/import", template, adminAuth));
+        // The admin API only accepts real PSPs with full credentials; the dummy provider is switched on directly.
+        jdbc.update(
+          "update branch_settings set online_pay_enabled = true, online_pay_provider = 'DUMMY', " +
+            "online_pay_currency_code = 'MDL' where branch_id = ?",
+          branchId
+        );
+        branchSettingsService.invalidate(branchId);
+
+        List<Table> tables = new ArrayList<>();
+        for (Map<String, Object> row : ok(client.get("seed", "/api/admin/tables", adminAuth)).jsonList()) {
+          String publicId = row.get("publicId").toString();
+          Map<String, Object> signed = ok(client.get("seed", "/api/admin/tables/" + publicId + "/signed-url", adminAuth)).json();
+          tables.add(new Table(publicId, signed.get("sig").toString(), ((Number) signed.get("ts")).longValue()));
+          if (tables.size() == TABLES_PER_BRANCH) break;
+        }
+        out.add(new Branch(
+          branchId,
+          client.login(username("WAITER", branchId), PASSWORD),
+          client.login(username("KITCHEN", branchId), PASSWORD),
+          tables
+        ));
+      }
+    }
+    return out;
+  }
+
+  private int rush(LoadClient client, List<Branch> branches) throws InterruptedException {
+    ExecutorService guestPool = Executors.newFixedThreadPool(CONCURRENCY);
+    ScheduledExecutorService clock = Executors.newScheduledThreadPool(4);
+    List<Map.Entry<Branch, Table>> seats = new ArrayList<>();
+    for (Branch b : branches) {
+      for (Table t : b.tables()) {
+        for (int g = 0; g < GUESTS_PER_TABLE; g++) seats.add(Map.entry(b, t));
+      }
+    }
+    CountDownLatch done = new CountDownLatch(seats.size());
+    AtomicInteger completed = new AtomicInteger();
+    ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+    try {
+      for (Branch b : branches) {
+        clock.scheduleWithFixedDelay(() -> poll(client, "GET /api/staff/orders/active", "/api/staff/orders/active", b.waiterCookie()),
+          0, POLL_MS, TimeUnit.MILLISECONDS);
+        clock.scheduleWithFixedDelay(() -> poll(client, "GET /api/staff/orders/kitchen", "/api/staff/orders/kitchen", b.kitchenCookie()),
+          POLL_MS / 2, POLL_MS, TimeUnit.MILLISECONDS);
+      }
+      for (Map.Entry<Branch, Table> seat : seats) {
+        long arrivalMs = ThreadLocalRandom.current().nextLong(Math.max(1, RAMP_SECONDS * 1000L));
+        clock.schedule(() -> guestPool.execute(() -> {
+          try {
+            guest(client, seat.getValue());
+            completed.incrementAndGet();
+          } catch (Exception e) {
+            failures.add(e.toString());
+          } finally {
+            done.countDown();
+          }
+        }), arrivalMs, TimeUnit.MILLISECONDS);
+      }
+      boolean finished = done.await(RAMP_SECONDS + 600L, TimeUnit.SECONDS);
+      assertThat(finished).as("guests finished").isTrue();
+    } finally {
+      clock.shutdownNow();
+      guestPool.shutdownNow();
+    }
+    failures.stream().limit(10).forEach(f -> System.out.println("Guest failed: " + f));
+    return completed.get();
+  }
+
+  private void guest(LoadClient client, Table table) throws Exception {
+    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+    Map<String, Object> session = ok(client.post("POST /api/public/session/start", "/api/public/session/start", Map.of(
+      "tablePublicId", table.publicId(),
+      "sig", table.sig(),
+      "ts", table.ts(),
+      "locale", rnd.nextBoolean() ? "ru" : "ro"
+    ), null)).json();
+    long sessionId = ((Number) session.get("guestSessionId")).longValue();
+    Map<String, String> guestAuth = Map.of("X-Session-Secret", session.get("sessionSecret").toString());
+
+    String menuPath = "/api/public/menu?tablePublicId=" + table.publicId() + "&sig=" + table.sig() + "&ts=" + table.ts() + "&locale=ru";
+    List<Long> itemIds = menuItemIds(ok(client.get("GET /api/public/menu", menuPath, null)).json());
+    think(rnd);
+    ok(client.get("GET /api/public/menu", menuPath, null));
+
+    int orders = rnd.nextInt(100) < 40 ? 2 : 1;
+    for (int o = 0; o < orders; o++) {
+      List<Map<String, Object>> lines = new ArrayList<>();
+      int count = 1 + rnd.nextInt(3);
+      for (int i = 0; i < count; i++) {
+        lines.add(Map.of("menuItemId", itemIds.get(rnd.nextInt(itemIds.size())), "qty", 1 + rnd.nextInt(2)));
+      }
+      ok(client.post("POST /api/public/orders", "/api/public/orders",
+        Map.of("guestSessionId", sessionId, "items", lines), guestAuth));
+      think(rnd);
+    }
+
+    boolean online = rnd.nextInt(100) < ONLINE_PERCENT;
+    Map<String, Object> bill = ok(client.post("POST /api/public/bill-request/create", "/api/public/bill-request/create", Map.of(
+      "guestSessionId", sessionId,
+      "mode", "MY",
+      "paymentMethod", online ? "ONLINE" : "CASH"
+    ), guestAuth)).json();
+    if (!online) return;
+
+    long billRequestId = ((Number) bill.get("billRequestId")).longValue();
+    Map<String, Object> payment = ok(client.post("POST /api/public/payments/create", "/api/public/payments/create", Map.of(
+      "guestSessionId", sessionId,
+      "billRequestId", billRequestId,
+      "provider", "DUMMY"
+    ), guestAuth)).json();
+    think(rnd);
+    // Plays the provider: its reference is not exposed to the guest, so it is read back from the database.
+    Map<String, Object> intent = jdbc.queryForMap(
+      "select provider_ref, amount_cents from payment_intents where id = ?",
+      ((Number) payment.get("intentId")).longValue()
+    );
+    String body = LoadClient.MAPPER.writeValueAsString(Map.of(
+      "providerRef", intent.get("provider_ref"),
+      "status", "PAID",
+      "amountCents", intent.get("amount_cents"),
+      "currencyCode", "MDL"
+    ));
+    Map<String, String> signature = Map.of("X-Signature", hmacHex(body));
+    ok(client.post("POST /api/public/payments/webhook/{provider}", "/api/public/payments/webhook/DUMMY", body, signature));
+    // Providers retry until acknowledged; some copies arrive twice.
+    if (rnd.nextInt(100) < 10) {
+      ok(client.post("POST /api/public/payments/webhook/{provider}", "/api/public/payments/webhook/DUMMY", body, signature));
+    }
+  }
+
+  private static void poll(LoadClient client, String route, String path, String cookie) {
+    try {
+      client.get(route, path, Map.of("Cookie", cookie));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      System.out.println("Poll failed: " + route + ": " + e);
+    }
+  }
+
+  private static void think(ThreadLocalRandom rnd) throws InterruptedException {
+    if (THINK_MS > 0) Thread.sleep(rnd.nextInt(THINK_MS));
+  }
+
+  private static Map<String, Object> menuTemplate() {
+    String[] categories = {"Закуски", "Супы", "Горячее", "Десерты", "Напитки"};
+    List<Map<String, Object>> cats = new ArrayList<>();
+    for (int i = 0; i < categories.length; i++) {
+      cats.add(Map.of("nameRu", categories[i], "nameRo", "Categoria " + (i + 1), "nameEn", "Category " + (i + 1),
+        "sortOrder", i, "isActive", true));
+    }
+    List<Map<String, Object>> items = new ArrayList<>();
+    for (int i = 1; i <= MENU_ITEMS; i++) {
+      Map<String, Object> it = new HashMap<>();
+      it.put("categoryNameRu", categories[i % categories.length]);
+      it.put("nameRu", "Блюдо " + i);
+      it.put("nameRo", "Fel " + i);
+      it.put("nameEn", "Dish " + i);
+      it.put("descriptionRu", "Описание блюда " + i);
+      it.put("priceCents", 2500 + (i * 370) % 15000);
+      it.put("currency", "MDL");
+      it.put("isActive", true);
+      items.add(it);
+    }
+    List<Map<String, Object>> tables = new ArrayList<>();
+    for (int i = 1; i <= TABLES_PER_BRANCH; i++) tables.add(Map.of("number", i));
+    return Map.of(
+      "tables", tables,
+      "categories", cats,
+      "items", items,
+      "settings", Map.of("currencyCode", "MDL", "payCashEnabled", true, "onlinePayEnabled", true)
+    );
+  }
+
+  private static List<Long> menuItemIds(Map<String, Object> menu) {
+    List<Long> ids = new ArrayList<>();
+    if (menu.get("categories") instanceof List<?> cats) {
+      for (Object c : cats) {
+        if (!(c instanceof Map<?, ?> cat) || !(cat.get("items") instanceof List<?> items)) continue;
+        for (Object o : items) {
+          if (o instanceof Map<?, ?> item && !Boolean.TRUE.equals(item.get("isStopList")) && item.get("id") instanceof Number n) {
+            ids.add(n.longValue());
+          }
+        }
+      }
+    }
+    assertThat(ids).as("menu items").isNotEmpty();
+    return ids;
+  }
+
+  private static LoadClient.Response ok(LoadClient.Response res) {
+    if (res.status() != 200) {
+      throw new IllegalStateException("HTTP " + res.status() + ": " + res.body());
+    }
+    return res;
+  }
+
+  private static long id(Map<String, Object> json) {
+    return ((Number) json.get("id")).longValue();
+  }
+
+  private static String username(String role, long branchId) {
+    return "load_" + role.toLowerCase(java.util.Locale.ROOT) + "_" + branchId;
+  }
+
+  private static String hmacHex(String body) throws Exception {
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(WEBHOOK_SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+    StringBuilder sb = new StringBuilder();
+    for (byte b : mac.doFinal(body.getBytes(StandardCharsets.UTF_8))) sb.append(String.format("%02x", b));
+    return sb.toString();
+  }
+
+  private static int intProp(String name, int def) {
+    return Integer.getInteger("vw.load." + name, def);
+  }
+}
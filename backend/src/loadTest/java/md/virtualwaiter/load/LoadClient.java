@@ -0,0 +1,88 @@
+package md.virtualwaiter.load;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/** Thin JSON client that times every call and files it under the endpoint's route pattern. */
+final class LoadClient {
+
+  record Response(int status, String body) {
+    Map<String, Object> json() throws IOException {
+      return MAPPER.readValue(body, new TypeReference<Map<String, Object>>() {});
+    }
+
+    List<Map<String, Object>> jsonList() throws IOException {
+      return MAPPER.readValue(body, new TypeReference<List<Map<String, Object>>>() {});
+    }
+  }
+
+  static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final HttpClient http;
+  private final String baseUrl;
+
+  LoadClient(int port, Executor executor) {
+    this.baseUrl = "http://localhost:" + port;
+    this.http = HttpClient.newBuilder()
+      .executor(executor)
+      .connectTimeout(Duration.ofSeconds(5))
+      .version(HttpClient.Version.HTTP_1_1)
+      .build();
+  }
+
+  Response get(String route, String path, Map<String, String> headers) throws IOException, InterruptedException {
+    return send(route, HttpRequest.newBuilder(URI.create(baseUrl + path)).GET(), headers);
+  }
+
+  Response post(String route, String path, Object payload, Map<String, String> headers)
+    throws IOException, InterruptedException {
+    String body = payload instanceof String s ? s : MAPPER.writeValueAsString(payload);
+    HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(baseUrl + path))
+      .header("Content-Type", "application/json")
+      .POST(HttpRequest.BodyPublishers.ofString(body));
+    return send(route, b, headers);
+  }
+
+  Response put(String route, String path, Object payload, Map<String, String> headers)
+    throws IOException, InterruptedException {
+    HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(baseUrl + path))
+      .header("Content-Type", "application/json")
+      .PUT(HttpRequest.BodyPublishers.ofString(MAPPER.writeValueAsString(payload)));
+    return send(route, b, headers);
+  }
+
+  /** Logs in and returns the auth cookie ("name=value") for later requests. */
+  String login(String username, String password) throws IOException, InterruptedException {
+    HttpRequest req = HttpRequest.newBuilder(URI.create(baseUrl + "/api/auth/login"))
+      .header("Content-Type", "application/json")
+      .POST(HttpRequest.BodyPublishers.ofString(MAPPER.writeValueAsString(Map.of("username", username, "password", password))))
+      .build();
+    HttpResponse<String> res = http.send(req, HttpResponse.BodyHandlers.ofString());
+    if (res.statusCode() != 200) {
+      throw new IllegalStateException("Login failed for " + username + ": " + res.statusCode() + " " + res.body());
+    }
+    String cookie = res.headers().firstValue("Set-Cookie")
+      .orElseThrow(() -> new IllegalStateException("No auth cookie for " + username));
+    return cookie.split(";", 2)[0];
+  }
+
+  private Response send(String route, HttpRequest.Builder b, Map<String, String> headers)
+    throws IOException, InterruptedException {
+    b.timeout(Duration.ofSeconds(30));
+    if (headers != null) headers.forEach(b::header);
+    long start = System.nanoTime();
+    HttpResponse<String> res = http.send(b.build(), HttpResponse.BodyHandlers.ofString());
+    LoadStats.INSTANCE.latency(route, System.nanoTime() - start, res.statusCode());
+    return new Response(res.statusCode(), res.body());
+  }
+}
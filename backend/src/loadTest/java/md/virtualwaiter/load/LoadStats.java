@@ -0,0 +1,142 @@
+package md.virtualwaiter.load;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import md.virtualwaiter.util.CsvWriter;
+
+/**
+ * Samples per endpoint ("METHOD /pattern"): client-side latency from {@link LoadClient} and the number of
+ * JDBC statements the server ran for the request, from {@link StatementCounter}. Only collected while
+ * {@link #recording} is on, so seeding does not show up in the report.
+ */
+final class LoadStats {
+
+  static final LoadStats INSTANCE = new LoadStats();
+
+  private static final class Samples {
+    final List<Long> latencyNanos = new ArrayList<>();
+    final List<Integer> statements = new ArrayList<>();
+    int clientErrors;
+    int serverErrors;
+  }
+
+  record Row(
+    String endpoint,
+    int requests,
+    int clientErrors,
+    int serverErrors,
+    double p50Ms,
+    double p95Ms,
+    double p99Ms,
+    double maxMs,
+    double avgStatements,
+    int p95Statements,
+    int maxStatements
+  ) {}
+
+  private final Map<String, Samples> byEndpoint = new ConcurrentHashMap<>();
+  volatile boolean recording;
+
+  private LoadStats() {}
+
+  void latency(String endpoint, long nanos, int status) {
+    if (!recording) return;
+    Samples s = byEndpoint.computeIfAbsent(endpoint, k -> new Samples());
+    synchronized (s) {
+      s.latencyNanos.add(nanos);
+      if (status >= 500) {
+        s.serverErrors++;
+      } else if (status >= 400) {
+        s.clientErrors++;
+      }
+    }
+  }
+
+  void statements(String endpoint, int count) {
+    if (!recording) return;
+    Samples s = byEndpoint.computeIfAbsent(endpoint, k -> new Samples());
+    synchronized (s) {
+      s.statements.add(count);
+    }
+  }
+
+  void reset() {
+    byEndpoint.clear();
+  }
+
+  List<Row> rows() {
+    List<Row> out = new ArrayList<>();
+    for (Map.Entry<String, Samples> e : new TreeMap<>(byEndpoint).entrySet()) {
+      Samples s = e.getValue();
+      long[] lat;
+      int[] st;
+      int clientErrors;
+      int serverErrors;
+      synchronized (s) {
+        lat = s.latencyNanos.stream().mapToLong(Long::longValue).sorted().toArray();
+        st = s.statements.stream().mapToInt(Integer::intValue).sorted().toArray();
+        clientErrors = s.clientErrors;
+        serverErrors = s.serverErrors;
+      }
+      if (lat.length == 0) continue;
+      out.add(new Row(
+        e.getKey(),
+        lat.length,
+        clientErrors,
+        serverErrors,
+        percentile(lat, 50) / 1e6,
+        percentile(lat, 95) / 1e6,
+        percentile(lat, 99) / 1e6,
+        lat[lat.length - 1] / 1e6,
+        st.length == 0 ? 0 : Arrays.stream(st).average().orElse(0),
+        st.length == 0 ? 0 : st[index(st.length, 95)],
+        st.length == 0 ? 0 : st[st.length - 1]
+      ));
+    }
+    return out;
+  }
+
+  String table(List<Row> rows) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%-58s %7s %5s %5s %9s %9s %9s %9s %8s %7s%n",
+      "endpoint", "n", "4xx", "5xx", "p50 ms", "p95 ms", "p99 ms", "max ms", "stmt avg", "stmt95"));
+    for (Row r : rows) {
+      sb.append(String.format("%-58s %7d %5d %5d %9.1f %9.1f %9.1f %9.1f %8.1f %7d%n",
+        r.endpoint(), r.requests(), r.clientErrors(), r.serverErrors(),
+        r.p50Ms(), r.p95Ms(), r.p99Ms(), r.maxMs(), r.avgStatements(), r.p95Statements()));
+    }
+    return sb.toString();
+  }
+
+  void writeCsv(List<Row> rows, Writer w) throws IOException {
+    CsvWriter csv = new CsvWriter(w);
+    csv.row("endpoint", "requests", "client_errors", "server_errors", "p50_ms", "p95_ms", "p99_ms", "max_ms",
+      "avg_statements", "p95_statements", "max_statements");
+    for (Row r : rows) {
+      csv.row(r.endpoint(), r.requests(), r.clientErrors(), r.serverErrors(),
+        fmt(r.p50Ms()), fmt(r.p95Ms()), fmt(r.p99Ms()), fmt(r.maxMs()),
+        fmt(r.avgStatements()), r.p95Statements(), r.maxStatements());
+    }
+    csv.flush();
+  }
+
+  private static String fmt(double v) {
+    return String.format(java.util.Locale.ROOT, "%.2f", v);
+  }
+
+  private static long percentile(long[] sorted, int p) {
+    return sorted[index(sorted.length, p)];
+  }
+
+  // Nearest-rank percentile.
+  private static int index(int n, int p) {
+    return Math.max(0, Math.min(n - 1, (int) Math.ceil(p / 100.0 * n) - 1));
+  }
+}
@@ -0,0 +1,55 @@
+package md.virtualwaiter.load;
+
+import java.io.IOException;
+
+import javax.sql.DataSource;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.Ordered;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+/** Wires statement counting into the application under load: a counting DataSource and a per-request filter. */
+@TestConfiguration
+class LoadTestConfig {
+
+  @Bean
+  static BeanPostProcessor countingDataSource() {
+    return new BeanPostProcessor() {
+      @Override
+      public Object postProcessAfterInitialization(Object bean, String beanName) {
+        return bean instanceof DataSource ds ? StatementCounter.wrap(ds) : bean;
+      }
+    };
+  }
+
+  @Bean
+  FilterRegistrationBean<OncePerRequestFilter> statementsPerRequest() {
+    OncePerRequestFilter filter = new OncePerRequestFilter() {
+      @Override
+      protected void doFilterInternal(HttpServletRequest req, HttpServletResponse res, FilterChain chain)
+        throws ServletException, IOException {
+        StatementCounter.begin();
+        try {
+          chain.doFilter(req, res);
+        } finally {
+          int count = StatementCounter.end();
+          Object pattern = req.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+          LoadStats.INSTANCE.statements(req.getMethod() + " " + (pattern == null ? req.getRequestURI() : pattern), count);
+        }
+      }
+    };
+    FilterRegistrationBean<OncePerRequestFilter> reg = new FilterRegistrationBean<>(filter);
+    // Outermost, so authentication lookups made by the security filters are counted too.
+    reg.setOrder(Ordered.HIGHEST_PRECEDENCE);
+    return reg;
+  }
+}
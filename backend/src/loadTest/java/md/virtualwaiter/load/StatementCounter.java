@@ -0,0 +1,90 @@
+package md.virtualwaiter.load;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * Counts JDBC statement executions (one per execute/executeQuery/executeUpdate/executeBatch call, i.e. per
+ * round trip) on the current request thread. Work handed to other threads, such as the audit flusher or the
+ * webhook inbox workers, is not attributed to the request.
+ */
+final class StatementCounter {
+
+  private static final ThreadLocal<int[]> CURRENT = new ThreadLocal<>();
+
+  private StatementCounter() {}
+
+  static void begin() {
+    CURRENT.set(new int[1]);
+  }
+
+  static int end() {
+    int[] c = CURRENT.get();
+    CURRENT.remove();
+    return c == null ? 0 : c[0];
+  }
+
+  static DataSource wrap(DataSource target) {
+    return new DelegatingDataSource(target) {
+      @Override
+      public Connection getConnection() throws SQLException {
+        return proxy(Connection.class, super.getConnection());
+      }
+
+      @Override
+      public Connection getConnection(String username, String password) throws SQLException {
+        return proxy(Connection.class, super.getConnection(username, password));
+      }
+    };
+  }
+
+  private static <T> T proxy(Class<T> type, T target) {
+    InvocationHandler h = (p, m, args) -> {
+      if (isIdentityMethod(m)) return identity(p, m, args);
+      Object result = invoke(target, m, args);
+      if (result instanceof Statement st && m.getReturnType().isInterface() && Statement.class.isAssignableFrom(m.getReturnType())) {
+        return statementProxy(m.getReturnType(), st);
+      }
+      return result;
+    };
+    return type.cast(Proxy.newProxyInstance(StatementCounter.class.getClassLoader(), new Class<?>[] {type}, h));
+  }
+
+  private static Object statementProxy(Class<?> type, Statement target) {
+    InvocationHandler h = (p, m, args) -> {
+      if (isIdentityMethod(m)) return identity(p, m, args);
+      if (m.getName().startsWith("execute")) {
+        int[] c = CURRENT.get();
+        if (c != null) c[0]++;
+      }
+      return invoke(target, m, args);
+    };
+    return Proxy.newProxyInstance(StatementCounter.class.getClassLoader(), new Class<?>[] {type}, h);
+  }
+
+  // Pooling and transaction code compare connections, so a proxy must equal only itself.
+  private static boolean isIdentityMethod(Method m) {
+    return m.getDeclaringClass() == Object.class && !m.getName().equals("toString");
+  }
+
+  private static Object identity(Object proxy, Method m, Object[] args) {
+    return m.getName().equals("equals") ? (Object) (proxy == args[0]) : (Object) System.identityHashCode(proxy);
+  }
+
+  private static Object invoke(Object target, Method m, Object[] args) throws Throwable {
+    try {
+      return m.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+}
@@ -9,7 +9,6 @@ import md.virtualwaiter.domain.BranchHall;
 import md.virtualwaiter.domain.BranchReview;
 import md.virtualwaiter.domain.BranchSettings;
 import md.virtualwaiter.domain.CafeTable;
-import md.virtualwaiter.domain.ChatMessage;
 import md.virtualwaiter.domain.GuestSession;
 import md.virtualwaiter.domain.HallPlan;
 import md.virtualwaiter.domain.HallPlanTemplate;
@@ -78,22 +77,25 @@ import md.virtualwaiter.repo.OrderRepo;
 import md.virtualwaiter.security.QrSignatureService;
 import md.virtualwaiter.service.BranchSettingsService;
 import md.virtualwaiter.security.AuthzService;
+import md.virtualwaiter.security.PrincipalContextService;
 import md.virtualwaiter.security.Permission;
 import md.virtualwaiter.security.PermissionUtils;
 import md.virtualwaiter.security.RolePermissions;
 import md.virtualwaiter.security.TotpService;
 import md.virtualwaiter.service.StatsService;
+import md.virtualwaiter.service.CsvExportService;
 import md.virtualwaiter.service.AuditService;
 import md.virtualwaiter.service.LoyaltyService;
+import md.virtualwaiter.service.InventoryService;
+import md.virtualwaiter.service.MenuSnapshotService;
+import md.virtualwaiter.service.SlaAlertService;
 import md.virtualwaiter.service.GuestConsentService;
 import md.virtualwaiter.service.GuestFlagService;
 import md.virtualwaiter.service.GuestProfileService;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.security.core.Authentication;
@@ -109,6 +111,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.transaction.annotation.Transactional;
 import jakarta.servlet.http.HttpServletRequest;
@@ -176,6 +179,8 @@ public class AdminController {
   private final PasswordEncoder passwordEncoder;
   private final String publicBaseUrl;
   private final StatsService statsService;
+  private final CsvExportService csvExportService;
+  private final PrincipalContextService principalContext;
   private final ModifierGroupRepo modifierGroupRepo;
   private final ModifierOptionRepo modifierOptionRepo;
   private final MenuItemModifierGroupRepo menuItemModifierGroupRepo;
@@ -194,6 +199,9 @@ public class AdminController {
   private final GuestProfileService guestProfileService;
   private final GuestConsentService guestConsentService;
   private final GuestFlagService guestFlagService;
+  private final MenuSnapshotService menuSnapshotService;
+  private final SlaAlertService slaAlertService;
+  private final InventoryService inventoryService;
   private final int maxPhotoUrlLength;
   private final int maxPhotoUrlsCount;
   private final Set<String> allowedPhotoExts;
@@ -234,6 +242,8 @@ public class AdminController {
     PasswordEncoder passwordEncoder,
     @Value("${app.publicBaseUrl:http://localhost:3000}") String publicBaseUrl,
     StatsService statsService,
+    CsvExportService csvExportService,
+    PrincipalContextService principalContext,
     ModifierGroupRepo modifierGroupRepo,
     ModifierOptionRepo modifierOptionRepo,
     MenuItemModifierGroupRepo menuItemModifierGroupRepo,
@@ -252,6 +262,9 @@ public class AdminController {
     GuestProfileService guestProfileService,
     GuestConsentService guestConsentService,
     GuestFlagService guestFlagService,
+    MenuSnapshotService menuSnapshotService,
+    SlaAlertService slaAlertService,
+    InventoryService inventoryService,
     @Value("${app.media.maxPhotoUrlLength:512}") int maxPhotoUrlLength,
     @Value("${app.media.maxPhotoUrlsCount:6}") int maxPhotoUrlsCount,
     @Value("${app.media.allowedPhotoExts:jpg,jpeg,png,webp,gif}") String allowedPhotoExts,
@@ -291,6 +304,8 @@ public class AdminController {
     this.passwordEncoder = passwordEncoder;
     this.publicBaseUrl = publicBaseUrl;
     this.statsService = statsService;
+    this.csvExportService = csvExportService;
+    this.principalContext = principalContext;
     this.modifierGroupRepo = modifierGroupRepo;
     this.modifierOptionRepo = modifierOptionRepo;
     this.menuItemModifierGroupRepo = menuItemModifierGroupRepo;
@@ -309,6 +324,9 @@ public class AdminController {
     this.guestProfileService = guestProfileService;
     this.guestConsentService = guestConsentService;
     this.guestFlagService = guestFlagService;
+    this.menuSnapshotService = menuSnapshotService;
+    this.slaAlertService = slaAlertService;
+    this.inventoryService = inventoryService;
     this.maxPhotoUrlLength = maxPhotoUrlLength;
     this.maxPhotoUrlsCount = maxPhotoUrlsCount;
     this.allowedPhotoExts = parseExts(allowedPhotoExts);
@@ -531,7 +549,7 @@ public class AdminController {
     u.totpEnabled = false;
     staffUserRepo.save(u);
     String otpauth = totpService.buildOtpauthUrl(u.username, "VirtualWaiter", secret);
-    auditService.log(u, "UPDATE", "StaffUser2FA", u.id, "setup");
+    auditService.logDurable(u, "UPDATE", "StaffUser2FA", u.id, "setup");
     return new TotpSetupResponse(secret, otpauth, false);
   }
 
@@ -547,7 +565,7 @@ public class AdminController {
     }
     u.totpEnabled = true;
     staffUserRepo.save(u);
-    auditService.log(u, "UPDATE", "StaffUser2FA", u.id, "enable");
+    auditService.logDurable(u, "UPDATE", "StaffUser2FA", u.id, "enable");
     return new TotpStatusResponse(true, true);
   }
 
@@ -564,7 +582,7 @@ public class AdminController {
     u.totpEnabled = false;
     u.totpSecret = null;
     staffUserRepo.save(u);
-    auditService.log(u, "UPDATE", "StaffUser2FA", u.id, "disable");
+    auditService.logDurable(u, "UPDATE", "StaffUser2FA", u.id, "disable");
     return new TotpStatusResponse(false, false);
   }
 
@@ -1154,7 +1172,11 @@ public class AdminController {
     int commissionOrderPercent,
     int commissionOrderFixedCents,
     String adminIpAllowlist,
-    String adminIpDenylist
+    String adminIpDenylist,
+    Integer slaOrderCritMin,
+    Integer slaKitchenCritMin,
+    Integer slaCallCritMin,
+    Integer slaBillCritMin
   ) {}
 
   @GetMapping("/branch-settings")
@@ -1203,7 +1225,11 @@ public class AdminController {
       s.commissionOrderPercent(),
       s.commissionOrderFixedCents(),
       s.adminIpAllowlist(),
-      s.adminIpDenylist()
+      s.adminIpDenylist(),
+      s.slaOrderCritMin(),
+      s.slaKitchenCritMin(),
+      s.slaCallCritMin(),
+      s.slaBillCritMin()
     );
   }
 
@@ -1246,7 +1272,11 @@ public class AdminController {
     Integer commissionOrderPercent,
     Integer commissionOrderFixedCents,
     String adminIpAllowlist,
-    String adminIpDenylist
+    String adminIpDenylist,
+    Integer slaOrderCritMin,
+    Integer slaKitchenCritMin,
+    Integer slaCallCritMin,
+    Integer slaBillCritMin
   ) {}
 
   @PutMapping("/branch-settings")
@@ -1356,6 +1386,11 @@ public class AdminController {
     }
     if (req.adminIpAllowlist != null) s.adminIpAllowlist = req.adminIpAllowlist;
     if (req.adminIpDenylist != null) s.adminIpDenylist = req.adminIpDenylist;
+    // 0 clears the branch override and falls back to the global threshold.
+    if (req.slaOrderCritMin != null) s.slaOrderCritMin = slaMinutesOrNull(req.slaOrderCritMin);
+    if (req.slaKitchenCritMin != null) s.slaKitchenCritMin = slaMinutesOrNull(req.slaKitchenCritMin);
+    if (req.slaCallCritMin != null) s.slaCallCritMin = slaMinutesOrNull(req.slaCallCritMin);
+    if (req.slaBillCritMin != null) s.slaBillCritMin = slaMinutesOrNull(req.slaBillCritMin);
 
     if (Boolean.TRUE.equals(s.onlinePayEnabled) && (s.onlinePayProvider == null || s.onlinePayProvider.isBlank())) {
       throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Online payment provider required");
@@ -1374,6 +1409,7 @@ public class AdminController {
     }
 
     settingsRepo.save(s);
+    settingsService.invalidate(s.branchId);
     List<String> changed = new ArrayList<>();
     if (req.requireOtpForFirstOrder != null) changed.add("requireOtpForFirstOrder");
     if (req.otpTtlSeconds != null) changed.add("otpTtlSeconds");
@@ -1414,6 +1450,13 @@ public class AdminController {
     if (req.commissionOrderFixedCents != null) changed.add("commissionOrderFixedCents");
     if (req.adminIpAllowlist != null) changed.add("adminIpAllowlist");
     if (req.adminIpDenylist != null) changed.add("adminIpDenylist");
+    if (req.slaOrderCritMin != null) changed.add("slaOrderCritMin");
+    if (req.slaKitchenCritMin != null) changed.add("slaKitchenCritMin");
+    if (req.slaCallCritMin != null) changed.add("slaCallCritMin");
+    if (req.slaBillCritMin != null) changed.add("slaBillCritMin");
+    if (req.slaOrderCritMin != null || req.slaKitchenCritMin != null || req.slaCallCritMin != null || req.slaBillCritMin != null) {
+      slaAlertService.thresholdsChanged(bid);
+    }
     if (!changed.isEmpty()) {
       auditService.log(u, "UPDATE", "BranchSettings", bid, toJsonSafe(Map.of("fields", changed)));
     }
@@ -1427,6 +1470,7 @@ public class AdminController {
           List<Long> catIds = cats.stream().map(c -> c.id).toList();
           itemRepo.updateCurrencyByCategoryIds(nextCurrency, catIds);
         }
+        menuSnapshotService.invalidateTenant(b.tenantId);
       }
     }
     BranchSettingsService.Resolved r = settingsService.resolveForBranch(bid);
@@ -1470,7 +1514,11 @@ public class AdminController {
       r.commissionOrderPercent(),
       r.commissionOrderFixedCents(),
       r.adminIpAllowlist(),
-      r.adminIpDenylist()
+      r.adminIpDenylist(),
+      r.slaOrderCritMin(),
+      r.slaKitchenCritMin(),
+      r.slaCallCritMin(),
+      r.slaBillCritMin()
     );
   }
 
@@ -1620,8 +1668,10 @@ public class AdminController {
         s.payCashEnabled = true;
       }
       settingsRepo.save(s);
+      settingsService.invalidate(s.branchId);
     }
 
+    menuSnapshotService.invalidateTenant(b.tenantId);
     auditService.log(u, "ONBOARDING_SEED", "Branch", bid, "demo-seed");
     return buildOnboardingStatus(bid);
   }
@@ -1829,8 +1879,10 @@ public class AdminController {
       if (s.payTerminalEnabled == null && tpl.settings.payTerminalEnabled != null) s.payTerminalEnabled = tpl.settings.payTerminalEnabled;
       if (s.onlinePayEnabled == null && tpl.settings.onlinePayEnabled != null) s.onlinePayEnabled = tpl.settings.onlinePayEnabled;
       settingsRepo.save(s);
+      settingsService.invalidate(s.branchId);
     }
 
+    menuSnapshotService.invalidateTenant(b.tenantId);
     auditService.log(u, "ONBOARDING_IMPORT", "Branch", bid, "template-import");
     AuditLog log = new AuditLog();
     log.branchId = bid;
@@ -1863,6 +1915,7 @@ public class AdminController {
     for (StaffUser su : staff) {
       if ("waiter_demo".equalsIgnoreCase(su.username)) {
         staffUserRepo.delete(su);
+        principalContext.invalidateStaff(su.id);
       }
     }
 
@@ -1898,6 +1951,7 @@ public class AdminController {
       }
     }
 
+    menuSnapshotService.invalidateTenant(b.tenantId);
     auditService.log(u, "ONBOARDING_CLEAR", "Branch", bid, "demo-clear");
     return buildOnboardingStatus(bid);
   }
@@ -2138,6 +2192,7 @@ public class AdminController {
     it.minQty = req.minQty == null ? Double.valueOf(0.0) : req.minQty;
     it.isActive = req.isActive == null || req.isActive;
     inventoryItemRepo.save(it);
+    menuSnapshotService.invalidateBranch(bid);
     return new InventoryItemDto(it.id, it.nameRu, it.nameRo, it.nameEn, it.unit, it.qtyOnHand, it.minQty, it.isActive);
   }
 
@@ -2161,6 +2216,7 @@ public class AdminController {
     if (req.isActive != null) it.isActive = req.isActive;
     it.updatedAt = Instant.now();
     inventoryItemRepo.save(it);
+    menuSnapshotService.invalidateBranch(bid);
     return new InventoryItemDto(it.id, it.nameRu, it.nameRo, it.nameEn, it.unit, it.qtyOnHand, it.minQty, it.isActive);
   }
 
@@ -2175,6 +2231,8 @@ public class AdminController {
     InventoryItem it = inventoryItemRepo.findByIdAndBranchId(id, bid)
       .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Inventory item not found"));
     inventoryItemRepo.delete(it);
+    inventoryService.invalidateRecipe(null);
+    menuSnapshotService.invalidateBranch(bid);
   }
 
   @GetMapping("/menu/items/{id}/ingredients")
@@ -2250,6 +2308,8 @@ public class AdminController {
         out.add(new IngredientView(it.id, it.nameRu, it.nameRo, it.nameEn, it.unit, dto.qtyPerItem));
       }
     }
+    inventoryService.invalidateRecipe(menuItemId);
+    menuSnapshotService.invalidateTenant(b.tenantId);
     return out;
   }
 
@@ -2924,6 +2984,7 @@ public class AdminController {
     }
     b.menuTemplateId = t.id;
     branchRepo.save(b);
+    menuSnapshotService.invalidateTenant(b.tenantId);
     auditService.log(u, "APPLY_TEMPLATE", "Branch", b.id, "templateId=" + t.id);
   }
 
@@ -2967,6 +3028,7 @@ public class AdminController {
     c.sortOrder = req.sortOrder == null ? 0 : req.sortOrder;
     c.isActive = req.isActive == null || req.isActive;
     c = categoryRepo.save(c);
+    menuSnapshotService.invalidateTenant(b.tenantId);
     auditService.log(u, "CREATE", "MenuCategory", c.id, null);
     return new MenuCategoryDto(c.id, c.nameRu, c.nameRo, c.nameEn, c.sortOrder, c.isActive);
   }
@@ -2992,6 +3054,7 @@ public class AdminController {
     if (req.sortOrder != null) c.sortOrder = req.sortOrder;
     if (req.isActive != null) c.isActive = req.isActive;
     c = categoryRepo.save(c);
+    menuSnapshotService.invalidateTenant(b.tenantId);
     auditService.log(u, "UPDATE", "MenuCategory", c.id, null);
     return new MenuCategoryDto(c.id, c.nameRu, c.nameRo, c.nameEn, c.sortOrder, c.isActive);
   }
@@ -3010,6 +3073,7 @@ public class AdminController {
       throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Wrong tenant");
     }
     categoryRepo.delete(c);
+    menuSnapshotService.invalidateTenant(b.tenantId);
     auditService.log(u, "DELETE", "MenuCategory", c.id, null);
   }
 
@@ -3057,6 +3121,7 @@ public class AdminController {
     t.isAllergen = req.isAllergen != null && req.isAllergen;
     t.isActive = req.isActive == null || req.isActive;
     t = menuTagRepo.save(t);
+    menuSnapshotService.invalidateTenant(b.tenantId);
     auditService.log(u, "CREATE", "MenuTag", t.id, null);
     return new MenuTagDto(t.id, t.name, t.slug, t.isAllergen, t.isActive);
   }
@@ -3087,6 +3152,7 @@ public class AdminController {
     if (req.isAllergen != null) t.isAllergen = req.isAllergen;
     if (req.isActive != null) t.isActive = req.isActive;
     t = menuTagRepo.save(t);
+    menuSnapshotService.invalidateTenant(b.tenantId);
     auditService.log(u, "UPDATE", "MenuTag", t.id, null);
     return new MenuTagDto(t.id, t.name, t.slug, t.isAllergen, t.isActive);
   }
@@ -3105,6 +3171,7 @@ public class AdminController {
       throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Wrong tenant");
     }
     menuTagRepo.delete(t);
+    menuSnapshotService.invalidateTenant(b.tenantId);
     auditService.log(u, "DELETE", "MenuTag", t.id, null);
   }
 
@@ -3220,6 +3287,7 @@ public class AdminController {
     c.isActive = req.isActive == null || req.isActive;
     c = comboRepo.save(c);
     auditService.log(u, "CREATE", "Combo", c.id, null);
+    menuSnapshotService.invalidateBranch(c.branchId);
     return new ComboDto(c.id, c.branchId, c.menuItemId, c.isActive);
   }
 
@@ -3254,6 +3322,7 @@ public class AdminController {
     if (req.isActive != null) c.isActive = req.isActive;
     c = comboRepo.save(c);
     auditService.log(u, "UPDATE", "Combo", c.id, null);
+    menuSnapshotService.invalidateBranch(c.branchId);
     return new ComboDto(c.id, c.branchId, c.menuItemId, c.isActive);
   }
 
@@ -3267,6 +3336,7 @@ public class AdminController {
     comboItemRepo.deleteByComboId(c.id);
     comboRepo.delete(c);
     auditService.log(u, "DELETE", "Combo", c.id, null);
+    menuSnapshotService.invalidateBranch(c.branchId);
   }
 
   @GetMapping("/combos/{id}/items")
@@ -3327,6 +3397,7 @@ public class AdminController {
     }
     if (!next.isEmpty()) comboItemRepo.saveAll(next);
     auditService.log(u, "UPDATE_ITEMS", "Combo", c.id, "count=" + next.size());
+    menuSnapshotService.invalidateBranch(c.branchId);
   }
 
   @GetMapping("/menu/items")
@@ -3422,6 +3493,7 @@ public class AdminController {
     if (!links.isEmpty()) {
       menuItemTagRepo.saveAll(links);
     }
+    menuSnapshotService.invalidateTenant(b.tenantId);
     auditService.log(u, "UPDATE_TAGS", "MenuItem", it.id, "tagIds=" + tagIds);
   }
 
@@ -3499,6 +3571,7 @@ public class AdminController {
       menuItemRecommendationRepo.saveAll(recs);
     }
     auditService.log(u, "UPDATE_RECOMMENDATIONS", "MenuItem", it.id, "count=" + recs.size());
+    menuSnapshotService.invalidateTenant(b.tenantId);
   }
 
   @GetMapping("/recommendation-templates")
@@ -3533,6 +3606,7 @@ public class AdminController {
     t.isActive = req.isActive();
     t = branchRecommendationTemplateRepo.save(t);
     auditService.log(u, "CREATE", "RecommendationTemplate", t.id, "branch=" + b.id);
+    menuSnapshotService.invalidateBranch(b.id);
     return new RecommendationTemplateDto(t.id, t.name, t.sortOrder, t.isActive);
   }
 
@@ -3551,6 +3625,7 @@ public class AdminController {
     t.isActive = req.isActive();
     t = branchRecommendationTemplateRepo.save(t);
     auditService.log(u, "UPDATE", "RecommendationTemplate", t.id, "branch=" + b.id);
+    menuSnapshotService.invalidateBranch(b.id);
     return new RecommendationTemplateDto(t.id, t.name, t.sortOrder, t.isActive);
   }
 
@@ -3566,6 +3641,7 @@ public class AdminController {
       .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Template not found"));
     branchRecommendationTemplateRepo.deleteById(t.id);
     auditService.log(u, "DELETE", "RecommendationTemplate", t.id, "branch=" + b.id);
+    menuSnapshotService.invalidateBranch(b.id);
   }
 
   @GetMapping("/recommendation-templates/{id}/items")
@@ -3628,6 +3704,7 @@ public class AdminController {
       branchRecommendationTemplateItemRepo.saveAll(out);
     }
     auditService.log(u, "UPDATE_ITEMS", "RecommendationTemplate", t.id, "items=" + out.size());
+    menuSnapshotService.invalidateBranch(b.id);
   }
 
   @PostMapping("/menu/items")
@@ -3685,6 +3762,7 @@ public class AdminController {
     if (req.isActive != null || req.isStopList != null) {
       upsertMenuItemOverride(b.id, it.id, req.isActive == null || req.isActive, req.isStopList != null && req.isStopList);
     }
+    menuSnapshotService.invalidateTenant(b.tenantId);
     auditService.log(u, "CREATE", "MenuItem", it.id, null);
     BranchMenuItemOverride o = menuItemOverrideRepo.findByBranchIdAndMenuItemId(b.id, it.id).orElse(null);
     return toDto(it, o);
@@ -3840,6 +3918,7 @@ public class AdminController {
     }
 
     it = itemRepo.save(it);
+    menuSnapshotService.invalidateTenant(b.tenantId);
     auditService.log(u, "UPDATE", "MenuItem", it.id, null);
     BranchMenuItemOverride o = menuItemOverrideRepo.findByBranchIdAndMenuItemId(b.id, it.id).orElse(null);
     return toDto(it, o);
@@ -3861,6 +3940,7 @@ public class AdminController {
       throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Wrong tenant");
     }
     itemRepo.delete(it);
+    menuSnapshotService.invalidateTenant(b.tenantId);
     auditService.log(u, "DELETE", "MenuItem", it.id, null);
   }
 
@@ -3963,6 +4043,7 @@ public class AdminController {
     s.isActive = req.isActive == null || req.isActive;
     s.updatedAt = Instant.now();
     s = menuTimeSlotRepo.save(s);
+    menuSnapshotService.invalidateBranch(b.id);
     auditService.log(u, "CREATE", "MenuTimeSlot", s.id, null);
     return toDto(s);
   }
@@ -3993,6 +4074,7 @@ public class AdminController {
     if (req.isActive != null) s.isActive = req.isActive;
     s.updatedAt = Instant.now();
     s = menuTimeSlotRepo.save(s);
+    menuSnapshotService.invalidateBranch(b.id);
     auditService.log(u, "UPDATE", "MenuTimeSlot", s.id, null);
     return toDto(s);
   }
@@ -4015,6 +4097,7 @@ public class AdminController {
       throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Wrong branch");
     }
     menuTimeSlotRepo.delete(s);
+    menuSnapshotService.invalidateBranch(b.id);
     auditService.log(u, "DELETE", "MenuTimeSlot", s.id, null);
   }
 
@@ -4082,6 +4165,7 @@ public class AdminController {
       }
       menuItemTimeSlotRepo.saveAll(links);
     }
+    menuSnapshotService.invalidateBranch(b.id);
     auditService.log(u, "UPDATE", "MenuItemTimeSlots", id, null);
     return new MenuItemTimeSlotsResponse(id, requested);
   }
@@ -4616,7 +4700,7 @@ public class AdminController {
     su.experienceYears = sanitizeExperienceYears(req.experienceYears);
     su.favoriteItems = sanitizeFavoriteItems(req.favoriteItems);
     su = staffUserRepo.save(su);
-    auditService.log(u, "CREATE", "StaffUser", su.id, null);
+    auditService.logDurable(u, "CREATE", "StaffUser", su.id, null);
     return new StaffUserDto(
       su.id, su.branchId, su.hallId, su.username, su.role, su.permissions, su.isActive,
       su.firstName, su.lastName, su.age, su.gender, su.photoUrl,
@@ -4635,7 +4719,8 @@ public class AdminController {
     String prevPerms = normalizePermsForAudit(su.permissions);
     applyStaffPatch(su, req);
     su = staffUserRepo.save(su);
-    auditService.log(u, "UPDATE", "StaffUser", su.id, null);
+    principalContext.invalidateStaff(su.id);
+    auditService.logDurable(u, "UPDATE", "StaffUser", su.id, null);
     String nextPerms = normalizePermsForAudit(su.permissions);
     if (!Objects.equals(prevRole, su.role) || !Objects.equals(prevPerms, nextPerms)) {
       Map<String, Object> details = new HashMap<>();
@@ -4647,7 +4732,7 @@ public class AdminController {
         details.put("permissionsFrom", prevPerms);
         details.put("permissionsTo", nextPerms);
       }
-      auditService.log(u, "ROLE_PERMISSIONS_CHANGE", "StaffUser", su.id, toJsonSafe(details));
+      auditService.logDurable(u, "ROLE_PERMISSIONS_CHANGE", "StaffUser", su.id, toJsonSafe(details));
     }
     return new StaffUserDto(
       su.id, su.branchId, su.hallId, su.username, su.role, su.permissions, su.isActive,
@@ -4674,16 +4759,17 @@ public class AdminController {
       requireBranchAccess(u, su.branchId);
       applyStaffPatch(su, req.patch);
       staffUserRepo.save(su);
+      principalContext.invalidateStaff(su.id);
       updated++;
     }
     if (updated > 0) {
-      auditService.log(u, "BULK_UPDATE", "StaffUser", null, "{\"updated\":" + updated + "}");
+      auditService.logDurable(u, "BULK_UPDATE", "StaffUser", null, "{\"updated\":" + updated + "}");
       if (roleChanged || permsChanged) {
         Map<String, Object> details = new HashMap<>();
         details.put("updated", updated);
         if (roleChanged) details.put("roleTo", req.patch.role);
         if (permsChanged) details.put("permissionsTo", req.patch.permissions);
-        auditService.log(u, "ROLE_PERMISSIONS_CHANGE", "StaffUser", null, toJsonSafe(details));
+        auditService.logDurable(u, "ROLE_PERMISSIONS_CHANGE", "StaffUser", null, toJsonSafe(details));
       }
     }
     return new BulkStaffUpdateResponse(updated);
@@ -4698,10 +4784,11 @@ public class AdminController {
     requireBranchAccess(u, su.branchId);
     int cleared = tableRepo.clearAssignedWaiter(su.id);
     staffUserRepo.delete(su);
+    principalContext.invalidateStaff(su.id);
     if (cleared > 0) {
       auditService.log(u, "UNASSIGN_WAITER", "CafeTable", null, "{\"clearedTables\":" + cleared + ",\"waiterId\":" + su.id + "}");
     }
-    auditService.log(u, "DELETE", "StaffUser", su.id, null);
+    auditService.logDurable(u, "DELETE", "StaffUser", su.id, null);
   }
 
   @GetMapping("/staff-reviews")
@@ -4831,7 +4918,7 @@ public class AdminController {
   }
 
   @GetMapping("/branch-reviews/export.csv")
-  public ResponseEntity<String> exportBranchReviewsCsv(
+  public ResponseEntity<StreamingResponseBody> exportBranchReviewsCsv(
     @RequestParam(value = "from", required = false) String from,
     @RequestParam(value = "to", required = false) String to,
     @RequestParam(value = "branchId", required = false) Long branchId,
@@ -4856,23 +4943,12 @@ public class AdminController {
     }
     Instant fromTs = parseInstantOrDate(from, true);
     Instant toTs = parseInstantOrDate(to, false);
-    List<BranchReview> reviews = branchReviewRepo.findByBranchIdOrderByIdDesc(bid);
-    List<BranchReview> filtered = filterBranchReviews(reviews, tableId, hallId, fromTs, toTs);
-    StringBuilder sb = new StringBuilder();
-    sb.append("id,guest_session_id,rating,comment,created_at\n");
-    for (BranchReview r : filtered) {
-      sb.append(r.id).append(',')
-        .append(r.guestSessionId).append(',')
-        .append(r.rating != null ? r.rating : 0).append(',')
-        .append('"').append((r.comment == null ? "" : r.comment).replace("\"", "\"\"")).append('"').append(',')
-        .append(r.createdAt != null ? r.createdAt.toString() : "")
-        .append('\n');
-    }
     String filename = "branch-reviews-" + bid + ".csv";
-    return ResponseEntity.ok()
-      .contentType(MediaType.parseMediaType("text/csv"))
-      .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-      .body(sb.toString());
+    return csvExportService.stream(
+      filename,
+      List.of("id", "guest_session_id", "rating", "comment", "created_at"),
+      csv -> csvExportService.writeBranchReviews(csv, bid, tableId, hallId, fromTs, toTs)
+    );
   }
 
   private List<BranchReview> filterBranchReviews(
@@ -4921,7 +4997,7 @@ public class AdminController {
   }
 
   @GetMapping("/chat/export.csv")
-  public ResponseEntity<String> exportChatCsv(
+  public ResponseEntity<StreamingResponseBody> exportChatCsv(
     @RequestParam(value = "from", required = false) String from,
     @RequestParam(value = "to", required = false) String to,
     @RequestParam(value = "branchId", required = false) Long branchId,
@@ -4932,39 +5008,12 @@ public class AdminController {
     long bid = resolveBranchId(u, branchId);
     Instant fromTs = parseInstantOrDate(from, true);
     Instant toTs = parseInstantOrDate(to, false);
-    List<ChatMessage> msgs = chatMessageRepo.findByBranchIdAndCreatedAtBetweenOrderByIdAsc(bid, fromTs, toTs);
-    Map<Long, CafeTable> tableById = new HashMap<>();
-    for (ChatMessage m : msgs) {
-      if (!tableById.containsKey(m.tableId)) {
-        tableRepo.findById(m.tableId).ifPresent(t -> tableById.put(t.id, t));
-      }
-    }
-    if (waiterId != null) {
-      msgs = msgs.stream().filter(m -> {
-        if (m.staffUserId != null && Objects.equals(m.staffUserId, waiterId)) return true;
-        CafeTable t = tableById.get(m.tableId);
-        return t != null && Objects.equals(t.assignedWaiterId, waiterId);
-      }).toList();
-    }
-    StringBuilder sb = new StringBuilder();
-    sb.append("id,guest_session_id,table_id,table_number,sender_role,staff_user_id,message,created_at\n");
-    for (ChatMessage m : msgs) {
-      CafeTable t = tableById.get(m.tableId);
-      sb.append(m.id).append(',')
-        .append(m.guestSessionId).append(',')
-        .append(m.tableId).append(',')
-        .append(t != null ? t.number : "").append(',')
-        .append(m.senderRole).append(',')
-        .append(m.staffUserId != null ? m.staffUserId : "").append(',')
-        .append('"').append(m.message.replace("\"", "\"\"")).append('"').append(',')
-        .append(m.createdAt != null ? m.createdAt.toString() : "")
-        .append('\n');
-    }
     String filename = "chat-export-" + bid + ".csv";
-    return ResponseEntity.ok()
-      .contentType(MediaType.parseMediaType("text/csv"))
-      .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-      .body(sb.toString());
+    return csvExportService.stream(
+      filename,
+      List.of("id", "guest_session_id", "table_id", "table_number", "sender_role", "staff_user_id", "message", "created_at"),
+      csv -> csvExportService.writeChat(csv, bid, fromTs, toTs, waiterId)
+    );
   }
 
   private static String generatePublicId() {
@@ -5255,7 +5304,7 @@ public class AdminController {
   ) {}
 
   @GetMapping("/stats/daily.csv")
-  public ResponseEntity<String> getDailyCsv(
+  public ResponseEntity<StreamingResponseBody> getDailyCsv(
     @RequestParam(value = "from", required = false) String from,
     @RequestParam(value = "to", required = false) String to,
     @RequestParam(value = "branchId", required = false) Long branchId,
@@ -5290,21 +5339,16 @@ public class AdminController {
     Instant fromTs = parseInstantOrDate(from, true);
     Instant toTs = parseInstantOrDate(to, false);
     List<StatsService.DailyRow> rows = statsService.dailyForBranchFiltered(bid, fromTs, toTs, tableId, waiterId, hallId, null, null, null, guestPhone);
-    StringBuilder sb = new StringBuilder();
-    sb.append("day,orders,calls,paid_bills,gross_cents,tips_cents\n");
-    for (StatsService.DailyRow r : rows) {
-      sb.append(r.day()).append(',')
-        .append(r.ordersCount()).append(',')
-        .append(r.callsCount()).append(',')
-        .append(r.paidBillsCount()).append(',')
-        .append(r.grossCents()).append(',')
-        .append(r.tipsCents()).append('\n');
-    }
     String filename = "stats-daily-" + bid + ".csv";
-    return ResponseEntity.ok()
-      .contentType(MediaType.parseMediaType("text/csv"))
-      .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-      .body(sb.toString());
+    return csvExportService.stream(
+      filename,
+      List.of("day", "orders", "calls", "paid_bills", "gross_cents", "tips_cents"),
+      csv -> {
+        for (StatsService.DailyRow r : rows) {
+          csv.row(r.day(), r.ordersCount(), r.callsCount(), r.paidBillsCount(), r.grossCents(), r.tipsCents());
+        }
+      }
+    );
   }
 
   @GetMapping("/stats/summary")
@@ -5716,7 +5760,7 @@ public class AdminController {
   }
 
   @GetMapping("/audit-logs.csv")
-  public ResponseEntity<String> exportAuditLogsCsv(
+  public ResponseEntity<StreamingResponseBody> exportAuditLogsCsv(
     @RequestParam(value = "branchId", required = false) Long branchId,
     @RequestParam(value = "action", required = false) String action,
     @RequestParam(value = "entityType", required = false) String entityType,
@@ -5736,45 +5780,12 @@ public class AdminController {
     Instant fromTs = parseInstantOrDateOrNull(from, true);
     Instant toTs = parseInstantOrDateOrNull(to, false);
     int lim = limit == null ? 1000 : Math.max(1, Math.min(limit, 5000));
-    List<AuditLog> logs = auditLogRepo.findFiltered(
-      bid,
-      actionVal,
-      entityTypeVal,
-      actorVal,
-      fromTs,
-      toTs,
-      beforeId,
-      afterId,
-      PageRequest.of(0, lim)
-    );
-    StringBuilder sb = new StringBuilder();
-    sb.append("id,created_at,actor_user_id,actor_username,actor_role,branch_id,action,entity_type,entity_id,details_json\n");
-    for (AuditLog a : logs) {
-      sb.append(a.id).append(',')
-        .append(a.createdAt).append(',')
-        .append(a.actorUserId == null ? "" : a.actorUserId).append(',')
-        .append(csv(a.actorUsername)).append(',')
-        .append(csv(a.actorRole)).append(',')
-        .append(a.branchId == null ? "" : a.branchId).append(',')
-        .append(csv(a.action)).append(',')
-        .append(csv(a.entityType)).append(',')
-        .append(a.entityId == null ? "" : a.entityId).append(',')
-        .append(csv(a.detailsJson)).append('\n');
-    }
     String filename = "audit-logs-" + bid + ".csv";
-    return ResponseEntity.ok()
-      .contentType(MediaType.parseMediaType("text/csv"))
-      .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-      .body(sb.toString());
-  }
-
-  private static String csv(String v) {
-    if (v == null) return "";
-    String s = v.replace("\"", "\"\"");
-    if (s.contains(",") || s.contains("\n") || s.contains("\r")) {
-      return "\"" + s + "\"";
-    }
-    return s;
+    return csvExportService.stream(
+      filename,
+      List.of("id", "created_at", "actor_user_id", "actor_username", "actor_role", "branch_id", "action", "entity_type", "entity_id", "details_json"),
+      csv -> csvExportService.writeAuditLogs(csv, bid, actionVal, entityTypeVal, actorVal, fromTs, toTs, beforeId, afterId, lim)
+    );
   }
 
   private static String normalizeLocale(String raw) {
@@ -6271,6 +6282,13 @@ public class AdminController {
     return v == null || v.isBlank();
   }
 
+  private static Integer slaMinutesOrNull(int minutes) {
+    if (minutes < 0 || minutes > 1440) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid SLA threshold");
+    }
+    return minutes == 0 ? null : minutes;
+  }
+
   private static String resolveClientIp(HttpServletRequest request) {
     String xff = request.getHeader("X-Forwarded-For");
     if (xff != null && !xff.isBlank()) {
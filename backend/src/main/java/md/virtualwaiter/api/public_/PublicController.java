@@ -15,8 +15,6 @@ import md.virtualwaiter.domain.MenuCategory;
 import md.virtualwaiter.domain.MenuItem;
 import md.virtualwaiter.domain.MenuItemTimeSlot;
 import md.virtualwaiter.domain.MenuItemRecommendation;
-import md.virtualwaiter.domain.MenuItemTag;
-import md.virtualwaiter.domain.MenuTag;
 import md.virtualwaiter.domain.MenuItemModifierGroup;
 import md.virtualwaiter.domain.ModifierGroup;
 import md.virtualwaiter.domain.ModifierOption;
@@ -38,8 +36,6 @@ import md.virtualwaiter.repo.MenuCategoryRepo;
 import md.virtualwaiter.repo.MenuItemRepo;
 import md.virtualwaiter.repo.MenuItemTimeSlotRepo;
 import md.virtualwaiter.repo.MenuItemRecommendationRepo;
-import md.virtualwaiter.repo.MenuItemTagRepo;
-import md.virtualwaiter.repo.MenuTagRepo;
 import md.virtualwaiter.repo.MenuTimeSlotRepo;
 import md.virtualwaiter.repo.ComboRepo;
 import md.virtualwaiter.repo.ComboItemRepo;
@@ -69,18 +65,30 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import md.virtualwaiter.service.BranchSettingsService;
 import md.virtualwaiter.service.GuestConsentService;
 import md.virtualwaiter.service.GuestProfileService;
+import md.virtualwaiter.service.GuestEventHub;
+import md.virtualwaiter.service.GuestSessionDirectory;
+import md.virtualwaiter.service.ChatThreadService;
 import md.virtualwaiter.service.PartyService;
 import md.virtualwaiter.service.NotificationEventService;
 import md.virtualwaiter.service.RateLimitService;
+import md.virtualwaiter.service.SlaAlertService;
 import md.virtualwaiter.service.InventoryService;
+import md.virtualwaiter.service.OrderPlacementService;
+import md.virtualwaiter.service.MenuSnapshotService;
+import md.virtualwaiter.service.BillReservationService;
+import md.virtualwaiter.service.PaymentWebhookInboxService;
+import md.virtualwaiter.service.RecommendationService;
 import md.virtualwaiter.service.LoyaltyService;
 import md.virtualwaiter.config.BillProperties;
+import md.virtualwaiter.util.MenuText;
 import md.virtualwaiter.payments.PaymentProvider;
 import md.virtualwaiter.payments.PaymentProviderRegistry;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Positive;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -92,19 +100,21 @@ import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.time.Instant;
 import java.time.LocalDateTime;
-import java.time.LocalTime;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -112,6 +122,7 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import org.springframework.beans.factory.annotation.Value;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 @RestController
@@ -120,14 +131,15 @@ public class PublicController {
 
   private final CafeTableRepo tableRepo;
   private final GuestSessionRepo sessionRepo;
+  private final GuestSessionDirectory sessionDirectory;
+  private final ChatThreadService chatThreadService;
+  private final GuestEventHub guestEventHub;
   private final MenuCategoryRepo categoryRepo;
   private final MenuItemRepo itemRepo;
   private final BranchRepo branchRepo;
   private final BranchMenuItemOverrideRepo menuItemOverrideRepo;
   private final MenuTimeSlotRepo menuTimeSlotRepo;
   private final MenuItemTimeSlotRepo menuItemTimeSlotRepo;
-  private final MenuTagRepo menuTagRepo;
-  private final MenuItemTagRepo menuItemTagRepo;
   private final MenuItemRecommendationRepo menuItemRecommendationRepo;
   private final ComboRepo comboRepo;
   private final ComboItemRepo comboItemRepo;
@@ -154,9 +166,15 @@ public class PublicController {
   private final OtpService otpService;
   private final BranchSettingsService settingsService;
   private final NotificationEventService notificationEventService;
+  private final SlaAlertService slaAlertService;
   private final PartyService partyService;
   private final RateLimitService rateLimitService;
   private final InventoryService inventoryService;
+  private final OrderPlacementService orderPlacementService;
+  private final BillReservationService billReservationService;
+  private final PaymentWebhookInboxService paymentWebhookInbox;
+  private final MenuSnapshotService menuSnapshotService;
+  private final RecommendationService recommendationService;
   private final LoyaltyService loyaltyService;
   private final GuestProfileService guestProfileService;
   private final GuestConsentService guestConsentService;
@@ -179,10 +197,14 @@ public class PublicController {
   private final int chatLimitMax;
   private final int chatLimitWindowSeconds;
   private final BillProperties billProperties;
+  private final String menuCacheControl;
 
   public PublicController(
     CafeTableRepo tableRepo,
     GuestSessionRepo sessionRepo,
+    GuestSessionDirectory sessionDirectory,
+    ChatThreadService chatThreadService,
+    GuestEventHub guestEventHub,
     MenuCategoryRepo categoryRepo,
     MenuItemRepo itemRepo,
     BranchRepo branchRepo,
@@ -190,8 +212,6 @@ public class PublicController {
     MenuTimeSlotRepo menuTimeSlotRepo,
     MenuItemTimeSlotRepo menuItemTimeSlotRepo,
     MenuItemRecommendationRepo menuItemRecommendationRepo,
-    MenuTagRepo menuTagRepo,
-    MenuItemTagRepo menuItemTagRepo,
     ComboRepo comboRepo,
     ComboItemRepo comboItemRepo,
     BranchRecommendationTemplateRepo branchRecommendationTemplateRepo,
@@ -217,9 +237,15 @@ public class PublicController {
     OtpService otpService,
     BranchSettingsService settingsService,
     NotificationEventService notificationEventService,
+    SlaAlertService slaAlertService,
     PartyService partyService,
     RateLimitService rateLimitService,
     InventoryService inventoryService,
+    OrderPlacementService orderPlacementService,
+    BillReservationService billReservationService,
+    PaymentWebhookInboxService paymentWebhookInbox,
+    MenuSnapshotService menuSnapshotService,
+    RecommendationService recommendationService,
     LoyaltyService loyaltyService,
     GuestProfileService guestProfileService,
     GuestConsentService guestConsentService,
@@ -240,18 +266,21 @@ public class PublicController {
     @Value("${app.rateLimit.menu.maxRequests:60}") int menuLimitMax,
     @Value("${app.rateLimit.menu.windowSeconds:60}") int menuLimitWindowSeconds,
     @Value("${app.rateLimit.chat.maxRequests:15}") int chatLimitMax,
-    @Value("${app.rateLimit.chat.windowSeconds:60}") int chatLimitWindowSeconds
+    @Value("${app.rateLimit.chat.windowSeconds:60}") int chatLimitWindowSeconds,
+    @Value("${app.menu.httpMaxAgeSeconds:30}") long menuHttpMaxAgeSeconds,
+    @Value("${app.menu.httpStaleWhileRevalidateSeconds:120}") long menuHttpStaleWhileRevalidateSeconds
   ) {
     this.tableRepo = tableRepo;
     this.sessionRepo = sessionRepo;
+    this.sessionDirectory = sessionDirectory;
+    this.chatThreadService = chatThreadService;
+    this.guestEventHub = guestEventHub;
     this.categoryRepo = categoryRepo;
     this.itemRepo = itemRepo;
     this.branchRepo = branchRepo;
     this.menuItemOverrideRepo = menuItemOverrideRepo;
     this.menuTimeSlotRepo = menuTimeSlotRepo;
     this.menuItemTimeSlotRepo = menuItemTimeSlotRepo;
-    this.menuTagRepo = menuTagRepo;
-    this.menuItemTagRepo = menuItemTagRepo;
     this.menuItemRecommendationRepo = menuItemRecommendationRepo;
     this.comboRepo = comboRepo;
     this.comboItemRepo = comboItemRepo;
@@ -278,9 +307,15 @@ public class PublicController {
     this.otpService = otpService;
     this.settingsService = settingsService;
     this.notificationEventService = notificationEventService;
+    this.slaAlertService = slaAlertService;
     this.partyService = partyService;
     this.rateLimitService = rateLimitService;
     this.inventoryService = inventoryService;
+    this.orderPlacementService = orderPlacementService;
+    this.billReservationService = billReservationService;
+    this.paymentWebhookInbox = paymentWebhookInbox;
+    this.menuSnapshotService = menuSnapshotService;
+    this.recommendationService = recommendationService;
     this.loyaltyService = loyaltyService;
     this.guestProfileService = guestProfileService;
     this.guestConsentService = guestConsentService;
@@ -301,6 +336,10 @@ public class PublicController {
     this.menuLimitWindowSeconds = menuLimitWindowSeconds;
     this.chatLimitMax = chatLimitMax;
     this.chatLimitWindowSeconds = chatLimitWindowSeconds;
+    this.menuCacheControl = CacheControl.maxAge(Math.max(0, menuHttpMaxAgeSeconds), TimeUnit.SECONDS)
+      .cachePublic()
+      .staleWhileRevalidate(Math.max(0, menuHttpStaleWhileRevalidateSeconds), TimeUnit.SECONDS)
+      .getHeaderValue();
     this.billProperties = billProperties;
   }
 
@@ -376,6 +415,7 @@ public class PublicController {
     s.createdByIp = clientIp;
     s.createdByUa = getUserAgent(httpReq);
     s = sessionRepo.save(s);
+    sessionDirectory.saved(s);
 
     String waiterName = null;
     String waiterPhoto = null;
@@ -489,20 +529,22 @@ public class PublicController {
     m.guestSessionId = s.id;
     m.senderRole = "GUEST";
     m.message = msg;
-    chatMessageRepo.save(m);
+    chatThreadService.append(m);
   }
 
   @GetMapping("/chat/messages")
   public List<ChatMessageDto> listChatMessages(
     @RequestParam("guestSessionId") Long guestSessionId,
+    @RequestParam(value = "afterId", required = false) Long afterId,
     jakarta.servlet.http.HttpServletRequest httpReq
   ) {
-    GuestSession s = sessionRepo.findById(guestSessionId)
-      .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Guest session not found"));
-    requireSessionSecret(s, httpReq);
-    CafeTable table = tableRepo.findById(s.tableId)
-      .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Table not found"));
-    List<ChatMessage> msgs = chatMessageRepo.findByBranchIdAndGuestSessionIdOrderByIdAsc(table.branchId, s.id);
+    GuestSessionDirectory.Entry s = requireSession(guestSessionId, "Guest session not found", httpReq);
+    if (s.branchId() == null) {
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Table not found");
+    }
+    List<ChatMessage> msgs = afterId == null
+      ? chatMessageRepo.findByBranchIdAndGuestSessionIdOrderByIdAsc(s.branchId(), s.sessionId())
+      : chatMessageRepo.findByBranchIdAndGuestSessionIdAndIdGreaterThanOrderByIdAsc(s.branchId(), s.sessionId(), afterId);
     List<ChatMessageDto> out = new ArrayList<>();
     for (ChatMessage m : msgs) {
       out.add(new ChatMessageDto(
@@ -643,16 +685,7 @@ public class PublicController {
 
   private boolean isSlotActiveNow(MenuTimeSlot slot, ZonedDateTime now) {
     if (!slot.isActive) return false;
-    int dayBit = 1 << (now.getDayOfWeek().getValue() - 1);
-    if ((slot.daysMask & dayBit) == 0) return false;
-    LocalTime t = now.toLocalTime();
-    LocalTime start = slot.startTime;
-    LocalTime end = slot.endTime;
-    if (start.equals(end)) return true;
-    if (end.isAfter(start)) {
-      return !t.isBefore(start) && t.isBefore(end);
-    }
-    return !t.isBefore(start) || t.isBefore(end);
+    return MenuSnapshotService.isSlotActiveNow(slot.daysMask, slot.startTime, slot.endTime, now);
   }
 
   private boolean isMenuItemAvailableNow(long menuItemId, Map<Long, List<Long>> slotsByItem, Map<Long, MenuTimeSlot> slotsById, ZonedDateTime now) {
@@ -679,6 +712,19 @@ public class PublicController {
     return false;
   }
 
+  /**
+   * Sets the shared-cache headers and answers If-None-Match from the branch menu version, before any menu
+   * data is loaded. Callers resolve the branch first. True means a 304 has been prepared and the handler
+   * should return null.
+   */
+  private boolean menuNotModified(WebRequest webRequest, long branchId, String locale) {
+    String etag = menuSnapshotService.etag(branchId, locale, ZonedDateTime.now(resolveBranchZone(branchId)));
+    if (webRequest instanceof ServletWebRequest swr && swr.getResponse() != null) {
+      swr.getResponse().setHeader(HttpHeaders.CACHE_CONTROL, menuCacheControl);
+    }
+    return webRequest.checkNotModified(etag);
+  }
+
   private ZoneId resolveBranchZone(long branchId) {
     String tz = settingsService.resolveForBranch(branchId).timeZone();
     try {
@@ -812,13 +858,15 @@ public class PublicController {
     @RequestParam("tablePublicId") String tablePublicId,
     @RequestParam("sig") String sig,
     @RequestParam("ts") Long ts,
-    @RequestParam(value = "locale", required = false) String locale
+    @RequestParam(value = "locale", required = false) String locale,
+    WebRequest webRequest
   ) {
     if (!qrSig.verifyTablePublicId(tablePublicId, sig, ts)) {
       throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Invalid QR signature");
     }
     CafeTable table = tableRepo.findByPublicId(tablePublicId)
       .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Table not found"));
+    if (menuNotModified(webRequest, table.branchId, locale)) return null;
     Branch branch = branchRepo.findById(table.branchId)
       .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Branch not found"));
     MenuItem item = itemRepo.findById(id)
@@ -896,7 +944,8 @@ public class PublicController {
     @RequestParam("sig") String sig,
     @RequestParam("ts") Long ts,
     @RequestParam(value = "locale", required = false) String locale,
-    jakarta.servlet.http.HttpServletRequest httpReq
+    jakarta.servlet.http.HttpServletRequest httpReq,
+    WebRequest webRequest
   ) {
     String clientIp = getClientIp(httpReq);
     if (!rateLimitService.allow("menu:" + clientIp, menuLimitMax, menuLimitWindowSeconds)) {
@@ -907,88 +956,64 @@ public class PublicController {
     }
     CafeTable table = tableRepo.findByPublicId(tablePublicId)
       .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Table not found"));
+    if (menuNotModified(webRequest, table.branchId, locale)) return null;
     Branch branch = branchRepo.findById(table.branchId)
       .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Branch not found"));
 
-    String loc = normalizeLocale(locale);
-    List<MenuCategory> cats = categoryRepo.findByTenantIdAndIsActiveOrderBySortOrderAscIdAsc(branch.tenantId, true);
-    List<Long> catIds = cats.stream().map(c -> c.id).toList();
-    List<MenuItem> items = catIds.isEmpty() ? List.of() : itemRepo.findByCategoryIdIn(catIds);
-    Map<Long, BranchMenuItemOverride> overrides = items.isEmpty()
-      ? Map.of()
-      : menuItemOverrideRepo.findByBranchIdAndMenuItemIdIn(branch.id, items.stream().map(i -> i.id).toList())
-        .stream()
-        .collect(java.util.stream.Collectors.toMap(o -> o.menuItemId, o -> o));
-    Map<Long, List<Long>> slotsByItem = items.isEmpty()
-      ? Map.of()
-      : menuItemTimeSlotRepo.findByMenuItemIdIn(items.stream().map(i -> i.id).toList())
-        .stream()
-        .collect(Collectors.groupingBy(l -> l.menuItemId, Collectors.mapping(l -> l.timeSlotId, Collectors.toList())));
-    Map<Long, MenuTimeSlot> slotsById = new HashMap<>();
-    for (MenuTimeSlot s : menuTimeSlotRepo.findByBranchIdAndIsActiveTrue(branch.id)) {
-      slotsById.put(s.id, s);
-    }
+    MenuSnapshotService.MenuSnapshot snapshot = menuSnapshotService.get(branch.id, locale);
     ZonedDateTime now = ZonedDateTime.now(resolveBranchZone(branch.id));
+    Map<Long, Boolean> lowStockByItem = inventoryService.resolveLowStockForMenuItems(branch.id, snapshot.itemIds());
+    return new MenuResponse(table.branchId, snapshot.locale(), menuCategories(snapshot, now, lowStockByItem));
+  }
 
-    List<Long> itemIds = items.stream().map(i -> i.id).toList();
-    Map<Long, List<String>> tagsByItem = loadTagNamesByItemIds(itemIds, branch.tenantId);
-    Map<Long, Boolean> lowStockByItem = inventoryService.resolveLowStockForMenuItems(branch.id, itemIds);
-    Map<Long, List<MenuItemDto>> itemsByCat = new HashMap<>();
-    for (MenuItem it : items) {
-      BranchMenuItemOverride override = overrides.get(it.id);
-      boolean isActive = resolveMenuItemActive(it, override);
-      boolean isStopList = resolveMenuItemStopList(it, override);
-      boolean isLowStock = lowStockByItem.getOrDefault(it.id, false);
-      if (!isActive) {
-        continue;
-      }
-      if (!isMenuItemAvailableNow(it.id, slotsByItem, slotsById, now)) {
-        continue;
-      }
-      itemsByCat.computeIfAbsent(it.categoryId, k -> new ArrayList<>())
-        .add(new MenuItemDto(
-          it.id,
-          pick(loc, it.nameRu, it.nameRo, it.nameEn),
-          pick(loc, it.descriptionRu, it.descriptionRo, it.descriptionEn),
-          pick(loc, it.ingredientsRu, it.ingredientsRo, it.ingredientsEn),
-          it.allergens,
-          it.weight,
-          it.kcal,
-          it.proteinG,
-          it.fatG,
-          it.carbsG,
-          splitCsv(it.photoUrls),
-          it.videoUrl,
-          mergeTags(it, tagsByItem),
-          it.priceCents,
-          it.currency,
-          isActive,
-          isStopList,
-          isLowStock
-        ));
-    }
-
+  static List<MenuCategoryDto> menuCategories(
+    MenuSnapshotService.MenuSnapshot snapshot,
+    ZonedDateTime now,
+    Map<Long, Boolean> lowStockByItem
+  ) {
     List<MenuCategoryDto> out = new ArrayList<>();
-    for (MenuCategory c : cats) {
-      if (!itemsByCat.containsKey(c.id)) continue;
-      out.add(new MenuCategoryDto(
-        c.id,
-        pick(loc, c.nameRu, c.nameRo, c.nameEn),
-        c.sortOrder,
-        itemsByCat.getOrDefault(c.id, List.of())
-      ));
+    for (MenuSnapshotService.Category c : snapshot.categories()) {
+      List<MenuItemDto> items = new ArrayList<>();
+      for (MenuSnapshotService.Item it : c.items()) {
+        if (!snapshot.isAvailableNow(it.id(), now)) {
+          continue;
+        }
+        items.add(new MenuItemDto(
+          it.id(),
+          it.name(),
+          it.description(),
+          it.ingredients(),
+          it.allergens(),
+          it.weight(),
+          it.kcal(),
+          it.proteinG(),
+          it.fatG(),
+          it.carbsG(),
+          it.photos(),
+          it.videoUrl(),
+          it.tags(),
+          it.priceCents(),
+          it.currency(),
+          true,
+          it.isStopList(),
+          lowStockByItem.getOrDefault(it.id(), false)
+        ));
+      }
+      if (items.isEmpty()) continue;
+      out.add(new MenuCategoryDto(c.id(), c.name(), c.sortOrder(), items));
     }
-
-    return new MenuResponse(table.branchId, loc, out);
+    return out;
   }
 
   @GetMapping("/menu/combos")
   public List<ComboPublicDto> listCombos(
     @RequestParam("branchId") long branchId,
-    @RequestParam(value = "lang", required = false) String locale
+    @RequestParam(value = "lang", required = false) String locale,
+    WebRequest webRequest
   ) {
     Branch branch = branchRepo.findById(branchId)
       .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Branch not found"));
+    if (menuNotModified(webRequest, branch.id, locale)) return null;
     String loc = normalizeLocale(locale);
     List<Combo> combos = comboRepo.findByBranchIdAndIsActiveTrue(branch.id);
     if (combos.isEmpty()) return List.of();
@@ -1092,10 +1117,12 @@ public class PublicController {
   @GetMapping("/recommendation-templates")
   public List<RecommendationTemplatePublicDto> listRecommendationTemplates(
     @RequestParam("branchId") long branchId,
-    @RequestParam(value = "lang", required = false) String locale
+    @RequestParam(value = "lang", required = false) String locale,
+    WebRequest webRequest
   ) {
     Branch branch = branchRepo.findById(branchId)
       .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Branch not found"));
+    if (menuNotModified(webRequest, branch.id, locale)) return null;
     String loc = normalizeLocale(locale);
     List<BranchRecommendationTemplate> templates = branchRecommendationTemplateRepo.findByBranchIdAndIsActiveTrueOrderBySortOrderAscIdAsc(branch.id);
     if (templates.isEmpty()) return List.of();
@@ -1196,99 +1223,48 @@ public class PublicController {
     }
     Branch branch = branchRepo.findById(branchId)
       .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Branch not found"));
-    String loc = normalizeLocale(locale);
     int lim = limit == null ? 12 : Math.max(1, Math.min(limit, 30));
 
-    LinkedHashSet<Long> itemIds = new LinkedHashSet<>();
-    try {
-      LoyaltyService.LoyaltyProfile profile = loyaltyService.getProfile(branch.id, s.verifiedPhone);
-      if (profile != null && profile.favorites() != null) {
-        for (LoyaltyService.FavoriteItemDto f : profile.favorites()) {
-          if (f.menuItemId() > 0) itemIds.add(f.menuItemId());
-        }
-      }
-    } catch (Exception e) {
-      // ignore loyalty failures, fallback to orders
-    }
-
-    List<GuestSession> sessions = sessionRepo.findTop200ByVerifiedPhoneOrderByIdDesc(s.verifiedPhone);
-    if (!sessions.isEmpty()) {
-      List<Long> sessionIds = sessions.stream().map(gs -> gs.id).toList();
-      List<Order> orders = orderRepo.findTop200ByGuestSessionIdInOrderByCreatedAtDesc(sessionIds);
-      if (!orders.isEmpty()) {
-        List<Long> orderIds = orders.stream().map(o -> o.id).toList();
-        List<OrderItem> items = orderItemRepo.findByOrderIdIn(orderIds);
-        items.sort((a, b) -> {
-          Order oa = orders.stream().filter(o -> Objects.equals(o.id, a.orderId)).findFirst().orElse(null);
-          Order ob = orders.stream().filter(o -> Objects.equals(o.id, b.orderId)).findFirst().orElse(null);
-          Instant ia = oa == null ? Instant.EPOCH : oa.createdAt;
-          Instant ib = ob == null ? Instant.EPOCH : ob.createdAt;
-          return ib.compareTo(ia);
-        });
-        for (OrderItem it : items) {
-          if (it.menuItemId != null && it.menuItemId > 0) {
-            itemIds.add(it.menuItemId);
-          }
-          if (itemIds.size() >= lim * 2L) break;
-        }
-      }
-    }
-
-    if (itemIds.isEmpty()) return List.of();
+    // Over-fetch so that items hidden by the stop list or a closed time slot still leave a full page.
+    List<RecommendationService.Scored> top = recommendationService.topItems(branch.id, s.verifiedPhone, lim * 3);
+    if (top.isEmpty()) return List.of();
 
-    List<Long> candidateIds = new ArrayList<>(itemIds);
-    List<MenuItem> items = itemRepo.findAllById(candidateIds);
-    Map<Long, MenuItem> itemById = items.stream().collect(Collectors.toMap(i -> i.id, i -> i));
-    Map<Long, BranchMenuItemOverride> overrides = candidateIds.isEmpty()
-      ? Map.of()
-      : menuItemOverrideRepo.findByBranchIdAndMenuItemIdIn(branch.id, candidateIds)
-        .stream()
-        .collect(Collectors.toMap(o -> o.menuItemId, o -> o));
-    Map<Long, List<Long>> slotsByItem = candidateIds.isEmpty()
-      ? Map.of()
-      : menuItemTimeSlotRepo.findByMenuItemIdIn(candidateIds)
-        .stream()
-        .collect(Collectors.groupingBy(l -> l.menuItemId, Collectors.mapping(l -> l.timeSlotId, Collectors.toList())));
-    Map<Long, MenuTimeSlot> slotsById = new HashMap<>();
-    for (MenuTimeSlot ts : menuTimeSlotRepo.findByBranchIdAndIsActiveTrue(branch.id)) {
-      slotsById.put(ts.id, ts);
-    }
+    MenuSnapshotService.MenuSnapshot snapshot = menuSnapshotService.get(branch.id, locale);
     ZonedDateTime now = ZonedDateTime.now(resolveBranchZone(branch.id));
-    Map<Long, List<String>> tagsByItem = loadTagNamesByItemIds(candidateIds, branch.tenantId);
-    Map<Long, Boolean> lowStockByItem = inventoryService.resolveLowStockForMenuItems(branch.id, candidateIds);
+    List<MenuSnapshotService.Item> picked = new ArrayList<>();
+    for (RecommendationService.Scored sc : top) {
+      if (picked.size() >= lim) break;
+      MenuSnapshotService.Item it = snapshot.itemsById().get(sc.menuItemId());
+      if (it == null || it.isStopList() || !snapshot.isAvailableNow(it.id(), now)) continue;
+      picked.add(it);
+    }
+    if (picked.isEmpty()) return List.of();
+    Map<Long, Boolean> lowStockByItem = inventoryService.resolveLowStockForMenuItems(
+      branch.id,
+      picked.stream().map(MenuSnapshotService.Item::id).toList()
+    );
 
     List<MenuItemDto> out = new ArrayList<>();
-    for (Long id : candidateIds) {
-      if (out.size() >= lim) break;
-      MenuItem it = itemById.get(id);
-      if (it == null) continue;
-      MenuCategory cat = categoryRepo.findById(it.categoryId).orElse(null);
-      if (cat == null || !Objects.equals(cat.tenantId, branch.tenantId)) continue;
-      BranchMenuItemOverride override = overrides.get(it.id);
-      boolean isActive = resolveMenuItemActive(it, override);
-      boolean isStopList = resolveMenuItemStopList(it, override);
-      if (!isActive || isStopList) continue;
-      if (!isMenuItemAvailableNow(it.id, slotsByItem, slotsById, now)) continue;
-      boolean lowStock = lowStockByItem.getOrDefault(it.id, false);
+    for (MenuSnapshotService.Item it : picked) {
       out.add(new MenuItemDto(
-        it.id,
-        pick(loc, it.nameRu, it.nameRo, it.nameEn),
-        pick(loc, it.descriptionRu, it.descriptionRo, it.descriptionEn),
-        pick(loc, it.ingredientsRu, it.ingredientsRo, it.ingredientsEn),
-        it.allergens,
-        it.weight,
-        it.kcal,
-        it.proteinG,
-        it.fatG,
-        it.carbsG,
-        splitCsv(it.photoUrls),
-        it.videoUrl,
-        mergeTags(it, tagsByItem),
-        it.priceCents,
-        it.currency,
-        isActive,
-        isStopList,
-        lowStock
+        it.id(),
+        it.name(),
+        it.description(),
+        it.ingredients(),
+        it.allergens(),
+        it.weight(),
+        it.kcal(),
+        it.proteinG(),
+        it.fatG(),
+        it.carbsG(),
+        it.photos(),
+        it.videoUrl(),
+        it.tags(),
+        it.priceCents(),
+        it.currency(),
+        true,
+        false,
+        lowStockByItem.getOrDefault(it.id(), false)
       ));
     }
     return out;
@@ -1358,8 +1334,23 @@ public class PublicController {
       : menuItemOverrideRepo.findByBranchIdAndMenuItemIdIn(branch.id, ids)
         .stream()
         .collect(java.util.stream.Collectors.toMap((BranchMenuItemOverride o) -> o.menuItemId, o -> o));
+    Map<Long, MenuCategory> categories = new HashMap<>();
+    for (MenuCategory c : categoryRepo.findAllById(menu.values().stream().map(mi -> mi.categoryId).distinct().toList())) {
+      categories.put(c.id, c);
+    }
+    List<Long> menuIds = new ArrayList<>(menu.keySet());
+    Map<Long, List<Long>> slotsByItem = menuItemTimeSlotRepo.findByMenuItemIdIn(menuIds)
+      .stream()
+      .collect(Collectors.groupingBy(l -> l.menuItemId, Collectors.mapping(l -> l.timeSlotId, Collectors.toList())));
+    Map<Long, MenuTimeSlot> slotsById = new HashMap<>();
+    if (!slotsByItem.isEmpty()) {
+      for (MenuTimeSlot ts : menuTimeSlotRepo.findByBranchIdAndIsActiveTrue(branch.id)) {
+        slotsById.put(ts.id, ts);
+      }
+    }
+    ZonedDateTime branchNow = ZonedDateTime.now(resolveBranchZone(branch.id));
     for (MenuItem mi : menu.values()) {
-      MenuCategory cat = categoryRepo.findById(mi.categoryId).orElse(null);
+      MenuCategory cat = categories.get(mi.categoryId);
       if (cat == null || !Objects.equals(cat.tenantId, branch.tenantId)) {
         throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Menu item not available");
       }
@@ -1367,29 +1358,21 @@ public class PublicController {
       if (!resolveMenuItemActive(mi, override) || resolveMenuItemStopList(mi, override)) {
         throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Menu item not available");
       }
-      if (!isMenuItemAvailableNow(mi.id, branch.id, ZonedDateTime.now(resolveBranchZone(branch.id)))) {
+      if (!isMenuItemAvailableNow(mi.id, slotsByItem, slotsById, branchNow)) {
         throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Menu item not available");
       }
     }
 
-    Order o = new Order();
-    o.tableId = table.id;
-    o.guestSessionId = s.id;
-    o.guestPhone = s.verifiedPhone;
-    o.status = "NEW";
-    o.createdByIp = getClientIp(httpReq);
-    o.createdByUa = getUserAgent(httpReq);
-    o = orderRepo.save(o);
-
-    List<OrderItem> savedItems = new ArrayList<>();
+    boolean anyModifiers = req.items.stream().anyMatch(i -> i.modifiersJson != null && !i.modifiersJson.isBlank());
+    ModifierContext modifiers = loadModifierContext(menuIds, anyModifiers);
+    List<OrderItem> lines = new ArrayList<>();
     for (CreateOrderItemReq i : req.items) {
       MenuItem mi = menu.get(i.menuItemId);
-      ModSelection sel = parseAndValidateModifiers(mi.id, i.modifiersJson);
+      ModSelection sel = parseAndValidateModifiers(mi.id, i.modifiersJson, modifiers);
       int basePrice = mi.priceCents;
       int modifiersPrice = sel.totalPriceCents;
       int unitPrice = basePrice + modifiersPrice;
       OrderItem oi = new OrderItem();
-      oi.orderId = o.id;
       oi.menuItemId = mi.id;
       oi.nameSnapshot = pick(s.locale, mi.nameRu, mi.nameRo, mi.nameEn);
       oi.unitPriceCents = unitPrice;
@@ -1398,15 +1381,17 @@ public class PublicController {
       oi.qty = i.qty;
       oi.comment = i.comment;
       oi.modifiersJson = sel.rawJson;
-      savedItems.add(orderItemRepo.save(oi));
+      lines.add(oi);
     }
 
-    s.lastOrderAt = now;
-    sessionRepo.save(s);
-
-    inventoryService.applyOrderItems(table.branchId, savedItems);
-
-    notificationEventService.emit(table.branchId, "ORDER_NEW", o.id);
+    Order o = new Order();
+    o.tableId = table.id;
+    o.guestSessionId = s.id;
+    o.guestPhone = s.verifiedPhone;
+    o.status = "NEW";
+    o.createdByIp = getClientIp(httpReq);
+    o.createdByUa = getUserAgent(httpReq);
+    o = orderPlacementService.place(o, lines, s, table, now);
 
     return new CreateOrderResponse(o.id, o.status);
   }
@@ -1417,12 +1402,10 @@ public class PublicController {
     @RequestParam("guestSessionId") long guestSessionId,
     jakarta.servlet.http.HttpServletRequest httpReq
   ) {
-    GuestSession s = sessionRepo.findById(guestSessionId)
-      .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Session not found"));
-    requireSessionSecret(s, httpReq);
+    GuestSessionDirectory.Entry s = requireSession(guestSessionId, "Session not found", httpReq);
     Order o = orderRepo.findById(id)
       .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found"));
-    if (!Objects.equals(o.guestSessionId, s.id)) {
+    if (!Objects.equals(o.guestSessionId, s.sessionId())) {
       throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Order does not belong to session");
     }
     return new OrderStatusResponse(o.id, o.status, o.createdAt.toString());
@@ -1431,15 +1414,16 @@ public class PublicController {
   @GetMapping("/orders")
   public List<OrderSummary> listOrders(
     @RequestParam("guestSessionId") long guestSessionId,
+    @RequestParam(value = "afterId", required = false) Long afterId,
     jakarta.servlet.http.HttpServletRequest httpReq
   ) {
-    GuestSession s = sessionRepo.findById(guestSessionId)
-      .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Session not found"));
-    requireSessionSecret(s, httpReq);
-    if (s.expiresAt.isBefore(Instant.now())) {
+    GuestSessionDirectory.Entry s = requireSession(guestSessionId, "Session not found", httpReq);
+    if (s.isExpired(Instant.now())) {
       throw new ResponseStatusException(HttpStatus.GONE, "Session expired");
     }
-    List<Order> orders = orderRepo.findByGuestSessionIdOrderByCreatedAtDesc(s.id);
+    List<Order> orders = afterId == null
+      ? orderRepo.findByGuestSessionIdOrderByCreatedAtDesc(s.sessionId())
+      : orderRepo.findByGuestSessionIdAndIdGreaterThanOrderByCreatedAtDesc(s.sessionId(), afterId);
     if (orders.isEmpty()) return List.of();
     List<Long> orderIds = orders.stream().map(o -> o.id).toList();
     List<OrderItem> items = orderItemRepo.findByOrderIdIn(orderIds);
@@ -1455,6 +1439,22 @@ public class PublicController {
     return out;
   }
 
+  /**
+   * Long poll for staff chat replies and order status changes. Pass the cursor of the previous answer as
+   * {@code since}; on resync the client reloads chat and orders instead of applying events.
+   */
+  @GetMapping("/updates")
+  public DeferredResult<GuestEventHub.Updates> pollUpdates(
+    @RequestParam("guestSessionId") long guestSessionId,
+    @RequestParam(value = "since", required = false) Long since,
+    jakarta.servlet.http.HttpServletRequest httpReq
+  ) {
+    GuestSessionDirectory.Entry s = requireSession(guestSessionId, "Session not found", httpReq);
+    if (s.isExpired(Instant.now())) {
+      throw new ResponseStatusException(HttpStatus.GONE, "Session expired");
+    }
+    return guestEventHub.poll(s.sessionId(), since);
+  }
 
   // --- Party PIN (group table) ---
   public record CreatePartyRequest(@NotNull Long guestSessionId) {}
@@ -1514,6 +1514,7 @@ public class PublicController {
 
     s.partyId = p.id;
     sessionRepo.save(s);
+    sessionDirectory.saved(s);
 
     return new CreatePartyResponse(p.id, p.pin, p.expiresAt);
   }
@@ -1554,6 +1555,7 @@ public class PublicController {
 
     s.partyId = p.id;
     sessionRepo.save(s);
+    sessionDirectory.saved(s);
 
     return new JoinPartyResponse(p.id, p.pin, p.expiresAt);
   }
@@ -1776,9 +1778,11 @@ public class PublicController {
     wc = waiterCallRepo.save(wc);
     s.lastWaiterCallAt = now;
     sessionRepo.save(s);
+    sessionDirectory.saved(s);
     CafeTable table = tableRepo.findById(s.tableId)
       .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Table not found"));
-    notificationEventService.emit(table.branchId, "WAITER_CALL", wc.id);
+    notificationEventService.emit(table.branchId, "WAITER_CALL", wc.id, table.id, table.hallId);
+    slaAlertService.callCreated(wc, table);
     return new WaiterCallResponse(wc.id, wc.status);
   }
 
@@ -1805,6 +1809,7 @@ public class PublicController {
     }
     latest.status = "CLOSED";
     waiterCallRepo.save(latest);
+    slaAlertService.cancel(SlaAlertService.Kind.CALL, latest.id);
     return new CancelWaiterCallResponse(latest.id, latest.status);
   }
 
@@ -1813,14 +1818,12 @@ public class PublicController {
     @RequestParam("guestSessionId") long guestSessionId,
     jakarta.servlet.http.HttpServletRequest httpReq
   ) {
-    GuestSession s = sessionRepo.findById(guestSessionId)
-      .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Session not found"));
-    requireSessionSecret(s, httpReq);
+    GuestSessionDirectory.Entry s = requireSession(guestSessionId, "Session not found", httpReq);
     List<WaiterCall> calls = waiterCallRepo.findTop100ByTableIdInAndStatusNotOrderByCreatedAtDesc(
-      List.of(s.tableId), "CLOSED"
+      List.of(s.tableId()), "CLOSED"
     );
     for (WaiterCall c : calls) {
-      if (Objects.equals(c.guestSessionId, s.id) && !"CLOSED".equals(c.status)) {
+      if (Objects.equals(c.guestSessionId, s.sessionId()) && !"CLOSED".equals(c.status)) {
         return new WaiterCallStatusResponse(c.id, c.status);
       }
     }
@@ -1828,57 +1831,23 @@ public class PublicController {
   }
 
   private static String normalizeLocale(String s) {
-    if (s == null) return "ru";
-    String v = s.trim().toLowerCase(Locale.ROOT);
-    return switch (v) { case "ru", "ro", "en" -> v; default -> "ru"; };
+    return MenuText.normalizeLocale(s);
   }
 
   private static String pick(String locale, String ru, String ro, String en) {
-    if (locale == null) locale = "ru";
-    return switch (locale) {
-      case "ro" -> (ro != null && !ro.isBlank()) ? ro : ru;
-      case "en" -> (en != null && !en.isBlank()) ? en : ru;
-      default -> ru;
-    };
+    return MenuText.pick(locale, ru, ro, en);
   }
 
   private static List<String> splitCsv(String s) {
-    if (s == null || s.isBlank()) return List.of();
-    String[] parts = s.split(",");
-    List<String> out = new ArrayList<>();
-    for (String p : parts) {
-      String v = p.trim();
-      if (!v.isEmpty()) out.add(v);
-    }
-    return out;
+    return MenuText.splitCsv(s);
   }
 
   private Map<Long, List<String>> loadTagNamesByItemIds(List<Long> itemIds, Long tenantId) {
-    if (itemIds == null || itemIds.isEmpty()) return Map.of();
-    List<MenuItemTag> links = menuItemTagRepo.findByMenuItemIdIn(itemIds);
-    if (links.isEmpty()) return Map.of();
-    Set<Long> tagIds = links.stream().map(l -> l.tagId).collect(Collectors.toSet());
-    if (tagIds.isEmpty()) return Map.of();
-    Map<Long, MenuTag> tagById = new HashMap<>();
-    for (MenuTag t : menuTagRepo.findAllById(tagIds)) {
-      if (!t.isActive) continue;
-      if (tenantId != null && !Objects.equals(t.tenantId, tenantId)) continue;
-      tagById.put(t.id, t);
-    }
-    Map<Long, List<String>> out = new HashMap<>();
-    for (MenuItemTag link : links) {
-      MenuTag t = tagById.get(link.tagId);
-      if (t == null) continue;
-      out.computeIfAbsent(link.menuItemId, k -> new ArrayList<>()).add(t.name);
-    }
-    return out;
+    return menuSnapshotService.loadTagNamesByItemIds(itemIds, tenantId);
   }
 
   private List<String> mergeTags(MenuItem item, Map<Long, List<String>> tagsByItem) {
-    LinkedHashSet<String> out = new LinkedHashSet<>();
-    for (String t : splitCsv(item.tags)) out.add(t);
-    for (String t : tagsByItem.getOrDefault(item.id, List.of())) out.add(t);
-    return new ArrayList<>(out);
+    return MenuText.mergeTags(item.tags, tagsByItem.get(item.id));
   }
 
   private static String getClientIp(jakarta.servlet.http.HttpServletRequest req) {
@@ -1893,6 +1862,19 @@ public class PublicController {
     return req.getHeader("User-Agent");
   }
 
+  private GuestSessionDirectory.Entry requireSession(
+    long guestSessionId,
+    String notFoundMessage,
+    jakarta.servlet.http.HttpServletRequest req
+  ) {
+    GuestSessionDirectory.Entry s = sessionDirectory.find(guestSessionId);
+    if (s == null) {
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, notFoundMessage);
+    }
+    GuestSessionDirectory.requireSecret(s, req.getHeader("X-Session-Secret"));
+    return s;
+  }
+
   private static void requireSessionSecret(GuestSession s, jakarta.servlet.http.HttpServletRequest req) {
     String header = req.getHeader("X-Session-Secret");
     if (s.sessionSecret == null || s.sessionSecret.isBlank()) {
@@ -1903,7 +1885,7 @@ public class PublicController {
     }
   }
 
-  private static class ModSelection {
+  static class ModSelection {
     final String rawJson;
     final Set<Long> optionIds;
     final int totalPriceCents;
@@ -1915,10 +1897,31 @@ public class PublicController {
     }
   }
 
-  private ModSelection parseAndValidateModifiers(long menuItemId, String modifiersJson) {
+  record ModifierContext(Map<Long, List<MenuItemModifierGroup>> linksByItem, Map<Long, ModifierOption> optionById) {}
+
+  private ModifierContext loadModifierContext(List<Long> menuItemIds, boolean withOptions) {
+    Map<Long, List<MenuItemModifierGroup>> linksByItem = new HashMap<>();
+    for (MenuItemModifierGroup link : menuItemModifierGroupRepo.findByMenuItemIdIn(menuItemIds)) {
+      linksByItem.computeIfAbsent(link.menuItemId, k -> new ArrayList<>()).add(link);
+    }
+    for (List<MenuItemModifierGroup> links : linksByItem.values()) {
+      links.sort(Comparator.comparingInt((MenuItemModifierGroup l) -> l.sortOrder).thenComparing(l -> l.id));
+    }
+    Map<Long, ModifierOption> optionById = new HashMap<>();
+    List<Long> groupIds = linksByItem.values().stream().flatMap(List::stream).map(l -> l.groupId).distinct().toList();
+    if (withOptions && !groupIds.isEmpty()) {
+      for (ModifierOption o : modifierOptionRepo.findByGroupIdIn(groupIds)) {
+        if (!o.isActive) continue;
+        optionById.put(o.id, o);
+      }
+    }
+    return new ModifierContext(linksByItem, optionById);
+  }
+
+  static ModSelection parseAndValidateModifiers(long menuItemId, String modifiersJson, ModifierContext ctx) {
     if (modifiersJson == null || modifiersJson.isBlank()) {
       // still need to validate required groups
-      List<MenuItemModifierGroup> links = menuItemModifierGroupRepo.findByMenuItemIdOrderBySortOrderAscIdAsc(menuItemId);
+      List<MenuItemModifierGroup> links = ctx.linksByItem().getOrDefault(menuItemId, List.of());
       for (MenuItemModifierGroup link : links) {
         int min = link.minSelect != null ? link.minSelect : (link.isRequired ? 1 : 0);
         if (min > 0) {
@@ -1946,7 +1949,7 @@ public class PublicController {
       throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid modifiersJson");
     }
 
-    List<MenuItemModifierGroup> links = menuItemModifierGroupRepo.findByMenuItemIdOrderBySortOrderAscIdAsc(menuItemId);
+    List<MenuItemModifierGroup> links = ctx.linksByItem().getOrDefault(menuItemId, List.of());
     if (links.isEmpty()) {
       if (!selected.isEmpty()) {
         throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Modifiers not allowed for item");
@@ -1956,25 +1959,15 @@ public class PublicController {
 
     Map<Long, MenuItemModifierGroup> linkByGroup = new HashMap<>();
     for (MenuItemModifierGroup link : links) linkByGroup.put(link.groupId, link);
-    List<Long> groupIds = links.stream().map(l -> l.groupId).toList();
-    List<ModifierOption> options = modifierOptionRepo.findByGroupIdIn(groupIds);
-    Map<Long, ModifierOption> optionById = new HashMap<>();
-    for (ModifierOption o : options) {
-      if (!o.isActive) continue;
-      optionById.put(o.id, o);
-    }
 
     Map<Long, Integer> countByGroup = new HashMap<>();
     int totalPrice = 0;
     for (Long optId : selected) {
-      ModifierOption opt = optionById.get(optId);
-      if (opt == null) {
+      // The context holds options of every item in the order; only this item's groups count.
+      ModifierOption opt = ctx.optionById().get(optId);
+      if (opt == null || !linkByGroup.containsKey(opt.groupId)) {
         throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown modifier option: " + optId);
       }
-      MenuItemModifierGroup link = linkByGroup.get(opt.groupId);
-      if (link == null) {
-        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Modifier option not allowed for this item: " + optId);
-      }
       countByGroup.put(opt.groupId, countByGroup.getOrDefault(opt.groupId, 0) + 1);
       totalPrice += opt.priceCents;
     }
@@ -2150,7 +2143,7 @@ public class PublicController {
     List<BillItemLine> items
   ) {}
 
-  private record ResolvedDiscount(String code, String label, int amountCents, Long discountId) {}
+  private record ResolvedDiscount(String code, String label, int amountCents, Long discountId, boolean limited, boolean coupon) {}
 
   private ResolvedDiscount resolveDiscount(long branchId, String promoCode, Instant now, int subtotalCents) {
     String code = promoCode == null ? null : promoCode.trim();
@@ -2172,7 +2165,7 @@ public class PublicController {
       }
       int amount = calculateDiscountCents(subtotalCents, d);
       if (amount <= 0) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Promo code invalid");
-      return new ResolvedDiscount(d.code, d.label, amount, d.id);
+      return new ResolvedDiscount(d.code, d.label, amount, d.id, d.maxUses != null, true);
     }
 
     List<BranchDiscount> happyHours = branchDiscountRepo.findByBranchIdAndScopeAndActiveTrue(branchId, "HAPPY_HOUR");
@@ -2183,13 +2176,13 @@ public class PublicController {
       int amount = calculateDiscountCents(subtotalCents, d);
       if (amount <= 0) continue;
       if (best == null || amount > best.amountCents) {
-        best = new ResolvedDiscount(d.code, d.label, amount, d.id);
+        best = new ResolvedDiscount(d.code, d.label, amount, d.id, d.maxUses != null, false);
       }
     }
     return best;
   }
 
-  private boolean isDiscountWindowActive(BranchDiscount d, Instant now) {
+  static boolean isDiscountWindowActive(BranchDiscount d, Instant now) {
     if (d.startsAt != null && now.isBefore(d.startsAt)) return false;
     if (d.endsAt != null && now.isAfter(d.endsAt)) return false;
     if (d.startMinute == null || d.endMinute == null) return false;
@@ -2208,7 +2201,7 @@ public class PublicController {
     return minute >= start || minute <= end;
   }
 
-  private int calculateDiscountCents(int subtotalCents, BranchDiscount d) {
+  static int calculateDiscountCents(int subtotalCents, BranchDiscount d) {
     if (subtotalCents <= 0) return 0;
     if ("PERCENT".equalsIgnoreCase(d.type)) {
       if (d.value <= 0 || d.value > 100) return 0;
@@ -2328,7 +2321,7 @@ public class PublicController {
       Map<Long, OrderItem> byId = new HashMap<>();
       for (OrderItem oi : openItems) byId.put(oi.id, oi);
       List<OrderItem> out = new ArrayList<>();
-      for (Long id : req.orderItemIds) {
+      for (Long id : req.orderItemIds.stream().distinct().toList()) {
         OrderItem oi = byId.get(id);
         if (oi == null) {
           throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Order item not available: " + id);
@@ -2399,29 +2392,16 @@ public class PublicController {
     br.createdByIp = getClientIp(httpReq);
     br.createdByUa = getUserAgent(httpReq);
 
-    br = billRequestRepo.save(br);
+    BillReservationService.DiscountUse discountUse = null;
+    if (resolvedDiscount != null && discountCode != null && resolvedDiscount.limited) {
+      discountUse = new BillReservationService.DiscountUse(resolvedDiscount.discountId, resolvedDiscount.coupon);
+    }
+    br = billReservationService.reserve(br, selected.stream().map(oi -> oi.id).toList(), discountUse);
     s.lastBillRequestAt = now;
     sessionRepo.save(s);
-    notificationEventService.emit(table.branchId, "BILL_REQUEST", br.id);
-    if (resolvedDiscount != null && discountCode != null) {
-      BranchDiscount d = branchDiscountRepo.findById(resolvedDiscount.discountId).orElse(null);
-      if (d != null && d.maxUses != null) {
-        d.usedCount = Math.min(d.usedCount + 1, d.maxUses);
-        branchDiscountRepo.save(d);
-      }
-    }
-
-    for (OrderItem oi : selected) {
-      BillRequestItem bri = new BillRequestItem();
-      bri.billRequestId = br.id;
-      bri.orderItemId = oi.id;
-      bri.lineTotalCents = oi.unitPriceCents * oi.qty;
-      billRequestItemRepo.save(bri);
-
-      // mark reserved to this bill request (but not closed yet)
-      oi.billRequestId = br.id;
-      orderItemRepo.save(oi);
-    }
+    sessionDirectory.saved(s);
+    notificationEventService.emit(table.branchId, "BILL_REQUEST", br.id, table.id, table.hallId);
+    slaAlertService.billCreated(br, table);
 
     return new BillRequestResponse(
       br.id,
@@ -2490,10 +2470,8 @@ public class PublicController {
     @RequestParam("guestSessionId") long guestSessionId,
     jakarta.servlet.http.HttpServletRequest httpReq
   ) {
-    GuestSession s = sessionRepo.findById(guestSessionId)
-      .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Session not found"));
-    requireSessionSecret(s, httpReq);
-    BillRequest br = billRequestRepo.findTopByGuestSessionIdOrderByCreatedAtDesc(s.id);
+    GuestSessionDirectory.Entry s = requireSession(guestSessionId, "Session not found", httpReq);
+    BillRequest br = billRequestRepo.findTopByGuestSessionIdOrderByCreatedAtDesc(s.sessionId());
     if (br == null) {
       throw new ResponseStatusException(HttpStatus.NOT_FOUND, "BillRequest not found");
     }
@@ -2551,6 +2529,7 @@ public class PublicController {
     }
     br.status = "CANCELLED";
     billRequestRepo.save(br);
+    slaAlertService.cancel(SlaAlertService.Kind.BILL, br.id);
 
     List<BillRequestItem> items = billRequestItemRepo.findByBillRequestId(br.id);
     for (BillRequestItem it : items) {
@@ -2765,37 +2744,12 @@ public class PublicController {
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("currency_mismatch");
       }
     }
-    PaymentTransaction lastTx = paymentTransactionRepo.findTopByIntentIdOrderByIdDesc(intent.id).orElse(null);
     String nextStatus = result.status() == null ? intent.status : result.status();
-    if (lastTx != null && lastTx.status != null
-      && lastTx.status.equalsIgnoreCase(nextStatus)
-      && Objects.equals(lastTx.providerRef, intent.providerRef)
-      && lastTx.amountCents == intent.amountCents
-    ) {
+    // Providers resend the same event until acknowledged; only the first copy is stored.
+    String dedupeKey = nextStatus + ":" + result.providerRef();
+    if (!paymentWebhookInbox.accept(p.code(), dedupeKey, intent.id, nextStatus, body)) {
       return ResponseEntity.ok("duplicate");
     }
-    intent.status = nextStatus;
-    intent.updatedAt = Instant.now();
-    paymentIntentRepo.save(intent);
-
-    PaymentTransaction tx = new PaymentTransaction();
-    tx.intentId = intent.id;
-    tx.provider = intent.provider;
-    tx.status = intent.status;
-    tx.amountCents = intent.amountCents;
-    tx.providerRef = intent.providerRef;
-    paymentTransactionRepo.save(tx);
-
-    if ("PAID".equalsIgnoreCase(intent.status)) {
-      BillRequest br = billRequestRepo.findById(intent.billRequestId).orElse(null);
-      if (br != null && "CREATED".equalsIgnoreCase(br.status)) {
-        br.status = "PAID_CONFIRMED";
-        br.confirmedAt = Instant.now();
-        billRequestRepo.save(br);
-        loyaltyService.applyBillPaid(br);
-      }
-    }
-
     return ResponseEntity.ok("ok");
   }
 
@@ -38,6 +38,11 @@ import md.virtualwaiter.service.LoyaltyService;
 import md.virtualwaiter.service.AuditService;
 import md.virtualwaiter.config.BillProperties;
 import md.virtualwaiter.service.StaffNotificationService;
+import md.virtualwaiter.service.NotificationEventService;
+import md.virtualwaiter.service.StaffEventHub;
+import md.virtualwaiter.service.ChatThreadService;
+import md.virtualwaiter.service.GuestEventHub;
+import md.virtualwaiter.service.SlaAlertService;
 import md.virtualwaiter.repo.NotificationEventRepo;
 import md.virtualwaiter.domain.NotificationEvent;
 import md.virtualwaiter.repo.StaffDeviceTokenRepo;
@@ -46,16 +51,19 @@ import md.virtualwaiter.repo.AuditLogRepo;
 import md.virtualwaiter.domain.AuditLog;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.time.Instant;
 import java.time.LocalDate;
@@ -63,7 +71,6 @@ import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -101,6 +108,11 @@ public class StaffController {
   private final StatsService statsService;
   private final LoyaltyService loyaltyService;
   private final AuditService auditService;
+  private final NotificationEventService notificationEventService;
+  private final StaffEventHub eventHub;
+  private final ChatThreadService chatThreadService;
+  private final GuestEventHub guestEventHub;
+  private final SlaAlertService slaAlertService;
 
   public StaffController(
     StaffUserRepo staffUserRepo,
@@ -129,7 +141,12 @@ public class StaffController {
     BillProperties billProperties,
     StatsService statsService,
     LoyaltyService loyaltyService,
-    AuditService auditService
+    AuditService auditService,
+    NotificationEventService notificationEventService,
+    StaffEventHub eventHub,
+    ChatThreadService chatThreadService,
+    GuestEventHub guestEventHub,
+    SlaAlertService slaAlertService
   ) {
     this.staffUserRepo = staffUserRepo;
     this.chatMessageRepo = chatMessageRepo;
@@ -158,6 +175,11 @@ public class StaffController {
     this.statsService = statsService;
     this.loyaltyService = loyaltyService;
     this.auditService = auditService;
+    this.notificationEventService = notificationEventService;
+    this.eventHub = eventHub;
+    this.chatThreadService = chatThreadService;
+    this.guestEventHub = guestEventHub;
+    this.slaAlertService = slaAlertService;
   }
 
   private static final Set<String> ROLE_ADMIN_LIKE = Set.of("ADMIN", "MANAGER", "SUPER_ADMIN", "OWNER");
@@ -328,7 +350,8 @@ public class StaffController {
     String lastSenderRole,
     String lastAt,
     String lastReadAt,
-    boolean unread
+    boolean unread,
+    long lastMessageId
   ) {}
 
   public record ChatMessageDto(long id, String senderRole, String message, String createdAt) {}
@@ -406,43 +429,25 @@ public class StaffController {
   public List<ChatThreadDto> chatThreads(
     @RequestParam(value = "limit", required = false) Integer limit,
     @RequestParam(value = "hallId", required = false) Long hallId,
+    @RequestParam(value = "beforeId", required = false) Long beforeId,
     Authentication auth
   ) {
     StaffUser u = requireRole(auth, "WAITER", "KITCHEN", "ADMIN");
     hallId = enforceHallScope(u, hallId);
     int lim = limit == null ? 50 : Math.min(Math.max(limit, 1), 200);
-    List<ChatMessage> all = chatMessageRepo.findByBranchIdOrderByIdDesc(u.branchId);
-    Map<Long, ChatMessage> latestBySession = new LinkedHashMap<>();
-    for (ChatMessage m : all) {
-      if (latestBySession.size() >= lim) break;
-      if (latestBySession.containsKey(m.guestSessionId)) continue;
-      if (hallId != null) {
-        CafeTable t = tableRepo.findById(m.tableId).orElse(null);
-        if (t == null || !Objects.equals(t.hallId, hallId)) continue;
-      }
-      latestBySession.put(m.guestSessionId, m);
-    }
-    Map<Long, CafeTable> tableById = new HashMap<>();
-    for (ChatMessage m : latestBySession.values()) {
-      if (!tableById.containsKey(m.tableId)) {
-        tableRepo.findById(m.tableId).ifPresent(t -> tableById.put(t.id, t));
-      }
-    }
+    if (u.branchId == null) return List.of();
+    List<ChatThreadService.InboxRow> rows = chatThreadService.inbox(u.branchId, u.id, hallId, beforeId, lim);
     List<ChatThreadDto> out = new ArrayList<>();
-    for (ChatMessage m : latestBySession.values()) {
-      CafeTable t = tableById.get(m.tableId);
-      ChatRead read = chatReadRepo.findByStaffUserIdAndGuestSessionId(u.id, m.guestSessionId).orElse(null);
-      String lastReadAt = read != null && read.lastReadAt != null ? read.lastReadAt.toString() : null;
-      boolean unread = "GUEST".equalsIgnoreCase(m.senderRole)
-        && (read == null || (m.createdAt != null && read.lastReadAt != null && m.createdAt.isAfter(read.lastReadAt)));
+    for (ChatThreadService.InboxRow r : rows) {
       out.add(new ChatThreadDto(
-        m.guestSessionId,
-        t != null ? t.number : 0,
-        m.message,
-        m.senderRole,
-        m.createdAt != null ? m.createdAt.toString() : null,
-        lastReadAt,
-        unread
+        r.guestSessionId(),
+        r.tableNumber() != null ? r.tableNumber() : 0,
+        r.lastMessage(),
+        r.lastSenderRole(),
+        r.lastAt() != null ? r.lastAt().toString() : null,
+        r.lastReadAt() != null ? r.lastReadAt().toString() : null,
+        r.isUnread(),
+        r.lastMessageId()
       ));
     }
     return out;
@@ -493,7 +498,8 @@ public class StaffController {
     m.senderRole = "STAFF";
     m.staffUserId = u.id;
     m.message = msg;
-    chatMessageRepo.save(m);
+    m = chatThreadService.append(m);
+    guestEventHub.publish(s.id, GuestEventHub.CHAT, m.id, null);
     auditService.log(u, "SEND", "ChatMessage", m.id, "{\"guestSessionId\":" + m.guestSessionId + "}");
   }
 
@@ -1048,6 +1054,13 @@ public class StaffController {
       }
     }
     orderRepo.save(o);
+    if (!Objects.equals(prevStatus, next)) {
+      notificationEventService.record(t.branchId, "ORDER_STATUS", o.id, t.id, t.hallId);
+      if (o.guestSessionId != null) {
+        guestEventHub.publish(o.guestSessionId, GuestEventHub.ORDER, o.id, next);
+      }
+      slaAlertService.orderStatusChanged(o.id, next);
+    }
     auditService.log(u, "UPDATE_STATUS", "Order", o.id, "{\"from\":\"" + (prevStatus == null ? "" : prevStatus) + "\",\"to\":\"" + next + "\"}");
   }
 
@@ -1132,6 +1145,7 @@ public class StaffController {
     }
     c.status = next;
     waiterCallRepo.save(c);
+    if ("CLOSED".equals(next)) slaAlertService.cancel(SlaAlertService.Kind.CALL, c.id);
     auditService.log(u, "UPDATE_STATUS", "WaiterCall", c.id, "{\"to\":\"" + next + "\"}");
     return new UpdateWaiterCallStatusRes(c.id, c.status);
   }
@@ -1226,6 +1240,7 @@ public class StaffController {
     br.confirmedAt = java.time.Instant.now();
     br.confirmedByStaffId = staff.id;
     billRequestRepo.save(br);
+    slaAlertService.cancel(SlaAlertService.Kind.BILL, br.id);
     loyaltyService.applyBillPaid(br);
 
     // Close order items
@@ -1270,6 +1285,7 @@ public class StaffController {
     }
     br.status = "CANCELLED";
     billRequestRepo.save(br);
+    slaAlertService.cancel(SlaAlertService.Kind.BILL, br.id);
 
     List<BillRequestItem> items = billRequestItemRepo.findByBillRequestId(br.id);
     for (BillRequestItem it : items) {
@@ -1319,12 +1335,37 @@ public class StaffController {
     List<NotificationEventDto> out = new ArrayList<>();
     long last = from;
     for (NotificationEvent e : list) {
-      out.add(new NotificationEventDto(e.id, e.eventType, e.refId, e.createdAt.toString()));
       if (e.id > last) last = e.id;
+      // Status transitions are only streamed; the polling feed keeps its original event set.
+      if ("ORDER_STATUS".equals(e.eventType)) continue;
+      out.add(new NotificationEventDto(e.id, e.eventType, e.refId, e.createdAt.toString()));
     }
     return new NotificationFeedResponse(last, out);
   }
 
+  @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter stream(
+    @RequestParam(value = "hallId", required = false) Long hallId,
+    @RequestParam(value = "lastEventId", required = false) Long lastEventIdParam,
+    @RequestHeader(value = "Last-Event-ID", required = false) String lastEventIdHeader,
+    Authentication auth
+  ) {
+    StaffUser u = requireRole(auth, "WAITER", "KITCHEN", "ADMIN");
+    if (u.branchId == null) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "User has no branch");
+    }
+    Long hallScoped = enforceHallScope(u, hallId);
+    Long lastEventId = lastEventIdParam;
+    if (lastEventIdHeader != null && !lastEventIdHeader.isBlank()) {
+      try {
+        lastEventId = Long.parseLong(lastEventIdHeader.trim());
+      } catch (NumberFormatException e) {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid Last-Event-ID");
+      }
+    }
+    return eventHub.subscribe(u.branchId, hallScoped, lastEventId);
+  }
+
   // --- Device tokens (push) ---
   public record RegisterDeviceRequest(String token, String platform, String deviceId, String deviceName) {}
   public record RegisterDeviceResponse(boolean registered) {}
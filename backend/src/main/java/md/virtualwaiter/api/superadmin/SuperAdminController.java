@@ -27,10 +27,12 @@ import md.virtualwaiter.repo.StaffUserRepo;
 import md.virtualwaiter.repo.TenantFeatureFlagRepo;
 import md.virtualwaiter.repo.TenantRepo;
 import md.virtualwaiter.service.StatsService;
+import md.virtualwaiter.service.CsvExportService;
 import md.virtualwaiter.service.AuditService;
 import md.virtualwaiter.service.GuestConsentService;
 import md.virtualwaiter.service.GuestFlagService;
 import md.virtualwaiter.security.AuthzService;
+import md.virtualwaiter.security.PrincipalContextService;
 import md.virtualwaiter.security.Permission;
 import md.virtualwaiter.security.PermissionUtils;
 import md.virtualwaiter.security.RolePermissions;
@@ -38,9 +40,7 @@ import md.virtualwaiter.security.TotpService;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -50,10 +50,12 @@ import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.beans.factory.annotation.Value;
 
 import java.net.URI;
@@ -93,6 +95,8 @@ public class SuperAdminController {
   private final MenuItemRepo menuItemRepo;
   private final PasswordEncoder passwordEncoder;
   private final StatsService statsService;
+  private final CsvExportService csvExportService;
+  private final PrincipalContextService principalContext;
   private final AuditService auditService;
   private final GuestConsentService guestConsentService;
   private final GuestFlagService guestFlagService;
@@ -119,6 +123,8 @@ public class SuperAdminController {
     MenuItemRepo menuItemRepo,
     PasswordEncoder passwordEncoder,
     StatsService statsService,
+    CsvExportService csvExportService,
+    PrincipalContextService principalContext,
     AuditService auditService,
     GuestConsentService guestConsentService,
     GuestFlagService guestFlagService,
@@ -144,6 +150,8 @@ public class SuperAdminController {
     this.menuItemRepo = menuItemRepo;
     this.passwordEncoder = passwordEncoder;
     this.statsService = statsService;
+    this.csvExportService = csvExportService;
+    this.principalContext = principalContext;
     this.auditService = auditService;
     this.guestConsentService = guestConsentService;
     this.guestFlagService = guestFlagService;
@@ -226,7 +234,7 @@ public class SuperAdminController {
     u.totpEnabled = false;
     staffUserRepo.save(u);
     String otpauth = totpService.buildOtpauthUrl(u.username, "VirtualWaiter", secret);
-    auditService.log(u, "UPDATE", "StaffUser2FA", u.id, "setup");
+    auditService.logDurable(u, "UPDATE", "StaffUser2FA", u.id, "setup");
     return new TotpSetupResponse(secret, otpauth, false);
   }
 
@@ -241,7 +249,7 @@ public class SuperAdminController {
     }
     u.totpEnabled = true;
     staffUserRepo.save(u);
-    auditService.log(u, "UPDATE", "StaffUser2FA", u.id, "enable");
+    auditService.logDurable(u, "UPDATE", "StaffUser2FA", u.id, "enable");
     return new TotpStatusResponse(true, true);
   }
 
@@ -257,7 +265,7 @@ public class SuperAdminController {
     u.totpEnabled = false;
     u.totpSecret = null;
     staffUserRepo.save(u);
-    auditService.log(u, "UPDATE", "StaffUser2FA", u.id, "disable");
+    auditService.logDurable(u, "UPDATE", "StaffUser2FA", u.id, "disable");
     return new TotpStatusResponse(false, false);
   }
 
@@ -897,6 +905,7 @@ public class SuperAdminController {
     if (req.isActive != null) r.isActive = req.isActive;
     if (req.readOnly != null) r.readOnly = req.readOnly;
     r = restaurantRepo.save(r);
+    if (req.readOnly != null) principalContext.invalidateAllBranches();
     auditService.log(u, "UPDATE", "Restaurant", r.id, null);
     return new RestaurantDto(
       r.id,
@@ -1068,6 +1077,7 @@ public class SuperAdminController {
     if (req.isActive != null) b.isActive = req.isActive;
     if (req.readOnly != null) b.readOnly = req.readOnly;
     b = branchRepo.save(b);
+    principalContext.invalidateBranch(b.id);
     auditService.log(u, "UPDATE", "Branch", b.id, null);
     return new BranchDto(
       b.id,
@@ -1168,7 +1178,7 @@ public class SuperAdminController {
     su.experienceYears = sanitizeExperienceYears(req.experienceYears);
     su.favoriteItems = sanitizeFavoriteItems(req.favoriteItems);
     su = staffUserRepo.save(su);
-    auditService.log(u, "CREATE", "StaffUser", su.id, null);
+    auditService.logDurable(u, "CREATE", "StaffUser", su.id, null);
     return new StaffUserDto(
       su.id, su.branchId, su.hallId, su.username, su.role, su.permissions, su.isActive,
       su.firstName, su.lastName, su.age, su.gender, su.photoUrl,
@@ -1241,7 +1251,8 @@ public class SuperAdminController {
     if (req.experienceYears != null) su.experienceYears = sanitizeExperienceYears(req.experienceYears);
     if (req.favoriteItems != null) su.favoriteItems = sanitizeFavoriteItems(req.favoriteItems);
     su = staffUserRepo.save(su);
-    auditService.log(u, "UPDATE", "StaffUser", su.id, null);
+    principalContext.invalidateStaff(su.id);
+    auditService.logDurable(u, "UPDATE", "StaffUser", su.id, null);
     String nextPerms = normalizePermsForAudit(su.permissions);
     if (!Objects.equals(prevRole, su.role) || !Objects.equals(prevPerms, nextPerms)) {
       Map<String, Object> details = new java.util.HashMap<>();
@@ -1253,7 +1264,7 @@ public class SuperAdminController {
         details.put("permissionsFrom", prevPerms);
         details.put("permissionsTo", nextPerms);
       }
-      auditService.log(u, "ROLE_PERMISSIONS_CHANGE", "StaffUser", su.id, toJsonSafe(details));
+      auditService.logDurable(u, "ROLE_PERMISSIONS_CHANGE", "StaffUser", su.id, toJsonSafe(details));
     }
     return new StaffUserDto(
       su.id, su.branchId, su.hallId, su.username, su.role, su.permissions, su.isActive,
@@ -1289,7 +1300,8 @@ public class SuperAdminController {
       .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Staff user not found"));
     tableRepo.clearAssignedWaiter(su.id);
     staffUserRepo.delete(su);
-    auditService.log(u, "DELETE", "StaffUser", su.id, null);
+    principalContext.invalidateStaff(su.id);
+    auditService.logDurable(u, "DELETE", "StaffUser", su.id, null);
   }
 
   // --- Stats ---
@@ -1504,7 +1516,7 @@ public class SuperAdminController {
   }
 
   @GetMapping("/stats/top-items.csv")
-  public ResponseEntity<String> getTopItemsCsv(
+  public ResponseEntity<StreamingResponseBody> getTopItemsCsv(
     @RequestParam(value = "tenantId") Long tenantId,
     @RequestParam(value = "from", required = false) String from,
     @RequestParam(value = "to", required = false) String to,
@@ -1535,19 +1547,16 @@ public class SuperAdminController {
       guestPhone,
       lim
     );
-    StringBuilder sb = new StringBuilder();
-    sb.append("menu_item_id,name,qty,gross_cents\n");
-    for (StatsService.TopItemRow r : rows) {
-      sb.append(r.menuItemId()).append(',')
-        .append(r.name() == null ? "" : r.name().replace(",", " ")).append(',')
-        .append(r.qty()).append(',')
-        .append(r.grossCents()).append('\n');
-    }
     String filename = "tenant-top-items-" + tenantId + ".csv";
-    return ResponseEntity.ok()
-      .contentType(MediaType.parseMediaType("text/csv"))
-      .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-      .body(sb.toString());
+    return csvExportService.stream(
+      filename,
+      List.of("menu_item_id", "name", "qty", "gross_cents"),
+      csv -> {
+        for (StatsService.TopItemRow r : rows) {
+          csv.row(r.menuItemId(), r.name(), r.qty(), r.grossCents());
+        }
+      }
+    );
   }
 
   @GetMapping("/stats/top-waiters")
@@ -1593,7 +1602,7 @@ public class SuperAdminController {
   }
 
   @GetMapping("/stats/top-waiters.csv")
-  public ResponseEntity<String> getTopWaitersCsv(
+  public ResponseEntity<StreamingResponseBody> getTopWaitersCsv(
     @RequestParam(value = "tenantId") Long tenantId,
     @RequestParam(value = "from", required = false) String from,
     @RequestParam(value = "to", required = false) String to,
@@ -1621,24 +1630,20 @@ public class SuperAdminController {
       shiftToTs,
       guestPhone
     );
-    StringBuilder sb = new StringBuilder();
-    sb.append("staff_user_id,username,orders_count,tips_cents,avg_sla_minutes\n");
-    for (StatsService.WaiterMotivationRow r : rows) {
-      sb.append(r.staffUserId()).append(',')
-        .append(r.username() == null ? "" : r.username().replace(",", " ")).append(',')
-        .append(r.ordersCount()).append(',')
-        .append(r.tipsCents()).append(',')
-        .append(r.avgSlaMinutes() == null ? "" : r.avgSlaMinutes()).append('\n');
-    }
     String filename = "tenant-top-waiters-" + tenantId + ".csv";
-    return ResponseEntity.ok()
-      .contentType(MediaType.parseMediaType("text/csv"))
-      .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-      .body(sb.toString());
+    return csvExportService.stream(
+      filename,
+      List.of("staff_user_id", "username", "orders_count", "tips_cents", "avg_sla_minutes"),
+      csv -> {
+        for (StatsService.WaiterMotivationRow r : rows) {
+          csv.row(r.staffUserId(), r.username(), r.ordersCount(), r.tipsCents(), r.avgSlaMinutes());
+        }
+      }
+    );
   }
 
   @GetMapping("/stats/summary.csv")
-  public ResponseEntity<String> getSummaryCsv(
+  public ResponseEntity<StreamingResponseBody> getSummaryCsv(
     @RequestParam(value = "tenantId") Long tenantId,
     @RequestParam(value = "from", required = false) String from,
     @RequestParam(value = "to", required = false) String to,
@@ -1668,29 +1673,30 @@ public class SuperAdminController {
     );
     BranchReviewAgg reviewsAgg = branchReviewAggForTenant(tenantId, fromTs, toTs, branchId);
     long avgCheckCents = s.paidBillsCount() == 0 ? 0L : (s.grossCents() / s.paidBillsCount());
-    StringBuilder sb = new StringBuilder();
-    sb.append("from,to,orders,calls,paid_bills,gross_cents,tips_cents,active_tables,avg_check_cents,avg_sla_minutes,avg_branch_rating,branch_reviews_count\n");
-    sb.append(s.from()).append(',')
-      .append(s.to()).append(',')
-      .append(s.ordersCount()).append(',')
-      .append(s.callsCount()).append(',')
-      .append(s.paidBillsCount()).append(',')
-      .append(s.grossCents()).append(',')
-      .append(s.tipsCents()).append(',')
-      .append(s.activeTablesCount()).append(',')
-      .append(avgCheckCents).append(',')
-      .append(s.avgSlaMinutes() == null ? "" : s.avgSlaMinutes()).append(',')
-      .append(reviewsAgg.avgRating).append(',')
-      .append(reviewsAgg.count).append('\n');
     String filename = "tenant-summary-" + tenantId + ".csv";
-    return ResponseEntity.ok()
-      .contentType(MediaType.parseMediaType("text/csv"))
-      .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-      .body(sb.toString());
+    return csvExportService.stream(
+      filename,
+      List.of("from", "to", "orders", "calls", "paid_bills", "gross_cents", "tips_cents", "active_tables",
+        "avg_check_cents", "avg_sla_minutes", "avg_branch_rating", "branch_reviews_count"),
+      csv -> csv.row(
+        s.from(),
+        s.to(),
+        s.ordersCount(),
+        s.callsCount(),
+        s.paidBillsCount(),
+        s.grossCents(),
+        s.tipsCents(),
+        s.activeTablesCount(),
+        avgCheckCents,
+        s.avgSlaMinutes(),
+        reviewsAgg.avgRating,
+        reviewsAgg.count
+      )
+    );
   }
 
   @GetMapping("/stats/branches.csv")
-  public ResponseEntity<String> getBranchSummaryCsv(
+  public ResponseEntity<StreamingResponseBody> getBranchSummaryCsv(
     @RequestParam(value = "tenantId") Long tenantId,
     @RequestParam(value = "from", required = false) String from,
     @RequestParam(value = "to", required = false) String to,
@@ -1726,27 +1732,30 @@ public class SuperAdminController {
     Map<Long, String> restaurantNames = restaurantIds.isEmpty()
       ? Map.of()
       : restaurantRepo.findAllById(restaurantIds).stream().collect(Collectors.toMap(r -> r.id, r -> r.name));
-    StringBuilder sb = new StringBuilder();
-    sb.append("branch_id,branch_name,restaurant_id,restaurant_name,orders,calls,paid_bills,gross_cents,tips_cents\n");
-    for (StatsService.BranchSummaryRow r : rows) {
-      Branch b = branchMap.get(r.branchId());
-      Long restaurantId = b == null ? null : b.restaurantId;
-      String restaurantName = restaurantId == null ? "" : restaurantNames.getOrDefault(restaurantId, "");
-      sb.append(r.branchId()).append(',')
-        .append(r.branchName()).append(',')
-        .append(restaurantId == null ? "" : restaurantId).append(',')
-        .append(restaurantName.replace(",", " ")).append(',')
-        .append(r.ordersCount()).append(',')
-        .append(r.callsCount()).append(',')
-        .append(r.paidBillsCount()).append(',')
-        .append(r.grossCents()).append(',')
-        .append(r.tipsCents()).append('\n');
-    }
     String filename = "tenant-branches-" + tenantId + ".csv";
-    return ResponseEntity.ok()
-      .contentType(MediaType.parseMediaType("text/csv"))
-      .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-      .body(sb.toString());
+    return csvExportService.stream(
+      filename,
+      List.of("branch_id", "branch_name", "restaurant_id", "restaurant_name", "orders", "calls", "paid_bills",
+        "gross_cents", "tips_cents"),
+      csv -> {
+        for (StatsService.BranchSummaryRow r : rows) {
+          Branch b = branchMap.get(r.branchId());
+          Long restaurantId = b == null ? null : b.restaurantId;
+          String restaurantName = restaurantId == null ? "" : restaurantNames.getOrDefault(restaurantId, "");
+          csv.row(
+            r.branchId(),
+            r.branchName(),
+            restaurantId,
+            restaurantName,
+            r.ordersCount(),
+            r.callsCount(),
+            r.paidBillsCount(),
+            r.grossCents(),
+            r.tipsCents()
+          );
+        }
+      }
+    );
   }
 
   @GetMapping("/combos")
@@ -1770,7 +1779,7 @@ public class SuperAdminController {
   }
 
   @GetMapping("/combos.csv")
-  public ResponseEntity<String> getCombosReportCsv(
+  public ResponseEntity<StreamingResponseBody> getCombosReportCsv(
     @RequestParam(value = "tenantId") Long tenantId,
     @RequestParam(value = "restaurantId", required = false) Long restaurantId,
     @RequestParam(value = "branchId", required = false) Long branchId,
@@ -1778,24 +1787,27 @@ public class SuperAdminController {
   ) {
     requireSuper(auth);
     List<ComboReportRow> rows = buildComboReport(tenantId, restaurantId, branchId, null, null);
-    StringBuilder sb = new StringBuilder();
-    sb.append("combo_id,tenant_id,restaurant_id,branch_id,menu_item_id,menu_item_name,is_active,items_count,items_summary\n");
-    for (ComboReportRow r : rows) {
-      sb.append(r.comboId() == null ? "" : r.comboId()).append(',')
-        .append(r.tenantId() == null ? "" : r.tenantId()).append(',')
-        .append(r.restaurantId() == null ? "" : r.restaurantId()).append(',')
-        .append(r.branchId() == null ? "" : r.branchId()).append(',')
-        .append(r.menuItemId() == null ? "" : r.menuItemId()).append(',')
-        .append(r.menuItemName() == null ? "" : r.menuItemName().replace(",", " ")).append(',')
-        .append(r.active()).append(',')
-        .append(r.itemsCount()).append(',')
-        .append(r.itemsSummary() == null ? "" : r.itemsSummary().replace(",", " ")).append('\n');
-    }
     String filename = "tenant-combos-" + tenantId + ".csv";
-    return ResponseEntity.ok()
-      .contentType(MediaType.parseMediaType("text/csv"))
-      .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-      .body(sb.toString());
+    return csvExportService.stream(
+      filename,
+      List.of("combo_id", "tenant_id", "restaurant_id", "branch_id", "menu_item_id", "menu_item_name", "is_active",
+        "items_count", "items_summary"),
+      csv -> {
+        for (ComboReportRow r : rows) {
+          csv.row(
+            r.comboId(),
+            r.tenantId(),
+            r.restaurantId(),
+            r.branchId(),
+            r.menuItemId(),
+            r.menuItemName(),
+            r.active(),
+            r.itemsCount(),
+            r.itemsSummary()
+          );
+        }
+      }
+    );
   }
 
   private List<ComboReportRow> buildComboReport(
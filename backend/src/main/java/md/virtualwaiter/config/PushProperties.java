@@ -14,6 +14,12 @@ public class PushProperties {
   private boolean dryRun = false;
   /** Max payload size (bytes) */
   private int maxPayloadBytes = 4096;
+  /** Pending push events kept in memory; newer events are dropped when full */
+  private int queueCapacity = 1000;
+  /** Max in-flight provider requests */
+  private int maxConcurrentSends = 8;
+  /** Per-request timeout (ms) for provider calls */
+  private int sendTimeoutMs = 5000;
 
   public String getProvider() {
     return provider;
@@ -54,4 +60,28 @@ public class PushProperties {
   public void setMaxPayloadBytes(int maxPayloadBytes) {
     this.maxPayloadBytes = maxPayloadBytes;
   }
+
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  public void setQueueCapacity(int queueCapacity) {
+    this.queueCapacity = queueCapacity;
+  }
+
+  public int getMaxConcurrentSends() {
+    return maxConcurrentSends;
+  }
+
+  public void setMaxConcurrentSends(int maxConcurrentSends) {
+    this.maxConcurrentSends = maxConcurrentSends;
+  }
+
+  public int getSendTimeoutMs() {
+    return sendTimeoutMs;
+  }
+
+  public void setSendTimeoutMs(int sendTimeoutMs) {
+    this.sendTimeoutMs = sendTimeoutMs;
+  }
 }
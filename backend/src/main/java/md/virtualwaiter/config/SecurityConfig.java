@@ -1,6 +1,5 @@
 package md.virtualwaiter.config;
 
-import md.virtualwaiter.repo.StaffUserRepo;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -13,6 +12,7 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 import md.virtualwaiter.security.AuthCookieFilter;
+import md.virtualwaiter.security.PrincipalContextService;
 import md.virtualwaiter.security.ReadOnlyFilter;
 
 @Configuration
@@ -29,14 +29,14 @@ public class SecurityConfig {
    * Production: keep HTTPS + secure cookie, rotate secrets.
    */
   @Bean
-  UserDetailsService userDetailsService(StaffUserRepo staffUserRepo) {
+  UserDetailsService userDetailsService(PrincipalContextService principalContext) {
     return username -> {
-      var u = staffUserRepo.findByUsername(username)
-        .orElseThrow(() -> new UsernameNotFoundException("User not found"));
-      if (!u.isActive) throw new UsernameNotFoundException("User disabled");
-      return User.withUsername(u.username)
-        .password(u.passwordHash)
-        .roles(u.role)
+      var u = principalContext.principal(username);
+      if (u == null) throw new UsernameNotFoundException("User not found");
+      if (!u.active()) throw new UsernameNotFoundException("User disabled");
+      return User.withUsername(u.username())
+        .password(u.passwordHash())
+        .roles(u.role())
         .build();
     };
   }
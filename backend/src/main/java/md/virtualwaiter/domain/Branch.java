@@ -52,4 +52,8 @@ public class Branch {
 
   @Column(name = "menu_template_id")
   public Long menuTemplateId;
+
+  // Bumped in SQL by MenuSnapshotService; the entity only writes the initial 0.
+  @Column(name = "menu_version", nullable = false, updatable = false)
+  public long menuVersion;
 }
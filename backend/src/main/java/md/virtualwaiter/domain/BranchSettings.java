@@ -129,4 +129,16 @@ public class BranchSettings {
 
   @Column(name = "admin_ip_denylist")
   public String adminIpDenylist;
+
+  @Column(name = "sla_order_crit_min")
+  public Integer slaOrderCritMin;
+
+  @Column(name = "sla_kitchen_crit_min")
+  public Integer slaKitchenCritMin;
+
+  @Column(name = "sla_call_crit_min")
+  public Integer slaCallCritMin;
+
+  @Column(name = "sla_bill_crit_min")
+  public Integer slaBillCritMin;
 }
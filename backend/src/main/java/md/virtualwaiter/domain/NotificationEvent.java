@@ -19,11 +19,17 @@ public class NotificationEvent {
   public Long branchId;
 
   @Column(name = "event_type", nullable = false)
-  public String eventType; // ORDER_NEW | WAITER_CALL | BILL_REQUEST
+  public String eventType; // ORDER_NEW | WAITER_CALL | BILL_REQUEST | ORDER_STATUS
 
   @Column(name = "ref_id", nullable = false)
   public Long refId;
 
+  @Column(name = "table_id")
+  public Long tableId;
+
+  @Column(name = "hall_id")
+  public Long hallId;
+
   @Column(name = "created_at", nullable = false)
   public Instant createdAt = Instant.now();
 }
@@ -111,6 +111,7 @@ public final class Messages {
     put("Bill request does not belong to session", "error.billrequest_not_belong_session");
     put("Bill request is not active", "error.billrequest_not_active");
     put("Bill request is not confirmed", "error.billrequest_not_confirmed");
+    put("Items already reserved by another bill request", "error.items_already_reserved");
     put("Unsupported paymentMethod", "error.unsupported_payment_method");
     put("Cash payment is disabled", "error.cash_disabled");
     put("Terminal payment is disabled", "error.terminal_disabled");
@@ -178,6 +179,7 @@ public final class Messages {
     put("Modifier group not found", "error.modifier_group_not_found");
     put("Modifier option not found", "error.modifier_option_not_found");
     put("ids and patch are required", "error.ids_patch_required");
+    put("Invalid SLA threshold", "error.invalid_sla_threshold");
 
     // Staff / kitchen
     put("Plan not found", "error.plan_not_found");
@@ -196,6 +198,8 @@ public final class Messages {
     put("Waiter not assigned", "error.waiter_not_assigned");
     put("Device session not found", "error.device_session_not_found");
     put("Shift not started", "error.shift_not_started");
+    put("Invalid Last-Event-ID", "error.invalid_last_event_id");
+    put("Too many stream subscribers", "error.too_many_stream_subscribers");
 
     // OTP
     put("OTP resend cooldown", "error.otp_resend_cooldown");
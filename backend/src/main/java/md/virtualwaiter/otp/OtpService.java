@@ -7,6 +7,8 @@ import md.virtualwaiter.repo.GuestSessionRepo;
 import md.virtualwaiter.repo.OtpChallengeRepo;
 import md.virtualwaiter.service.BranchSettingsService;
 import md.virtualwaiter.service.GuestProfileService;
+import md.virtualwaiter.service.GuestSessionDirectory;
+import md.virtualwaiter.service.RecommendationService;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
@@ -27,6 +29,8 @@ public class OtpService {
   private final CafeTableRepo tableRepo;
   private final BranchSettingsService settingsService;
   private final GuestProfileService guestProfileService;
+  private final GuestSessionDirectory sessionDirectory;
+  private final RecommendationService recommendationService;
   private final SecureRandom rnd = new SecureRandom();
   private final BCryptPasswordEncoder enc = new BCryptPasswordEncoder();
 
@@ -37,7 +41,9 @@ public class OtpService {
     GuestSessionRepo sessionRepo,
     CafeTableRepo tableRepo,
     BranchSettingsService settingsService,
-    GuestProfileService guestProfileService
+    GuestProfileService guestProfileService,
+    GuestSessionDirectory sessionDirectory,
+    RecommendationService recommendationService
   ) {
     this.props = props;
     this.provider = provider;
@@ -46,6 +52,8 @@ public class OtpService {
     this.tableRepo = tableRepo;
     this.settingsService = settingsService;
     this.guestProfileService = guestProfileService;
+    this.sessionDirectory = sessionDirectory;
+    this.recommendationService = recommendationService;
   }
 
   public record SendResult(long challengeId, int ttlSeconds, String devCode, String deliveryStatus, String deliveryError) {}
@@ -154,8 +162,10 @@ public class OtpService {
     s.isVerified = true;
     s.verifiedPhone = c.phoneE164;
     sessionRepo.save(s);
+    sessionDirectory.saved(s);
     if (!wasVerified) {
       guestProfileService.onVerified(c.phoneE164);
+      recommendationService.sessionVerified(s.id, c.phoneE164, Instant.now());
     }
   }
 
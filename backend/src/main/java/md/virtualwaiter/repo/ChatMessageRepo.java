@@ -6,7 +6,7 @@ import java.util.List;
 import java.time.Instant;
 
 public interface ChatMessageRepo extends JpaRepository<ChatMessage, Long> {
-  List<ChatMessage> findByBranchIdOrderByIdDesc(Long branchId);
   List<ChatMessage> findByBranchIdAndGuestSessionIdOrderByIdAsc(Long branchId, Long guestSessionId);
+  List<ChatMessage> findByBranchIdAndGuestSessionIdAndIdGreaterThanOrderByIdAsc(Long branchId, Long guestSessionId, Long afterId);
   List<ChatMessage> findByBranchIdAndCreatedAtBetweenOrderByIdAsc(Long branchId, Instant from, Instant to);
 }
@@ -2,7 +2,12 @@ package md.virtualwaiter.repo;
 
 import md.virtualwaiter.domain.StaffDeviceToken;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,4 +17,9 @@ public interface StaffDeviceTokenRepo extends JpaRepository<StaffDeviceToken, Lo
   List<StaffDeviceToken> findByBranchIdAndRevokedAtIsNull(Long branchId);
   List<StaffDeviceToken> findByStaffUserId(Long staffUserId);
   List<StaffDeviceToken> findByStaffUserIdAndRevokedAtIsNull(Long staffUserId);
+
+  @Modifying
+  @Transactional
+  @Query("update StaffDeviceToken t set t.lastSeenAt = :seenAt where t.id in :ids")
+  int touchLastSeen(@Param("ids") List<Long> ids, @Param("seenAt") Instant seenAt);
 }
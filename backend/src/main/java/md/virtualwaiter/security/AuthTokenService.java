@@ -4,8 +4,6 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.Base64;
@@ -13,63 +11,59 @@ import java.util.Base64;
 @Service
 @SuppressFBWarnings(value = "CT_CONSTRUCTOR_THROW", justification = "Fail fast when secret is missing")
 public class AuthTokenService {
-  private final byte[] secret;
+  private final HmacSigner signer;
 
-  public AuthTokenService(@Value("${app.auth.cookieSecret}") String cookieSecret) {
+  public AuthTokenService(
+    @Value("${app.auth.cookieSecret}") String cookieSecret,
+    @Value("${app.auth.cookieSecretPrevious:}") String previousCookieSecret
+  ) {
     if (cookieSecret == null || cookieSecret.isBlank()) {
       throw new IllegalArgumentException("app.auth.cookieSecret must be set");
     }
-    this.secret = cookieSecret.getBytes(StandardCharsets.UTF_8);
+    this.signer = new HmacSigner(cookieSecret, previousCookieSecret);
   }
 
   public String mint(String username, long ttlSeconds) {
     long exp = Instant.now().getEpochSecond() + Math.max(1, ttlSeconds);
     String payload = username + "|" + exp;
-    String sig = hmac(payload);
+    String sig = signer.sign(signer.payload().append(payload));
     return base64Url(payload) + "." + sig;
   }
 
   public String verify(String token) {
-    if (token == null || token.isBlank() || !token.contains(".")) return null;
-    String[] parts = token.split("\\.", 2);
-    if (parts.length != 2) return null;
-    String payload = new String(Base64.getUrlDecoder().decode(parts[0]), StandardCharsets.UTF_8);
-    String sig = parts[1];
-    if (!constantTimeEquals(hmac(payload), sig)) return null;
-    String[] p = payload.split("\\|", 2);
-    if (p.length != 2) return null;
-    String username = p[0];
-    long exp;
-    try {
-      exp = Long.parseLong(p[1]);
-    } catch (NumberFormatException e) {
-      return null;
+    if (token == null || token.isBlank()) return null;
+    int dot = token.indexOf('.');
+    if (dot < 0) return null;
+    // Decoded into the signer's buffer: nothing is allocated until the token has checked out.
+    HmacSigner.Payload payload = signer.payload();
+    if (!payload.appendDecoded(token, 0, dot)) return null;
+    if (!signer.verify(payload, token, dot + 1, token.length())) return null;
+    int bar = -1;
+    for (int i = 0; i < payload.length(); i++) {
+      if (payload.byteAt(i) == '|') {
+        bar = i;
+        break;
+      }
     }
-    if (Instant.now().getEpochSecond() > exp) return null;
-    return username;
+    if (bar < 0) return null;
+    long exp = parseLong(payload, bar + 1);
+    if (exp == Long.MIN_VALUE || Instant.now().getEpochSecond() > exp) return null;
+    return payload.toString(0, bar);
   }
 
-  private String hmac(String payload) {
-    try {
-      Mac mac = Mac.getInstance("HmacSHA256");
-      mac.init(new SecretKeySpec(secret, "HmacSHA256"));
-      byte[] raw = mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
-      return Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
-    } catch (Exception e) {
-      throw new IllegalStateException("Failed to sign auth token", e);
+  private static long parseLong(HmacSigner.Payload p, int from) {
+    int end = p.length();
+    if (from >= end || end - from > 18) return Long.MIN_VALUE;
+    long v = 0;
+    for (int i = from; i < end; i++) {
+      int d = p.byteAt(i) - '0';
+      if (d < 0 || d > 9) return Long.MIN_VALUE;
+      v = v * 10 + d;
     }
+    return v;
   }
 
   private String base64Url(String raw) {
     return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
   }
-
-  private boolean constantTimeEquals(String a, String b) {
-    if (a.length() != b.length()) return false;
-    int res = 0;
-    for (int i = 0; i < a.length(); i++) {
-      res |= a.charAt(i) ^ b.charAt(i);
-    }
-    return res == 0;
-  }
 }
@@ -18,10 +18,19 @@ public class AuthzService {
 
   public boolean has(StaffUser user, Permission permission) {
     if (user == null) return false;
-    Set<Permission> base = RolePermissions.forRole(user.role);
+    return has(user.role, user.permissions, permission);
+  }
+
+  public boolean has(PrincipalContextService.StaffPrincipal principal, Permission permission) {
+    if (principal == null) return false;
+    return has(principal.role(), principal.permissions(), permission);
+  }
+
+  private boolean has(String role, String permissions, Permission permission) {
+    Set<Permission> base = RolePermissions.forRole(role);
     Set<Permission> perms = base.isEmpty() ? EnumSet.noneOf(Permission.class) : EnumSet.copyOf(base);
-    if (user.permissions != null && !user.permissions.isBlank()) {
-      perms.addAll(PermissionUtils.parseLenient(user.permissions));
+    if (permissions != null && !permissions.isBlank()) {
+      perms.addAll(PermissionUtils.parseLenient(permissions));
     }
     return perms.contains(permission);
   }
@@ -0,0 +1,229 @@
+package md.virtualwaiter.security;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * HMAC-SHA256 signatures encoded as base64url without padding. Each thread keeps initialized {@link Mac}
+ * instances and scratch buffers, so verification allocates nothing. Signatures are always made with the
+ * current key; verification also accepts the previous key while a rotation is in progress.
+ */
+public final class HmacSigner {
+  private static final String ALGORITHM = "HmacSHA256";
+  private static final char[] ALPHABET =
+    "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+  private static final byte[] DECODE = new byte[128];
+
+  static {
+    Arrays.fill(DECODE, (byte) -1);
+    for (int i = 0; i < ALPHABET.length; i++) DECODE[ALPHABET[i]] = (byte) i;
+  }
+
+  /** Per-thread payload buffer; valid until the next {@link HmacSigner#payload()} call on the same thread. */
+  public static final class Payload {
+    private byte[] buf = new byte[128];
+    private int len;
+
+    public Payload append(CharSequence s) {
+      for (int i = 0; i < s.length(); i++) {
+        char c = s.charAt(i);
+        if (c < 0x80) {
+          put(c);
+        } else if (c < 0x800) {
+          put(0xC0 | (c >> 6));
+          put(0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+          int cp = Character.toCodePoint(c, s.charAt(++i));
+          put(0xF0 | (cp >> 18));
+          put(0x80 | ((cp >> 12) & 0x3F));
+          put(0x80 | ((cp >> 6) & 0x3F));
+          put(0x80 | (cp & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+          put('?'); // what String.getBytes(UTF_8) writes for a lone surrogate
+        } else {
+          put(0xE0 | (c >> 12));
+          put(0x80 | ((c >> 6) & 0x3F));
+          put(0x80 | (c & 0x3F));
+        }
+      }
+      return this;
+    }
+
+    public Payload append(char c) {
+      if (c < 0x80) {
+        put(c);
+        return this;
+      }
+      return append(String.valueOf(c));
+    }
+
+    public Payload append(long v) {
+      if (v < 0) {
+        put('-');
+        if (v == Long.MIN_VALUE) return append("9223372036854775808");
+        v = -v;
+      }
+      int start = len;
+      do {
+        put('0' + (int) (v % 10));
+        v /= 10;
+      } while (v > 0);
+      for (int i = start, j = len - 1; i < j; i++, j--) {
+        byte t = buf[i];
+        buf[i] = buf[j];
+        buf[j] = t;
+      }
+      return this;
+    }
+
+    /** Appends base64url text (padding optional) as the bytes it encodes; false when it is not valid. */
+    public boolean appendDecoded(CharSequence s, int from, int to) {
+      while (to > from && s.charAt(to - 1) == '=') to--;
+      if ((to - from) % 4 == 1) return false;
+      int acc = 0;
+      int bits = 0;
+      for (int i = from; i < to; i++) {
+        char c = s.charAt(i);
+        int v = c < 128 ? DECODE[c] : -1;
+        if (v < 0) return false;
+        acc = (acc << 6) | v;
+        bits += 6;
+        if (bits >= 8) {
+          bits -= 8;
+          put((acc >> bits) & 0xFF);
+        }
+      }
+      return true;
+    }
+
+    public int length() {
+      return len;
+    }
+
+    public byte byteAt(int i) {
+      return buf[i];
+    }
+
+    public String toString(int from, int to) {
+      return new String(buf, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    private void put(int b) {
+      if (len == buf.length) buf = Arrays.copyOf(buf, len * 2);
+      buf[len++] = (byte) b;
+    }
+  }
+
+  private final class State {
+    final Mac current = init(currentKey);
+    final Mac previous = previousKey == null ? null : init(previousKey);
+    final byte[] digest = new byte[current.getMacLength()];
+    final Payload payload = new Payload();
+  }
+
+  private final SecretKeySpec currentKey;
+  private final SecretKeySpec previousKey;
+  private final int signatureLength;
+  private final ThreadLocal<State> state = ThreadLocal.withInitial(State::new);
+
+  /** {@code previous} may be null or blank when no rotation is in progress. */
+  public HmacSigner(String current, String previous) {
+    if (current == null || current.isBlank()) {
+      throw new IllegalArgumentException("HMAC secret must be set");
+    }
+    this.currentKey = new SecretKeySpec(current.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    this.previousKey = previous == null || previous.isBlank() || previous.equals(current)
+      ? null
+      : new SecretKeySpec(previous.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    this.signatureLength = (init(currentKey).getMacLength() * 4 + 2) / 3;
+  }
+
+  /** The calling thread's payload buffer, emptied. */
+  public Payload payload() {
+    Payload p = state.get().payload;
+    p.len = 0;
+    return p;
+  }
+
+  public String sign(Payload payload) {
+    State s = state.get();
+    byte[] digest = mac(s.current, payload, s.digest);
+    char[] out = new char[signatureLength];
+    encode(digest, out);
+    return new String(out);
+  }
+
+  public boolean verify(Payload payload, CharSequence sig) {
+    return sig != null && verify(payload, sig, 0, sig.length());
+  }
+
+  /** Checks {@code sig[from, to)} against the current key, then the previous one; constant time per key. */
+  public boolean verify(Payload payload, CharSequence sig, int from, int to) {
+    if (to - from != signatureLength) return false;
+    State s = state.get();
+    if (matches(mac(s.current, payload, s.digest), sig, from)) return true;
+    return s.previous != null && matches(mac(s.previous, payload, s.digest), sig, from);
+  }
+
+  private static byte[] mac(Mac mac, Payload payload, byte[] digest) {
+    try {
+      mac.update(payload.buf, 0, payload.len);
+      mac.doFinal(digest, 0);
+      return digest;
+    } catch (Exception e) {
+      throw new IllegalStateException("Failed to compute HMAC", e);
+    }
+  }
+
+  private static boolean matches(byte[] digest, CharSequence sig, int from) {
+    int diff = 0;
+    int pos = from;
+    int i = 0;
+    for (; i + 3 <= digest.length; i += 3) {
+      int v = (digest[i] & 0xFF) << 16 | (digest[i + 1] & 0xFF) << 8 | (digest[i + 2] & 0xFF);
+      diff |= sig.charAt(pos++) ^ ALPHABET[v >>> 18];
+      diff |= sig.charAt(pos++) ^ ALPHABET[(v >>> 12) & 0x3F];
+      diff |= sig.charAt(pos++) ^ ALPHABET[(v >>> 6) & 0x3F];
+      diff |= sig.charAt(pos++) ^ ALPHABET[v & 0x3F];
+    }
+    int rest = digest.length - i;
+    if (rest > 0) {
+      int v = (digest[i] & 0xFF) << 16 | (rest == 2 ? (digest[i + 1] & 0xFF) << 8 : 0);
+      diff |= sig.charAt(pos++) ^ ALPHABET[v >>> 18];
+      diff |= sig.charAt(pos++) ^ ALPHABET[(v >>> 12) & 0x3F];
+      if (rest == 2) diff |= sig.charAt(pos) ^ ALPHABET[(v >>> 6) & 0x3F];
+    }
+    return diff == 0;
+  }
+
+  private static void encode(byte[] digest, char[] out) {
+    int pos = 0;
+    int i = 0;
+    for (; i + 3 <= digest.length; i += 3) {
+      int v = (digest[i] & 0xFF) << 16 | (digest[i + 1] & 0xFF) << 8 | (digest[i + 2] & 0xFF);
+      out[pos++] = ALPHABET[v >>> 18];
+      out[pos++] = ALPHABET[(v >>> 12) & 0x3F];
+      out[pos++] = ALPHABET[(v >>> 6) & 0x3F];
+      out[pos++] = ALPHABET[v & 0x3F];
+    }
+    int rest = digest.length - i;
+    if (rest > 0) {
+      int v = (digest[i] & 0xFF) << 16 | (rest == 2 ? (digest[i + 1] & 0xFF) << 8 : 0);
+      out[pos++] = ALPHABET[v >>> 18];
+      out[pos++] = ALPHABET[(v >>> 12) & 0x3F];
+      if (rest == 2) out[pos] = ALPHABET[(v >>> 6) & 0x3F];
+    }
+  }
+
+  private static Mac init(SecretKeySpec key) {
+    try {
+      Mac mac = Mac.getInstance(ALGORITHM);
+      mac.init(key);
+      return mac;
+    } catch (Exception e) {
+      throw new IllegalStateException("Failed to init " + ALGORITHM, e);
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package md.virtualwaiter.security;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Admin IP allow/deny list parsed once: exact addresses and CIDR blocks, IPv4 or IPv6. */
+public final class IpRules {
+  public static final IpRules EMPTY = new IpRules(List.of(), false);
+
+  private record Rule(byte[] net, int prefix) {}
+
+  private final List<Rule> rules;
+  private final boolean configured;
+
+  private IpRules(List<Rule> rules, boolean configured) {
+    this.rules = rules;
+    this.configured = configured;
+  }
+
+  /**
+   * Invalid entries are skipped, as before; a non-blank list with no valid entry still counts as
+   * configured and matches nothing. Host names are resolved here, once, not per request.
+   */
+  public static IpRules parse(String list) {
+    if (list == null || list.isBlank()) return EMPTY;
+    List<Rule> out = new ArrayList<>();
+    for (String p : list.split("[,\\n\\r\\t ;]+")) {
+      String t = p.trim();
+      if (t.isEmpty()) continue;
+      try {
+        if (t.contains("/")) {
+          String[] parts = t.split("/");
+          if (parts.length != 2) continue;
+          byte[] net = InetAddress.getByName(parts[0].trim()).getAddress();
+          int prefix = Integer.parseInt(parts[1].trim());
+          if (prefix < 0 || prefix > net.length * 8) continue;
+          out.add(new Rule(net, prefix));
+        } else {
+          byte[] addr = InetAddress.getByName(t).getAddress();
+          out.add(new Rule(addr, addr.length * 8));
+        }
+      } catch (Exception ignored) {
+        // Skip invalid entries
+      }
+    }
+    return new IpRules(List.copyOf(out), true);
+  }
+
+  /** False when the list was blank, i.e. the check is switched off. */
+  public boolean isConfigured() {
+    return configured;
+  }
+
+  public boolean matches(String ip) {
+    if (rules.isEmpty() || !isIpLiteral(ip)) return false;
+    byte[] a;
+    try {
+      a = InetAddress.getByName(ip).getAddress();
+    } catch (Exception e) {
+      return false;
+    }
+    for (Rule r : rules) {
+      if (matches(a, r)) return true;
+    }
+    return false;
+  }
+
+  private static boolean matches(byte[] a, Rule r) {
+    byte[] n = r.net();
+    if (a.length != n.length) return false;
+    int bits = r.prefix();
+    int i = 0;
+    while (bits >= 8) {
+      if (a[i] != n[i]) return false;
+      bits -= 8;
+      i++;
+    }
+    if (bits <= 0) return true;
+    int mask = (0xff << (8 - bits)) & 0xff;
+    return (a[i] & mask) == (n[i] & mask);
+  }
+
+  // Client addresses come from headers; anything but a literal would trigger a DNS lookup.
+  private static boolean isIpLiteral(String ip) {
+    if (ip == null || ip.isEmpty() || ip.length() > 64) return false;
+    boolean sep = false;
+    for (int i = 0; i < ip.length(); i++) {
+      char c = ip.charAt(i);
+      if (c == '.' || c == ':') {
+        sep = true;
+      } else if (!(Character.digit(c, 16) >= 0 || c == '%')) {
+        return false;
+      }
+    }
+    return sep;
+  }
+}
@@ -0,0 +1,213 @@
+package md.virtualwaiter.security;
+
+import jakarta.servlet.http.HttpServletRequest;
+import md.virtualwaiter.domain.Branch;
+import md.virtualwaiter.domain.Restaurant;
+import md.virtualwaiter.domain.StaffUser;
+import md.virtualwaiter.repo.BranchRepo;
+import md.virtualwaiter.repo.RestaurantRepo;
+import md.virtualwaiter.repo.StaffUserRepo;
+import md.virtualwaiter.service.BranchSettingsService;
+import md.virtualwaiter.service.CacheInvalidationBus;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What the filter chain needs to know about the caller, resolved once per request and shared across
+ * requests for a short TTL: an immutable staff snapshot, branch read-only state and parsed admin IP rules.
+ * Controllers still load the managed StaffUser themselves.
+ */
+@Service
+public class PrincipalContextService {
+  private static final String REQUEST_ATTR = PrincipalContextService.class.getName() + ".principal";
+  private static final String TOPIC_STAFF = "staff-principal";
+  private static final String TOPIC_BRANCH = "branch-read-only";
+  private static final int MAX_IP_RULE_ENTRIES = 1000;
+
+  public record StaffPrincipal(
+    long id,
+    String username,
+    String passwordHash,
+    String role,
+    String permissions,
+    Long branchId,
+    boolean active
+  ) {
+    static StaffPrincipal of(StaffUser u) {
+      return new StaffPrincipal(u.id, u.username, u.passwordHash, u.role, u.permissions, u.branchId, u.isActive);
+    }
+  }
+
+  public record AdminIpRules(IpRules allow, IpRules deny) {}
+
+  private record Entry<T>(T value, long loadedAtMillis) {}
+
+  private final StaffUserRepo staffUserRepo;
+  private final BranchRepo branchRepo;
+  private final RestaurantRepo restaurantRepo;
+  private final BranchSettingsService settingsService;
+  private final CacheInvalidationBus invalidationBus;
+  private final long ttlMillis;
+  private final ConcurrentHashMap<String, Entry<StaffPrincipal>> principals = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Long, Entry<Boolean>> readOnly = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, IpRules> ipRules = new ConcurrentHashMap<>();
+  // Bumped on every invalidation; a load that raced with one is not cached.
+  private final AtomicLong generation = new AtomicLong();
+
+  public PrincipalContextService(
+    StaffUserRepo staffUserRepo,
+    BranchRepo branchRepo,
+    RestaurantRepo restaurantRepo,
+    BranchSettingsService settingsService,
+    CacheInvalidationBus invalidationBus,
+    @Value("${app.auth.principalCacheTtlSeconds:10}") long ttlSeconds
+  ) {
+    this.staffUserRepo = staffUserRepo;
+    this.branchRepo = branchRepo;
+    this.restaurantRepo = restaurantRepo;
+    this.settingsService = settingsService;
+    this.invalidationBus = invalidationBus;
+    this.ttlMillis = Math.max(0, ttlSeconds) * 1000L;
+    invalidationBus.register(TOPIC_STAFF, new CacheInvalidationBus.Listener() {
+      @Override
+      public void invalidate(long id) {
+        evictStaff(id);
+      }
+
+      @Override
+      public void invalidateAll() {
+        generation.incrementAndGet();
+        principals.clear();
+      }
+    });
+    invalidationBus.register(TOPIC_BRANCH, new CacheInvalidationBus.Listener() {
+      @Override
+      public void invalidate(long id) {
+        generation.incrementAndGet();
+        readOnly.remove(id);
+      }
+
+      @Override
+      public void invalidateAll() {
+        generation.incrementAndGet();
+        readOnly.clear();
+      }
+    });
+  }
+
+  /** Staff snapshot by username, or null when unknown. */
+  public StaffPrincipal principal(String username) {
+    if (username == null) return null;
+    long now = System.currentTimeMillis();
+    Entry<StaffPrincipal> e = principals.get(username);
+    if (e != null && isFresh(e, now)) return e.value();
+    long gen = generation.get();
+    StaffPrincipal p = staffUserRepo.findByUsername(username).map(StaffPrincipal::of).orElse(null);
+    if (p != null && ttlMillis > 0 && generation.get() == gen) {
+      principals.put(username, new Entry<>(p, now));
+    }
+    return p;
+  }
+
+  /** The authenticated caller of {@code request}, memoized on the request. */
+  @SuppressWarnings("unchecked")
+  public StaffPrincipal current(HttpServletRequest request) {
+    Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+    if (auth == null || auth.getName() == null) return null;
+    Object memo = request.getAttribute(REQUEST_ATTR);
+    if (memo instanceof Optional<?> o) {
+      StaffPrincipal p = ((Optional<StaffPrincipal>) o).orElse(null);
+      if (p == null || p.username().equals(auth.getName())) return p;
+    }
+    StaffPrincipal p = principal(auth.getName());
+    request.setAttribute(REQUEST_ATTR, Optional.ofNullable(p));
+    return p;
+  }
+
+  public boolean isBranchReadOnly(long branchId) {
+    long now = System.currentTimeMillis();
+    Entry<Boolean> e = readOnly.get(branchId);
+    if (e != null && isFresh(e, now)) return e.value();
+    long gen = generation.get();
+    boolean value = loadReadOnly(branchId);
+    if (ttlMillis > 0 && generation.get() == gen) {
+      readOnly.put(branchId, new Entry<>(value, now));
+    }
+    return value;
+  }
+
+  /** Rules follow branch settings, which are cached and invalidated by BranchSettingsService. */
+  public AdminIpRules adminIpRules(long branchId) {
+    BranchSettingsService.Resolved s = settingsService.resolveForBranch(branchId);
+    return new AdminIpRules(parsedRules(s.adminIpAllowlist()), parsedRules(s.adminIpDenylist()));
+  }
+
+  /** Call after a staff user's role, permissions, branch, password or active flag changes, or on delete. */
+  public void invalidateStaff(long staffId) {
+    afterCommit(() -> evictStaff(staffId), () -> invalidationBus.publish(TOPIC_STAFF, staffId));
+  }
+
+  public void invalidateBranch(long branchId) {
+    afterCommit(() -> {
+      generation.incrementAndGet();
+      readOnly.remove(branchId);
+    }, () -> invalidationBus.publish(TOPIC_BRANCH, branchId));
+  }
+
+  /** A restaurant flag covers all of its branches. */
+  public void invalidateAllBranches() {
+    afterCommit(() -> {
+      generation.incrementAndGet();
+      readOnly.clear();
+    }, () -> invalidationBus.publishAll(TOPIC_BRANCH));
+  }
+
+  private void evictStaff(long staffId) {
+    generation.incrementAndGet();
+    principals.values().removeIf(e -> e.value().id() == staffId);
+  }
+
+  private boolean loadReadOnly(long branchId) {
+    Branch b = branchRepo.findById(branchId).orElse(null);
+    if (b == null) return false;
+    if (b.readOnly) return true;
+    if (b.restaurantId == null) return false;
+    Restaurant r = restaurantRepo.findById(b.restaurantId).orElse(null);
+    return r != null && r.readOnly;
+  }
+
+  private IpRules parsedRules(String raw) {
+    if (raw == null || raw.isBlank()) return IpRules.EMPTY;
+    IpRules rules = ipRules.get(raw);
+    if (rules != null) return rules;
+    if (ipRules.size() >= MAX_IP_RULE_ENTRIES) ipRules.clear();
+    return ipRules.computeIfAbsent(raw, IpRules::parse);
+  }
+
+  private boolean isFresh(Entry<?> e, long nowMillis) {
+    return ttlMillis > 0 && nowMillis - e.loadedAtMillis() < ttlMillis;
+  }
+
+  private static void afterCommit(Runnable evict, Runnable publish) {
+    evict.run();
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          evict.run();
+          publish.run();
+        }
+      });
+    } else {
+      publish.run();
+    }
+  }
+}
@@ -1,21 +1,12 @@
 package md.virtualwaiter.security;
 
-import md.virtualwaiter.domain.Branch;
 import md.virtualwaiter.domain.CafeTable;
-import md.virtualwaiter.domain.GuestSession;
-import md.virtualwaiter.domain.Restaurant;
-import md.virtualwaiter.domain.StaffUser;
-import md.virtualwaiter.repo.BranchRepo;
 import md.virtualwaiter.repo.CafeTableRepo;
-import md.virtualwaiter.repo.GuestSessionRepo;
-import md.virtualwaiter.repo.RestaurantRepo;
-import md.virtualwaiter.repo.StaffUserRepo;
+import md.virtualwaiter.service.GuestSessionDirectory;
 import java.io.IOException;
 import java.util.Optional;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
@@ -26,26 +17,20 @@ import jakarta.servlet.http.HttpServletResponse;
 
 @Component
 public class ReadOnlyFilter extends OncePerRequestFilter {
-  private final StaffUserRepo staffUserRepo;
-  private final BranchRepo branchRepo;
-  private final RestaurantRepo restaurantRepo;
+  private final PrincipalContextService principalContext;
   private final CafeTableRepo cafeTableRepo;
-  private final GuestSessionRepo guestSessionRepo;
+  private final GuestSessionDirectory sessionDirectory;
   private final AuthzService authzService;
 
   public ReadOnlyFilter(
-    StaffUserRepo staffUserRepo,
-    BranchRepo branchRepo,
-    RestaurantRepo restaurantRepo,
+    PrincipalContextService principalContext,
     CafeTableRepo cafeTableRepo,
-    GuestSessionRepo guestSessionRepo,
+    GuestSessionDirectory sessionDirectory,
     AuthzService authzService
   ) {
-    this.staffUserRepo = staffUserRepo;
-    this.branchRepo = branchRepo;
-    this.restaurantRepo = restaurantRepo;
+    this.principalContext = principalContext;
     this.cafeTableRepo = cafeTableRepo;
-    this.guestSessionRepo = guestSessionRepo;
+    this.sessionDirectory = sessionDirectory;
     this.authzService = authzService;
   }
 
@@ -63,18 +48,18 @@ public class ReadOnlyFilter extends OncePerRequestFilter {
   protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
     throws ServletException, IOException {
 
-    StaffUser user = resolveAuthUser();
+    PrincipalContextService.StaffPrincipal user = principalContext.current(request);
     if (user != null && authzService.has(user, Permission.SUPERADMIN_ACCESS)) {
       filterChain.doFilter(request, response);
       return;
     }
 
-    Long branchId = user != null ? user.branchId : null;
+    Long branchId = user != null ? user.branchId() : null;
     if (branchId == null) {
       branchId = resolveBranchIdFromRequest(request);
     }
 
-    if (branchId != null && isReadOnly(branchId)) {
+    if (branchId != null && principalContext.isBranchReadOnly(branchId)) {
       response.setStatus(HttpStatus.LOCKED.value());
       response.setContentType("text/plain");
       response.getWriter().write("Branch is read-only");
@@ -84,12 +69,6 @@ public class ReadOnlyFilter extends OncePerRequestFilter {
     filterChain.doFilter(request, response);
   }
 
-  private StaffUser resolveAuthUser() {
-    Authentication auth = SecurityContextHolder.getContext().getAuthentication();
-    if (auth == null || auth.getName() == null) return null;
-    return staffUserRepo.findByUsername(auth.getName()).orElse(null);
-  }
-
   private Long resolveBranchIdFromRequest(HttpServletRequest request) {
     Long branchId = parseLong(request.getParameter("branchId"));
     if (branchId != null) return branchId;
@@ -108,27 +87,13 @@ public class ReadOnlyFilter extends OncePerRequestFilter {
 
     Long guestSessionId = parseLong(request.getParameter("guestSessionId"));
     if (guestSessionId != null) {
-      Optional<GuestSession> session = guestSessionRepo.findById(guestSessionId);
-      if (session.isPresent()) {
-        Long sid = session.get().tableId;
-        if (sid != null) {
-          Optional<CafeTable> table = cafeTableRepo.findById(sid);
-          if (table.isPresent()) return table.get().branchId;
-        }
-      }
+      GuestSessionDirectory.Entry session = sessionDirectory.find(guestSessionId);
+      if (session != null) return session.branchId();
     }
 
     return null;
   }
 
-  private boolean isReadOnly(Long branchId) {
-    Branch b = branchRepo.findById(branchId).orElse(null);
-    if (b == null) return false;
-    if (b.readOnly) return true;
-    Restaurant r = restaurantRepo.findById(b.restaurantId).orElse(null);
-    return r != null && r.readOnly;
-  }
-
   private Long parseLong(String raw) {
     if (raw == null || raw.isBlank()) return null;
     try {
@@ -0,0 +1,318 @@
+package md.virtualwaiter.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.lang.Nullable;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Durable outbox for staff alerts sent over email and Telegram. Callers enqueue inside their own
+ * transaction; a poller claims due rows with SKIP LOCKED (safe with several instances) and hands them
+ * to a small pool per channel, so a slow SMTP server or Telegram API only delays other alerts.
+ * Failed deliveries back off exponentially and give up after {@code maxAttempts}. Sends are bounded by
+ * connect/read timeouts (SMTP ones come from spring.mail.properties) so a hung peer cannot hold a slot.
+ */
+@Service
+public class AlertOutboxService {
+  private static final Logger log = LoggerFactory.getLogger(AlertOutboxService.class);
+
+  public enum Channel { EMAIL, TELEGRAM }
+
+  private static final String ENQUEUE_SQL =
+    "INSERT INTO alert_outbox(channel, dedupe_key, subject, message) " +
+    "VALUES (:channel, :dedupeKey, :subject, :message) " +
+    "ON CONFLICT (channel, dedupe_key) WHERE status = 'PENDING' " +
+    "DO UPDATE SET subject = EXCLUDED.subject, message = EXCLUDED.message, coalesced = alert_outbox.coalesced + 1";
+
+  // SENDING rows whose lease ran out belong to a dispatcher that died mid-send and are claimed again.
+  private static final String CLAIM_SQL =
+    "UPDATE alert_outbox o SET status = 'SENDING', attempts = o.attempts + 1, " +
+    "  next_attempt_at = now() + make_interval(secs => :leaseSeconds) " +
+    "WHERE o.id IN (" +
+    "  SELECT id FROM alert_outbox " +
+    "  WHERE channel = :channel AND status IN ('PENDING', 'RETRY', 'SENDING') AND next_attempt_at <= now() " +
+    "  ORDER BY next_attempt_at, id LIMIT :limit FOR UPDATE SKIP LOCKED" +
+    ") RETURNING o.id, o.subject, o.message, o.attempts, o.created_at";
+
+  // Outcome updates only apply to the claim that made them: once a lease runs out and the row is
+  // claimed again (attempts goes up), a late result from the earlier send is ignored.
+  private static final String OWN_CLAIM = " WHERE id = :id AND status = 'SENDING' AND attempts = :attempts";
+
+  private static final String DEPTH_SQL =
+    "SELECT channel, count(*) AS n FROM alert_outbox WHERE status IN ('PENDING', 'RETRY', 'SENDING') GROUP BY channel";
+
+  // Bot API URLs carry the token ("/bot<id>:<secret>/"), and client errors quote the URL.
+  private static final Pattern BOT_TOKEN = Pattern.compile("bot\\d+:[A-Za-z0-9_-]+");
+
+  private record Claimed(long id, String subject, String message, int attempts, Instant createdAt) {}
+
+  private final NamedParameterJdbcTemplate jdbc;
+  private final ObjectProvider<JavaMailSender> mailSenderProvider;
+  private final RestTemplate restTemplate;
+
+  private final boolean emailEnabled;
+  private final String emailTo;
+  private final String emailFrom;
+  private final boolean telegramEnabled;
+  private final String telegramBotToken;
+  private final String telegramChatId;
+  private final int maxAttempts;
+  private final long backoffBaseSeconds;
+  private final long backoffMaxSeconds;
+  private final long leaseSeconds;
+  private final int retentionDays;
+
+  private final Map<Channel, ExecutorService> executors = new EnumMap<>(Channel.class);
+  private final Map<Channel, Integer> concurrency = new EnumMap<>(Channel.class);
+  private final Map<Channel, AtomicInteger> inFlight = new EnumMap<>(Channel.class);
+  private final Map<Channel, AtomicLong> depth = new EnumMap<>(Channel.class);
+  private final MeterRegistry meterRegistry;
+
+  public AlertOutboxService(
+    NamedParameterJdbcTemplate jdbc,
+    ObjectProvider<JavaMailSender> mailSenderProvider,
+    @Value("${app.alerts.email.enabled:false}") boolean emailEnabled,
+    @Value("${app.alerts.email.to:}") String emailTo,
+    @Value("${app.alerts.email.from:}") String emailFrom,
+    @Value("${app.alerts.telegram.enabled:false}") boolean telegramEnabled,
+    @Value("${app.alerts.telegram.botToken:}") String telegramBotToken,
+    @Value("${app.alerts.telegram.chatId:}") String telegramChatId,
+    @Value("${app.alerts.outbox.emailConcurrency:2}") int emailConcurrency,
+    @Value("${app.alerts.outbox.telegramConcurrency:2}") int telegramConcurrency,
+    @Value("${app.alerts.outbox.maxAttempts:8}") int maxAttempts,
+    @Value("${app.alerts.outbox.backoffBaseSeconds:10}") long backoffBaseSeconds,
+    @Value("${app.alerts.outbox.backoffMaxSeconds:1800}") long backoffMaxSeconds,
+    @Value("${app.alerts.outbox.leaseSeconds:300}") long leaseSeconds,
+    @Value("${app.alerts.outbox.retentionDays:7}") int retentionDays,
+    @Value("${app.alerts.telegram.connectTimeoutMs:5000}") int telegramConnectTimeoutMs,
+    @Value("${app.alerts.telegram.readTimeoutMs:10000}") int telegramReadTimeoutMs,
+    @Nullable MeterRegistry meterRegistry
+  ) {
+    this.jdbc = jdbc;
+    this.mailSenderProvider = mailSenderProvider;
+    SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+    requestFactory.setConnectTimeout(Math.max(1, telegramConnectTimeoutMs));
+    requestFactory.setReadTimeout(Math.max(1, telegramReadTimeoutMs));
+    this.restTemplate = new RestTemplate(requestFactory);
+    this.emailEnabled = emailEnabled;
+    this.emailTo = emailTo;
+    this.emailFrom = emailFrom;
+    this.telegramEnabled = telegramEnabled;
+    this.telegramBotToken = telegramBotToken;
+    this.telegramChatId = telegramChatId;
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.backoffBaseSeconds = Math.max(1, backoffBaseSeconds);
+    this.backoffMaxSeconds = Math.max(this.backoffBaseSeconds, backoffMaxSeconds);
+    this.leaseSeconds = Math.max(30, leaseSeconds);
+    this.retentionDays = Math.max(1, retentionDays);
+    this.meterRegistry = meterRegistry;
+    concurrency.put(Channel.EMAIL, Math.max(1, emailConcurrency));
+    concurrency.put(Channel.TELEGRAM, Math.max(1, telegramConcurrency));
+    for (Channel ch : Channel.values()) {
+      String name = "alert-outbox-" + ch.name().toLowerCase();
+      executors.put(ch, Executors.newFixedThreadPool(concurrency.get(ch), r -> {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+      }));
+      inFlight.put(ch, new AtomicInteger());
+      AtomicLong d = new AtomicLong();
+      depth.put(ch, d);
+      if (meterRegistry != null) {
+        meterRegistry.gauge("vw.alert_outbox.depth", Tags.of("channel", ch.name()), d);
+      }
+    }
+  }
+
+  /**
+   * Queues {@code message} for every configured channel. An alert with the same {@code dedupeKey}
+   * that has not been attempted yet is updated in place instead of queued twice.
+   */
+  public void enqueue(@Nullable String dedupeKey, String subject, String message) {
+    for (Channel ch : Channel.values()) {
+      if (!isConfigured(ch)) continue;
+      Map<String, Object> params = new HashMap<>();
+      params.put("channel", ch.name());
+      params.put("dedupeKey", dedupeKey);
+      params.put("subject", subject);
+      params.put("message", message);
+      jdbc.update(ENQUEUE_SQL, params);
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${app.alerts.outbox.pollMs:2000}")
+  public void dispatch() {
+    if (!isConfigured(Channel.EMAIL) && !isConfigured(Channel.TELEGRAM)) return;
+    try {
+      for (Channel ch : Channel.values()) {
+        if (!isConfigured(ch)) continue;
+        int free = concurrency.get(ch) - inFlight.get(ch).get();
+        if (free <= 0) continue;
+        for (Claimed c : claim(ch, free)) {
+          inFlight.get(ch).incrementAndGet();
+          try {
+            executors.get(ch).execute(() -> {
+              try {
+                deliver(ch, c);
+              } finally {
+                inFlight.get(ch).decrementAndGet();
+              }
+            });
+          } catch (RejectedExecutionException e) {
+            // Shutting down; the lease expires and another instance picks the row up.
+            inFlight.get(ch).decrementAndGet();
+          }
+        }
+      }
+      refreshDepth();
+    } catch (Exception e) {
+      log.warn("Alert outbox dispatch failed: {}", e.getMessage());
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${app.alerts.outbox.purgeMs:3600000}")
+  public void purge() {
+    try {
+      Map<String, Object> params = new HashMap<>();
+      params.put("cutoff", Timestamp.from(Instant.now().minus(Duration.ofDays(retentionDays))));
+      jdbc.update("DELETE FROM alert_outbox WHERE created_at < :cutoff", params);
+    } catch (Exception e) {
+      log.warn("Alert outbox purge failed: {}", e.getMessage());
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    for (ExecutorService ex : executors.values()) ex.shutdown();
+  }
+
+  private List<Claimed> claim(Channel ch, int limit) {
+    Map<String, Object> params = new HashMap<>();
+    params.put("channel", ch.name());
+    params.put("limit", limit);
+    params.put("leaseSeconds", leaseSeconds);
+    return jdbc.query(CLAIM_SQL, params, (rs, i) -> new Claimed(
+      rs.getLong("id"),
+      rs.getString("subject"),
+      rs.getString("message"),
+      rs.getInt("attempts"),
+      rs.getTimestamp("created_at").toInstant()
+    ));
+  }
+
+  private void deliver(Channel ch, Claimed c) {
+    Map<String, Object> params = new HashMap<>();
+    params.put("id", c.id());
+    params.put("attempts", c.attempts());
+    try {
+      switch (ch) {
+        case EMAIL -> sendEmail(c.subject(), c.message());
+        case TELEGRAM -> sendTelegram(c.message());
+      }
+      jdbc.update("UPDATE alert_outbox SET status = 'SENT', sent_at = now(), last_error = NULL" + OWN_CLAIM, params);
+      record(ch, "sent", c.createdAt());
+    } catch (Exception e) {
+      String error = redact(e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage());
+      params.put("error", error.length() > 1000 ? error.substring(0, 1000) : error);
+      if (c.attempts() >= maxAttempts) {
+        jdbc.update("UPDATE alert_outbox SET status = 'FAILED', last_error = :error" + OWN_CLAIM, params);
+        record(ch, "failed", c.createdAt());
+        log.warn("Giving up on {} alert {} after {} attempts: {}", ch, c.id(), c.attempts(), error);
+      } else {
+        long delay = Math.min(backoffMaxSeconds, backoffBaseSeconds << Math.min(20, c.attempts() - 1));
+        params.put("delaySeconds", delay);
+        jdbc.update(
+          "UPDATE alert_outbox SET status = 'RETRY', last_error = :error, " +
+          "next_attempt_at = now() + make_interval(secs => :delaySeconds)" + OWN_CLAIM,
+          params
+        );
+        log.warn("Failed to send {} alert {} (attempt {}): {}", ch, c.id(), c.attempts(), error);
+      }
+    }
+  }
+
+  private String redact(String error) {
+    String out = error;
+    if (telegramBotToken != null && !telegramBotToken.isBlank()) {
+      out = out.replace(telegramBotToken, "***");
+    }
+    return BOT_TOKEN.matcher(out).replaceAll("bot***");
+  }
+
+  private void sendEmail(String subject, String message) {
+    JavaMailSender sender = mailSenderProvider.getIfAvailable();
+    if (sender == null) {
+      throw new IllegalStateException("JavaMailSender not configured");
+    }
+    SimpleMailMessage mail = new SimpleMailMessage();
+    if (emailFrom != null && !emailFrom.isBlank()) {
+      mail.setFrom(emailFrom);
+    }
+    mail.setTo(emailTo);
+    mail.setSubject(subject);
+    mail.setText(message);
+    sender.send(mail);
+  }
+
+  private void sendTelegram(String message) {
+    String url = "https://api.telegram.org/bot" + telegramBotToken + "/sendMessage";
+    Map<String, String> payload = new HashMap<>();
+    payload.put("chat_id", telegramChatId);
+    payload.put("text", message);
+    restTemplate.postForObject(url, payload, String.class);
+  }
+
+  private boolean isConfigured(Channel ch) {
+    return switch (ch) {
+      case EMAIL -> emailEnabled && emailTo != null && !emailTo.isBlank();
+      case TELEGRAM -> telegramEnabled
+        && telegramBotToken != null && !telegramBotToken.isBlank()
+        && telegramChatId != null && !telegramChatId.isBlank();
+    };
+  }
+
+  private void refreshDepth() {
+    Map<String, Long> counts = new HashMap<>();
+    jdbc.query(DEPTH_SQL, Map.of(), rs -> {
+      counts.put(rs.getString("channel"), rs.getLong("n"));
+    });
+    for (Channel ch : Channel.values()) {
+      depth.get(ch).set(counts.getOrDefault(ch.name(), 0L));
+    }
+  }
+
+  private void record(Channel ch, String result, Instant createdAt) {
+    if (meterRegistry == null) return;
+    Timer.builder("vw.alert_outbox.delivery")
+      .tag("channel", ch.name())
+      .tag("result", result)
+      .register(meterRegistry)
+      .record(Duration.between(createdAt, Instant.now()));
+  }
+}
@@ -1,47 +1,234 @@
 package md.virtualwaiter.service;
 
-import md.virtualwaiter.domain.AuditLog;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PreDestroy;
 import md.virtualwaiter.domain.StaffUser;
-import md.virtualwaiter.repo.AuditLogRepo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import md.virtualwaiter.util.PayloadGuard;
 
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Audit trail writer. {@link #log} queues the record (after commit when called inside a transaction) and a
+ * background flusher writes queued records with multi-row inserts every {@code flushMs} or
+ * {@code batchSize} records. When the queue stays full the caller writes its own record, so nothing is
+ * dropped under load. {@link #logDurable} writes before returning, in the caller's transaction.
+ */
 @Service
 public class AuditService {
   private static final Logger log = LoggerFactory.getLogger(AuditService.class);
-  private final AuditLogRepo repo;
+
+  private static final String INSERT_PREFIX =
+    "INSERT INTO audit_logs(actor_user_id, actor_username, actor_role, branch_id, action, entity_type, entity_id, " +
+    "details_json, created_at) VALUES ";
+  private static final String ROW = "(?, ?, ?, ?, ?, ?, ?, ?, ?)";
+  private static final int WRITE_ATTEMPTS = 3;
+
+  private record Entry(
+    Long actorUserId,
+    String actorUsername,
+    String actorRole,
+    Long branchId,
+    String action,
+    String entityType,
+    Long entityId,
+    String detailsJson,
+    Instant createdAt
+  ) {}
+
+  private final NamedParameterJdbcTemplate jdbc;
   private final int maxDetailsChars;
   private final int maxLogPayloadChars;
   private final int maxEventPayloadBytes;
+  private final boolean async;
+  private final long flushMs;
+  private final int batchSize;
+  private final long offerTimeoutMs;
+  private final ArrayBlockingQueue<Entry> queue;
+  private final Thread flusher;
+  private volatile boolean running = true;
+  private final Counter syncFallbacks;
 
   public AuditService(
-    AuditLogRepo repo,
+    NamedParameterJdbcTemplate jdbc,
     @Value("${app.audit.maxDetailsChars:4000}") int maxDetailsChars,
     @Value("${app.log.maxPayloadChars:2000}") int maxLogPayloadChars,
-    @Value("${app.payload.maxBytes:4096}") int maxEventPayloadBytes
+    @Value("${app.payload.maxBytes:4096}") int maxEventPayloadBytes,
+    @Value("${app.audit.async:true}") boolean async,
+    @Value("${app.audit.queueCapacity:10000}") int queueCapacity,
+    @Value("${app.audit.flushMs:200}") long flushMs,
+    @Value("${app.audit.batchSize:200}") int batchSize,
+    @Value("${app.audit.offerTimeoutMs:50}") long offerTimeoutMs,
+    @Nullable MeterRegistry meterRegistry
   ) {
-    this.repo = repo;
+    this.jdbc = jdbc;
     this.maxDetailsChars = maxDetailsChars;
     this.maxLogPayloadChars = maxLogPayloadChars;
     this.maxEventPayloadBytes = maxEventPayloadBytes;
+    this.async = async;
+    this.flushMs = Math.max(10, flushMs);
+    this.batchSize = Math.max(1, Math.min(batchSize, 1000));
+    this.offerTimeoutMs = Math.max(0, offerTimeoutMs);
+    this.queue = new ArrayBlockingQueue<>(Math.max(this.batchSize, queueCapacity));
+    if (meterRegistry != null) {
+      meterRegistry.gaugeCollectionSize("vw.audit.queue_depth", Tags.empty(), queue);
+      this.syncFallbacks = Counter.builder("vw.audit.sync_fallback").register(meterRegistry);
+    } else {
+      this.syncFallbacks = null;
+    }
+    if (async) {
+      this.flusher = new Thread(this::runFlusher, "audit-flusher");
+      this.flusher.setDaemon(true);
+      this.flusher.start();
+    } else {
+      this.flusher = null;
+    }
   }
 
   public void log(StaffUser actor, String action, String entityType, Long entityId, String detailsJson) {
-    AuditLog a = new AuditLog();
-    if (actor != null) {
-      a.actorUserId = actor.id;
-      a.actorUsername = actor.username;
-      a.actorRole = actor.role;
-      a.branchId = actor.branchId;
-    }
-    a.action = action;
-    a.entityType = entityType;
-    a.entityId = entityId;
-    a.detailsJson = truncate(detailsJson);
-    repo.save(a);
+    Entry e = entry(actor, action, entityType, entityId, detailsJson);
+    if (!async) {
+      write(List.of(e));
+      return;
+    }
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          enqueue(e);
+        }
+      });
+    } else {
+      enqueue(e);
+    }
+  }
+
+  /** For actions whose trail must exist before the response, such as staff account and 2FA changes. */
+  public void logDurable(StaffUser actor, String action, String entityType, Long entityId, String detailsJson) {
+    write(List.of(entry(actor, action, entityType, entityId, detailsJson)));
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    running = false;
+    if (flusher == null) return;
+    // Not interrupted: an interrupted thread cannot borrow a pooled connection. It exits within flushMs.
+    try {
+      flusher.join(5000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    List<Entry> rest = new ArrayList<>();
+    queue.drainTo(rest);
+    for (int i = 0; i < rest.size(); i += batchSize) {
+      writeWithRetry(rest.subList(i, Math.min(rest.size(), i + batchSize)));
+    }
+  }
+
+  private Entry entry(StaffUser actor, String action, String entityType, Long entityId, String detailsJson) {
+    return new Entry(
+      actor == null ? null : actor.id,
+      actor == null ? null : actor.username,
+      actor == null ? null : actor.role,
+      actor == null ? null : actor.branchId,
+      action,
+      entityType,
+      entityId,
+      truncate(detailsJson),
+      Instant.now()
+    );
+  }
+
+  private void enqueue(Entry e) {
+    try {
+      if (running && queue.offer(e, offerTimeoutMs, TimeUnit.MILLISECONDS)) return;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    // Back-pressure: the flusher is behind, so this caller pays for its own insert.
+    if (syncFallbacks != null) syncFallbacks.increment();
+    writeWithRetry(List.of(e));
+  }
+
+  private void runFlusher() {
+    List<Entry> batch = new ArrayList<>(batchSize);
+    while (running) {
+      try {
+        Entry first = queue.poll(flushMs, TimeUnit.MILLISECONDS);
+        if (first == null) continue;
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushMs);
+        while (batch.size() < batchSize) {
+          queue.drainTo(batch, batchSize - batch.size());
+          if (batch.size() >= batchSize) break;
+          long left = deadline - System.nanoTime();
+          if (left <= 0) break;
+          Entry next = queue.poll(left, TimeUnit.NANOSECONDS);
+          if (next == null) break;
+          batch.add(next);
+        }
+      } catch (InterruptedException e) {
+        running = false;
+      }
+      if (!batch.isEmpty()) {
+        writeWithRetry(batch);
+        batch.clear();
+      }
+    }
+  }
+
+  private void writeWithRetry(List<Entry> batch) {
+    for (int attempt = 1; ; attempt++) {
+      try {
+        write(batch);
+        return;
+      } catch (Exception e) {
+        if (attempt >= WRITE_ATTEMPTS) {
+          log.error("Dropping {} audit record(s) after {} attempts: {}", batch.size(), attempt, e.getMessage());
+          return;
+        }
+        log.warn("Audit write failed (attempt {}): {}", attempt, e.getMessage());
+        try {
+          Thread.sleep(100L * attempt);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  private void write(List<Entry> batch) {
+    StringBuilder sql = new StringBuilder(INSERT_PREFIX);
+    List<Object> args = new ArrayList<>(batch.size() * 9);
+    for (int i = 0; i < batch.size(); i++) {
+      if (i > 0) sql.append(", ");
+      sql.append(ROW);
+      Entry e = batch.get(i);
+      args.add(e.actorUserId());
+      args.add(e.actorUsername());
+      args.add(e.actorRole());
+      args.add(e.branchId());
+      args.add(e.action());
+      args.add(e.entityType());
+      args.add(e.entityId());
+      args.add(e.detailsJson());
+      args.add(Timestamp.from(e.createdAt()));
+    }
+    jdbc.getJdbcOperations().update(sql.toString(), args.toArray());
   }
 
   private String truncate(String detailsJson) {
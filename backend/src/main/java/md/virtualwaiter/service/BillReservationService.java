@@ -0,0 +1,79 @@
+package md.virtualwaiter.service;
+
+import md.virtualwaiter.domain.BillRequest;
+import md.virtualwaiter.repo.BillRequestRepo;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Write side of guest bill requests. Callers price the selected lines up front; this stores the bill and
+ * claims the lines in one statement that skips lines already reserved or closed, so two guests paying
+ * for the same table cannot both bill a line. A partial claim rolls the whole bill back.
+ */
+@Service
+public class BillReservationService {
+  // Rows are locked in id order so that overlapping claims queue instead of deadlocking; a claim that
+  // waited re-checks the row and finds it taken.
+  private static final String CLAIM_SQL =
+    "WITH locked AS (" +
+      "SELECT id FROM order_items WHERE id IN (:ids) AND bill_request_id IS NULL AND NOT is_closed " +
+      "ORDER BY id FOR UPDATE" +
+    "), claimed AS (" +
+      "UPDATE order_items oi SET bill_request_id = :billRequestId FROM locked " +
+      "WHERE oi.id = locked.id AND oi.bill_request_id IS NULL AND NOT oi.is_closed " +
+      "RETURNING oi.id, oi.unit_price_cents * oi.qty AS line_total_cents" +
+    ") " +
+    "INSERT INTO bill_request_items(bill_request_id, order_item_id, line_total_cents) " +
+    "SELECT :billRequestId, id, line_total_cents FROM claimed ORDER BY id";
+
+  private static final String USE_LIMITED_SQL =
+    "UPDATE branch_discounts SET used_count = used_count + 1 WHERE id = :id AND used_count < max_uses";
+
+  private static final String USE_CAPPED_SQL =
+    "UPDATE branch_discounts SET used_count = LEAST(used_count + 1, max_uses) WHERE id = :id AND max_uses IS NOT NULL";
+
+  /** A discount with a use limit; coupons are refused once exhausted, happy hours only stop counting. */
+  public record DiscountUse(long discountId, boolean enforceLimit) {}
+
+  private final BillRequestRepo billRequestRepo;
+  private final NamedParameterJdbcTemplate jdbc;
+
+  public BillReservationService(BillRequestRepo billRequestRepo, NamedParameterJdbcTemplate jdbc) {
+    this.billRequestRepo = billRequestRepo;
+    this.jdbc = jdbc;
+  }
+
+  @Transactional
+  public BillRequest reserve(BillRequest br, List<Long> orderItemIds, DiscountUse discountUse) {
+    if (orderItemIds.isEmpty()) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "No unpaid items");
+    }
+    BillRequest saved = billRequestRepo.save(br);
+    Map<String, Object> params = new HashMap<>();
+    params.put("ids", orderItemIds);
+    params.put("billRequestId", saved.id);
+    int claimed = jdbc.update(CLAIM_SQL, params);
+    if (claimed != orderItemIds.size()) {
+      throw new ResponseStatusException(HttpStatus.CONFLICT, "Items already reserved by another bill request");
+    }
+    if (discountUse != null) {
+      Map<String, Object> d = new HashMap<>();
+      d.put("id", discountUse.discountId());
+      if (discountUse.enforceLimit()) {
+        if (jdbc.update(USE_LIMITED_SQL, d) == 0) {
+          throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Promo code exhausted");
+        }
+      } else {
+        jdbc.update(USE_CAPPED_SQL, d);
+      }
+    }
+    return saved;
+  }
+}
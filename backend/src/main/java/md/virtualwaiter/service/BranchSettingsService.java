@@ -5,29 +5,75 @@ import md.virtualwaiter.otp.OtpProperties;
 import md.virtualwaiter.config.TipsProperties;
 import md.virtualwaiter.domain.BranchSettings;
 import md.virtualwaiter.repo.BranchSettingsRepo;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.time.ZoneId;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Resolved branch settings (row values over application defaults), cached per branch.
+ * Writers call {@link #invalidate(long)}; other instances are told over {@link CacheInvalidationBus}
+ * and the TTL bounds staleness when no bus is configured.
+ */
 @Service
 public class BranchSettingsService {
+  private static final String TOPIC = "branch-settings";
+
   private final BranchSettingsRepo repo;
   private final OtpProperties otpDefaults;
   private final TipsProperties tipsDefaults;
   private final BillProperties billDefaults;
+  private final CacheInvalidationBus invalidationBus;
+  private final long ttlMillis;
+  private final ConcurrentHashMap<Long, CacheEntry> cache = new ConcurrentHashMap<>();
+  // Bumped on every invalidation; a load that raced with one is not cached.
+  private final AtomicLong generation = new AtomicLong();
+  private final Counter hits;
+  private final Counter misses;
+
+  private record CacheEntry(Resolved value, long loadedAtMillis) {}
 
   public BranchSettingsService(
     BranchSettingsRepo repo,
     OtpProperties otpDefaults,
     TipsProperties tipsDefaults,
-    BillProperties billDefaults
+    BillProperties billDefaults,
+    CacheInvalidationBus invalidationBus,
+    @Value("${app.branchSettings.cacheTtlSeconds:60}") long ttlSeconds,
+    @Nullable MeterRegistry meterRegistry
   ) {
     this.repo = repo;
     this.otpDefaults = otpDefaults;
     this.tipsDefaults = tipsDefaults;
     this.billDefaults = billDefaults;
+    this.invalidationBus = invalidationBus;
+    this.ttlMillis = Math.max(0, ttlSeconds) * 1000L;
+    this.hits = meterRegistry == null ? null : meterRegistry.counter("vw.branch_settings.cache", "result", "hit");
+    this.misses = meterRegistry == null ? null : meterRegistry.counter("vw.branch_settings.cache", "result", "miss");
+    if (meterRegistry != null) {
+      meterRegistry.gaugeMapSize("vw.branch_settings.cache.size", List.of(), cache);
+    }
+    invalidationBus.register(TOPIC, new CacheInvalidationBus.Listener() {
+      @Override
+      public void invalidate(long id) {
+        evict(id);
+      }
+
+      @Override
+      public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.clear();
+      }
+    });
   }
 
   public record Resolved(
@@ -69,10 +115,52 @@ public class BranchSettingsService {
     int commissionOrderPercent,
     int commissionOrderFixedCents,
     String adminIpAllowlist,
-    String adminIpDenylist
+    String adminIpDenylist,
+    // SLA thresholds in minutes; null means the global app.slaAlerts default.
+    Integer slaOrderCritMin,
+    Integer slaKitchenCritMin,
+    Integer slaCallCritMin,
+    Integer slaBillCritMin
   ) {}
 
   public Resolved resolveForBranch(long branchId) {
+    long now = System.currentTimeMillis();
+    CacheEntry e = cache.get(branchId);
+    if (e != null && (ttlMillis == 0 || now - e.loadedAtMillis() < ttlMillis)) {
+      if (hits != null) hits.increment();
+      return e.value();
+    }
+    if (misses != null) misses.increment();
+    long gen = generation.get();
+    Resolved r = load(branchId);
+    if (ttlMillis > 0 && generation.get() == gen) {
+      cache.put(branchId, new CacheEntry(r, now));
+    }
+    return r;
+  }
+
+  /** Drops the branch now and again after the surrounding transaction commits, then tells other instances. */
+  public void invalidate(long branchId) {
+    evict(branchId);
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          evict(branchId);
+          invalidationBus.publish(TOPIC, branchId);
+        }
+      });
+    } else {
+      invalidationBus.publish(TOPIC, branchId);
+    }
+  }
+
+  private void evict(long branchId) {
+    generation.incrementAndGet();
+    cache.remove(branchId);
+  }
+
+  private Resolved load(long branchId) {
     BranchSettings s = repo.findById(branchId).orElse(null);
     return new Resolved(
       boolOr(s == null ? null : s.requireOtpForFirstOrder, otpDefaults.requireForFirstOrder),
@@ -113,7 +201,11 @@ public class BranchSettingsService {
       intOr(s == null ? null : s.commissionOrderPercent, 0),
       intOr(s == null ? null : s.commissionOrderFixedCents, 0),
       strOr(s == null ? null : s.adminIpAllowlist, ""),
-      strOr(s == null ? null : s.adminIpDenylist, "")
+      strOr(s == null ? null : s.adminIpDenylist, ""),
+      s == null ? null : s.slaOrderCritMin,
+      s == null ? null : s.slaKitchenCritMin,
+      s == null ? null : s.slaCallCritMin,
+      s == null ? null : s.slaBillCritMin
     );
   }
 
@@ -138,7 +230,7 @@ public class BranchSettingsService {
         // Skip invalid entries
       }
     }
-    return out.isEmpty() ? def : out;
+    return out.isEmpty() ? def : List.copyOf(out);
   }
 
   private static String strOr(String v, String def) {
@@ -0,0 +1,190 @@
+package md.virtualwaiter.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisPubSub;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Fans local cache invalidations out to the other instances over Redis pub/sub, reusing the
+ * rate limiter's Redis connection settings. Without Redis every instance relies on its cache TTLs.
+ * Messages published while an instance is disconnected are lost, so listeners drop everything
+ * when the subscription is (re)established.
+ */
+@Service
+public class CacheInvalidationBus {
+  private static final Logger log = LoggerFactory.getLogger(CacheInvalidationBus.class);
+  private static final String CHANNEL = "vw:cache:invalidate";
+  private static final String ALL = "*";
+
+  public interface Listener {
+    void invalidate(long id);
+
+    void invalidateAll();
+  }
+
+  private final String instanceId = UUID.randomUUID().toString();
+  private final Map<String, List<Listener>> listeners = new ConcurrentHashMap<>();
+  private final String redisHost;
+  private final int redisPort;
+  private final String redisPassword;
+  private final int redisTimeoutMs;
+  private final JedisPool publishPool;
+  private final Thread subscriber;
+  private final Counter publishFailures;
+  private final Counter received;
+  private volatile JedisPubSub pubSub;
+  private volatile boolean running = true;
+
+  public CacheInvalidationBus(
+    @Value("${app.cache.redisInvalidation.enabled:false}") boolean enabled,
+    @Value("${app.rateLimit.redis.enabled:false}") boolean redisEnabled,
+    @Value("${app.rateLimit.redis.host:}") String redisHost,
+    @Value("${app.rateLimit.redis.port:6379}") int redisPort,
+    @Value("${app.rateLimit.redis.password:}") String redisPassword,
+    @Value("${app.rateLimit.redis.timeoutMs:2000}") int redisTimeoutMs,
+    @Nullable MeterRegistry meterRegistry
+  ) {
+    this.redisHost = redisHost;
+    this.redisPort = redisPort;
+    this.redisPassword = redisPassword;
+    this.redisTimeoutMs = redisTimeoutMs;
+    boolean active = enabled && redisEnabled && redisHost != null && !redisHost.isBlank();
+    this.publishPool = active ? buildPool() : null;
+    this.publishFailures = meterRegistry == null ? null : meterRegistry.counter("vw.cache.invalidation.publish.failures");
+    this.received = meterRegistry == null ? null : meterRegistry.counter("vw.cache.invalidation.received");
+    if (active) {
+      this.subscriber = new Thread(this::runSubscriber, "cache-invalidation-subscriber");
+      this.subscriber.setDaemon(true);
+      this.subscriber.start();
+    } else {
+      this.subscriber = null;
+    }
+  }
+
+  public void register(String topic, Listener listener) {
+    listeners.computeIfAbsent(topic, k -> new CopyOnWriteArrayList<>()).add(listener);
+  }
+
+  /** Tells the other instances to drop {@code id} from the {@code topic} cache; local eviction is the caller's job. */
+  public void publish(String topic, long id) {
+    send(topic, String.valueOf(id));
+  }
+
+  public void publishAll(String topic) {
+    send(topic, ALL);
+  }
+
+  private void send(String topic, String key) {
+    if (publishPool == null) return;
+    try (Jedis jedis = publishPool.getResource()) {
+      jedis.publish(CHANNEL, instanceId + "|" + topic + "|" + key);
+    } catch (Exception e) {
+      if (publishFailures != null) publishFailures.increment();
+      log.warn("Cache invalidation publish failed topic={} key={}: {}", topic, key, e.getMessage());
+    }
+  }
+
+  private void handle(String message) {
+    String[] parts = message.split("\\|", 3);
+    if (parts.length != 3 || instanceId.equals(parts[0])) return;
+    List<Listener> ls = listeners.get(parts[1]);
+    if (ls == null) return;
+    if (received != null) received.increment();
+    if (ALL.equals(parts[2])) {
+      for (Listener l : ls) l.invalidateAll();
+      return;
+    }
+    long id;
+    try {
+      id = Long.parseLong(parts[2]);
+    } catch (NumberFormatException e) {
+      return;
+    }
+    for (Listener l : ls) l.invalidate(id);
+  }
+
+  private void runSubscriber() {
+    long backoffMs = 1000;
+    while (running) {
+      try (Jedis jedis = new Jedis(redisHost, redisPort, redisTimeoutMs, 0)) {
+        if (redisPassword != null && !redisPassword.isBlank()) {
+          jedis.auth(redisPassword);
+        }
+        JedisPubSub ps = new JedisPubSub() {
+          @Override
+          public void onSubscribe(String channel, int subscribedChannels) {
+            for (List<Listener> ls : listeners.values()) {
+              for (Listener l : ls) l.invalidateAll();
+            }
+          }
+
+          @Override
+          public void onMessage(String channel, String message) {
+            try {
+              handle(message);
+            } catch (Exception e) {
+              log.warn("Cache invalidation handling failed: {}", e.getMessage());
+            }
+          }
+        };
+        pubSub = ps;
+        backoffMs = 1000;
+        jedis.subscribe(ps, CHANNEL);
+      } catch (Exception e) {
+        if (!running) return;
+        log.warn("Cache invalidation subscriber disconnected: {}", e.getMessage());
+      }
+      try {
+        Thread.sleep(backoffMs);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      backoffMs = Math.min(backoffMs * 2, 30000);
+    }
+  }
+
+  private JedisPool buildPool() {
+    JedisPoolConfig config = new JedisPoolConfig();
+    config.setMaxTotal(4);
+    config.setMaxIdle(2);
+    config.setMaxWait(Duration.ofMillis(redisTimeoutMs));
+    config.setBlockWhenExhausted(true);
+    config.setTestOnBorrow(true);
+    if (redisPassword != null && !redisPassword.isBlank()) {
+      return new JedisPool(config, redisHost, redisPort, redisTimeoutMs, redisPassword);
+    }
+    return new JedisPool(config, redisHost, redisPort, redisTimeoutMs);
+  }
+
+  @PreDestroy
+  void shutdown() {
+    running = false;
+    JedisPubSub ps = pubSub;
+    if (ps != null && ps.isSubscribed()) {
+      try {
+        ps.unsubscribe();
+      } catch (Exception ignored) {
+        // connection already gone
+      }
+    }
+    if (subscriber != null) subscriber.interrupt();
+    if (publishPool != null) publishPool.close();
+  }
+}
@@ -0,0 +1,108 @@
+package md.virtualwaiter.service;
+
+import md.virtualwaiter.domain.ChatMessage;
+import md.virtualwaiter.repo.ChatMessageRepo;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chat writes and the staff inbox. Every message also moves its chat_threads row, so the inbox
+ * reads one row per conversation in last-message order instead of the whole chat history.
+ */
+@Service
+public class ChatThreadService {
+  private static final String UPSERT_SQL =
+    "INSERT INTO chat_threads(guest_session_id, branch_id, table_id, last_message_id, last_sender_role, last_message, last_at)\n" +
+    "VALUES (:guestSessionId, :branchId, :tableId, :messageId, :senderRole, :message, :createdAt)\n" +
+    "ON CONFLICT (guest_session_id) DO UPDATE SET\n" +
+    "  branch_id = EXCLUDED.branch_id,\n" +
+    "  table_id = EXCLUDED.table_id,\n" +
+    "  last_message_id = EXCLUDED.last_message_id,\n" +
+    "  last_sender_role = EXCLUDED.last_sender_role,\n" +
+    "  last_message = EXCLUDED.last_message,\n" +
+    "  last_at = EXCLUDED.last_at\n" +
+    "WHERE chat_threads.last_message_id < EXCLUDED.last_message_id";
+
+  private static final String INBOX_SQL =
+    "SELECT ct.guest_session_id, ct.last_message_id, ct.last_sender_role, ct.last_message, ct.last_at,\n" +
+    "  t.number AS table_number, r.last_read_at\n" +
+    "FROM chat_threads ct\n" +
+    "LEFT JOIN tables t ON t.id = ct.table_id\n" +
+    "LEFT JOIN chat_reads r ON r.staff_user_id = :staffUserId AND r.guest_session_id = ct.guest_session_id\n" +
+    "WHERE ct.branch_id = :branchId AND ct.last_message_id < :beforeId\n";
+
+  public record InboxRow(
+    long guestSessionId,
+    long lastMessageId,
+    Integer tableNumber,
+    String lastMessage,
+    String lastSenderRole,
+    Instant lastAt,
+    Instant lastReadAt
+  ) {
+    /** Same rule as before the projection: the guest spoke last and this staff user has not read it since. */
+    public boolean isUnread() {
+      return "GUEST".equalsIgnoreCase(lastSenderRole)
+        && (lastReadAt == null || (lastAt != null && lastAt.isAfter(lastReadAt)));
+    }
+  }
+
+  private final ChatMessageRepo chatMessageRepo;
+  private final NamedParameterJdbcTemplate jdbc;
+
+  public ChatThreadService(ChatMessageRepo chatMessageRepo, NamedParameterJdbcTemplate jdbc) {
+    this.chatMessageRepo = chatMessageRepo;
+    this.jdbc = jdbc;
+  }
+
+  /** Stores the message and moves its thread in one transaction. */
+  @Transactional
+  public ChatMessage append(ChatMessage m) {
+    ChatMessage saved = chatMessageRepo.save(m);
+    Map<String, Object> params = new HashMap<>();
+    params.put("guestSessionId", saved.guestSessionId);
+    params.put("branchId", saved.branchId);
+    params.put("tableId", saved.tableId);
+    params.put("messageId", saved.id);
+    params.put("senderRole", saved.senderRole);
+    params.put("message", saved.message);
+    params.put("createdAt", Timestamp.from(saved.createdAt));
+    jdbc.update(UPSERT_SQL, params);
+    return saved;
+  }
+
+  /** Threads of a branch, newest first, strictly older than {@code beforeId} (the previous page's last id). */
+  public List<InboxRow> inbox(long branchId, long staffUserId, Long hallId, Long beforeId, int limit) {
+    Map<String, Object> params = new HashMap<>();
+    params.put("branchId", branchId);
+    params.put("staffUserId", staffUserId);
+    params.put("beforeId", beforeId != null ? beforeId : Long.MAX_VALUE);
+    params.put("limit", limit);
+    String sql = INBOX_SQL;
+    if (hallId != null) {
+      sql += "  AND t.hall_id = :hallId\n";
+      params.put("hallId", hallId);
+    }
+    sql += "ORDER BY ct.last_message_id DESC\nLIMIT :limit";
+    return jdbc.query(sql, params, (rs, i) -> {
+      Timestamp lastAt = rs.getTimestamp("last_at");
+      Timestamp lastReadAt = rs.getTimestamp("last_read_at");
+      return new InboxRow(
+        rs.getLong("guest_session_id"),
+        rs.getLong("last_message_id"),
+        rs.getObject("table_number", Integer.class),
+        rs.getString("last_message"),
+        rs.getString("last_sender_role"),
+        lastAt != null ? lastAt.toInstant() : null,
+        lastReadAt != null ? lastReadAt.toInstant() : null
+      );
+    });
+  }
+}
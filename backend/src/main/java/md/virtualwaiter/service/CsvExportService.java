@@ -0,0 +1,281 @@
+package md.virtualwaiter.service;
+
+import jakarta.servlet.http.HttpServletRequest;
+import md.virtualwaiter.util.CsvWriter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams CSV reports straight to the response. Rows are read in keyset pages (id cursor, bounded LIMIT)
+ * so neither the result set nor the file is held on the heap, and no connection is kept open while
+ * a slow client drains the output.
+ */
+@Service
+public class CsvExportService {
+
+  @FunctionalInterface
+  public interface Body {
+    void write(CsvWriter csv) throws IOException;
+  }
+
+  @FunctionalInterface
+  public interface PageSink<T> {
+    void accept(List<T> page) throws IOException;
+  }
+
+  private static final String CHAT_SQL =
+    "SELECT m.id, m.guest_session_id, m.table_id, t.number AS table_number, m.sender_role, m.staff_user_id,\n" +
+    "  m.message, m.created_at\n" +
+    "FROM chat_messages m\n" +
+    "LEFT JOIN tables t ON t.id = m.table_id\n" +
+    "WHERE m.branch_id = :branchId AND m.created_at >= :fromTs AND m.created_at <= :toTs AND m.id > :afterId\n";
+
+  private static final String REVIEWS_SQL =
+    "SELECT r.id, r.guest_session_id, r.rating, r.comment, r.created_at\n" +
+    "FROM branch_reviews r\n";
+
+  private static final String AUDIT_SQL =
+    "SELECT a.id, a.created_at, a.actor_user_id, a.actor_username, a.actor_role, a.branch_id, a.action,\n" +
+    "  a.entity_type, a.entity_id, a.details_json\n" +
+    "FROM audit_logs a\n" +
+    "WHERE a.branch_id = :branchId AND a.id < :beforeId\n";
+
+  private final NamedParameterJdbcTemplate jdbc;
+  private final int pageSize;
+  private final boolean gzipEnabled;
+
+  public CsvExportService(
+    DataSource dataSource,
+    @Value("${app.export.pageSize:2000}") int pageSize,
+    @Value("${app.export.fetchSize:500}") int fetchSize,
+    @Value("${app.export.gzip:true}") boolean gzipEnabled
+  ) {
+    JdbcTemplate template = new JdbcTemplate(dataSource);
+    template.setFetchSize(Math.max(1, fetchSize));
+    this.jdbc = new NamedParameterJdbcTemplate(template);
+    this.pageSize = Math.max(1, pageSize);
+    this.gzipEnabled = gzipEnabled;
+  }
+
+  /** Response whose body is written after the handler returns; gzip is applied when the client accepts it. */
+  public ResponseEntity<StreamingResponseBody> stream(String filename, List<String> header, Body body) {
+    boolean gzip = gzipEnabled && acceptsGzip();
+    StreamingResponseBody out = os -> {
+      GZIPOutputStream gz = gzip ? new GZIPOutputStream(os, 8192) : null;
+      OutputStream target = gz != null ? gz : os;
+      Writer w = new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8), 16384);
+      CsvWriter csv = new CsvWriter(w);
+      csv.row(header.toArray());
+      body.write(csv);
+      csv.flush();
+      if (gz != null) gz.finish();
+      os.flush();
+    };
+    ResponseEntity.BodyBuilder res = ResponseEntity.ok()
+      .contentType(MediaType.parseMediaType("text/csv;charset=UTF-8"))
+      .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+      .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    if (gzip) {
+      res.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+    }
+    return res.body(out);
+  }
+
+  /**
+   * Runs {@code sql} one page at a time. The query must bind {@code :afterId} (ascending) or
+   * {@code :beforeId} (descending) against the id column and must not carry its own ORDER BY/LIMIT.
+   */
+  public <T> void forEachPage(
+    String sql,
+    String idColumn,
+    Map<String, Object> params,
+    boolean descending,
+    Long startCursor,
+    int maxRows,
+    RowMapper<T> mapper,
+    ToLongFunction<T> idOf,
+    PageSink<T> sink
+  ) throws IOException {
+    String pageSql = sql + "ORDER BY " + idColumn + (descending ? " DESC" : " ASC") + "\nLIMIT :limit";
+    String cursorParam = descending ? "beforeId" : "afterId";
+    long cursor = startCursor != null ? startCursor : (descending ? Long.MAX_VALUE : 0L);
+    Map<String, Object> p = new HashMap<>(params);
+    int remaining = maxRows <= 0 ? Integer.MAX_VALUE : maxRows;
+    while (remaining > 0) {
+      int limit = Math.min(pageSize, remaining);
+      p.put(cursorParam, cursor);
+      p.put("limit", limit);
+      List<T> page = jdbc.query(pageSql, p, mapper);
+      if (page.isEmpty()) return;
+      sink.accept(page);
+      if (page.size() < limit) return;
+      remaining -= page.size();
+      cursor = idOf.applyAsLong(page.get(page.size() - 1));
+    }
+  }
+
+  public void writeChat(CsvWriter csv, long branchId, Instant fromTs, Instant toTs, Long waiterId) throws IOException {
+    Map<String, Object> params = new HashMap<>();
+    params.put("branchId", branchId);
+    params.put("fromTs", Timestamp.from(fromTs));
+    params.put("toTs", Timestamp.from(toTs));
+    String sql = CHAT_SQL;
+    if (waiterId != null) {
+      sql += "  AND (m.staff_user_id = :waiterId OR t.assigned_waiter_id = :waiterId)\n";
+      params.put("waiterId", waiterId);
+    }
+    forEachPage(sql, "m.id", params, false, null, 0, (rs, i) -> new Object[] {
+      rs.getLong("id"),
+      rs.getLong("guest_session_id"),
+      rs.getLong("table_id"),
+      rs.getObject("table_number"),
+      rs.getString("sender_role"),
+      rs.getObject("staff_user_id"),
+      rs.getString("message"),
+      instant(rs, "created_at")
+    }, r -> (Long) r[0], page -> {
+      for (Object[] r : page) csv.row(r);
+    });
+  }
+
+  public void writeBranchReviews(
+    CsvWriter csv,
+    long branchId,
+    Long tableId,
+    Long hallId,
+    Instant fromTs,
+    Instant toTs
+  ) throws IOException {
+    Map<String, Object> params = new HashMap<>();
+    params.put("branchId", branchId);
+    StringBuilder sql = new StringBuilder(REVIEWS_SQL);
+    if (tableId != null || hallId != null) {
+      sql.append("JOIN guest_sessions gs ON gs.id = r.guest_session_id\n");
+    }
+    if (hallId != null) {
+      sql.append("JOIN tables t ON t.id = gs.table_id\n");
+    }
+    sql.append("WHERE r.branch_id = :branchId AND r.id < :beforeId\n");
+    if (fromTs != null) {
+      sql.append("  AND r.created_at >= :fromTs\n");
+      params.put("fromTs", Timestamp.from(fromTs));
+    }
+    if (toTs != null) {
+      sql.append("  AND r.created_at <= :toTs\n");
+      params.put("toTs", Timestamp.from(toTs));
+    }
+    if (tableId != null) {
+      sql.append("  AND gs.table_id = :tableId\n");
+      params.put("tableId", tableId);
+    }
+    if (hallId != null) {
+      sql.append("  AND t.hall_id = :hallId\n");
+      params.put("hallId", hallId);
+    }
+    forEachPage(sql.toString(), "r.id", params, true, null, 0, (rs, i) -> new Object[] {
+      rs.getLong("id"),
+      rs.getLong("guest_session_id"),
+      rs.getInt("rating"),
+      rs.getString("comment"),
+      instant(rs, "created_at")
+    }, r -> (Long) r[0], page -> {
+      for (Object[] r : page) csv.row(r);
+    });
+  }
+
+  public void writeAuditLogs(
+    CsvWriter csv,
+    long branchId,
+    String action,
+    String entityType,
+    String actorUsername,
+    Instant fromTs,
+    Instant toTs,
+    Long beforeId,
+    Long afterId,
+    int maxRows
+  ) throws IOException {
+    Map<String, Object> params = new HashMap<>();
+    params.put("branchId", branchId);
+    StringBuilder sql = new StringBuilder(AUDIT_SQL);
+    if (action != null) {
+      sql.append("  AND a.action = :action\n");
+      params.put("action", action);
+    }
+    if (entityType != null) {
+      sql.append("  AND a.entity_type = :entityType\n");
+      params.put("entityType", entityType);
+    }
+    if (actorUsername != null) {
+      sql.append("  AND a.actor_username = :actorUsername\n");
+      params.put("actorUsername", actorUsername);
+    }
+    if (fromTs != null) {
+      sql.append("  AND a.created_at >= :fromTs\n");
+      params.put("fromTs", Timestamp.from(fromTs));
+    }
+    if (toTs != null) {
+      sql.append("  AND a.created_at <= :toTs\n");
+      params.put("toTs", Timestamp.from(toTs));
+    }
+    if (afterId != null) {
+      sql.append("  AND a.id > :minId\n");
+      params.put("minId", afterId);
+    }
+    forEachPage(sql.toString(), "a.id", params, true, beforeId, maxRows, (rs, i) -> new Object[] {
+      rs.getLong("id"),
+      instant(rs, "created_at"),
+      rs.getObject("actor_user_id"),
+      rs.getString("actor_username"),
+      rs.getString("actor_role"),
+      rs.getObject("branch_id"),
+      rs.getString("action"),
+      rs.getString("entity_type"),
+      rs.getObject("entity_id"),
+      rs.getString("details_json")
+    }, r -> (Long) r[0], page -> {
+      for (Object[] r : page) csv.row(r);
+    });
+  }
+
+  private static Instant instant(ResultSet rs, String column) throws SQLException {
+    Timestamp ts = rs.getTimestamp(column);
+    return ts == null ? null : ts.toInstant();
+  }
+
+  private static boolean acceptsGzip() {
+    RequestAttributes attrs = RequestContextHolder.getRequestAttributes();
+    if (!(attrs instanceof ServletRequestAttributes sra)) return false;
+    HttpServletRequest req = sra.getRequest();
+    String accept = req.getHeader(HttpHeaders.ACCEPT_ENCODING);
+    return accept != null && accept.toLowerCase(Locale.ROOT).contains("gzip");
+  }
+}
@@ -0,0 +1,225 @@
+package md.virtualwaiter.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process long-poll registry for guest sessions. Staff chat replies and order status changes go into a
+ * short per-session event ring and wake the session's pending polls after commit. Guests poll with the
+ * cursor of the last answer; a first poll, or a cursor older than the ring (restart, eviction, a change
+ * made on another instance), is answered with resync, and the client falls back to its afterId fetches.
+ * Events for another instance's guests only arrive here over the optional Redis invalidation bus, so the
+ * client also keeps a slow refresh timer.
+ */
+@Service
+public class GuestEventHub {
+  private static final String TOPIC = "guest-events";
+
+  public static final String CHAT = "CHAT";
+  public static final String ORDER = "ORDER";
+
+  public record GuestEvent(long seq, String type, long refId, String status) {}
+
+  public record Updates(long cursor, List<GuestEvent> events, boolean resync) {}
+
+  private record Waiter(long since, DeferredResult<Updates> result) {}
+
+  private static final class SessionState {
+    final ArrayDeque<GuestEvent> events = new ArrayDeque<>();
+    final List<Waiter> waiters = new ArrayList<>();
+    // Events up to and including this seq are no longer held.
+    long floorSeq;
+    long touchedAtMillis;
+
+    SessionState(long floorSeq, long nowMillis) {
+      this.floorSeq = floorSeq;
+      this.touchedAtMillis = nowMillis;
+    }
+
+    long cursor() {
+      return events.isEmpty() ? floorSeq : events.peekLast().seq();
+    }
+
+    Updates since(long since) {
+      if (since < floorSeq) return new Updates(cursor(), List.of(), true);
+      List<GuestEvent> out = new ArrayList<>();
+      for (GuestEvent ev : events) {
+        if (ev.seq() > since) out.add(ev);
+      }
+      return new Updates(cursor(), out, false);
+    }
+  }
+
+  private final CacheInvalidationBus invalidationBus;
+  private final long timeoutMs;
+  private final int maxEventsPerSession;
+  private final int maxWaitersPerSession;
+  private final long idleMillis;
+  // Seeded from the clock so cursors handed out before a restart are older than any new event.
+  private final AtomicLong seq = new AtomicLong(System.currentTimeMillis() * 1000L);
+  private final ConcurrentHashMap<Long, SessionState> sessions = new ConcurrentHashMap<>();
+
+  public GuestEventHub(
+    CacheInvalidationBus invalidationBus,
+    @Value("${app.guestPoll.timeoutMs:25000}") long timeoutMs,
+    @Value("${app.guestPoll.maxEventsPerSession:50}") int maxEventsPerSession,
+    @Value("${app.guestPoll.maxWaitersPerSession:4}") int maxWaitersPerSession,
+    @Value("${app.guestPoll.idleSeconds:1800}") long idleSeconds
+  ) {
+    this.invalidationBus = invalidationBus;
+    this.timeoutMs = Math.max(1000, timeoutMs);
+    this.maxEventsPerSession = Math.max(1, maxEventsPerSession);
+    this.maxWaitersPerSession = Math.max(1, maxWaitersPerSession);
+    this.idleMillis = Math.max(60, idleSeconds) * 1000L;
+    invalidationBus.register(TOPIC, new CacheInvalidationBus.Listener() {
+      @Override
+      public void invalidate(long sessionId) {
+        SessionState st = sessions.get(sessionId);
+        if (st != null) forceResync(st);
+      }
+
+      @Override
+      public void invalidateAll() {
+        for (SessionState st : sessions.values()) forceResync(st);
+      }
+    });
+  }
+
+  /**
+   * Answers at once when there are events after {@code since}, otherwise parks the request until the next
+   * event or the timeout. Without {@code since} the client cannot tell what it missed since its initial
+   * loads, so the poll answers at once with resync and the current cursor.
+   */
+  public DeferredResult<Updates> poll(long sessionId, Long since) {
+    DeferredResult<Updates> result = new DeferredResult<>(timeoutMs);
+    long now = System.currentTimeMillis();
+    SessionState st = sessions.computeIfAbsent(sessionId, k -> new SessionState(seq.get(), now));
+    Waiter waiter;
+    Waiter evicted = null;
+    synchronized (st) {
+      st.touchedAtMillis = now;
+      if (since == null) {
+        result.setResult(new Updates(st.cursor(), List.of(), true));
+        return result;
+      }
+      Updates ready = st.since(since);
+      if (ready.resync() || !ready.events().isEmpty()) {
+        result.setResult(ready);
+        return result;
+      }
+      waiter = new Waiter(since, result);
+      if (st.waiters.size() >= maxWaitersPerSession) {
+        // A reloaded tab leaves its old poll behind; the newest request wins.
+        evicted = st.waiters.remove(0);
+      }
+      st.waiters.add(waiter);
+    }
+    if (evicted != null) {
+      evicted.result().setResult(new Updates(evicted.since(), List.of(), false));
+    }
+    result.onTimeout(() -> {
+      Updates empty;
+      synchronized (st) {
+        st.waiters.remove(waiter);
+        empty = new Updates(st.cursor(), List.of(), false);
+      }
+      result.setResult(empty);
+    });
+    result.onCompletion(() -> {
+      synchronized (st) {
+        st.waiters.remove(waiter);
+      }
+    });
+    return result;
+  }
+
+  /** Records the event after the surrounding transaction commits and wakes the session's polls. */
+  public void publish(long sessionId, String type, long refId, String status) {
+    Runnable task = () -> {
+      append(sessionId, type, refId, status);
+      invalidationBus.publish(TOPIC, sessionId);
+    };
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          task.run();
+        }
+      });
+    } else {
+      task.run();
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${app.guestPoll.sweepMs:60000}")
+  public void evictIdle() {
+    evictIdleBefore(System.currentTimeMillis() - idleMillis);
+  }
+
+  void evictIdleBefore(long cutoff) {
+    for (Map.Entry<Long, SessionState> e : sessions.entrySet()) {
+      SessionState st = e.getValue();
+      synchronized (st) {
+        if (st.waiters.isEmpty() && st.touchedAtMillis < cutoff) {
+          sessions.remove(e.getKey(), st);
+        }
+      }
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    for (SessionState st : sessions.values()) forceResync(st);
+    sessions.clear();
+  }
+
+  private void append(long sessionId, String type, long refId, String status) {
+    // Nobody on this instance has polled the session recently. Its next poll carries a cursor below the
+    // new state's floor (or none at all), so it is answered with resync and the event is not lost.
+    SessionState st = sessions.get(sessionId);
+    if (st == null) {
+      // Moves the floor of the state that poll creates past every cursor handed out so far.
+      seq.incrementAndGet();
+      return;
+    }
+    List<Waiter> woken;
+    List<Updates> answers = new ArrayList<>();
+    synchronized (st) {
+      st.events.addLast(new GuestEvent(seq.incrementAndGet(), type, refId, status));
+      while (st.events.size() > maxEventsPerSession) {
+        st.floorSeq = st.events.removeFirst().seq();
+      }
+      woken = new ArrayList<>(st.waiters);
+      st.waiters.clear();
+      for (Waiter w : woken) answers.add(st.since(w.since()));
+    }
+    for (int i = 0; i < woken.size(); i++) {
+      woken.get(i).result().setResult(answers.get(i));
+    }
+  }
+
+  private void forceResync(SessionState st) {
+    List<Waiter> woken;
+    Updates answer;
+    synchronized (st) {
+      st.events.clear();
+      st.floorSeq = seq.incrementAndGet();
+      woken = new ArrayList<>(st.waiters);
+      st.waiters.clear();
+      answer = new Updates(st.cursor(), List.of(), true);
+    }
+    for (Waiter w : woken) w.result().setResult(answer);
+  }
+}
@@ -0,0 +1,251 @@
+package md.virtualwaiter.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import md.virtualwaiter.domain.Branch;
+import md.virtualwaiter.domain.CafeTable;
+import md.virtualwaiter.domain.GuestSession;
+import md.virtualwaiter.repo.BranchRepo;
+import md.virtualwaiter.repo.CafeTableRepo;
+import md.virtualwaiter.repo.GuestSessionRepo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory view of live guest sessions: what public handlers need to authenticate a guest and scope
+ * the request (secret hash, table, branch, tenant, party, verification) without a guest_sessions and
+ * tables lookup on every poll. Entries are dropped at session expiry and refreshed on every save.
+ */
+@Service
+public class GuestSessionDirectory {
+  private static final String TOPIC = "guest-session";
+  private static final int EVICTION_SAMPLE = 16;
+
+  public record Entry(
+    long sessionId,
+    @Nullable byte[] secretHash,
+    long tableId,
+    @Nullable Long branchId,
+    @Nullable Long tenantId,
+    Instant expiresAt,
+    @Nullable Long partyId,
+    boolean verified,
+    long loadedAtMillis
+  ) {
+    public boolean isExpired(Instant now) {
+      return expiresAt.isBefore(now);
+    }
+  }
+
+  private final GuestSessionRepo sessionRepo;
+  private final CafeTableRepo tableRepo;
+  private final BranchRepo branchRepo;
+  private final CacheInvalidationBus invalidationBus;
+  private final long ttlMillis;
+  private final int maxEntries;
+  private final ConcurrentHashMap<Long, Entry> entries = new ConcurrentHashMap<>();
+  // Bumped on every invalidation; a load that raced with one is not cached.
+  private final AtomicLong generation = new AtomicLong();
+  private final Object evictionLock = new Object();
+  // Guarded by evictionLock; each sample continues from here so the whole cache is visited in turn.
+  private Iterator<Entry> evictionCursor;
+  private final Counter hits;
+  private final Counter misses;
+
+  public GuestSessionDirectory(
+    GuestSessionRepo sessionRepo,
+    CafeTableRepo tableRepo,
+    BranchRepo branchRepo,
+    CacheInvalidationBus invalidationBus,
+    @Value("${app.guestSessions.cacheTtlSeconds:60}") long ttlSeconds,
+    @Value("${app.guestSessions.cacheMaxEntries:100000}") int maxEntries,
+    @Nullable MeterRegistry meterRegistry
+  ) {
+    this.sessionRepo = sessionRepo;
+    this.tableRepo = tableRepo;
+    this.branchRepo = branchRepo;
+    this.invalidationBus = invalidationBus;
+    this.ttlMillis = Math.max(0, ttlSeconds) * 1000L;
+    this.maxEntries = Math.max(0, maxEntries);
+    this.hits = meterRegistry == null ? null : meterRegistry.counter("vw.guest_session.cache", "result", "hit");
+    this.misses = meterRegistry == null ? null : meterRegistry.counter("vw.guest_session.cache", "result", "miss");
+    if (meterRegistry != null) {
+      meterRegistry.gaugeMapSize("vw.guest_session.cache.size", List.of(), entries);
+    }
+    invalidationBus.register(TOPIC, new CacheInvalidationBus.Listener() {
+      @Override
+      public void invalidate(long id) {
+        evict(id);
+      }
+
+      @Override
+      public void invalidateAll() {
+        generation.incrementAndGet();
+        entries.clear();
+      }
+    });
+  }
+
+  /** Session by id, or null when unknown. Expired sessions are returned but never cached. */
+  @Nullable
+  public Entry find(long sessionId) {
+    long now = System.currentTimeMillis();
+    Entry e = entries.get(sessionId);
+    if (e != null && isFresh(e, now)) {
+      if (hits != null) hits.increment();
+      return e;
+    }
+    if (misses != null) misses.increment();
+    long gen = generation.get();
+    GuestSession s = sessionRepo.findById(sessionId).orElse(null);
+    if (s == null) {
+      entries.remove(sessionId);
+      return null;
+    }
+    Long branchId = null;
+    Long tenantId = null;
+    CafeTable table = s.tableId == null ? null : tableRepo.findById(s.tableId).orElse(null);
+    if (table != null) {
+      branchId = table.branchId;
+      Branch b = branchId == null ? null : branchRepo.findById(branchId).orElse(null);
+      if (b != null) tenantId = b.tenantId;
+    }
+    Entry loaded = entryOf(s, branchId, tenantId, now);
+    if (isFresh(loaded, now) && generation.get() == gen) {
+      store(loaded);
+    }
+    return loaded;
+  }
+
+  /** Same checks and messages as the handlers that compare against the loaded session. */
+  public static void requireSecret(Entry e, @Nullable String header) {
+    if (e.secretHash() == null) {
+      throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Session secret not set");
+    }
+    if (header == null || header.isBlank() || !MessageDigest.isEqual(e.secretHash(), sha256(header))) {
+      throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Invalid session secret");
+    }
+  }
+
+  /**
+   * Call after saving a session. The cached entry is dropped now and, once the surrounding transaction
+   * commits, replaced from {@code s} when the table is unchanged; other instances are told to reload.
+   */
+  public void saved(GuestSession s) {
+    if (s == null || s.id == null) return;
+    long id = s.id;
+    Entry prev = entries.get(id);
+    evict(id);
+    Runnable refresh = () -> {
+      evict(id);
+      if (prev != null && Objects.equals(prev.tableId(), s.tableId)) {
+        long now = System.currentTimeMillis();
+        Entry next = entryOf(s, prev.branchId(), prev.tenantId(), now);
+        if (isFresh(next, now)) store(next);
+      }
+      invalidationBus.publish(TOPIC, id);
+    };
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          refresh.run();
+        }
+      });
+    } else {
+      refresh.run();
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${app.guestSessions.cacheSweepMs:60000}")
+  public void evictExpired() {
+    long now = System.currentTimeMillis();
+    entries.values().removeIf(e -> !isFresh(e, now));
+  }
+
+  private void store(Entry e) {
+    if (entries.size() >= maxEntries && !entries.containsKey(e.sessionId())) {
+      if (maxEntries == 0) return;
+      makeRoom(System.currentTimeMillis());
+    }
+    entries.put(e.sessionId(), e);
+  }
+
+  /**
+   * Frees at least one slot in a full cache by inspecting a fixed number of entries instead of all of
+   * them: stale ones are dropped, and when the sample holds none the entry loaded longest ago goes.
+   * Dropping a live entry only costs that session one reload; the sweep still clears the rest.
+   */
+  private void makeRoom(long nowMillis) {
+    synchronized (evictionLock) {
+      if (entries.size() < maxEntries) return;
+      Entry oldest = null;
+      boolean freed = false;
+      for (int i = 0; i < EVICTION_SAMPLE; i++) {
+        if (evictionCursor == null || !evictionCursor.hasNext()) {
+          evictionCursor = entries.values().iterator();
+          if (!evictionCursor.hasNext()) return;
+        }
+        Entry candidate = evictionCursor.next();
+        if (!isFresh(candidate, nowMillis)) {
+          freed |= entries.remove(candidate.sessionId(), candidate);
+        } else if (oldest == null || candidate.loadedAtMillis() < oldest.loadedAtMillis()) {
+          oldest = candidate;
+        }
+      }
+      if (!freed && oldest != null) {
+        entries.remove(oldest.sessionId(), oldest);
+      }
+    }
+  }
+
+  private void evict(long sessionId) {
+    generation.incrementAndGet();
+    entries.remove(sessionId);
+  }
+
+  private boolean isFresh(Entry e, long nowMillis) {
+    return ttlMillis > 0
+      && nowMillis - e.loadedAtMillis() < ttlMillis
+      && e.expiresAt().toEpochMilli() > nowMillis;
+  }
+
+  private static Entry entryOf(GuestSession s, Long branchId, Long tenantId, long nowMillis) {
+    byte[] secretHash = s.sessionSecret == null || s.sessionSecret.isBlank() ? null : sha256(s.sessionSecret);
+    return new Entry(
+      s.id,
+      secretHash,
+      s.tableId,
+      branchId,
+      tenantId,
+      s.expiresAt,
+      s.partyId,
+      s.isVerified,
+      nowMillis
+    );
+  }
+
+  private static byte[] sha256(String value) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -1,38 +1,93 @@
 package md.virtualwaiter.service;
 
-import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import md.virtualwaiter.domain.InventoryItem;
 import md.virtualwaiter.domain.MenuItemIngredient;
 import md.virtualwaiter.domain.OrderItem;
 import md.virtualwaiter.repo.InventoryItemRepo;
 import md.virtualwaiter.repo.MenuItemIngredientRepo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 @Service
 public class InventoryService {
+  private static final String RECIPE_TOPIC = "recipes";
+
+  // Rows are locked in id order before the update, so two orders sharing ingredients queue up
+  // instead of deadlocking on each other.
+  private static final String DECREMENT_SQL =
+    "WITH c AS (" +
+      "SELECT * FROM unnest(CAST(ARRAY[:ids] AS bigint[]), CAST(ARRAY[:amounts] AS double precision[])) AS c(id, amount)" +
+    "), locked AS (" +
+      "SELECT i.id FROM inventory_items i JOIN c ON c.id = i.id " +
+      "WHERE i.branch_id = :branchId ORDER BY i.id FOR UPDATE OF i" +
+    ") " +
+    "UPDATE inventory_items i SET qty_on_hand = i.qty_on_hand - c.amount, updated_at = now() " +
+      "FROM c JOIN locked l ON l.id = c.id " +
+      "WHERE i.id = c.id " +
+      "RETURNING i.id, i.name_ru, i.name_ro, i.name_en, i.unit, i.qty_on_hand, i.min_qty";
+
+  private record Component(long inventoryItemId, double qtyPerItem) {}
+
+  private record Recipe(List<Component> components, long loadedAtMillis) {}
+
   private final InventoryItemRepo inventoryRepo;
   private final MenuItemIngredientRepo ingredientRepo;
   private final BranchSettingsService settingsService;
   private final NotificationEventService notificationEventService;
   private final InventoryAlertService inventoryAlertService;
+  private final MenuSnapshotService menuSnapshotService;
+  private final NamedParameterJdbcTemplate jdbc;
+  private final CacheInvalidationBus invalidationBus;
+  private final long recipeTtlMillis;
+  // Menu item id -> ingredients; items without a recipe are cached as empty lists.
+  private final ConcurrentHashMap<Long, Recipe> recipes = new ConcurrentHashMap<>();
+  private final AtomicLong recipeGeneration = new AtomicLong();
 
   public InventoryService(
     InventoryItemRepo inventoryRepo,
     MenuItemIngredientRepo ingredientRepo,
     BranchSettingsService settingsService,
     NotificationEventService notificationEventService,
-    InventoryAlertService inventoryAlertService
+    InventoryAlertService inventoryAlertService,
+    MenuSnapshotService menuSnapshotService,
+    NamedParameterJdbcTemplate jdbc,
+    CacheInvalidationBus invalidationBus,
+    @Value("${app.inventory.recipeCacheTtlSeconds:300}") long recipeTtlSeconds
   ) {
     this.inventoryRepo = inventoryRepo;
     this.ingredientRepo = ingredientRepo;
     this.settingsService = settingsService;
     this.notificationEventService = notificationEventService;
     this.inventoryAlertService = inventoryAlertService;
+    this.menuSnapshotService = menuSnapshotService;
+    this.jdbc = jdbc;
+    this.invalidationBus = invalidationBus;
+    this.recipeTtlMillis = Math.max(0, recipeTtlSeconds) * 1000L;
+    invalidationBus.register(RECIPE_TOPIC, new CacheInvalidationBus.Listener() {
+      @Override
+      public void invalidate(long menuItemId) {
+        recipeGeneration.incrementAndGet();
+        recipes.remove(menuItemId);
+      }
+
+      @Override
+      public void invalidateAll() {
+        recipeGeneration.incrementAndGet();
+        recipes.clear();
+      }
+    });
   }
 
   @Transactional
@@ -41,36 +96,53 @@ public class InventoryService {
     BranchSettingsService.Resolved settings = settingsService.resolveForBranch(branchId);
     if (!settings.inventoryEnabled()) return;
 
+    Map<Long, List<Component>> byMenu = recipesFor(items.stream().map(oi -> oi.menuItemId).toList());
     Map<Long, Double> consumptionByInventory = new HashMap<>();
     for (OrderItem oi : items) {
-      List<MenuItemIngredient> ingredients = ingredientRepo.findByMenuItemId(oi.menuItemId);
-      if (ingredients.isEmpty()) continue;
-      for (MenuItemIngredient ing : ingredients) {
-        double qtyPerItem = ing.qtyPerItem == null ? 0.0 : ing.qtyPerItem;
-        double consume = qtyPerItem * oi.qty;
+      List<Component> components = byMenu.get(oi.menuItemId);
+      if (components == null) continue;
+      for (Component c : components) {
+        double consume = c.qtyPerItem() * oi.qty;
         if (consume <= 0) continue;
-        consumptionByInventory.merge(ing.inventoryItemId, consume, Double::sum);
+        consumptionByInventory.merge(c.inventoryItemId(), consume, Double::sum);
       }
     }
 
     if (consumptionByInventory.isEmpty()) return;
-    List<InventoryItem> toSave = new ArrayList<>();
-    for (Map.Entry<Long, Double> e : consumptionByInventory.entrySet()) {
-      InventoryItem inv = inventoryRepo.findByIdAndBranchId(e.getKey(), branchId).orElse(null);
-      if (inv == null) continue;
-      double prevQty = inv.qtyOnHand == null ? 0.0 : inv.qtyOnHand;
-      double minQty = inv.minQty == null ? 0.0 : inv.minQty;
-      double next = prevQty - e.getValue();
-      inv.qtyOnHand = next;
-      inv.updatedAt = Instant.now();
-      toSave.add(inv);
+    List<Long> invIds = consumptionByInventory.keySet().stream().sorted().toList();
+    List<Double> amounts = invIds.stream().map(consumptionByInventory::get).toList();
+    Map<String, Object> params = new HashMap<>();
+    params.put("branchId", branchId);
+    params.put("ids", invIds);
+    params.put("amounts", amounts);
+    // One statement for the whole order; the decrement happens in the row, not in Java, and the
+    // returned quantities are post-update, so threshold crossings below are exact under concurrency.
+    List<InventoryItem> updated = jdbc.query(DECREMENT_SQL, params, (rs, rowNum) -> {
+      InventoryItem inv = new InventoryItem();
+      inv.id = rs.getLong("id");
+      inv.branchId = branchId;
+      inv.nameRu = rs.getString("name_ru");
+      inv.nameRo = rs.getString("name_ro");
+      inv.nameEn = rs.getString("name_en");
+      inv.unit = rs.getString("unit");
+      inv.qtyOnHand = rs.getDouble("qty_on_hand");
+      inv.minQty = rs.getDouble("min_qty");
+      return inv;
+    });
+    boolean lowStockChanged = false;
+    for (InventoryItem inv : updated) {
+      double next = inv.qtyOnHand;
+      double prevQty = next + consumptionByInventory.get(inv.id);
+      double minQty = inv.minQty;
       if (prevQty > minQty && next <= minQty) {
         notificationEventService.emit(branchId, "inventory_low", inv.id);
         inventoryAlertService.notifyLowStock(branchId, inv, next, minQty);
+        lowStockChanged = true;
       }
     }
-    if (!toSave.isEmpty()) {
-      inventoryRepo.saveAll(toSave);
+    if (lowStockChanged) {
+      // Public menu responses carry a lowStock flag and are validated by the menu version.
+      menuSnapshotService.invalidateBranch(branchId);
     }
   }
 
@@ -79,22 +151,22 @@ public class InventoryService {
     if (menuItemIds == null || menuItemIds.isEmpty()) return out;
     BranchSettingsService.Resolved settings = settingsService.resolveForBranch(branchId);
     if (!settings.inventoryEnabled()) return out;
-    List<MenuItemIngredient> ingredients = ingredientRepo.findByMenuItemIdIn(menuItemIds);
-    if (ingredients.isEmpty()) return out;
-    Map<Long, List<MenuItemIngredient>> byMenu = new HashMap<>();
-    for (MenuItemIngredient ing : ingredients) {
-      byMenu.computeIfAbsent(ing.menuItemId, k -> new ArrayList<>()).add(ing);
-    }
-    List<Long> invIds = ingredients.stream().map(i -> i.inventoryItemId).distinct().toList();
+    Map<Long, List<Component>> byMenu = recipesFor(menuItemIds);
+    List<Long> invIds = byMenu.values().stream()
+      .flatMap(List::stream)
+      .map(Component::inventoryItemId)
+      .distinct()
+      .toList();
+    if (invIds.isEmpty()) return out;
     Map<Long, InventoryItem> invById = inventoryRepo.findAllById(invIds).stream()
       .filter(inv -> inv.branchId == branchId)
       .collect(java.util.stream.Collectors.toMap(inv -> inv.id, inv -> inv, (a, b) -> a));
     for (Long menuItemId : menuItemIds) {
       boolean low = false;
-      List<MenuItemIngredient> list = byMenu.get(menuItemId);
+      List<Component> list = byMenu.get(menuItemId);
       if (list != null) {
-        for (MenuItemIngredient ing : list) {
-          InventoryItem inv = invById.get(ing.inventoryItemId);
+        for (Component c : list) {
+          InventoryItem inv = invById.get(c.inventoryItemId());
           if (inv == null || !inv.isActive) continue;
           double minQty = inv.minQty == null ? 0.0 : inv.minQty;
           double qty = inv.qtyOnHand == null ? 0.0 : inv.qtyOnHand;
@@ -108,4 +180,58 @@ public class InventoryService {
     }
     return out;
   }
+
+  /** Call after a menu item's ingredients change; null drops every recipe (e.g. an inventory item was deleted). */
+  public void invalidateRecipe(Long menuItemId) {
+    Runnable evict = () -> {
+      recipeGeneration.incrementAndGet();
+      if (menuItemId == null) {
+        recipes.clear();
+        invalidationBus.publishAll(RECIPE_TOPIC);
+      } else {
+        recipes.remove(menuItemId);
+        invalidationBus.publish(RECIPE_TOPIC, menuItemId);
+      }
+    };
+    evict.run();
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          evict.run();
+        }
+      });
+    }
+  }
+
+  private Map<Long, List<Component>> recipesFor(Collection<Long> menuItemIds) {
+    long now = System.currentTimeMillis();
+    Map<Long, List<Component>> out = new HashMap<>();
+    List<Long> missing = new ArrayList<>();
+    for (Long id : new LinkedHashSet<>(menuItemIds)) {
+      if (id == null) continue;
+      Recipe r = recipes.get(id);
+      if (r != null && recipeTtlMillis > 0 && now - r.loadedAtMillis() < recipeTtlMillis) {
+        out.put(id, r.components());
+      } else {
+        missing.add(id);
+      }
+    }
+    if (missing.isEmpty()) return out;
+    long gen = recipeGeneration.get();
+    Map<Long, List<Component>> loaded = new HashMap<>();
+    for (Long id : missing) loaded.put(id, new ArrayList<>());
+    for (MenuItemIngredient ing : ingredientRepo.findByMenuItemIdIn(missing)) {
+      double qtyPerItem = ing.qtyPerItem == null ? 0.0 : ing.qtyPerItem;
+      if (qtyPerItem <= 0 || ing.inventoryItemId == null) continue;
+      loaded.get(ing.menuItemId).add(new Component(ing.inventoryItemId, qtyPerItem));
+    }
+    boolean cacheable = recipeTtlMillis > 0 && recipeGeneration.get() == gen;
+    for (Map.Entry<Long, List<Component>> e : loaded.entrySet()) {
+      List<Component> components = List.copyOf(e.getValue());
+      out.put(e.getKey(), components);
+      if (cacheable) recipes.put(e.getKey(), new Recipe(components, now));
+    }
+    return out;
+  }
 }
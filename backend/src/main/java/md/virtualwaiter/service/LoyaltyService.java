@@ -1,64 +1,78 @@
 package md.virtualwaiter.service;
 
+import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import md.virtualwaiter.domain.BillRequest;
-import md.virtualwaiter.domain.BillRequestItem;
 import md.virtualwaiter.domain.CafeTable;
-import md.virtualwaiter.domain.GuestFavoriteItem;
 import md.virtualwaiter.domain.GuestOffer;
 import md.virtualwaiter.domain.GuestSession;
 import md.virtualwaiter.domain.LoyaltyAccount;
-import md.virtualwaiter.domain.LoyaltyPointsLog;
-import md.virtualwaiter.domain.MenuItem;
-import md.virtualwaiter.domain.OrderItem;
-import md.virtualwaiter.repo.BillRequestItemRepo;
 import md.virtualwaiter.repo.CafeTableRepo;
-import md.virtualwaiter.repo.GuestFavoriteItemRepo;
 import md.virtualwaiter.repo.GuestOfferRepo;
 import md.virtualwaiter.repo.GuestSessionRepo;
 import md.virtualwaiter.repo.LoyaltyAccountRepo;
-import md.virtualwaiter.repo.LoyaltyPointsLogRepo;
-import md.virtualwaiter.repo.MenuItemRepo;
-import md.virtualwaiter.repo.OrderItemRepo;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 @Service
 public class LoyaltyService {
+  // The unique index on bill_request_id makes accrual once-per-bill even when a confirm and a
+  // provider webhook race; only the caller that inserts the log row goes on to credit points.
+  private static final String POINTS_LOG_SQL =
+    "INSERT INTO loyalty_points_log(branch_id, phone, bill_request_id, delta_points, reason) " +
+    "VALUES (:branchId, :phone, :billRequestId, :points, 'BILL_PAID') " +
+    "ON CONFLICT (bill_request_id) DO NOTHING";
+
+  // Opens the account on the first accrual. The unique (branch_id, phone) index makes concurrent
+  // first bills of one phone add up on a single row instead of opening one account each.
+  private static final String CREDIT_SQL =
+    "INSERT INTO loyalty_accounts(branch_id, phone, points_balance, updated_at) " +
+    "VALUES (:branchId, :phone, :points, now()) " +
+    "ON CONFLICT (branch_id, phone) DO UPDATE " +
+    "SET points_balance = loyalty_accounts.points_balance + EXCLUDED.points_balance, updated_at = now()";
+
+  // One join for the bill's lines and one upsert for all favorites, in menu item order so that
+  // concurrent bills of the same guest lock favorite rows in the same sequence.
+  private static final String FAVORITES_SQL =
+    "INSERT INTO guest_favorite_items(branch_id, phone, menu_item_id, qty_total, last_order_at) " +
+    "SELECT :branchId, :phone, oi.menu_item_id, SUM(oi.qty), :now " +
+    "FROM bill_request_items bri JOIN order_items oi ON oi.id = bri.order_item_id " +
+    "WHERE bri.bill_request_id = :billRequestId " +
+    "GROUP BY oi.menu_item_id ORDER BY oi.menu_item_id " +
+    "ON CONFLICT (branch_id, phone, menu_item_id) DO UPDATE " +
+    "SET qty_total = guest_favorite_items.qty_total + EXCLUDED.qty_total, last_order_at = EXCLUDED.last_order_at";
+
+  private static final String FAVORITES_PROFILE_SQL =
+    "SELECT f.menu_item_id, f.qty_total, mi.name_ru, mi.name_en " +
+    "FROM guest_favorite_items f LEFT JOIN menu_items mi ON mi.id = f.menu_item_id " +
+    "WHERE f.branch_id = :branchId AND f.phone = :phone " +
+    "ORDER BY f.qty_total DESC LIMIT 20";
+
   private final GuestSessionRepo sessionRepo;
   private final CafeTableRepo tableRepo;
-  private final BillRequestItemRepo billItemRepo;
-  private final OrderItemRepo orderItemRepo;
-  private final MenuItemRepo menuItemRepo;
   private final LoyaltyAccountRepo accountRepo;
-  private final LoyaltyPointsLogRepo pointsLogRepo;
-  private final GuestFavoriteItemRepo favoriteRepo;
   private final GuestOfferRepo offerRepo;
   private final BranchSettingsService settingsService;
+  private final NamedParameterJdbcTemplate jdbc;
 
   public LoyaltyService(
     GuestSessionRepo sessionRepo,
     CafeTableRepo tableRepo,
-    BillRequestItemRepo billItemRepo,
-    OrderItemRepo orderItemRepo,
-    MenuItemRepo menuItemRepo,
     LoyaltyAccountRepo accountRepo,
-    LoyaltyPointsLogRepo pointsLogRepo,
-    GuestFavoriteItemRepo favoriteRepo,
     GuestOfferRepo offerRepo,
-    BranchSettingsService settingsService
+    BranchSettingsService settingsService,
+    NamedParameterJdbcTemplate jdbc
   ) {
     this.sessionRepo = sessionRepo;
     this.tableRepo = tableRepo;
-    this.billItemRepo = billItemRepo;
-    this.orderItemRepo = orderItemRepo;
-    this.menuItemRepo = menuItemRepo;
     this.accountRepo = accountRepo;
-    this.pointsLogRepo = pointsLogRepo;
-    this.favoriteRepo = favoriteRepo;
     this.offerRepo = offerRepo;
     this.settingsService = settingsService;
+    this.jdbc = jdbc;
   }
 
   private String normalizePhone(String phone) {
@@ -69,7 +83,7 @@ public class LoyaltyService {
 
   @Transactional
   public void applyBillPaid(BillRequest br) {
-    if (br == null || br.guestSessionId == null) return;
+    if (br == null || br.id == null || br.guestSessionId == null) return;
     GuestSession s = sessionRepo.findById(br.guestSessionId).orElse(null);
     if (s == null) return;
     String phone = normalizePhone(s.verifiedPhone);
@@ -79,49 +93,17 @@ public class LoyaltyService {
     BranchSettingsService.Resolved settings = settingsService.resolveForBranch(t.branchId);
     if (!settings.loyaltyEnabled()) return;
 
-    // Points: one log per bill
-    if (br.id != null && pointsLogRepo.findByBillRequestId(br.id).isEmpty()) {
-      int points = Math.max(0, (br.totalCents / 100) * Math.max(1, settings.loyaltyPointsPer100Cents()));
-      if (points > 0) {
-        LoyaltyAccount acc = accountRepo.findByBranchIdAndPhone(t.branchId, phone)
-          .orElseGet(() -> {
-            LoyaltyAccount a = new LoyaltyAccount();
-            a.branchId = t.branchId;
-            a.phone = phone;
-            return a;
-          });
-        acc.pointsBalance += points;
-        acc.updatedAt = Instant.now();
-        accountRepo.save(acc);
-
-        LoyaltyPointsLog log = new LoyaltyPointsLog();
-        log.branchId = t.branchId;
-        log.phone = phone;
-        log.billRequestId = br.id;
-        log.deltaPoints = points;
-        log.reason = "BILL_PAID";
-        pointsLogRepo.save(log);
-      }
-    }
-
-    // Favorites
-    List<BillRequestItem> billItems = billItemRepo.findByBillRequestId(br.id);
-    for (BillRequestItem bri : billItems) {
-      OrderItem oi = orderItemRepo.findById(bri.orderItemId).orElse(null);
-      if (oi == null) continue;
-      GuestFavoriteItem fi = favoriteRepo.findByBranchIdAndPhoneAndMenuItemId(t.branchId, phone, oi.menuItemId)
-        .orElseGet(() -> {
-          GuestFavoriteItem f = new GuestFavoriteItem();
-          f.branchId = t.branchId;
-          f.phone = phone;
-          f.menuItemId = oi.menuItemId;
-          f.qtyTotal = 0;
-          return f;
-        });
-      fi.qtyTotal += oi.qty;
-      fi.lastOrderAt = Instant.now();
-      favoriteRepo.save(fi);
-    }
+    int points = Math.max(0, (br.totalCents / 100) * Math.max(1, settings.loyaltyPointsPer100Cents()));
+    Map<String, Object> params = new HashMap<>();
+    params.put("branchId", t.branchId);
+    params.put("phone", phone);
+    params.put("billRequestId", br.id);
+    params.put("points", points);
+    params.put("now", Timestamp.from(Instant.now()));
+    // The log row is the per-bill marker, so it is written even for zero points.
+    if (jdbc.update(POINTS_LOG_SQL, params) == 0) return;
+    if (points > 0) jdbc.update(CREDIT_SQL, params);
+    jdbc.update(FAVORITES_SQL, params);
   }
 
   public record LoyaltyProfile(
@@ -154,12 +136,16 @@ public class LoyaltyService {
     }
     LoyaltyAccount acc = accountRepo.findByBranchIdAndPhone(branchId, norm).orElse(null);
     int balance = acc == null ? 0 : acc.pointsBalance;
-    List<GuestFavoriteItem> favs = favoriteRepo.findTop20ByBranchIdAndPhoneOrderByQtyTotalDesc(branchId, norm);
-    List<FavoriteItemDto> favOut = favs.stream().map(f -> {
-      MenuItem mi = menuItemRepo.findById(f.menuItemId).orElse(null);
-      String name = mi == null ? ("#" + f.menuItemId) : (mi.nameRu != null ? mi.nameRu : mi.nameEn);
-      return new FavoriteItemDto(f.menuItemId, name, f.qtyTotal);
-    }).toList();
+    Map<String, Object> params = new HashMap<>();
+    params.put("branchId", branchId);
+    params.put("phone", norm);
+    List<FavoriteItemDto> favOut = jdbc.query(FAVORITES_PROFILE_SQL, params, (rs, i) -> {
+      long menuItemId = rs.getLong("menu_item_id");
+      String nameRu = rs.getString("name_ru");
+      String name = nameRu != null ? nameRu : rs.getString("name_en");
+      if (nameRu == null && name == null) name = "#" + menuItemId;
+      return new FavoriteItemDto(menuItemId, name, rs.getInt("qty_total"));
+    });
 
     Instant now = Instant.now();
     List<GuestOffer> offers = offerRepo.findByBranchIdAndPhoneAndIsActiveTrueAndStartsAtLessThanEqualAndEndsAtGreaterThanEqual(
@@ -0,0 +1,405 @@
+package md.virtualwaiter.service;
+
+import md.virtualwaiter.domain.Branch;
+import md.virtualwaiter.domain.BranchMenuItemOverride;
+import md.virtualwaiter.domain.MenuCategory;
+import md.virtualwaiter.domain.MenuItem;
+import md.virtualwaiter.domain.MenuItemTag;
+import md.virtualwaiter.domain.MenuItemTimeSlot;
+import md.virtualwaiter.domain.MenuTag;
+import md.virtualwaiter.domain.MenuTimeSlot;
+import md.virtualwaiter.repo.BranchMenuItemOverrideRepo;
+import md.virtualwaiter.repo.BranchRepo;
+import md.virtualwaiter.repo.MenuCategoryRepo;
+import md.virtualwaiter.repo.MenuItemRepo;
+import md.virtualwaiter.repo.MenuItemTagRepo;
+import md.virtualwaiter.repo.MenuItemTimeSlotRepo;
+import md.virtualwaiter.repo.MenuTagRepo;
+import md.virtualwaiter.repo.MenuTimeSlotRepo;
+import md.virtualwaiter.util.MenuText;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable per-(branch, locale) menu snapshots for the public menu endpoint.
+ * Admin menu mutations bump branches.menu_version in their own transaction; the next read rebuilds the
+ * snapshot. Because the version is persisted, every instance derives the same ETag for the public menu,
+ * combo and recommendation responses, and the tag only changes when the menu does.
+ */
+@Service
+public class MenuSnapshotService {
+  private static final String TOPIC = "menu-snapshot";
+
+  private static final String BUMP_BRANCH_SQL =
+    "UPDATE branches SET menu_version = menu_version + 1 WHERE id = :branchId";
+
+  // Rows are locked in id order first so two tenant-wide bumps cannot deadlock.
+  private static final String LOCK_TENANT_SQL =
+    "SELECT id FROM branches WHERE tenant_id = :tenantId ORDER BY id FOR UPDATE";
+
+  private static final String BUMP_TENANT_SQL =
+    "UPDATE branches SET menu_version = menu_version + 1 WHERE tenant_id = :tenantId";
+
+  private static final String VERSION_SQL = "SELECT id, menu_version FROM branches WHERE id = :branchId";
+
+  private static final String TENANT_VERSIONS_SQL = "SELECT id, menu_version FROM branches WHERE tenant_id = :tenantId";
+
+  private final BranchRepo branchRepo;
+  private final MenuCategoryRepo categoryRepo;
+  private final MenuItemRepo itemRepo;
+  private final BranchMenuItemOverrideRepo overrideRepo;
+  private final MenuItemTimeSlotRepo itemTimeSlotRepo;
+  private final MenuTimeSlotRepo timeSlotRepo;
+  private final MenuItemTagRepo itemTagRepo;
+  private final MenuTagRepo tagRepo;
+  private final CacheInvalidationBus invalidationBus;
+  private final NamedParameterJdbcTemplate jdbc;
+  private final TransactionTemplate snapshotTx;
+  private final long maxAgeMillis;
+
+  private final ConcurrentHashMap<Long, BranchEntry> entries = new ConcurrentHashMap<>();
+  // Lowest version a cached entry may have, raised by committed bumps. A rebuild that read the branch
+  // before the bump committed is older than this and is rebuilt on the next read.
+  private final ConcurrentHashMap<Long, Long> minVersions = new ConcurrentHashMap<>();
+
+  public MenuSnapshotService(
+    BranchRepo branchRepo,
+    MenuCategoryRepo categoryRepo,
+    MenuItemRepo itemRepo,
+    BranchMenuItemOverrideRepo overrideRepo,
+    MenuItemTimeSlotRepo itemTimeSlotRepo,
+    MenuTimeSlotRepo timeSlotRepo,
+    MenuItemTagRepo itemTagRepo,
+    MenuTagRepo tagRepo,
+    CacheInvalidationBus invalidationBus,
+    NamedParameterJdbcTemplate jdbc,
+    PlatformTransactionManager txManager,
+    @Value("${app.menu.snapshotMaxAgeSeconds:600}") long maxAgeSeconds
+  ) {
+    this.branchRepo = branchRepo;
+    this.categoryRepo = categoryRepo;
+    this.itemRepo = itemRepo;
+    this.overrideRepo = overrideRepo;
+    this.itemTimeSlotRepo = itemTimeSlotRepo;
+    this.timeSlotRepo = timeSlotRepo;
+    this.itemTagRepo = itemTagRepo;
+    this.tagRepo = tagRepo;
+    this.invalidationBus = invalidationBus;
+    this.jdbc = jdbc;
+    // Branch version and menu rows are read from one snapshot, so a tag always describes its content.
+    this.snapshotTx = new TransactionTemplate(txManager);
+    this.snapshotTx.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+    this.snapshotTx.setReadOnly(true);
+    this.maxAgeMillis = Math.max(0, maxAgeSeconds) * 1000L;
+    invalidationBus.register(TOPIC, new CacheInvalidationBus.Listener() {
+      @Override
+      public void invalidate(long branchId) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("branchId", branchId);
+        forget(jdbc.query(VERSION_SQL, params, MenuSnapshotService::versionsById));
+        entries.remove(branchId);
+      }
+
+      @Override
+      public void invalidateAll() {
+        entries.clear();
+      }
+    });
+  }
+
+  public record Item(
+    long id,
+    long categoryId,
+    String name,
+    String description,
+    String ingredients,
+    String allergens,
+    String weight,
+    Integer kcal,
+    Integer proteinG,
+    Integer fatG,
+    Integer carbsG,
+    List<String> photos,
+    String videoUrl,
+    List<String> tags,
+    int priceCents,
+    String currency,
+    boolean isStopList
+  ) {}
+
+  public record Category(long id, String name, int sortOrder, List<Item> items) {}
+
+  public record Slot(int daysMask, LocalTime startTime, LocalTime endTime) {}
+
+  public record MenuSnapshot(
+    long branchId,
+    long tenantId,
+    String locale,
+    long version,
+    List<Category> categories,
+    List<Long> itemIds,
+    Map<Long, Item> itemsById,
+    Map<Long, List<Slot>> slotsByItem
+  ) {
+    /** Items without time-slot links are always available; linked items need one active slot. */
+    public boolean isAvailableNow(long menuItemId, ZonedDateTime now) {
+      List<Slot> slots = slotsByItem.get(menuItemId);
+      if (slots == null) return true;
+      for (Slot s : slots) {
+        if (isSlotActiveNow(s.daysMask(), s.startTime(), s.endTime(), now)) return true;
+      }
+      return false;
+    }
+  }
+
+  private record BranchEntry(
+    long version,
+    long builtAtMillis,
+    long tenantId,
+    List<MenuCategory> categories,
+    List<MenuItem> items,
+    Map<Long, Boolean> stopListByItem,
+    Map<Long, List<String>> tagsByItem,
+    Map<Long, List<Slot>> slotsByItem,
+    List<Slot> branchSlots,
+    ConcurrentHashMap<String, MenuSnapshot> byLocale
+  ) {}
+
+  public MenuSnapshot get(long branchId, String locale) {
+    String loc = MenuText.normalizeLocale(locale);
+    BranchEntry e = entry(branchId);
+    return e.byLocale.computeIfAbsent(loc, l -> localize(branchId, e, l));
+  }
+
+  /**
+   * Strong validator for public menu-derived responses of a branch, built only from the branch, the locale,
+   * the persisted menu version and which of the branch's time slots are open. Stop-list and low-stock changes
+   * bump the version. Throws 404 for an unknown branch without caching anything for it.
+   */
+  public String etag(long branchId, String locale, ZonedDateTime now) {
+    BranchEntry e = entry(branchId);
+    StringBuilder sb = new StringBuilder("\"m").append(branchId)
+      .append('-').append(MenuText.normalizeLocale(locale))
+      .append('-').append(e.version)
+      .append('-');
+    long bits = 0;
+    int n = 0;
+    for (Slot slot : e.branchSlots) {
+      if (isSlotActiveNow(slot.daysMask(), slot.startTime(), slot.endTime(), now)) bits |= 1L << n;
+      if (++n == 64) {
+        sb.append(Long.toHexString(bits)).append('.');
+        bits = 0;
+        n = 0;
+      }
+    }
+    return sb.append(Long.toHexString(bits)).append('"').toString();
+  }
+
+  /** Bumps the branch's menu version in the caller's transaction; caches drop it after commit. */
+  public void invalidateBranch(long branchId) {
+    Map<String, Object> params = new HashMap<>();
+    params.put("branchId", branchId);
+    jdbc.update(BUMP_BRANCH_SQL, params);
+    afterCommit(jdbc.query(VERSION_SQL, params, MenuSnapshotService::versionsById));
+  }
+
+  /** Categories, items and tags are tenant-wide, so every branch of the tenant is stale. */
+  public void invalidateTenant(long tenantId) {
+    Map<String, Object> params = new HashMap<>();
+    params.put("tenantId", tenantId);
+    jdbc.queryForList(LOCK_TENANT_SQL, params, Long.class);
+    jdbc.update(BUMP_TENANT_SQL, params);
+    afterCommit(jdbc.query(TENANT_VERSIONS_SQL, params, MenuSnapshotService::versionsById));
+  }
+
+  private BranchEntry entry(long branchId) {
+    BranchEntry entry = entries.get(branchId);
+    long now = System.currentTimeMillis();
+    if (entry == null || entry.version < minVersions.getOrDefault(branchId, 0L) || isExpired(entry, now)) {
+      BranchEntry built = snapshotTx.execute(status -> build(branchId, now));
+      entry = entries.merge(branchId, built, (prev, next) ->
+        prev.version > next.version || (prev.version == next.version && !isExpired(prev, now)) ? prev : next);
+    }
+    return entry;
+  }
+
+  private static Map<Long, Long> versionsById(ResultSet rs) throws SQLException {
+    Map<Long, Long> out = new HashMap<>();
+    while (rs.next()) out.put(rs.getLong(1), rs.getLong(2));
+    return out;
+  }
+
+  private void forget(Map<Long, Long> versionsById) {
+    for (Map.Entry<Long, Long> v : versionsById.entrySet()) {
+      minVersions.merge(v.getKey(), v.getValue(), Math::max);
+      entries.remove(v.getKey());
+    }
+  }
+
+  private void afterCommit(Map<Long, Long> bumped) {
+    // Until commit the cached entries still match what other transactions can read.
+    Runnable done = () -> {
+      forget(bumped);
+      for (Long branchId : bumped.keySet()) invalidationBus.publish(TOPIC, branchId);
+    };
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          done.run();
+        }
+      });
+    } else {
+      done.run();
+    }
+  }
+
+  private boolean isExpired(BranchEntry e, long nowMillis) {
+    return maxAgeMillis > 0 && nowMillis - e.builtAtMillis > maxAgeMillis;
+  }
+
+  private BranchEntry build(long branchId, long nowMillis) {
+    Branch branch = branchRepo.findById(branchId)
+      .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Branch not found"));
+    long version = branch.menuVersion;
+    List<MenuCategory> cats = categoryRepo.findByTenantIdAndIsActiveOrderBySortOrderAscIdAsc(branch.tenantId, true);
+    List<Long> catIds = cats.stream().map(c -> c.id).toList();
+    List<MenuItem> allItems = catIds.isEmpty() ? List.of() : itemRepo.findByCategoryIdIn(catIds);
+    List<Long> allIds = allItems.stream().map(i -> i.id).toList();
+
+    Map<Long, BranchMenuItemOverride> overrides = allIds.isEmpty()
+      ? Map.of()
+      : overrideRepo.findByBranchIdAndMenuItemIdIn(branchId, allIds).stream()
+        .collect(Collectors.toMap(o -> o.menuItemId, o -> o));
+    List<MenuItem> items = new ArrayList<>();
+    Map<Long, Boolean> stopListByItem = new HashMap<>();
+    for (MenuItem it : allItems) {
+      BranchMenuItemOverride o = overrides.get(it.id);
+      boolean active = o != null ? o.isActive : it.isActive;
+      if (!active) continue;
+      items.add(it);
+      stopListByItem.put(it.id, o != null ? o.isStopList : it.isStopList);
+    }
+    List<Long> itemIds = items.stream().map(i -> i.id).toList();
+
+    Map<Long, Slot> slotsById = new HashMap<>();
+    List<Slot> branchSlots = new ArrayList<>();
+    for (MenuTimeSlot s : timeSlotRepo.findByBranchIdAndIsActiveTrue(branchId)) {
+      Slot slot = new Slot(s.daysMask, s.startTime, s.endTime);
+      slotsById.put(s.id, slot);
+      branchSlots.add(slot);
+    }
+    Map<Long, List<Slot>> slotsByItem = new HashMap<>();
+    if (!itemIds.isEmpty()) {
+      for (MenuItemTimeSlot link : itemTimeSlotRepo.findByMenuItemIdIn(itemIds)) {
+        // A link to an inactive or foreign slot still restricts the item, matching the per-request check.
+        List<Slot> list = slotsByItem.computeIfAbsent(link.menuItemId, k -> new ArrayList<>());
+        Slot slot = slotsById.get(link.timeSlotId);
+        if (slot != null) list.add(slot);
+      }
+    }
+    slotsByItem.replaceAll((k, v) -> List.copyOf(v));
+
+    return new BranchEntry(
+      version,
+      nowMillis,
+      branch.tenantId,
+      List.copyOf(cats),
+      List.copyOf(items),
+      Map.copyOf(stopListByItem),
+      loadTagNamesByItemIds(itemIds, branch.tenantId),
+      Map.copyOf(slotsByItem),
+      List.copyOf(branchSlots),
+      new ConcurrentHashMap<>()
+    );
+  }
+
+  private static MenuSnapshot localize(long branchId, BranchEntry e, String loc) {
+    Map<Long, List<Item>> itemsByCat = new HashMap<>();
+    Map<Long, Item> itemsById = new HashMap<>();
+    for (MenuItem it : e.items) {
+      Item item = new Item(
+        it.id,
+        it.categoryId,
+        MenuText.pick(loc, it.nameRu, it.nameRo, it.nameEn),
+        MenuText.pick(loc, it.descriptionRu, it.descriptionRo, it.descriptionEn),
+        MenuText.pick(loc, it.ingredientsRu, it.ingredientsRo, it.ingredientsEn),
+        it.allergens,
+        it.weight,
+        it.kcal,
+        it.proteinG,
+        it.fatG,
+        it.carbsG,
+        List.copyOf(MenuText.splitCsv(it.photoUrls)),
+        it.videoUrl,
+        List.copyOf(MenuText.mergeTags(it.tags, e.tagsByItem.get(it.id))),
+        it.priceCents,
+        it.currency,
+        e.stopListByItem.getOrDefault(it.id, false)
+      );
+      itemsByCat.computeIfAbsent(it.categoryId, k -> new ArrayList<>()).add(item);
+      itemsById.put(it.id, item);
+    }
+    List<Category> categories = new ArrayList<>();
+    for (MenuCategory c : e.categories) {
+      List<Item> catItems = itemsByCat.get(c.id);
+      if (catItems == null) continue;
+      categories.add(new Category(c.id, MenuText.pick(loc, c.nameRu, c.nameRo, c.nameEn), c.sortOrder, List.copyOf(catItems)));
+    }
+    List<Long> itemIds = e.items.stream().map(i -> i.id).toList();
+    return new MenuSnapshot(branchId, e.tenantId, loc, e.version, List.copyOf(categories), itemIds, Map.copyOf(itemsById), e.slotsByItem);
+  }
+
+  public Map<Long, List<String>> loadTagNamesByItemIds(List<Long> itemIds, Long tenantId) {
+    if (itemIds == null || itemIds.isEmpty()) return Map.of();
+    List<MenuItemTag> links = itemTagRepo.findByMenuItemIdIn(itemIds);
+    if (links.isEmpty()) return Map.of();
+    Set<Long> tagIds = links.stream().map(l -> l.tagId).collect(Collectors.toSet());
+    if (tagIds.isEmpty()) return Map.of();
+    Map<Long, MenuTag> tagById = new HashMap<>();
+    for (MenuTag t : tagRepo.findAllById(tagIds)) {
+      if (!t.isActive) continue;
+      if (tenantId != null && !Objects.equals(t.tenantId, tenantId)) continue;
+      tagById.put(t.id, t);
+    }
+    Map<Long, List<String>> out = new HashMap<>();
+    for (MenuItemTag link : links) {
+      MenuTag t = tagById.get(link.tagId);
+      if (t == null) continue;
+      out.computeIfAbsent(link.menuItemId, k -> new ArrayList<>()).add(t.name);
+    }
+    return out;
+  }
+
+  public static boolean isSlotActiveNow(int daysMask, LocalTime start, LocalTime end, ZonedDateTime now) {
+    int dayBit = 1 << (now.getDayOfWeek().getValue() - 1);
+    if ((daysMask & dayBit) == 0) return false;
+    LocalTime t = now.toLocalTime();
+    if (start.equals(end)) return true;
+    if (end.isAfter(start)) {
+      return !t.isBefore(start) && t.isBefore(end);
+    }
+    return !t.isBefore(start) || t.isBefore(end);
+  }
+}
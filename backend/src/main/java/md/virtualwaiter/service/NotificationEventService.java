@@ -13,19 +13,32 @@ public class NotificationEventService {
   private static final Logger log = LoggerFactory.getLogger(NotificationEventService.class);
   private final NotificationEventRepo repo;
   private final StaffPushService pushService;
+  private final StaffEventHub eventHub;
   private final int maxEventPayloadBytes;
 
   public NotificationEventService(
     NotificationEventRepo repo,
     StaffPushService pushService,
+    StaffEventHub eventHub,
     @Value("${app.payload.maxBytes:4096}") int maxEventPayloadBytes
   ) {
     this.repo = repo;
     this.pushService = pushService;
+    this.eventHub = eventHub;
     this.maxEventPayloadBytes = maxEventPayloadBytes;
   }
 
   public void emit(long branchId, String type, long refId) {
+    emit(branchId, type, refId, null, null);
+  }
+
+  public void emit(long branchId, String type, long refId, Long tableId, Long hallId) {
+    NotificationEvent ev = record(branchId, type, refId, tableId, hallId);
+    pushService.notifyBranch(branchId, ev.eventType, refId, tableId, null);
+  }
+
+  /** Persists and streams the event to connected staff clients without sending a push. */
+  public NotificationEvent record(long branchId, String type, long refId, Long tableId, Long hallId) {
     String typeSafe = PayloadGuard.truncateBytes(type, maxEventPayloadBytes);
     if (typeSafe != null && !typeSafe.equals(type)) {
       log.warn("Notification event type truncated to {} bytes", maxEventPayloadBytes);
@@ -34,7 +47,10 @@ public class NotificationEventService {
     ev.branchId = branchId;
     ev.eventType = typeSafe;
     ev.refId = refId;
-    repo.save(ev);
-    pushService.notifyBranch(branchId, typeSafe, refId);
+    ev.tableId = tableId;
+    ev.hallId = hallId;
+    ev = repo.save(ev);
+    eventHub.publish(ev);
+    return ev;
   }
 }
@@ -0,0 +1,99 @@
+package md.virtualwaiter.service;
+
+import md.virtualwaiter.domain.CafeTable;
+import md.virtualwaiter.domain.GuestSession;
+import md.virtualwaiter.domain.Order;
+import md.virtualwaiter.domain.OrderItem;
+import md.virtualwaiter.repo.GuestSessionRepo;
+import md.virtualwaiter.repo.OrderRepo;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Write side of guest order placement. Callers validate the whole order up front;
+ * this persists it in one transaction with a single JDBC batch for the lines.
+ */
+@Service
+public class OrderPlacementService {
+  private static final String INSERT_ITEM_SQL =
+    "INSERT INTO order_items(order_id, menu_item_id, name_snapshot, unit_price_cents, base_price_cents, " +
+      "modifiers_price_cents, qty, comment, modifiers_json) " +
+      "VALUES (:orderId, :menuItemId, :nameSnapshot, :unitPriceCents, :basePriceCents, " +
+      ":modifiersPriceCents, :qty, :comment, :modifiersJson)";
+
+  private final OrderRepo orderRepo;
+  private final GuestSessionRepo sessionRepo;
+  private final GuestSessionDirectory sessionDirectory;
+  private final InventoryService inventoryService;
+  private final NotificationEventService notificationEventService;
+  private final SlaAlertService slaAlertService;
+  private final RecommendationService recommendationService;
+  private final NamedParameterJdbcTemplate jdbc;
+
+  public OrderPlacementService(
+    OrderRepo orderRepo,
+    GuestSessionRepo sessionRepo,
+    GuestSessionDirectory sessionDirectory,
+    InventoryService inventoryService,
+    NotificationEventService notificationEventService,
+    SlaAlertService slaAlertService,
+    RecommendationService recommendationService,
+    NamedParameterJdbcTemplate jdbc
+  ) {
+    this.orderRepo = orderRepo;
+    this.sessionRepo = sessionRepo;
+    this.sessionDirectory = sessionDirectory;
+    this.inventoryService = inventoryService;
+    this.notificationEventService = notificationEventService;
+    this.slaAlertService = slaAlertService;
+    this.recommendationService = recommendationService;
+    this.jdbc = jdbc;
+  }
+
+  /** Items are written with orderId set but their ids stay null; nothing downstream needs them. */
+  @Transactional
+  public Order place(Order order, List<OrderItem> items, GuestSession session, CafeTable table, Instant now) {
+    Order saved = orderRepo.save(order);
+    for (OrderItem oi : items) {
+      oi.orderId = saved.id;
+    }
+    insertItems(items);
+    if (session.isVerified) {
+      recommendationService.orderPlaced(saved.id, session.verifiedPhone, now);
+    }
+
+    session.lastOrderAt = now;
+    sessionRepo.save(session);
+    sessionDirectory.saved(session);
+
+    inventoryService.applyOrderItems(table.branchId, items);
+    notificationEventService.emit(table.branchId, "ORDER_NEW", saved.id, table.id, table.hallId);
+    slaAlertService.orderPlaced(saved, table);
+    return saved;
+  }
+
+  private void insertItems(List<OrderItem> items) {
+    if (items.isEmpty()) return;
+    SqlParameterSource[] batch = new SqlParameterSource[items.size()];
+    for (int i = 0; i < items.size(); i++) {
+      OrderItem oi = items.get(i);
+      batch[i] = new MapSqlParameterSource()
+        .addValue("orderId", oi.orderId)
+        .addValue("menuItemId", oi.menuItemId)
+        .addValue("nameSnapshot", oi.nameSnapshot)
+        .addValue("unitPriceCents", oi.unitPriceCents)
+        .addValue("basePriceCents", oi.basePriceCents)
+        .addValue("modifiersPriceCents", oi.modifiersPriceCents)
+        .addValue("qty", oi.qty)
+        .addValue("comment", oi.comment)
+        .addValue("modifiersJson", oi.modifiersJson);
+    }
+    jdbc.batchUpdate(INSERT_ITEM_SQL, batch);
+  }
+}
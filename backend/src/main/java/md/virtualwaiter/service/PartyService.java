@@ -17,10 +17,12 @@ import java.util.Optional;
 public class PartyService {
   private final TablePartyRepo partyRepo;
   private final GuestSessionRepo sessionRepo;
+  private final GuestSessionDirectory sessionDirectory;
 
-  public PartyService(TablePartyRepo partyRepo, GuestSessionRepo sessionRepo) {
+  public PartyService(TablePartyRepo partyRepo, GuestSessionRepo sessionRepo, GuestSessionDirectory sessionDirectory) {
     this.partyRepo = partyRepo;
     this.sessionRepo = sessionRepo;
+    this.sessionDirectory = sessionDirectory;
   }
 
   @Scheduled(
@@ -59,12 +61,14 @@ public class PartyService {
     if (opt.isEmpty()) {
       s.partyId = null;
       sessionRepo.save(s);
+      sessionDirectory.saved(s);
       return null;
     }
     TableParty p = opt.get();
     if (!Objects.equals(p.tableId, tableId) || !"ACTIVE".equals(p.status) || p.expiresAt.isBefore(now)) {
       s.partyId = null;
       sessionRepo.save(s);
+      sessionDirectory.saved(s);
       return null;
     }
     return p;
@@ -79,6 +83,7 @@ public class PartyService {
     if (!sessions.isEmpty()) {
       for (GuestSession s : sessions) s.partyId = null;
       sessionRepo.saveAll(sessions);
+      for (GuestSession s : sessions) sessionDirectory.saved(s);
     }
   }
 }
@@ -0,0 +1,333 @@
+package md.virtualwaiter.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import md.virtualwaiter.domain.BillRequest;
+import md.virtualwaiter.domain.PaymentIntent;
+import md.virtualwaiter.domain.PaymentTransaction;
+import md.virtualwaiter.repo.BillRequestRepo;
+import md.virtualwaiter.repo.PaymentIntentRepo;
+import md.virtualwaiter.repo.PaymentTransactionRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Inbox for verified payment webhooks. The HTTP handler only stores the event under a unique
+ * (provider, dedupe key) and answers; events are applied by single-threaded workers partitioned by
+ * intent id, each in its own transaction holding the intent row lock, so one intent's events apply in
+ * arrival order and concurrent provider retries or other instances cannot race. A failed event is
+ * retried with backoff and blocks later events of the same intent until it succeeds or gives up.
+ */
+@Service
+public class PaymentWebhookInboxService {
+  private static final Logger log = LoggerFactory.getLogger(PaymentWebhookInboxService.class);
+
+  private static final String INSERT_SQL =
+    "INSERT INTO payment_webhook_inbox(provider, dedupe_key, intent_id, event_status, body) " +
+    "VALUES (:provider, :dedupeKey, :intentId, :status, :body) " +
+    "ON CONFLICT (provider, dedupe_key) DO NOTHING";
+
+  private static final String DUE_INTENTS_SQL =
+    "SELECT DISTINCT intent_id FROM payment_webhook_inbox " +
+    "WHERE state IN ('PENDING', 'RETRY') AND next_attempt_at <= now() LIMIT :limit";
+
+  private static final String NEXT_EVENT_SQL =
+    "SELECT id, provider, event_status, attempts, next_attempt_at, received_at FROM payment_webhook_inbox " +
+    "WHERE intent_id = :intentId AND state IN ('PENDING', 'RETRY') ORDER BY id LIMIT 1";
+
+  private static final String BACKLOG_SQL =
+    "SELECT count(*) AS n, EXTRACT(EPOCH FROM (now() - MIN(received_at))) AS age " +
+    "FROM payment_webhook_inbox WHERE state IN ('PENDING', 'RETRY')";
+
+  private record Event(long id, String provider, String status, int attempts, Instant nextAttemptAt, Instant receivedAt) {}
+
+  private final PaymentIntentRepo paymentIntentRepo;
+  private final PaymentTransactionRepo paymentTransactionRepo;
+  private final BillRequestRepo billRequestRepo;
+  private final LoyaltyService loyaltyService;
+  private final NamedParameterJdbcTemplate jdbc;
+  private final TransactionTemplate tx;
+  private final int maxAttempts;
+  private final long backoffBaseSeconds;
+  private final long backoffMaxSeconds;
+  private final int retentionDays;
+  private final ExecutorService[] workers;
+  // Polls on its own thread, so a slow job on the shared scheduler cannot hold back retries.
+  private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "payment-webhook-poll");
+    t.setDaemon(true);
+    return t;
+  });
+  // Intents waiting for a worker; a running worker reads the inbox afresh, so one queued run is enough.
+  private final Set<Long> queued = ConcurrentHashMap.newKeySet();
+  private final AtomicLong backlog = new AtomicLong();
+  private final AtomicLong oldestAgeSeconds = new AtomicLong();
+  private final MeterRegistry meterRegistry;
+
+  public PaymentWebhookInboxService(
+    PaymentIntentRepo paymentIntentRepo,
+    PaymentTransactionRepo paymentTransactionRepo,
+    BillRequestRepo billRequestRepo,
+    LoyaltyService loyaltyService,
+    NamedParameterJdbcTemplate jdbc,
+    PlatformTransactionManager txManager,
+    @Value("${app.payments.webhook.workers:4}") int workerCount,
+    @Value("${app.payments.webhook.maxAttempts:10}") int maxAttempts,
+    @Value("${app.payments.webhook.backoffBaseSeconds:5}") long backoffBaseSeconds,
+    @Value("${app.payments.webhook.backoffMaxSeconds:900}") long backoffMaxSeconds,
+    @Value("${app.payments.webhook.retentionDays:90}") int retentionDays,
+    @Value("${app.payments.webhook.pollMs:1000}") long pollMs,
+    @Nullable MeterRegistry meterRegistry
+  ) {
+    this.paymentIntentRepo = paymentIntentRepo;
+    this.paymentTransactionRepo = paymentTransactionRepo;
+    this.billRequestRepo = billRequestRepo;
+    this.loyaltyService = loyaltyService;
+    this.jdbc = jdbc;
+    this.tx = new TransactionTemplate(txManager);
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.backoffBaseSeconds = Math.max(1, backoffBaseSeconds);
+    this.backoffMaxSeconds = Math.max(this.backoffBaseSeconds, backoffMaxSeconds);
+    this.retentionDays = Math.max(1, retentionDays);
+    this.meterRegistry = meterRegistry;
+    this.workers = new ExecutorService[Math.max(1, workerCount)];
+    for (int i = 0; i < workers.length; i++) {
+      String name = "payment-webhook-" + i;
+      workers[i] = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    if (meterRegistry != null) {
+      meterRegistry.gauge("vw.payment_webhook.backlog", backlog);
+      meterRegistry.gauge("vw.payment_webhook.oldest_age_seconds", oldestAgeSeconds);
+    }
+    if (pollMs > 0) {
+      long period = Math.max(100, pollMs);
+      poller.scheduleWithFixedDelay(this::poll, period, period, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Stores a verified event and schedules it. Returns false when the same event was already received;
+   * {@code dedupeKey} must be stable across provider retries of one event.
+   */
+  public boolean accept(String provider, String dedupeKey, long intentId, String status, @Nullable String body) {
+    Map<String, Object> params = new HashMap<>();
+    params.put("provider", provider);
+    params.put("dedupeKey", dedupeKey);
+    params.put("intentId", intentId);
+    params.put("status", status);
+    params.put("body", body);
+    if (jdbc.update(INSERT_SQL, params) == 0) {
+      count("vw.payment_webhook.duplicates", provider);
+      return false;
+    }
+    submit(intentId);
+    return true;
+  }
+
+  /** Picks up retries, events received by other instances and anything left over by a restart. */
+  public void poll() {
+    try {
+      Map<String, Object> params = new HashMap<>();
+      params.put("limit", workers.length * 50);
+      for (Long intentId : jdbc.queryForList(DUE_INTENTS_SQL, params, Long.class)) {
+        submit(intentId);
+      }
+      jdbc.query(BACKLOG_SQL, Map.of(), rs -> {
+        backlog.set(rs.getLong("n"));
+        oldestAgeSeconds.set(Math.round(rs.getDouble("age")));
+      });
+    } catch (Exception e) {
+      log.warn("Payment webhook poll failed: {}", e.getMessage());
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${app.payments.webhook.purgeMs:3600000}")
+  public void purge() {
+    try {
+      Map<String, Object> params = new HashMap<>();
+      params.put("cutoff", Timestamp.from(Instant.now().minus(Duration.ofDays(retentionDays))));
+      jdbc.update(
+        "DELETE FROM payment_webhook_inbox WHERE state IN ('DONE', 'FAILED') AND received_at < :cutoff",
+        params
+      );
+    } catch (Exception e) {
+      log.warn("Payment webhook purge failed: {}", e.getMessage());
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    poller.shutdownNow();
+    for (ExecutorService w : workers) w.shutdown();
+  }
+
+  private void submit(long intentId) {
+    if (!queued.add(intentId)) return;
+    try {
+      workers[(int) Math.floorMod(intentId, (long) workers.length)].execute(() -> {
+        queued.remove(intentId);
+        drain(intentId);
+      });
+    } catch (RejectedExecutionException e) {
+      // Shutting down; the rows stay open and are polled after restart.
+      queued.remove(intentId);
+    }
+  }
+
+  private void drain(long intentId) {
+    try {
+      while (tx.execute(status -> applyNext(intentId)) != null) {
+        // Next event of the same intent, in its own transaction.
+      }
+    } catch (Exception e) {
+      failNext(intentId, e);
+    }
+  }
+
+  /** Applies the oldest open event of the intent; null when there is none, it is not due or another instance holds the intent. */
+  private Event applyNext(long intentId) {
+    Map<String, Object> params = new HashMap<>();
+    params.put("intentId", intentId);
+    List<Long> locked = jdbc.queryForList(
+      "SELECT id FROM payment_intents WHERE id = :intentId FOR UPDATE SKIP LOCKED", params, Long.class
+    );
+    if (locked.isEmpty()) return null;
+    Event ev = nextEvent(params);
+    if (ev == null || ev.nextAttemptAt().isAfter(Instant.now())) return null;
+
+    String result = apply(intentId, ev.status());
+    params.put("id", ev.id());
+    params.put("result", result);
+    jdbc.update(
+      "UPDATE payment_webhook_inbox SET state = 'DONE', result = :result, attempts = attempts + 1, " +
+      "last_error = NULL, processed_at = now() WHERE id = :id",
+      params
+    );
+    record(ev, result);
+    return ev;
+  }
+
+  private String apply(long intentId, String nextStatus) {
+    PaymentIntent intent = paymentIntentRepo.findById(intentId).orElse(null);
+    if (intent == null) return "ignored";
+    PaymentTransaction lastTx = paymentTransactionRepo.findTopByIntentIdOrderByIdDesc(intent.id).orElse(null);
+    if (lastTx != null && lastTx.status != null
+      && lastTx.status.equalsIgnoreCase(nextStatus)
+      && Objects.equals(lastTx.providerRef, intent.providerRef)
+      && lastTx.amountCents == intent.amountCents
+    ) {
+      return "duplicate";
+    }
+    intent.status = nextStatus;
+    intent.updatedAt = Instant.now();
+    paymentIntentRepo.save(intent);
+
+    PaymentTransaction ptx = new PaymentTransaction();
+    ptx.intentId = intent.id;
+    ptx.provider = intent.provider;
+    ptx.status = intent.status;
+    ptx.amountCents = intent.amountCents;
+    ptx.providerRef = intent.providerRef;
+    paymentTransactionRepo.save(ptx);
+
+    if ("PAID".equalsIgnoreCase(intent.status) && intent.billRequestId != null) {
+      BillRequest br = billRequestRepo.findById(intent.billRequestId).orElse(null);
+      if (br != null && "CREATED".equalsIgnoreCase(br.status)) {
+        br.status = "PAID_CONFIRMED";
+        br.confirmedAt = Instant.now();
+        billRequestRepo.save(br);
+        loyaltyService.applyBillPaid(br);
+      }
+    }
+    return "applied";
+  }
+
+  private void failNext(long intentId, Exception error) {
+    try {
+      Map<String, Object> params = new HashMap<>();
+      params.put("intentId", intentId);
+      Event ev = nextEvent(params);
+      if (ev == null) return;
+      String msg = error.getMessage() == null ? error.getClass().getSimpleName() : error.getMessage();
+      int attempts = ev.attempts() + 1;
+      params.put("id", ev.id());
+      params.put("error", msg.length() > 1000 ? msg.substring(0, 1000) : msg);
+      if (attempts >= maxAttempts) {
+        jdbc.update(
+          "UPDATE payment_webhook_inbox SET state = 'FAILED', attempts = attempts + 1, last_error = :error, " +
+          "processed_at = now() WHERE id = :id",
+          params
+        );
+        record(ev, "failed");
+        log.warn("Giving up on payment webhook {} for intent {} after {} attempts: {}", ev.id(), intentId, attempts, msg);
+      } else {
+        long delay = Math.min(backoffMaxSeconds, backoffBaseSeconds << Math.min(20, attempts - 1));
+        params.put("delaySeconds", delay);
+        jdbc.update(
+          "UPDATE payment_webhook_inbox SET state = 'RETRY', attempts = attempts + 1, last_error = :error, " +
+          "next_attempt_at = now() + make_interval(secs => :delaySeconds) WHERE id = :id",
+          params
+        );
+        count("vw.payment_webhook.retries", ev.provider());
+        log.warn("Payment webhook {} for intent {} failed (attempt {}): {}", ev.id(), intentId, attempts, msg);
+      }
+    } catch (Exception e) {
+      log.warn("Failed to record payment webhook failure for intent {}: {}", intentId, e.getMessage());
+    }
+  }
+
+  private Event nextEvent(Map<String, Object> params) {
+    List<Event> rows = jdbc.query(NEXT_EVENT_SQL, params, (rs, i) -> new Event(
+      rs.getLong("id"),
+      rs.getString("provider"),
+      rs.getString("event_status"),
+      rs.getInt("attempts"),
+      rs.getTimestamp("next_attempt_at").toInstant(),
+      rs.getTimestamp("received_at").toInstant()
+    ));
+    return rows.isEmpty() ? null : rows.get(0);
+  }
+
+  private void record(Event ev, String result) {
+    if (meterRegistry == null) return;
+    Timer.builder("vw.payment_webhook.lag")
+      .tag("provider", ev.provider())
+      .tag("result", result)
+      .register(meterRegistry)
+      .record(Duration.between(ev.receivedAt(), Instant.now()));
+  }
+
+  private void count(String name, String provider) {
+    if (meterRegistry == null) return;
+    Counter.builder(name).tag("provider", provider).register(meterRegistry).increment();
+  }
+}
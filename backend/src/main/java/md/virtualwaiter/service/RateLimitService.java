@@ -1,13 +1,16 @@
 package md.virtualwaiter.service;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.time.Instant;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import jakarta.annotation.PreDestroy;
 import org.springframework.lang.Nullable;
@@ -17,18 +20,43 @@ import io.micrometer.core.instrument.MeterRegistry;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
 
+/**
+ * Sliding-window counter rate limiter: the previous fixed window is weighted by how much of it
+ * still overlaps the sliding window, so each key needs two counters instead of a timestamp log.
+ * In memory the key count is capped at {@code maxKeys}: a new key beyond it evicts from a small
+ * sample (idle keys first, else the least recently used), so a flood of keys makes the limiter
+ * forget old clients rather than throttle new ones together.
+ */
 @Service
 public class RateLimitService {
-  private final ConcurrentHashMap<String, Deque<Long>> buckets = new ConcurrentHashMap<>();
+  private static final int EVICTION_SAMPLE = 16;
+  // KEYS[1] current window, KEYS[2] previous window; ARGV: prev weight, limit, ttl seconds.
+  private static final String REDIS_SCRIPT =
+    "local cur = tonumber(redis.call('GET', KEYS[1]) or '0') "
+      + "local prev = tonumber(redis.call('GET', KEYS[2]) or '0') "
+      + "if prev * tonumber(ARGV[1]) + cur >= tonumber(ARGV[2]) then return 0 end "
+      + "redis.call('INCR', KEYS[1]) "
+      + "redis.call('EXPIRE', KEYS[1], ARGV[3]) "
+      + "return 1";
+
+  private final ConcurrentHashMap<String, Window> windows = new ConcurrentHashMap<>();
   private final String redisHost;
   private final int redisPort;
   private final String redisPassword;
   private final boolean redisEnabled;
   private final JedisPool jedisPool;
   private final int redisTimeoutMs;
+  private final int maxKeys;
   private final AtomicLong redisFailureCount = new AtomicLong(0);
   private final Counter redisFailureCounter;
+  private final MeterRegistry meterRegistry;
+  private final ConcurrentHashMap<String, Counter[]> decisionCounters = new ConcurrentHashMap<>();
+  private volatile String scriptSha;
+  private final Object evictionLock = new Object();
+  // Guarded by evictionLock; resumes where the previous sample stopped.
+  private Iterator<Map.Entry<String, Window>> evictionCursor;
 
   public RateLimitService(
     @Value("${app.rateLimit.redis.host:}") String redisHost,
@@ -36,6 +64,7 @@ public class RateLimitService {
     @Value("${app.rateLimit.redis.password:}") String redisPassword,
     @Value("${app.rateLimit.redis.enabled:false}") boolean redisEnabled,
     @Value("${app.rateLimit.redis.timeoutMs:2000}") int redisTimeoutMs,
+    @Value("${app.rateLimit.maxKeys:100000}") int maxKeys,
     @Nullable MeterRegistry meterRegistry
   ) {
     this.redisHost = redisHost;
@@ -43,25 +72,36 @@ public class RateLimitService {
     this.redisPassword = redisPassword;
     this.redisEnabled = redisEnabled;
     this.redisTimeoutMs = redisTimeoutMs;
+    this.maxKeys = Math.max(1, maxKeys);
     this.jedisPool = buildPool();
+    this.meterRegistry = meterRegistry;
     this.redisFailureCounter = meterRegistry == null
       ? null
       : meterRegistry.counter("vw.ratelimit.redis.failures");
+    if (meterRegistry != null) {
+      meterRegistry.gaugeMapSize("vw.ratelimit.keys", List.of(), windows);
+    }
   }
 
   public boolean allow(String key, int limit, int windowSeconds) {
+    return allow(key, limit, windowSeconds, System.currentTimeMillis());
+  }
+
+  boolean allow(String key, int limit, int windowSeconds, long nowMillis) {
     if (limit <= 0 || windowSeconds <= 0) return true;
+    boolean allowed = decide(key, limit, windowSeconds, nowMillis);
+    countDecision(key, allowed);
+    return allowed;
+  }
+
+  int trackedKeys() {
+    return windows.size();
+  }
+
+  private boolean decide(String key, int limit, int windowSeconds, long nowMillis) {
     if (jedisPool != null) {
-      try (Jedis jedis = jedisPool.getResource()) {
-        String rKey = "rate:" + key;
-        long now = Instant.now().getEpochSecond();
-        long cutoff = now - windowSeconds;
-        jedis.zremrangeByScore(rKey, 0, cutoff);
-        long count = jedis.zcard(rKey);
-        if (count >= limit) return false;
-        jedis.zadd(rKey, now, String.valueOf(now) + ":" + Math.random());
-        jedis.expire(rKey, windowSeconds + 5);
-        return true;
+      try {
+        return allowRedis(key, limit, windowSeconds, nowMillis);
       } catch (Exception e) {
         redisFailureCount.incrementAndGet();
         if (redisFailureCounter != null) {
@@ -70,22 +110,134 @@ public class RateLimitService {
         // fallback to in-memory
       }
     }
-    return allowInMemory(key, limit, windowSeconds);
+    return allowInMemory(key, limit, windowSeconds, nowMillis);
+  }
+
+  private boolean allowRedis(String key, int limit, int windowSeconds, long nowMillis) {
+    long windowMillis = windowSeconds * 1000L;
+    long index = nowMillis / windowMillis;
+    double prevWeight = 1.0 - (double) (nowMillis - index * windowMillis) / windowMillis;
+    // Hash tag keeps both windows in one cluster slot.
+    String base = "rate:{" + key + "}:";
+    List<String> keys = List.of(base + index, base + (index - 1));
+    List<String> args = List.of(String.valueOf(prevWeight), String.valueOf(limit), String.valueOf(windowSeconds * 2 + 1));
+    try (Jedis jedis = jedisPool.getResource()) {
+      String sha = scriptSha;
+      if (sha == null) {
+        sha = jedis.scriptLoad(REDIS_SCRIPT);
+        scriptSha = sha;
+      }
+      Object res;
+      try {
+        res = jedis.evalsha(sha, keys, args);
+      } catch (JedisNoScriptException e) {
+        scriptSha = null;
+        res = jedis.eval(REDIS_SCRIPT, keys, args);
+      }
+      return res instanceof Long l && l == 1L;
+    }
   }
 
-  private boolean allowInMemory(String key, int limit, int windowSeconds) {
-    long now = Instant.now().getEpochSecond();
-    Deque<Long> q = buckets.computeIfAbsent(key, k -> new ArrayDeque<>());
-    synchronized (q) {
-      long cutoff = now - windowSeconds;
-      while (!q.isEmpty() && q.peekFirst() <= cutoff) {
-        q.pollFirst();
+  private boolean allowInMemory(String key, int limit, int windowSeconds, long nowMillis) {
+    Window w = windows.get(key);
+    if (w == null) {
+      if (windows.size() >= maxKeys) {
+        makeRoom(nowMillis);
       }
-      if (q.size() >= limit) {
-        return false;
+      w = windows.computeIfAbsent(key, k -> new Window(windowSeconds * 1000L));
+    }
+    return w.tryAcquire(limit, nowMillis);
+  }
+
+  // Bounded work per new key: looks at EVICTION_SAMPLE entries, drops the idle ones and, if none
+  // was idle, the one whose window started longest ago. Serialized so concurrent new keys cannot outgrow the cap.
+  private void makeRoom(long nowMillis) {
+    synchronized (evictionLock) {
+      if (windows.size() < maxKeys) return;
+      Map.Entry<String, Window> oldest = null;
+      boolean freed = false;
+      for (int i = 0; i < EVICTION_SAMPLE; i++) {
+        if (evictionCursor == null || !evictionCursor.hasNext()) {
+          evictionCursor = windows.entrySet().iterator();
+          if (!evictionCursor.hasNext()) return;
+        }
+        Map.Entry<String, Window> e = evictionCursor.next();
+        Window w = e.getValue();
+        if (w.isIdle(nowMillis)) {
+          freed |= windows.remove(e.getKey(), w);
+        } else if (oldest == null || w.lastWindowStartMillis() < oldest.getValue().lastWindowStartMillis()) {
+          oldest = e;
+        }
+      }
+      if (!freed && oldest != null) {
+        windows.remove(oldest.getKey(), oldest.getValue());
       }
-      q.addLast(now);
-      return true;
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${app.rateLimit.evictionMs:30000}")
+  public void evictExpired() {
+    evictExpired(System.currentTimeMillis());
+  }
+
+  private void evictExpired(long nowMillis) {
+    windows.entrySet().removeIf(e -> e.getValue().isIdle(nowMillis));
+  }
+
+  private void countDecision(String key, boolean allowed) {
+    if (meterRegistry == null) return;
+    String prefix = prefixOf(key);
+    Counter[] pair = decisionCounters.computeIfAbsent(prefix, p -> new Counter[] {
+      meterRegistry.counter("vw.ratelimit.decisions", "prefix", p, "outcome", "allow"),
+      meterRegistry.counter("vw.ratelimit.decisions", "prefix", p, "outcome", "deny")
+    });
+    pair[allowed ? 0 : 1].increment();
+  }
+
+  private static String prefixOf(String key) {
+    int idx = key.indexOf(':');
+    return idx > 0 ? key.substring(0, idx) : key;
+  }
+
+  private static final class Window {
+    private record State(long index, int current, int previous) {}
+
+    private final long windowMillis;
+    private final AtomicReference<State> state = new AtomicReference<>(new State(0, 0, 0));
+
+    Window(long windowMillis) {
+      this.windowMillis = windowMillis;
+    }
+
+    boolean tryAcquire(int limit, long nowMillis) {
+      long index = nowMillis / windowMillis;
+      double prevWeight = 1.0 - (double) (nowMillis - index * windowMillis) / windowMillis;
+      while (true) {
+        State s = state.get();
+        State rolled = roll(s, index);
+        if (rolled.previous * prevWeight + rolled.current >= limit) {
+          if (rolled != s) state.compareAndSet(s, rolled);
+          return false;
+        }
+        if (state.compareAndSet(s, new State(index, rolled.current + 1, rolled.previous))) {
+          return true;
+        }
+      }
+    }
+
+    boolean isIdle(long nowMillis) {
+      return nowMillis / windowMillis - state.get().index > 1;
+    }
+
+    // Comparable across keys with different window lengths, unlike the index itself.
+    long lastWindowStartMillis() {
+      return state.get().index * windowMillis;
+    }
+
+    private static State roll(State s, long index) {
+      if (s.index == index) return s;
+      if (s.index == index - 1) return new State(index, 0, s.current);
+      return new State(index, 0, 0);
     }
   }
 
@@ -95,7 +247,7 @@ public class RateLimitService {
     config.setMaxTotal(16);
     config.setMaxIdle(8);
     config.setMinIdle(1);
-    config.setMaxWaitMillis(redisTimeoutMs);
+    config.setMaxWait(Duration.ofMillis(redisTimeoutMs));
     config.setBlockWhenExhausted(true);
     config.setTestOnBorrow(true);
     config.setTestWhileIdle(true);
@@ -0,0 +1,194 @@
+package md.virtualwaiter.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Personal recommendation inputs: a recency-decayed item affinity per (branch, phone), credited as orders
+ * are placed, and per-branch item neighbours rebuilt in the background. A lookup ranks the guest's strongest
+ * items together with their neighbours, so its cost does not grow with the guest's history.
+ */
+@Service
+public class RecommendationService {
+  private static final Logger log = LoggerFactory.getLogger(RecommendationService.class);
+
+  // Decays the stored score to the write time before adding; exp() raises on underflow, hence the clamp.
+  private static final String AFFINITY_UPSERT =
+    "INSERT INTO guest_item_affinity(branch_id, phone, menu_item_id, score, updated_at) " +
+    "SELECT t.branch_id, :phone, oi.menu_item_id, " +
+    "  SUM(oi.qty * exp(-LEAST(700, :lambda * GREATEST(0, EXTRACT(EPOCH FROM (CAST(:now AS timestamptz) - o.created_at)))))), :now " +
+    "FROM orders o JOIN tables t ON t.id = o.table_id JOIN order_items oi ON oi.order_id = o.id " +
+    "WHERE %s " +
+    "GROUP BY t.branch_id, oi.menu_item_id ORDER BY t.branch_id, oi.menu_item_id " +
+    "ON CONFLICT (branch_id, phone, menu_item_id) DO UPDATE SET " +
+    "score = guest_item_affinity.score * exp(-LEAST(700, :lambda * GREATEST(0, " +
+    "  EXTRACT(EPOCH FROM (EXCLUDED.updated_at - guest_item_affinity.updated_at))))) + EXCLUDED.score, " +
+    "updated_at = GREATEST(guest_item_affinity.updated_at, EXCLUDED.updated_at)";
+
+  private static final String ORDER_AFFINITY_SQL = String.format(AFFINITY_UPSERT, "o.id = :orderId");
+
+  private static final String SESSION_AFFINITY_SQL = String.format(AFFINITY_UPSERT, "o.guest_session_id = :sessionId");
+
+  private static final String TOP_K_SQL =
+    "WITH seeds AS (" +
+      "SELECT menu_item_id, " +
+      "  score * exp(-LEAST(700, :lambda * GREATEST(0, EXTRACT(EPOCH FROM (CAST(:now AS timestamptz) - updated_at))))) AS s " +
+      "FROM guest_item_affinity WHERE branch_id = :branchId AND phone = :phone " +
+      "ORDER BY s DESC LIMIT :seeds" +
+    ") " +
+    "SELECT x.menu_item_id, SUM(x.s) AS score FROM (" +
+      "SELECT menu_item_id, s FROM seeds " +
+      "UNION ALL " +
+      "SELECT c.other_item_id, seeds.s * c.score * :neighbourWeight FROM seeds " +
+      "JOIN menu_item_cooccurrence c ON c.branch_id = :branchId AND c.item_id = seeds.menu_item_id" +
+    ") x GROUP BY x.menu_item_id ORDER BY score DESC, x.menu_item_id LIMIT :limit";
+
+  // Cosine similarity over distinct (order, item) pairs, keeping the strongest neighbours of each item.
+  private static final String COOCCURRENCE_SQL =
+    "WITH lines AS (" +
+      "SELECT DISTINCT o.id AS order_id, oi.menu_item_id FROM orders o " +
+      "JOIN tables t ON t.id = o.table_id JOIN order_items oi ON oi.order_id = o.id " +
+      "WHERE t.branch_id = :branchId AND o.created_at >= :since" +
+    "), freq AS (" +
+      "SELECT menu_item_id, COUNT(*) AS n FROM lines GROUP BY menu_item_id" +
+    "), pairs AS (" +
+      "SELECT a.menu_item_id AS item_id, b.menu_item_id AS other_item_id, COUNT(*) AS n FROM lines a " +
+      "JOIN lines b ON b.order_id = a.order_id AND b.menu_item_id <> a.menu_item_id " +
+      "GROUP BY a.menu_item_id, b.menu_item_id HAVING COUNT(*) >= :minSupport" +
+    "), ranked AS (" +
+      "SELECT p.item_id, p.other_item_id, CAST(p.n AS double precision) / sqrt(fa.n * fb.n) AS score FROM pairs p " +
+      "JOIN freq fa ON fa.menu_item_id = p.item_id JOIN freq fb ON fb.menu_item_id = p.other_item_id" +
+    "), top AS (" +
+      "SELECT item_id, other_item_id, score, " +
+      "  row_number() OVER (PARTITION BY item_id ORDER BY score DESC, other_item_id) AS rn FROM ranked" +
+    ") " +
+    "INSERT INTO menu_item_cooccurrence(branch_id, item_id, other_item_id, score) " +
+    "SELECT :branchId, item_id, other_item_id, score FROM top WHERE rn <= :neighbours " +
+    "ON CONFLICT (branch_id, item_id, other_item_id) DO UPDATE SET score = EXCLUDED.score";
+
+  private static final String COOCCURRENCE_BRANCHES_SQL =
+    "SELECT DISTINCT t.branch_id FROM orders o JOIN tables t ON t.id = o.table_id WHERE o.created_at >= :since " +
+    "UNION SELECT DISTINCT branch_id FROM menu_item_cooccurrence";
+
+  public record Scored(long menuItemId, double score) {}
+
+  private final NamedParameterJdbcTemplate jdbc;
+  private final TransactionTemplate tx;
+  private final double lambda;
+  private final int seeds;
+  private final double neighbourWeight;
+  private final boolean cooccurrenceEnabled;
+  private final int windowDays;
+  private final int neighbours;
+  private final int minSupport;
+
+  public RecommendationService(
+    NamedParameterJdbcTemplate jdbc,
+    PlatformTransactionManager txManager,
+    @Value("${app.recommendations.halfLifeDays:45}") double halfLifeDays,
+    @Value("${app.recommendations.seeds:20}") int seeds,
+    @Value("${app.recommendations.neighbourWeight:0.5}") double neighbourWeight,
+    @Value("${app.recommendations.cooccurrence.enabled:true}") boolean cooccurrenceEnabled,
+    @Value("${app.recommendations.cooccurrence.windowDays:90}") int windowDays,
+    @Value("${app.recommendations.cooccurrence.neighbours:20}") int neighbours,
+    @Value("${app.recommendations.cooccurrence.minSupport:2}") int minSupport
+  ) {
+    this.jdbc = jdbc;
+    this.tx = new TransactionTemplate(txManager);
+    this.lambda = Math.log(2) / (Math.max(1.0, halfLifeDays) * 86400.0);
+    this.seeds = Math.max(1, seeds);
+    this.neighbourWeight = Math.max(0.0, neighbourWeight);
+    this.cooccurrenceEnabled = cooccurrenceEnabled;
+    this.windowDays = Math.max(1, windowDays);
+    this.neighbours = Math.max(1, neighbours);
+    this.minSupport = Math.max(1, minSupport);
+  }
+
+  /** Credits the lines of a just-placed order; runs in the caller's transaction. */
+  public void orderPlaced(long orderId, String phone, Instant now) {
+    String p = normalizePhone(phone);
+    if (p == null) return;
+    Map<String, Object> params = affinityParams(p, now);
+    params.put("orderId", orderId);
+    jdbc.update(ORDER_AFFINITY_SQL, params);
+  }
+
+  /** Credits the orders a session placed before its phone was verified. */
+  public void sessionVerified(long sessionId, String phone, Instant now) {
+    String p = normalizePhone(phone);
+    if (p == null) return;
+    Map<String, Object> params = affinityParams(p, now);
+    params.put("sessionId", sessionId);
+    jdbc.update(SESSION_AFFINITY_SQL, params);
+  }
+
+  /** The guest's own items and their neighbours, strongest first. */
+  public List<Scored> topItems(long branchId, String phone, int limit) {
+    String p = normalizePhone(phone);
+    if (p == null || limit <= 0) return List.of();
+    Map<String, Object> params = affinityParams(p, Instant.now());
+    params.put("branchId", branchId);
+    params.put("seeds", seeds);
+    params.put("neighbourWeight", neighbourWeight);
+    params.put("limit", limit);
+    return jdbc.query(TOP_K_SQL, params, (rs, i) -> new Scored(rs.getLong("menu_item_id"), rs.getDouble("score")));
+  }
+
+  @Scheduled(
+    initialDelayString = "${app.recommendations.cooccurrence.initialDelayMs:120000}",
+    fixedDelayString = "${app.recommendations.cooccurrence.intervalMs:21600000}"
+  )
+  public void scheduledRebuild() {
+    if (!cooccurrenceEnabled) return;
+    try {
+      rebuildCooccurrence();
+    } catch (Exception e) {
+      log.warn("Co-occurrence rebuild failed: {}", e.getMessage());
+    }
+  }
+
+  /** Replaces the neighbours of every branch with orders in the window; one transaction per branch. */
+  public int rebuildCooccurrence() {
+    Map<String, Object> params = new HashMap<>();
+    params.put("since", Timestamp.from(Instant.now().minusSeconds(windowDays * 86400L)));
+    params.put("neighbours", neighbours);
+    params.put("minSupport", minSupport);
+    List<Long> branchIds = jdbc.queryForList(COOCCURRENCE_BRANCHES_SQL, params, Long.class);
+    for (Long branchId : branchIds) {
+      Map<String, Object> p = new HashMap<>(params);
+      p.put("branchId", branchId);
+      // Concurrent rebuilds on several instances compute the same rows, so the upsert makes them harmless.
+      tx.executeWithoutResult(status -> {
+        jdbc.update("DELETE FROM menu_item_cooccurrence WHERE branch_id = :branchId", p);
+        jdbc.update(COOCCURRENCE_SQL, p);
+      });
+    }
+    return branchIds.size();
+  }
+
+  private Map<String, Object> affinityParams(String phone, Instant now) {
+    Map<String, Object> params = new HashMap<>();
+    params.put("phone", phone);
+    params.put("lambda", lambda);
+    params.put("now", Timestamp.from(now));
+    return params;
+  }
+
+  private static String normalizePhone(String phone) {
+    if (phone == null) return null;
+    String trimmed = phone.trim();
+    return trimmed.isEmpty() ? null : trimmed;
+  }
+}
@@ -6,34 +6,57 @@ import md.virtualwaiter.domain.Order;
 import md.virtualwaiter.domain.WaiterCall;
 import md.virtualwaiter.repo.BillRequestRepo;
 import md.virtualwaiter.repo.CafeTableRepo;
-import md.virtualwaiter.repo.BranchSettingsRepo;
 import md.virtualwaiter.repo.OrderRepo;
 import md.virtualwaiter.repo.WaiterCallRepo;
+import md.virtualwaiter.util.TimingWheel;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.MessageSource;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * SLA alerts driven by deadlines instead of a periodic scan. Orders, calls and bills register a deadline
+ * when they are created and drop it when resolved; a one-second timing wheel fires each deadline on time,
+ * the item is re-checked in the database and, while still open, alerted and re-armed after the cooldown.
+ * Deadlines are rebuilt from the database at startup and reconciled periodically, which also picks up
+ * items created on other instances or through paths that do not register.
+ * The wheel ticks on its own thread rather than the shared {@code @Scheduled} pool, so a slow rollup or
+ * poller cannot hold alerts back.
+ */
 @Service
 public class SlaAlertService {
   private static final Logger log = LoggerFactory.getLogger(SlaAlertService.class);
 
+  public enum Kind { ORDER, KITCHEN, CALL, BILL }
+
+  private record Key(Kind kind, long refId) {}
+
+  private record Tracked(long branchId, long tableId, Instant startedAt, long nextAtMillis) {}
+
   private final OrderRepo orderRepo;
   private final WaiterCallRepo waiterCallRepo;
   private final BillRequestRepo billRequestRepo;
   private final CafeTableRepo tableRepo;
-  private final BranchSettingsRepo branchSettingsRepo;
+  private final BranchSettingsService settingsService;
   private final StaffPushService pushService;
   private final MessageSource messageSource;
 
@@ -45,14 +68,22 @@ public class SlaAlertService {
   private final int cooldownMinutes;
   private final int lookbackMinutes;
 
-  private final Map<String, Instant> lastSent = new ConcurrentHashMap<>();
+  // Guarded by this.
+  private final TimingWheel<Key> wheel = new TimingWheel<>(1000, 6, 3, System.currentTimeMillis());
+  private final Map<Key, Tracked> tracked = new HashMap<>();
+
+  private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "sla-alert-wheel");
+    t.setDaemon(true);
+    return t;
+  });
 
   public SlaAlertService(
     OrderRepo orderRepo,
     WaiterCallRepo waiterCallRepo,
     BillRequestRepo billRequestRepo,
     CafeTableRepo tableRepo,
-    BranchSettingsRepo branchSettingsRepo,
+    BranchSettingsService settingsService,
     StaffPushService pushService,
     MessageSource messageSource,
     @Value("${app.slaAlerts.enabled:true}") boolean enabled,
@@ -61,13 +92,14 @@ public class SlaAlertService {
     @Value("${app.slaAlerts.billCritMin:10}") int billCritMin,
     @Value("${app.slaAlerts.kitchenCritMin:15}") int kitchenCritMin,
     @Value("${app.slaAlerts.cooldownMinutes:5}") int cooldownMinutes,
-    @Value("${app.slaAlerts.lookbackMinutes:240}") int lookbackMinutes
+    @Value("${app.slaAlerts.lookbackMinutes:240}") int lookbackMinutes,
+    @Value("${app.slaAlerts.tickMs:1000}") long tickMs
   ) {
     this.orderRepo = orderRepo;
     this.waiterCallRepo = waiterCallRepo;
     this.billRequestRepo = billRequestRepo;
     this.tableRepo = tableRepo;
-    this.branchSettingsRepo = branchSettingsRepo;
+    this.settingsService = settingsService;
     this.pushService = pushService;
     this.messageSource = messageSource;
     this.enabled = enabled;
@@ -75,108 +107,251 @@ public class SlaAlertService {
     this.callCritMin = callCritMin;
     this.billCritMin = billCritMin;
     this.kitchenCritMin = kitchenCritMin;
-    this.cooldownMinutes = cooldownMinutes;
+    this.cooldownMinutes = Math.max(1, cooldownMinutes);
     this.lookbackMinutes = lookbackMinutes;
+    if (enabled) {
+      long period = Math.max(100, tickMs);
+      ticker.scheduleWithFixedDelay(this::tickSafely, period, period, TimeUnit.MILLISECONDS);
+    }
   }
 
-  @Scheduled(fixedDelayString = "${app.slaAlerts.pollMs:60000}")
-  public void run() {
-    if (!enabled) return;
-    try {
-      Instant now = Instant.now();
-      Instant cutoff = now.minus(Duration.ofMinutes(lookbackMinutes));
+  @PreDestroy
+  public void shutdown() {
+    ticker.shutdownNow();
+  }
 
-      List<Order> orders = orderRepo.findByStatusInAndCreatedAtAfter(activeOrderStatuses(), cutoff);
-      for (Order o : orders) {
-        if (o.createdAt == null) continue;
-        long ageMin = Duration.between(o.createdAt, now).toMinutes();
-        if (ageMin < orderCritMin) continue;
-        triggerAlert("ORDER", o.id, o.tableId, ageMin);
+  public void orderPlaced(Order o, CafeTable table) {
+    if (o == null || o.id == null || table == null) return;
+    track(Kind.ORDER, o.id, table.branchId, table.id, o.createdAt);
+    track(Kind.KITCHEN, o.id, table.branchId, table.id, o.createdAt);
+  }
+
+  public void orderStatusChanged(long orderId, String status) {
+    if (!isIn(activeOrderStatuses(), status)) cancel(Kind.ORDER, orderId);
+    if (!isIn(kitchenStatuses(), status)) cancel(Kind.KITCHEN, orderId);
+  }
+
+  public void callCreated(WaiterCall c, CafeTable table) {
+    if (c == null || c.id == null || table == null) return;
+    track(Kind.CALL, c.id, table.branchId, table.id, c.createdAt);
+  }
+
+  public void billCreated(BillRequest b, CafeTable table) {
+    if (b == null || b.id == null || table == null) return;
+    track(Kind.BILL, b.id, table.branchId, table.id, b.createdAt);
+  }
+
+  public synchronized void cancel(Kind kind, long refId) {
+    Key key = new Key(kind, refId);
+    tracked.remove(key);
+    wheel.cancel(key);
+  }
+
+  /** Re-arms the branch's open items after its thresholds change; runs after the settings commit. */
+  public void thresholdsChanged(long branchId) {
+    Runnable rearm = () -> {
+      long now = System.currentTimeMillis();
+      List<Map.Entry<Key, Tracked>> items = new ArrayList<>();
+      synchronized (this) {
+        for (Map.Entry<Key, Tracked> e : tracked.entrySet()) {
+          if (e.getValue().branchId() == branchId) items.add(Map.entry(e.getKey(), e.getValue()));
+        }
+      }
+      for (Map.Entry<Key, Tracked> e : items) {
+        Tracked t = e.getValue();
+        long deadline = t.startedAt().toEpochMilli() + critMinutes(e.getKey().kind(), branchId) * 60_000L;
+        // Raised thresholds are handled when the old deadline fires; only pull earlier ones forward.
+        if (deadline < t.nextAtMillis()) reschedule(e.getKey(), t, Math.max(deadline, now));
       }
+    };
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          rearm.run();
+        }
+      });
+    } else {
+      rearm.run();
+    }
+  }
+
+  // An exception escaping a scheduled task would cancel every later tick.
+  private void tickSafely() {
+    try {
+      tick();
+    } catch (RuntimeException e) {
+      log.warn("SLA wheel tick failed: {}", e.getMessage());
+    }
+  }
 
-      List<Order> kitchenOrders = orderRepo.findByStatusInAndCreatedAtAfter(kitchenStatuses(), cutoff);
-      for (Order o : kitchenOrders) {
-        if (o.createdAt == null) continue;
-        long ageMin = Duration.between(o.createdAt, now).toMinutes();
-        if (ageMin < kitchenCritMin) continue;
-        triggerAlert("KITCHEN", o.id, o.tableId, ageMin);
+  public void tick() {
+    if (!enabled) return;
+    long now = System.currentTimeMillis();
+    List<Key> due;
+    synchronized (this) {
+      due = wheel.advance(now);
+    }
+    for (Key key : due) {
+      Tracked t;
+      synchronized (this) {
+        t = tracked.get(key);
+      }
+      if (t == null) continue;
+      try {
+        fire(key, t, now);
+      } catch (Exception e) {
+        log.warn("SLA alert failed for {} {}: {}", key.kind(), key.refId(), e.getMessage());
+        reschedule(key, t, now + cooldownMinutes * 60_000L);
       }
+    }
+  }
 
+  /** Registers every open item that is not tracked yet. Runs at startup, then as a safety net. */
+  @Scheduled(fixedDelayString = "${app.slaAlerts.reconcileMs:900000}")
+  public void reconcile() {
+    if (!enabled) return;
+    try {
+      Instant cutoff = Instant.now().minus(Duration.ofMinutes(lookbackMinutes));
+      List<Order> orders = orderRepo.findByStatusInAndCreatedAtAfter(activeOrderStatuses(), cutoff);
       List<WaiterCall> calls = waiterCallRepo.findByStatusInAndCreatedAtAfter(activeCallStatuses(), cutoff);
+      List<BillRequest> bills = billRequestRepo.findByStatusInAndCreatedAtAfter(activeBillStatuses(), cutoff);
+
+      Set<Long> tableIds = new HashSet<>();
+      for (Order o : orders) if (o.tableId != null) tableIds.add(o.tableId);
+      for (WaiterCall c : calls) if (c.tableId != null) tableIds.add(c.tableId);
+      for (BillRequest b : bills) if (b.tableId != null) tableIds.add(b.tableId);
+      Map<Long, CafeTable> tables = new HashMap<>();
+      for (CafeTable t : tableRepo.findAllById(tableIds)) tables.put(t.id, t);
+
+      for (Order o : orders) {
+        CafeTable t = tables.get(o.tableId);
+        if (t == null || o.id == null) continue;
+        trackIfAbsent(Kind.ORDER, o.id, t, o.createdAt);
+        if (isIn(kitchenStatuses(), o.status)) trackIfAbsent(Kind.KITCHEN, o.id, t, o.createdAt);
+      }
       for (WaiterCall c : calls) {
-        if (c.createdAt == null) continue;
-        long ageMin = Duration.between(c.createdAt, now).toMinutes();
-        if (ageMin < callCritMin) continue;
-        triggerAlert("CALL", c.id, c.tableId, ageMin);
+        CafeTable t = tables.get(c.tableId);
+        if (t != null && c.id != null) trackIfAbsent(Kind.CALL, c.id, t, c.createdAt);
       }
-
-      List<BillRequest> bills = billRequestRepo.findByStatusInAndCreatedAtAfter(activeBillStatuses(), cutoff);
       for (BillRequest b : bills) {
-        if (b.createdAt == null) continue;
-        long ageMin = Duration.between(b.createdAt, now).toMinutes();
-        if (ageMin < billCritMin) continue;
-        triggerAlert("BILL", b.id, b.tableId, ageMin);
+        CafeTable t = tables.get(b.tableId);
+        if (t != null && b.id != null) trackIfAbsent(Kind.BILL, b.id, t, b.createdAt);
       }
     } catch (Exception e) {
-      log.warn("SLA alert check failed: {}", e.getMessage());
+      log.warn("SLA deadline reconcile failed: {}", e.getMessage());
+    }
+  }
+
+  private void trackIfAbsent(Kind kind, long refId, CafeTable t, Instant startedAt) {
+    synchronized (this) {
+      if (tracked.containsKey(new Key(kind, refId))) return;
+    }
+    track(kind, refId, t.branchId, t.id, startedAt);
+  }
+
+  private void track(Kind kind, long refId, Long branchId, Long tableId, Instant startedAt) {
+    if (!enabled || branchId == null || tableId == null || startedAt == null) return;
+    long deadline = startedAt.toEpochMilli() + critMinutes(kind, branchId) * 60_000L;
+    Key key = new Key(kind, refId);
+    synchronized (this) {
+      tracked.put(key, new Tracked(branchId, tableId, startedAt, deadline));
+      wheel.schedule(key, deadline);
     }
   }
 
-  private void triggerAlert(String alertType, Long refId, Long tableId, long ageMin) {
-    if (refId == null || tableId == null) return;
-    Instant now = Instant.now();
-    String key = alertType.toUpperCase(Locale.ROOT) + ":" + refId;
-    Instant last = lastSent.get(key);
-    if (last != null && Duration.between(last, now).toMinutes() < cooldownMinutes) return;
+  private synchronized void reschedule(Key key, Tracked t, long atMillis) {
+    // Skip if the item was cancelled or re-registered meanwhile.
+    if (tracked.get(key) != t) return;
+    tracked.put(key, new Tracked(t.branchId(), t.tableId(), t.startedAt(), atMillis));
+    wheel.schedule(key, atMillis);
+  }
+
+  private void fire(Key key, Tracked t, long nowMillis) {
+    Instant now = Instant.ofEpochMilli(nowMillis);
+    if (t.startedAt().isBefore(now.minus(Duration.ofMinutes(lookbackMinutes)))) {
+      cancel(key.kind(), key.refId());
+      return;
+    }
+    long deadline = t.startedAt().toEpochMilli() + critMinutes(key.kind(), t.branchId()) * 60_000L;
+    if (deadline > nowMillis) {
+      reschedule(key, t, deadline);
+      return;
+    }
+    if (!isStillOpen(key)) {
+      cancel(key.kind(), key.refId());
+      return;
+    }
+    long ageMin = Duration.between(t.startedAt(), now).toMinutes();
+    sendAlert(key.kind().name(), key.refId(), t, ageMin);
+    reschedule(key, t, nowMillis + cooldownMinutes * 60_000L);
+  }
+
+  private boolean isStillOpen(Key key) {
+    return switch (key.kind()) {
+      case ORDER -> orderRepo.findById(key.refId()).map(o -> isIn(activeOrderStatuses(), o.status)).orElse(false);
+      case KITCHEN -> orderRepo.findById(key.refId()).map(o -> isIn(kitchenStatuses(), o.status)).orElse(false);
+      case CALL -> waiterCallRepo.findById(key.refId()).map(c -> isIn(activeCallStatuses(), c.status)).orElse(false);
+      case BILL -> billRequestRepo.findById(key.refId()).map(b -> isIn(activeBillStatuses(), b.status)).orElse(false);
+    };
+  }
 
-    Optional<CafeTable> t = tableRepo.findById(tableId);
-    if (t.isEmpty() || t.get().branchId == null) return;
+  private void sendAlert(String alertType, long refId, Tracked tr, long ageMin) {
+    Optional<CafeTable> t = tableRepo.findById(tr.tableId());
+    Integer tableNumber = t.map(x -> x.number).orElse(null);
 
     Map<String, Object> extra = new HashMap<>();
-    extra.put("alertType", alertType.toUpperCase(Locale.ROOT));
-    extra.put("tableId", tableId);
+    extra.put("alertType", alertType);
+    extra.put("tableId", tr.tableId());
     extra.put("ageMin", ageMin);
-    if (t.get().number != null) {
-      extra.put("tableNumber", t.get().number);
+    if (tableNumber != null) {
+      extra.put("tableNumber", tableNumber);
     }
 
-    Locale locale = resolveBranchLocale(t.get().branchId);
+    Locale locale = toLocale(settingsService.resolveForBranch(tr.branchId()).defaultLang());
     String title = messageSource.getMessage("push.sla_alert.title", null, "SLA alert", locale);
     String body = messageSource.getMessage(
       "push.sla_alert." + alertType.toLowerCase(Locale.ROOT),
-      new Object[] { t.get().number == null ? "-" : t.get().number, ageMin },
+      new Object[] { tableNumber == null ? "-" : tableNumber, ageMin },
       alertType + " SLA",
       locale
     );
     extra.put("title", title);
     extra.put("body", body);
 
-    pushService.notifyBranch(t.get().branchId, "SLA_ALERT", refId, extra);
-    lastSent.put(key, now);
+    pushService.notifyBranch(tr.branchId(), "SLA_ALERT", refId, extra);
   }
 
-  private Locale resolveBranchLocale(Long branchId) {
-    try {
-      return branchSettingsRepo.findById(branchId)
-        .map(s -> s.defaultLang)
-        .filter(l -> l != null && !l.isBlank())
-        .map(l -> l.toLowerCase(Locale.ROOT))
-        .map(this::toLocale)
-        .orElse(Locale.forLanguageTag("ru"));
-    } catch (Exception e) {
-      return Locale.forLanguageTag("ru");
-    }
+  private int critMinutes(Kind kind, long branchId) {
+    BranchSettingsService.Resolved s = settingsService.resolveForBranch(branchId);
+    Integer v = switch (kind) {
+      case ORDER -> s.slaOrderCritMin();
+      case KITCHEN -> s.slaKitchenCritMin();
+      case CALL -> s.slaCallCritMin();
+      case BILL -> s.slaBillCritMin();
+    };
+    if (v != null && v > 0) return v;
+    return switch (kind) {
+      case ORDER -> orderCritMin;
+      case KITCHEN -> kitchenCritMin;
+      case CALL -> callCritMin;
+      case BILL -> billCritMin;
+    };
   }
 
   private Locale toLocale(String lang) {
     if (lang == null) return Locale.forLanguageTag("ru");
-    return switch (lang) {
+    return switch (lang.toLowerCase(Locale.ROOT)) {
       case "ro", "ro-md", "ro_md" -> Locale.forLanguageTag("ro");
       case "en", "en-us", "en_us", "en-gb", "en_gb" -> Locale.forLanguageTag("en");
       default -> Locale.forLanguageTag("ru");
     };
   }
 
+  private static boolean isIn(List<String> statuses, String status) {
+    return status != null && statuses.contains(status);
+  }
+
   private List<String> activeOrderStatuses() {
     return List.of("NEW", "ACCEPTED", "IN_PROGRESS", "READY", "COOKING");
   }
@@ -0,0 +1,197 @@
+package md.virtualwaiter.service;
+
+import jakarta.annotation.PreDestroy;
+import md.virtualwaiter.domain.NotificationEvent;
+import md.virtualwaiter.repo.NotificationEventRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * In-process fan-out of notification events to staff SSE subscribers.
+ * Event ids are notification_events ids, so a reconnect with Last-Event-ID replays from the table.
+ */
+@Service
+public class StaffEventHub {
+  private static final Logger log = LoggerFactory.getLogger(StaffEventHub.class);
+  private static final int REPLAY_LIMIT = 200;
+
+  private final NotificationEventRepo notificationEventRepo;
+  private final long timeoutMs;
+  private final int maxSubscribersPerBranch;
+  private final ConcurrentHashMap<Long, CopyOnWriteArrayList<Subscriber>> subscribers = new ConcurrentHashMap<>();
+  private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "staff-event-hub");
+    t.setDaemon(true);
+    return t;
+  });
+
+  public StaffEventHub(
+    NotificationEventRepo notificationEventRepo,
+    @Value("${app.staffStream.timeoutMs:1800000}") long timeoutMs,
+    @Value("${app.staffStream.maxSubscribersPerBranch:200}") int maxSubscribersPerBranch
+  ) {
+    this.notificationEventRepo = notificationEventRepo;
+    this.timeoutMs = timeoutMs;
+    this.maxSubscribersPerBranch = maxSubscribersPerBranch;
+  }
+
+  public record StreamEvent(long id, String type, long refId, Long tableId, Long hallId, String createdAt) {}
+
+  private record Subscriber(SseEmitter emitter, Long hallId) {}
+
+  public SseEmitter subscribe(long branchId, Long hallId, Long lastEventId) {
+    if (maxSubscribersPerBranch > 0 && subscriberCount(branchId) >= maxSubscribersPerBranch) {
+      throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many stream subscribers");
+    }
+    SseEmitter emitter = new SseEmitter(timeoutMs);
+    Subscriber sub = new Subscriber(emitter, hallId);
+    emitter.onCompletion(() -> remove(branchId, sub));
+    emitter.onTimeout(() -> remove(branchId, sub));
+    emitter.onError(e -> remove(branchId, sub));
+    // Register before replaying so nothing published in between is lost; clients dedupe by id.
+    subscribers.compute(branchId, (k, list) -> {
+      CopyOnWriteArrayList<Subscriber> next = list == null ? new CopyOnWriteArrayList<>() : list;
+      next.add(sub);
+      return next;
+    });
+    if (lastEventId != null && lastEventId > 0) {
+      List<NotificationEvent> missed = notificationEventRepo.findTop200ByBranchIdAndIdGreaterThanOrderByIdAsc(branchId, lastEventId);
+      for (NotificationEvent ev : missed) {
+        if (!send(sub, toStreamEvent(ev))) return emitter;
+      }
+      if (missed.size() >= REPLAY_LIMIT) {
+        // Too far behind for an incremental replay; the client should reload its lists.
+        sendResync(sub);
+      }
+    }
+    return emitter;
+  }
+
+  /** Delivers the event after the surrounding transaction commits, so clients never see uncommitted rows. */
+  public void publish(NotificationEvent ev) {
+    if (ev == null || ev.id == null || ev.branchId == null) return;
+    if (!subscribers.containsKey(ev.branchId)) return;
+    long branchId = ev.branchId;
+    StreamEvent payload = toStreamEvent(ev);
+    Runnable task = () -> dispatch(branchId, payload);
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          submit(task);
+        }
+      });
+    } else {
+      submit(task);
+    }
+  }
+
+  public int subscriberCount(long branchId) {
+    List<Subscriber> list = subscribers.get(branchId);
+    return list == null ? 0 : list.size();
+  }
+
+  @Scheduled(fixedDelayString = "${app.staffStream.heartbeatMs:20000}")
+  public void heartbeat() {
+    for (var entry : subscribers.entrySet()) {
+      for (Subscriber sub : entry.getValue()) {
+        sendControl(sub, "ping");
+      }
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    dispatcher.shutdownNow();
+    for (List<Subscriber> list : subscribers.values()) {
+      for (Subscriber sub : list) {
+        sub.emitter.complete();
+      }
+    }
+    subscribers.clear();
+  }
+
+  private void submit(Runnable task) {
+    try {
+      dispatcher.execute(task);
+    } catch (RejectedExecutionException e) {
+      log.debug("Staff event dropped during shutdown");
+    }
+  }
+
+  private void dispatch(long branchId, StreamEvent ev) {
+    List<Subscriber> list = subscribers.get(branchId);
+    if (list == null) return;
+    for (Subscriber sub : list) {
+      send(sub, ev);
+    }
+  }
+
+  private boolean send(Subscriber sub, StreamEvent ev) {
+    if (sub.hallId != null && ev.hallId() != null && !Objects.equals(sub.hallId, ev.hallId())) {
+      return true;
+    }
+    try {
+      sub.emitter.send(SseEmitter.event()
+        .id(String.valueOf(ev.id()))
+        .name(ev.type())
+        .data(ev, MediaType.APPLICATION_JSON));
+      return true;
+    } catch (IOException | IllegalStateException e) {
+      sub.emitter.completeWithError(e);
+      return false;
+    }
+  }
+
+  private void sendResync(Subscriber sub) {
+    try {
+      sub.emitter.send(SseEmitter.event().name("RESYNC").data("{}", MediaType.APPLICATION_JSON));
+    } catch (IOException | IllegalStateException e) {
+      sub.emitter.completeWithError(e);
+    }
+  }
+
+  private void sendControl(Subscriber sub, String comment) {
+    try {
+      sub.emitter.send(SseEmitter.event().comment(comment));
+    } catch (IOException | IllegalStateException e) {
+      sub.emitter.completeWithError(e);
+    }
+  }
+
+  private void remove(long branchId, Subscriber sub) {
+    subscribers.computeIfPresent(branchId, (k, list) -> {
+      list.remove(sub);
+      return list.isEmpty() ? null : list;
+    });
+  }
+
+  private static StreamEvent toStreamEvent(NotificationEvent ev) {
+    return new StreamEvent(
+      ev.id,
+      ev.eventType,
+      ev.refId,
+      ev.tableId,
+      ev.hallId,
+      ev.createdAt == null ? null : ev.createdAt.toString()
+    );
+  }
+}
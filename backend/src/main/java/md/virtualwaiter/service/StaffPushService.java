@@ -1,6 +1,10 @@
 package md.virtualwaiter.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import md.virtualwaiter.config.PushProperties;
 import md.virtualwaiter.domain.BillRequest;
 import md.virtualwaiter.domain.CafeTable;
@@ -16,14 +20,18 @@ import md.virtualwaiter.repo.StaffUserRepo;
 import md.virtualwaiter.repo.WaiterCallRepo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import md.virtualwaiter.util.PayloadGuard;
 
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -32,7 +40,16 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Staff push notifications. Callers only enqueue; a dedicated dispatcher thread resolves
+ * recipients in a few set-based queries and sends with a bounded number of in-flight requests.
+ */
 @Service
 public class StaffPushService {
   private static final Logger log = LoggerFactory.getLogger(StaffPushService.class);
@@ -49,7 +66,16 @@ public class StaffPushService {
   private final int maxLogPayloadChars;
   private final int maxEventPayloadBytes;
   private final ObjectMapper objectMapper = new ObjectMapper();
-  private final HttpClient httpClient = HttpClient.newHttpClient();
+  private final HttpClient httpClient;
+  private final BlockingQueue<PushJob> queue;
+  private final Semaphore inFlight;
+  private final Thread dispatcher;
+  private volatile boolean running = true;
+  private final Timer deliveryTimer;
+  private final Counter droppedCounter;
+  private final Counter failureCounter;
+
+  private record PushJob(long branchId, String type, long refId, Long tableId, Map<String, Object> extraData, long enqueuedNanos) {}
 
   public StaffPushService(
     StaffDeviceTokenRepo tokenRepo,
@@ -60,7 +86,8 @@ public class StaffPushService {
     CafeTableRepo tableRepo,
     PushProperties pushProperties,
     @Value("${app.log.maxPayloadChars:2000}") int maxLogPayloadChars,
-    @Value("${app.payload.maxBytes:4096}") int maxEventPayloadBytes
+    @Value("${app.payload.maxBytes:4096}") int maxEventPayloadBytes,
+    @Nullable MeterRegistry meterRegistry
   ) {
     this.tokenRepo = tokenRepo;
     this.staffUserRepo = staffUserRepo;
@@ -71,23 +98,96 @@ public class StaffPushService {
     this.pushProperties = pushProperties;
     this.maxLogPayloadChars = maxLogPayloadChars;
     this.maxEventPayloadBytes = maxEventPayloadBytes;
+    this.httpClient = HttpClient.newBuilder()
+      .connectTimeout(Duration.ofMillis(Math.max(1, pushProperties.getSendTimeoutMs())))
+      .build();
+    this.queue = new ArrayBlockingQueue<>(Math.max(1, pushProperties.getQueueCapacity()));
+    this.inFlight = new Semaphore(Math.max(1, pushProperties.getMaxConcurrentSends()));
+    this.deliveryTimer = meterRegistry == null ? null : Timer.builder("vw.push.delivery.latency")
+      .description("Time from enqueue to provider response")
+      .publishPercentiles(0.5, 0.95, 0.99)
+      .register(meterRegistry);
+    this.droppedCounter = meterRegistry == null ? null : meterRegistry.counter("vw.push.dropped");
+    this.failureCounter = meterRegistry == null ? null : meterRegistry.counter("vw.push.failures");
+    if (meterRegistry != null) {
+      meterRegistry.gaugeCollectionSize("vw.push.queue.size", List.of(), queue);
+    }
+    this.dispatcher = new Thread(this::runDispatcher, "staff-push-dispatcher");
+    this.dispatcher.setDaemon(true);
+    this.dispatcher.start();
   }
 
   public void notifyBranch(long branchId, String type, long refId) {
-    notifyBranch(branchId, type, refId, Map.of());
+    notifyBranch(branchId, type, refId, null, Map.of());
   }
 
   public void notifyBranch(long branchId, String type, long refId, Map<String, Object> extraData) {
+    notifyBranch(branchId, type, refId, null, extraData);
+  }
+
+  /** Enqueues the push; when called inside a transaction it is enqueued only after commit. */
+  public void notifyBranch(long branchId, String type, long refId, Long tableId, Map<String, Object> extraData) {
+    PushJob job = new PushJob(branchId, type, refId, tableId, extraData == null ? Map.of() : new HashMap<>(extraData), System.nanoTime());
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          enqueue(job);
+        }
+      });
+    } else {
+      enqueue(job);
+    }
+  }
+
+  private void enqueue(PushJob job) {
+    if (!queue.offer(job)) {
+      if (droppedCounter != null) droppedCounter.increment();
+      log.warn("[PUSH] queue full, dropping type={} refId={} branch={}", job.type(), job.refId(), job.branchId());
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    running = false;
+    dispatcher.interrupt();
+  }
+
+  private void runDispatcher() {
+    while (running) {
+      PushJob job;
+      try {
+        job = queue.poll(1, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      if (job == null) continue;
+      try {
+        dispatch(job);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Exception e) {
+        if (failureCounter != null) failureCounter.increment();
+        log.warn("[PUSH] dispatch failed type={} refId={}: {}", job.type(), job.refId(), e.getMessage());
+      }
+    }
+  }
+
+  private void dispatch(PushJob job) throws InterruptedException {
+    long branchId = job.branchId();
     List<StaffDeviceToken> tokens = tokenRepo.findByBranchIdAndRevokedAtIsNull(branchId);
     if (tokens.isEmpty()) return;
 
-    Long tableId = resolveTableId(type, refId);
+    Long tableId = job.tableId() != null ? job.tableId() : resolveTableId(job.type(), job.refId());
     Long assignedWaiterId = resolveAssignedWaiterId(tableId);
-    Set<String> roles = rolesForEvent(type);
+    Set<String> roles = rolesForEvent(job.type());
 
+    List<Long> staffIds = tokens.stream().map(t -> t.staffUserId).distinct().toList();
     Map<Long, StaffUser> staffById = new HashMap<>();
-    for (StaffDeviceToken t : tokens) {
-      staffById.computeIfAbsent(t.staffUserId, id -> staffUserRepo.findById(id).orElse(null));
+    for (StaffUser u : staffUserRepo.findAllById(staffIds)) {
+      staffById.put(u.id, u);
     }
 
     List<StaffDeviceToken> targets = new ArrayList<>();
@@ -106,14 +206,21 @@ public class StaffPushService {
     if (targets.isEmpty()) return;
 
     String provider = pushProperties.getProvider() == null ? "LOG" : pushProperties.getProvider().toUpperCase(Locale.ROOT);
+    boolean fcm = "FCM_LEGACY".equals(provider) && pushProperties.getFcmServerKey() != null && !pushProperties.getFcmServerKey().isBlank();
     for (StaffDeviceToken t : targets) {
-      if ("FCM_LEGACY".equals(provider) && pushProperties.getFcmServerKey() != null && !pushProperties.getFcmServerKey().isBlank()) {
-        sendFcmLegacy(t, branchId, type, refId, tableId, extraData);
+      if (fcm) {
+        sendFcmLegacy(t, branchId, job.type(), job.refId(), tableId, job.extraData(), job.enqueuedNanos());
       } else {
-        log.info("[PUSH] branch={} token={} platform={} type={} refId={} tableId={}", branchId, t.token, t.platform, type, refId, tableId);
+        log.info("[PUSH] branch={} token={} platform={} type={} refId={} tableId={}", branchId, t.token, t.platform, job.type(), job.refId(), tableId);
+        recordDelivery(job.enqueuedNanos());
       }
-      t.lastSeenAt = Instant.now();
-      tokenRepo.save(t);
+    }
+    tokenRepo.touchLastSeen(targets.stream().map(t -> t.id).toList(), Instant.now());
+  }
+
+  private void recordDelivery(long enqueuedNanos) {
+    if (deliveryTimer != null) {
+      deliveryTimer.record(System.nanoTime() - enqueuedNanos, TimeUnit.NANOSECONDS);
     }
   }
 
@@ -165,7 +272,9 @@ public class StaffPushService {
     return t.map(table -> table.assignedWaiterId).orElse(null);
   }
 
-  private void sendFcmLegacy(StaffDeviceToken t, long branchId, String type, long refId, Long tableId, Map<String, Object> extraData) {
+  private void sendFcmLegacy(StaffDeviceToken t, long branchId, String type, long refId, Long tableId, Map<String, Object> extraData, long enqueuedNanos)
+    throws InterruptedException {
+    String body;
     try {
       Map<String, Object> data = new HashMap<>();
       data.put("type", type);
@@ -190,27 +299,48 @@ public class StaffPushService {
       if (pushProperties.isDryRun()) {
         payload.put("dry_run", true);
       }
-
-      String body = objectMapper.writeValueAsString(payload);
-      int effectiveMax = pushProperties.getMaxPayloadBytes() > 0
-        ? Math.min(pushProperties.getMaxPayloadBytes(), maxEventPayloadBytes)
-        : maxEventPayloadBytes;
-      if (effectiveMax > 0 && body.getBytes(java.nio.charset.StandardCharsets.UTF_8).length > effectiveMax) {
-        log.warn("[FCM] payload too large ({} bytes > {}), skip send", body.getBytes(java.nio.charset.StandardCharsets.UTF_8).length, effectiveMax);
+      body = objectMapper.writeValueAsString(payload);
+    } catch (Exception e) {
+      log.warn("[FCM] payload build failed: {}", e.getMessage());
+      return;
+    }
+    int effectiveMax = pushProperties.getMaxPayloadBytes() > 0
+      ? Math.min(pushProperties.getMaxPayloadBytes(), maxEventPayloadBytes)
+      : maxEventPayloadBytes;
+    int bodyBytes = body.getBytes(java.nio.charset.StandardCharsets.UTF_8).length;
+    if (effectiveMax > 0 && bodyBytes > effectiveMax) {
+      log.warn("[FCM] payload too large ({} bytes > {}), skip send", bodyBytes, effectiveMax);
+      return;
+    }
+    HttpRequest req = HttpRequest.newBuilder()
+      .uri(URI.create(pushProperties.getFcmApiUrl()))
+      .timeout(Duration.ofMillis(Math.max(1, pushProperties.getSendTimeoutMs())))
+      .header("Authorization", "key=" + pushProperties.getFcmServerKey())
+      .header("Content-Type", "application/json")
+      .POST(HttpRequest.BodyPublishers.ofString(body))
+      .build();
+    inFlight.acquire();
+    CompletableFuture<HttpResponse<String>> future;
+    try {
+      future = httpClient.sendAsync(req, HttpResponse.BodyHandlers.ofString());
+    } catch (RuntimeException e) {
+      inFlight.release();
+      if (failureCounter != null) failureCounter.increment();
+      log.warn("[FCM] send failed: {}", e.getMessage());
+      return;
+    }
+    future.whenComplete((resp, err) -> {
+      inFlight.release();
+      if (err != null) {
+        if (failureCounter != null) failureCounter.increment();
+        log.warn("[FCM] send failed: {}", err.getMessage());
         return;
       }
-      HttpRequest req = HttpRequest.newBuilder()
-        .uri(URI.create(pushProperties.getFcmApiUrl()))
-        .header("Authorization", "key=" + pushProperties.getFcmServerKey())
-        .header("Content-Type", "application/json")
-        .POST(HttpRequest.BodyPublishers.ofString(body))
-        .build();
-      HttpResponse<String> resp = httpClient.send(req, HttpResponse.BodyHandlers.ofString());
+      recordDelivery(enqueuedNanos);
       if (resp.statusCode() >= 400) {
+        if (failureCounter != null) failureCounter.increment();
         log.warn("[FCM] status={} body={}", resp.statusCode(), PayloadGuard.truncate(resp.body(), maxLogPayloadChars));
       }
-    } catch (Exception e) {
-      log.warn("[FCM] send failed: {}", e.getMessage());
-    }
+    });
   }
 }
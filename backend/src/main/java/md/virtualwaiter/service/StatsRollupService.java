@@ -0,0 +1,213 @@
+package md.virtualwaiter.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maintains the stats_daily_* fact tables for closed UTC days.
+ * stats_rollup_state.rolled_through is the high-water mark: every day up to and including it is
+ * materialized, and StatsService reads rollups only for those days.
+ */
+@Service
+public class StatsRollupService {
+  private static final Logger log = LoggerFactory.getLogger(StatsRollupService.class);
+
+  private static final String TIP_SHARE =
+    "COALESCE((COALESCE(br.tips_amount_cents,0) * bri.line_total_cents) / NULLIF(br.subtotal_cents,0),0)";
+
+  private static final String INSERT_TABLE_SQL =
+    "INSERT INTO stats_daily_table(branch_id, day, table_id, orders_count, calls_count, paid_bills_count,\n" +
+    "  gross_cents, tips_cents, sla_minutes_sum, sla_count)\n" +
+    "SELECT t.branch_id, CAST(:day AS date), t.id,\n" +
+    "  COALESCE(o.cnt,0), COALESCE(c.cnt,0), COALESCE(b.cnt,0), COALESCE(b.gross,0), COALESCE(b.tips,0),\n" +
+    "  COALESCE(o.sla_sum,0), COALESCE(o.sla_cnt,0)\n" +
+    "FROM tables t\n" +
+    "LEFT JOIN (\n" +
+    "  SELECT o.table_id, COUNT(*) AS cnt,\n" +
+    "    SUM(EXTRACT(EPOCH FROM (o.ready_at - o.created_at))/60.0) AS sla_sum, COUNT(o.ready_at) AS sla_cnt\n" +
+    "  FROM orders o\n" +
+    "  WHERE o.created_at >= :fromTs AND o.created_at < :toTs\n" +
+    "  GROUP BY o.table_id\n" +
+    ") o ON o.table_id = t.id\n" +
+    "LEFT JOIN (\n" +
+    "  SELECT wc.table_id, COUNT(*) AS cnt\n" +
+    "  FROM waiter_calls wc\n" +
+    "  WHERE wc.created_at >= :fromTs AND wc.created_at < :toTs\n" +
+    "  GROUP BY wc.table_id\n" +
+    ") c ON c.table_id = t.id\n" +
+    "LEFT JOIN (\n" +
+    "  SELECT br.table_id, COUNT(DISTINCT br.id) AS cnt,\n" +
+    "    SUM(bri.line_total_cents + " + TIP_SHARE + ") AS gross,\n" +
+    "    SUM(" + TIP_SHARE + ") AS tips\n" +
+    "  FROM bill_requests br\n" +
+    "  JOIN bill_request_items bri ON bri.bill_request_id = br.id\n" +
+    "  JOIN order_items oi ON oi.id = bri.order_item_id\n" +
+    "  JOIN orders o ON o.id = oi.order_id\n" +
+    "  WHERE br.status = 'PAID_CONFIRMED' AND br.confirmed_at >= :fromTs AND br.confirmed_at < :toTs\n" +
+    "  GROUP BY br.table_id\n" +
+    ") b ON b.table_id = t.id\n" +
+    "WHERE o.table_id IS NOT NULL OR c.table_id IS NOT NULL OR b.table_id IS NOT NULL";
+
+  private static final String INSERT_WAITER_SQL =
+    "INSERT INTO stats_daily_waiter(branch_id, day, table_id, staff_id, orders_count, paid_bills_count,\n" +
+    "  gross_cents, tips_cents, sla_minutes_sum, sla_count)\n" +
+    "SELECT t.branch_id, CAST(:day AS date), t.id, x.staff_id,\n" +
+    "  SUM(x.orders), SUM(x.bills), SUM(x.gross), SUM(x.tips), SUM(x.sla_sum), SUM(x.sla_cnt)\n" +
+    "FROM (\n" +
+    "  SELECT o.table_id, o.handled_by_staff_id AS staff_id, COUNT(*) AS orders, 0 AS bills, 0 AS gross, 0 AS tips,\n" +
+    "    COALESCE(SUM(EXTRACT(EPOCH FROM (o.ready_at - o.created_at))/60.0),0) AS sla_sum, COUNT(o.ready_at) AS sla_cnt\n" +
+    "  FROM orders o\n" +
+    "  WHERE o.handled_by_staff_id IS NOT NULL AND o.created_at >= :fromTs AND o.created_at < :toTs\n" +
+    "  GROUP BY o.table_id, o.handled_by_staff_id\n" +
+    "  UNION ALL\n" +
+    "  SELECT br.table_id, o.handled_by_staff_id, 0, COUNT(DISTINCT br.id),\n" +
+    "    SUM(bri.line_total_cents + " + TIP_SHARE + "), SUM(" + TIP_SHARE + "), 0, 0\n" +
+    "  FROM bill_requests br\n" +
+    "  JOIN bill_request_items bri ON bri.bill_request_id = br.id\n" +
+    "  JOIN order_items oi ON oi.id = bri.order_item_id\n" +
+    "  JOIN orders o ON o.id = oi.order_id\n" +
+    "  WHERE o.handled_by_staff_id IS NOT NULL\n" +
+    "    AND br.status = 'PAID_CONFIRMED' AND br.confirmed_at >= :fromTs AND br.confirmed_at < :toTs\n" +
+    "  GROUP BY br.table_id, o.handled_by_staff_id\n" +
+    ") x\n" +
+    "JOIN tables t ON t.id = x.table_id\n" +
+    "GROUP BY t.branch_id, t.id, x.staff_id";
+
+  private static final String INSERT_ITEM_SQL =
+    "INSERT INTO stats_daily_item(branch_id, day, table_id, staff_id, menu_item_id, name, qty, gross_cents)\n" +
+    "SELECT t.branch_id, CAST(:day AS date), t.id, COALESCE(o.handled_by_staff_id, 0), oi.menu_item_id,\n" +
+    "  COALESCE(oi.name_snapshot, mi.name_ru, 'Unknown'), SUM(oi.qty), SUM(bri.line_total_cents)\n" +
+    "FROM bill_request_items bri\n" +
+    "JOIN bill_requests br ON br.id = bri.bill_request_id\n" +
+    "JOIN order_items oi ON oi.id = bri.order_item_id\n" +
+    "JOIN orders o ON o.id = oi.order_id\n" +
+    "JOIN tables t ON t.id = br.table_id\n" +
+    "LEFT JOIN menu_items mi ON mi.id = oi.menu_item_id\n" +
+    "WHERE br.status = 'PAID_CONFIRMED' AND br.confirmed_at >= :fromTs AND br.confirmed_at < :toTs\n" +
+    "GROUP BY t.branch_id, t.id, COALESCE(o.handled_by_staff_id, 0), oi.menu_item_id, COALESCE(oi.name_snapshot, mi.name_ru, 'Unknown')";
+
+  private final NamedParameterJdbcTemplate jdbc;
+  private final TransactionTemplate tx;
+  private final boolean enabled;
+  private final int recomputeDays;
+  private final int maxDaysPerRun;
+  private volatile LocalDate rolledThrough;
+  private volatile boolean stateLoaded;
+
+  public StatsRollupService(
+    NamedParameterJdbcTemplate jdbc,
+    PlatformTransactionManager txManager,
+    @Value("${app.stats.rollup.enabled:true}") boolean enabled,
+    @Value("${app.stats.rollup.recomputeDays:2}") int recomputeDays,
+    @Value("${app.stats.rollup.maxDaysPerRun:31}") int maxDaysPerRun
+  ) {
+    this.jdbc = jdbc;
+    this.tx = new TransactionTemplate(txManager);
+    this.enabled = enabled;
+    this.recomputeDays = Math.max(1, recomputeDays);
+    this.maxDaysPerRun = Math.max(1, maxDaysPerRun);
+  }
+
+  /** Last UTC day whose rollups are complete, or null when rollups must not be used. */
+  public LocalDate rolledThrough() {
+    if (!enabled) return null;
+    if (!stateLoaded) {
+      try {
+        rolledThrough = loadRolledThrough();
+        stateLoaded = true;
+      } catch (Exception e) {
+        log.warn("Stats rollup state unavailable: {}", e.getMessage());
+        return null;
+      }
+    }
+    return rolledThrough;
+  }
+
+  @Scheduled(
+    initialDelayString = "${app.stats.rollup.initialDelayMs:60000}",
+    fixedDelayString = "${app.stats.rollup.intervalMs:600000}"
+  )
+  public void scheduledRollup() {
+    if (!enabled) return;
+    try {
+      rollup(LocalDate.now(ZoneOffset.UTC).minusDays(1));
+    } catch (Exception e) {
+      log.warn("Stats rollup failed: {}", e.getMessage());
+    }
+  }
+
+  /** Materializes closed days up to {@code lastClosedDay}; recent days are recomputed to pick up late changes. */
+  public int rollup(LocalDate lastClosedDay) {
+    LocalDate mark = loadRolledThrough();
+    // Another instance may have advanced the mark.
+    rolledThrough = mark;
+    stateLoaded = true;
+    LocalDate start;
+    if (mark == null) {
+      start = firstActivityDay();
+      if (start == null) start = lastClosedDay;
+    } else {
+      if (!mark.isBefore(lastClosedDay)) return 0;
+      start = mark.minusDays(recomputeDays - 1L);
+    }
+    int done = 0;
+    for (LocalDate day = start; !day.isAfter(lastClosedDay) && done < maxDaysPerRun; day = day.plusDays(1)) {
+      LocalDate d = day;
+      tx.executeWithoutResult(status -> rollDay(d));
+      done++;
+    }
+    rolledThrough = loadRolledThrough();
+    stateLoaded = true;
+    if (done > 0) {
+      log.info("Stats rollup: {} day(s) from {}, rolledThrough={}", done, start, rolledThrough);
+    }
+    return done;
+  }
+
+  private void rollDay(LocalDate day) {
+    Map<String, Object> params = new HashMap<>();
+    params.put("day", Date.valueOf(day));
+    params.put("fromTs", Timestamp.from(day.atStartOfDay(ZoneOffset.UTC).toInstant()));
+    params.put("toTs", Timestamp.from(day.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant()));
+    // Serializes concurrent runs across instances; the day is replaced as a whole.
+    jdbc.queryForObject("SELECT rolled_through FROM stats_rollup_state WHERE id = 1 FOR UPDATE", Map.of(), Date.class);
+    jdbc.update("DELETE FROM stats_daily_table WHERE day = :day", params);
+    jdbc.update("DELETE FROM stats_daily_waiter WHERE day = :day", params);
+    jdbc.update("DELETE FROM stats_daily_item WHERE day = :day", params);
+    jdbc.update(INSERT_TABLE_SQL, params);
+    jdbc.update(INSERT_WAITER_SQL, params);
+    jdbc.update(INSERT_ITEM_SQL, params);
+    jdbc.update(
+      "UPDATE stats_rollup_state SET rolled_through = GREATEST(COALESCE(rolled_through, CAST(:day AS date)), CAST(:day AS date)), updated_at = now() WHERE id = 1",
+      params
+    );
+  }
+
+  private LocalDate loadRolledThrough() {
+    Date d = jdbc.queryForObject("SELECT rolled_through FROM stats_rollup_state WHERE id = 1", Map.of(), Date.class);
+    return d == null ? null : d.toLocalDate();
+  }
+
+  private LocalDate firstActivityDay() {
+    Timestamp first = jdbc.queryForObject(
+      "SELECT LEAST((SELECT MIN(created_at) FROM orders), (SELECT MIN(created_at) FROM waiter_calls), " +
+        "(SELECT MIN(confirmed_at) FROM bill_requests WHERE status = 'PAID_CONFIRMED'))",
+      Map.of(),
+      Timestamp.class
+    );
+    return first == null ? null : first.toInstant().atZone(ZoneOffset.UTC).toLocalDate();
+  }
+}
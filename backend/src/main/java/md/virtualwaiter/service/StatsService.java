@@ -3,17 +3,35 @@ package md.virtualwaiter.service;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
+import java.sql.Date;
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
+/**
+ * Dashboard aggregates. Unfiltered ranges (table/hall/waiter filters only) read closed UTC days
+ * from the stats_daily_* rollups and only the partial days at either end from the raw tables.
+ */
 @Service
 public class StatsService {
+  private static final String TIP_SHARE =
+    "COALESCE((COALESCE(br.tips_amount_cents,0) * bri.line_total_cents) / NULLIF(br.subtotal_cents,0),0)";
+  private static final Instant EMPTY_RANGE_FROM = Instant.EPOCH;
+  private static final Instant EMPTY_RANGE_TO = Instant.EPOCH.minusSeconds(1);
+
   private final NamedParameterJdbcTemplate jdbc;
+  private final StatsRollupService rollupService;
 
-  public StatsService(NamedParameterJdbcTemplate jdbc) {
+  public StatsService(NamedParameterJdbcTemplate jdbc, StatsRollupService rollupService) {
     this.jdbc = jdbc;
+    this.rollupService = rollupService;
   }
 
   public record Summary(
@@ -157,6 +175,10 @@ public class StatsService {
     putGuestPhone(params, guestPhone);
     params.put("limit", Math.max(1, Math.min(limit, 200)));
     String tableFilter = buildTableFilter(params, tableId, hallId);
+    RollupSplit split = rollupSplit(params);
+    if (split != null) {
+      return runTopItemsRollup(tableFilter, params, split);
+    }
     String sql =
       "SELECT oi.menu_item_id AS menu_item_id,\n" +
       "       COALESCE(oi.name_snapshot, mi.name_ru, 'Unknown') AS name,\n" +
@@ -346,6 +368,45 @@ public class StatsService {
     params.put("orderStatus", trimOrNull(orderStatus));
     putShiftParams(params, shiftFrom, shiftTo);
     putGuestPhone(params, guestPhone);
+    RollupSplit split = rollupSplit(params);
+    if (split == null) {
+      return runBranchSummaryRaw(params);
+    }
+    Map<String, Object> rollupParams = withDays(params, split);
+    String sql =
+      "SELECT b.id AS branch_id, b.name AS branch_name,\n" +
+      "  COALESCE(SUM(f.orders_count),0) AS orders_count,\n" +
+      "  COALESCE(SUM(f.calls_count),0) AS calls_count,\n" +
+      "  COALESCE(SUM(f.paid_bills_count),0) AS paid_bills_count,\n" +
+      "  COALESCE(SUM(f.gross_cents),0) AS gross_cents,\n" +
+      "  COALESCE(SUM(f.tips_cents),0) AS tips_cents\n" +
+      "FROM branches b\n" +
+      "LEFT JOIN stats_daily_table f ON f.branch_id = b.id AND f.day BETWEEN :dayFrom AND :dayTo\n" +
+      "WHERE b.tenant_id = :tenantId\n" +
+      "  AND (:branchId IS NULL OR b.id = :branchId)\n" +
+      "GROUP BY b.id, b.name\n" +
+      "ORDER BY b.name ASC";
+    Map<Long, BranchSummaryRow> rows = new LinkedHashMap<>();
+    for (BranchSummaryRow r : jdbc.query(sql, rollupParams, (rs, rowNum) -> mapBranchSummaryRow(rs))) {
+      rows.put(r.branchId(), r);
+    }
+    for (Map<String, Object> rawParams : rawParts(params, split)) {
+      for (BranchSummaryRow r : runBranchSummaryRaw(rawParams)) {
+        rows.merge(r.branchId(), r, (x, y) -> new BranchSummaryRow(
+          x.branchId(),
+          x.branchName(),
+          x.ordersCount() + y.ordersCount(),
+          x.callsCount() + y.callsCount(),
+          x.paidBillsCount() + y.paidBillsCount(),
+          x.grossCents() + y.grossCents(),
+          x.tipsCents() + y.tipsCents()
+        ));
+      }
+    }
+    return new java.util.ArrayList<>(rows.values());
+  }
+
+  private java.util.List<BranchSummaryRow> runBranchSummaryRaw(Map<String, Object> params) {
     String sql =
       "SELECT b.id AS branch_id, b.name AS branch_name,\n" +
       "  COALESCE(o.cnt,0) AS orders_count,\n" +
@@ -378,7 +439,9 @@ public class StatsService {
       "  GROUP BY t.branch_id\n" +
       ") c ON c.branch_id = b.id\n" +
       "LEFT JOIN (\n" +
-      "  SELECT t.branch_id, COUNT(*) AS cnt, COALESCE(SUM(br.total_cents),0) AS gross, COALESCE(SUM(br.tips_amount_cents),0) AS tips\n" +
+      "  SELECT t.branch_id, COUNT(DISTINCT br.id) AS cnt,\n" +
+      "    COALESCE(SUM(bri.line_total_cents + " + TIP_SHARE + "),0) AS gross,\n" +
+      "    COALESCE(SUM(" + TIP_SHARE + "),0) AS tips\n" +
       "  FROM bill_requests br\n" +
       "  JOIN tables t ON t.id = br.table_id\n" +
       "  JOIN bill_request_items bri ON bri.bill_request_id = br.id\n" +
@@ -396,7 +459,11 @@ public class StatsService {
       "  AND (:branchId IS NULL OR b.id = :branchId)\n" +
       "ORDER BY b.name ASC";
 
-    return jdbc.query(sql, params, (rs, rowNum) -> new BranchSummaryRow(
+    return jdbc.query(sql, params, (rs, rowNum) -> mapBranchSummaryRow(rs));
+  }
+
+  private static BranchSummaryRow mapBranchSummaryRow(java.sql.ResultSet rs) throws java.sql.SQLException {
+    return new BranchSummaryRow(
       rs.getLong("branch_id"),
       rs.getString("branch_name"),
       rs.getLong("orders_count"),
@@ -404,10 +471,79 @@ public class StatsService {
       rs.getLong("paid_bills_count"),
       rs.getLong("gross_cents"),
       rs.getLong("tips_cents")
-    ));
+    );
   }
 
   private java.util.List<DailyRow> runDaily(String tableFilter, Map<String, Object> params) {
+    RollupSplit split = rollupSplit(params);
+    if (split == null) {
+      return runDailyRaw(tableFilter, params);
+    }
+    Instant from = ((Timestamp) params.get("fromTs")).toInstant();
+    Instant to = ((Timestamp) params.get("toTs")).toInstant();
+    TreeMap<String, long[]> byDay = new TreeMap<>();
+    for (LocalDate d = utcDay(from); !d.isAfter(utcDay(to)); d = d.plusDays(1)) {
+      byDay.put(d.toString(), new long[5]);
+    }
+    Map<String, Object> rollupParams = withDays(params, split);
+    String join = rollupJoin(tableFilter);
+    if (params.get("waiterId") == null) {
+      jdbc.query(
+        "SELECT f.day, SUM(f.orders_count) AS orders_count, SUM(f.calls_count) AS calls_count,\n" +
+          "  SUM(f.paid_bills_count) AS paid_bills_count, SUM(f.gross_cents) AS gross_cents, SUM(f.tips_cents) AS tips_cents\n" +
+          "FROM stats_daily_table f" + join + "\n" +
+          "GROUP BY f.day",
+        rollupParams,
+        rs -> {
+          addDaily(byDay, rs.getDate("day").toLocalDate().toString(), rs.getLong("orders_count"), rs.getLong("calls_count"),
+            rs.getLong("paid_bills_count"), rs.getLong("gross_cents"), rs.getLong("tips_cents"));
+        }
+      );
+    } else {
+      jdbc.query(
+        "SELECT f.day, SUM(f.orders_count) AS orders_count, SUM(f.paid_bills_count) AS paid_bills_count,\n" +
+          "  SUM(f.gross_cents) AS gross_cents, SUM(f.tips_cents) AS tips_cents\n" +
+          "FROM stats_daily_waiter f" + join + " AND f.staff_id = :waiterId\n" +
+          "GROUP BY f.day",
+        rollupParams,
+        rs -> {
+          addDaily(byDay, rs.getDate("day").toLocalDate().toString(), rs.getLong("orders_count"), 0,
+            rs.getLong("paid_bills_count"), rs.getLong("gross_cents"), rs.getLong("tips_cents"));
+        }
+      );
+      jdbc.query(
+        "SELECT f.day, SUM(f.calls_count) AS calls_count\n" +
+          "FROM stats_daily_table f" + join + " AND t.assigned_waiter_id = :waiterId\n" +
+          "GROUP BY f.day",
+        rollupParams,
+        rs -> {
+          addDaily(byDay, rs.getDate("day").toLocalDate().toString(), 0, rs.getLong("calls_count"), 0, 0, 0);
+        }
+      );
+    }
+    for (Map<String, Object> rawParams : rawParts(params, split)) {
+      for (DailyRow r : runDailyRaw(tableFilter, rawParams)) {
+        addDaily(byDay, r.day(), r.ordersCount(), r.callsCount(), r.paidBillsCount(), r.grossCents(), r.tipsCents());
+      }
+    }
+    java.util.List<DailyRow> out = new java.util.ArrayList<>(byDay.size());
+    for (Map.Entry<String, long[]> e : byDay.entrySet()) {
+      long[] v = e.getValue();
+      out.add(new DailyRow(e.getKey(), v[0], v[1], v[2], v[3], v[4]));
+    }
+    return out;
+  }
+
+  private static void addDaily(Map<String, long[]> byDay, String day, long orders, long calls, long bills, long gross, long tips) {
+    long[] v = byDay.computeIfAbsent(day, k -> new long[5]);
+    v[0] += orders;
+    v[1] += calls;
+    v[2] += bills;
+    v[3] += gross;
+    v[4] += tips;
+  }
+
+  private java.util.List<DailyRow> runDailyRaw(String tableFilter, Map<String, Object> params) {
     String sql =
       "WITH days AS (\n" +
       "  SELECT generate_series(date_trunc('day', :fromTs::timestamptz), date_trunc('day', :toTs::timestamptz), interval '1 day') AS day\n" +
@@ -500,6 +636,58 @@ public class StatsService {
   }
 
   private Summary runSummary(String tableFilter, Map<String, Object> params) {
+    RollupSplit split = rollupSplit(params);
+    Totals totals;
+    if (split == null) {
+      totals = rawTotals(tableFilter, params);
+    } else {
+      totals = rollupTotals(tableFilter, withDays(params, split));
+      for (Map<String, Object> rawParams : rawParts(params, split)) {
+        totals = totals.plus(rawTotals(tableFilter, rawParams));
+      }
+    }
+    Instant from = ((Timestamp) params.get("fromTs")).toInstant();
+    Instant to = ((Timestamp) params.get("toTs")).toInstant();
+    return new Summary(
+      from,
+      to,
+      totals.orders(),
+      totals.calls(),
+      totals.paidBills(),
+      totals.gross(),
+      totals.tips(),
+      totals.tableIds().size(),
+      totals.slaCount() == 0 ? null : totals.slaMinutesSum() / totals.slaCount()
+    );
+  }
+
+  private record Totals(
+    long orders,
+    long calls,
+    long paidBills,
+    long gross,
+    long tips,
+    double slaMinutesSum,
+    long slaCount,
+    Set<Long> tableIds
+  ) {
+    Totals plus(Totals o) {
+      Set<Long> ids = new HashSet<>(tableIds);
+      ids.addAll(o.tableIds);
+      return new Totals(
+        orders + o.orders,
+        calls + o.calls,
+        paidBills + o.paidBills,
+        gross + o.gross,
+        tips + o.tips,
+        slaMinutesSum + o.slaMinutesSum,
+        slaCount + o.slaCount,
+        ids
+      );
+    }
+  }
+
+  private Totals rawTotals(String tableFilter, Map<String, Object> params) {
     long ordersCount = queryLong(
       "SELECT COUNT(*) FROM orders o " +
         "JOIN tables t ON t.id = o.table_id " +
@@ -571,8 +759,8 @@ public class StatsService {
         "AND (:shiftTo IS NULL OR su.shift_started_at <= :shiftTo)",
       params
     );
-    long activeTablesCount = queryLong(
-      "SELECT COUNT(DISTINCT o.table_id) FROM orders o " +
+    java.util.List<Long> activeTableIds = jdbc.queryForList(
+      "SELECT DISTINCT o.table_id FROM orders o " +
         "JOIN tables t ON t.id = o.table_id " +
         "LEFT JOIN staff_users su ON su.id = o.handled_by_staff_id " +
         "WHERE " + tableFilter + " AND o.created_at BETWEEN :fromTs AND :toTs " +
@@ -581,10 +769,11 @@ public class StatsService {
         "AND (:orderStatus IS NULL OR o.status = :orderStatus) " +
         "AND (:shiftFrom IS NULL OR su.shift_started_at >= :shiftFrom) " +
         "AND (:shiftTo IS NULL OR su.shift_started_at <= :shiftTo)",
-      params
+      params,
+      Long.class
     );
-    Double avgSlaMinutes = queryDouble(
-      "SELECT AVG(EXTRACT(EPOCH FROM (o.ready_at - o.created_at))/60.0) " +
+    double[] sla = jdbc.queryForObject(
+      "SELECT COALESCE(SUM(EXTRACT(EPOCH FROM (o.ready_at - o.created_at))/60.0),0) AS sla_sum, COUNT(*) AS sla_count " +
         "FROM orders o " +
         "JOIN tables t ON t.id = o.table_id " +
         "LEFT JOIN staff_users su ON su.id = o.handled_by_staff_id " +
@@ -595,12 +784,20 @@ public class StatsService {
         "AND (:orderStatus IS NULL OR o.status = :orderStatus) " +
         "AND (:shiftFrom IS NULL OR su.shift_started_at >= :shiftFrom) " +
         "AND (:shiftTo IS NULL OR su.shift_started_at <= :shiftTo)",
-      params
+      params,
+      (rs, rowNum) -> new double[] { rs.getDouble("sla_sum"), rs.getLong("sla_count") }
     );
 
-    Instant from = ((Timestamp) params.get("fromTs")).toInstant();
-    Instant to = ((Timestamp) params.get("toTs")).toInstant();
-    return new Summary(from, to, ordersCount, callsCount, paidBillsCount, grossCents, tipsCents, activeTablesCount, avgSlaMinutes);
+    return new Totals(
+      ordersCount,
+      callsCount,
+      paidBillsCount,
+      grossCents,
+      tipsCents,
+      sla[0],
+      (long) sla[1],
+      new HashSet<>(activeTableIds)
+    );
   }
 
   private long queryLong(String sql, Map<String, Object> params) {
@@ -608,8 +805,162 @@ public class StatsService {
     return v == null ? 0L : v;
   }
 
-  private Double queryDouble(String sql, Map<String, Object> params) {
-    return jdbc.queryForObject(sql, params, Double.class);
+  private Totals rollupTotals(String tableFilter, Map<String, Object> params) {
+    boolean byWaiter = params.get("waiterId") != null;
+    String from = (byWaiter ? "stats_daily_waiter f" : "stats_daily_table f") + rollupJoin(tableFilter)
+      + (byWaiter ? " AND f.staff_id = :waiterId" : "");
+    Totals facts = jdbc.queryForObject(
+      "SELECT COALESCE(SUM(f.orders_count),0) AS orders_count, COALESCE(SUM(f.paid_bills_count),0) AS paid_bills_count,\n" +
+        "  COALESCE(SUM(f.gross_cents),0) AS gross_cents, COALESCE(SUM(f.tips_cents),0) AS tips_cents,\n" +
+        "  COALESCE(SUM(f.sla_minutes_sum),0) AS sla_sum, COALESCE(SUM(f.sla_count),0) AS sla_count\n" +
+        "FROM " + from,
+      params,
+      (rs, rowNum) -> new Totals(
+        rs.getLong("orders_count"),
+        0,
+        rs.getLong("paid_bills_count"),
+        rs.getLong("gross_cents"),
+        rs.getLong("tips_cents"),
+        rs.getDouble("sla_sum"),
+        rs.getLong("sla_count"),
+        Set.of()
+      )
+    );
+    // Calls follow the table's current waiter assignment, as in the raw query.
+    long calls = queryLong(
+      "SELECT COALESCE(SUM(f.calls_count),0) FROM stats_daily_table f" + rollupJoin(tableFilter)
+        + (byWaiter ? " AND t.assigned_waiter_id = :waiterId" : ""),
+      params
+    );
+    java.util.List<Long> tableIds = jdbc.queryForList(
+      "SELECT DISTINCT f.table_id FROM " + from + " AND f.orders_count > 0",
+      params,
+      Long.class
+    );
+    return new Totals(
+      facts.orders(),
+      calls,
+      facts.paidBills(),
+      facts.gross(),
+      facts.tips(),
+      facts.slaMinutesSum(),
+      facts.slaCount(),
+      new HashSet<>(tableIds)
+    );
+  }
+
+  private java.util.List<TopItemRow> runTopItemsRollup(String tableFilter, Map<String, Object> params, RollupSplit split) {
+    Map<String, Object> p = withDays(params, split);
+    p.put("headFrom", Timestamp.from(split.headFrom() == null ? EMPTY_RANGE_FROM : split.headFrom()));
+    p.put("headTo", Timestamp.from(split.headTo() == null ? EMPTY_RANGE_TO : split.headTo()));
+    p.put("tailFrom", Timestamp.from(split.tailFrom() == null ? EMPTY_RANGE_FROM : split.tailFrom()));
+    p.put("tailTo", Timestamp.from(split.tailTo() == null ? EMPTY_RANGE_TO : split.tailTo()));
+    String sql =
+      "SELECT x.menu_item_id, x.name, COALESCE(SUM(x.qty),0) AS qty, COALESCE(SUM(x.gross_cents),0) AS gross_cents\n" +
+      "FROM (\n" +
+      "  SELECT f.menu_item_id, f.name, f.qty, f.gross_cents\n" +
+      "  FROM stats_daily_item f" + rollupJoin(tableFilter) + "\n" +
+      "    AND (:waiterId IS NULL OR f.staff_id = :waiterId)\n" +
+      "  UNION ALL\n" +
+      "  SELECT oi.menu_item_id, COALESCE(oi.name_snapshot, mi.name_ru, 'Unknown'), oi.qty, bri.line_total_cents\n" +
+      "  FROM bill_request_items bri\n" +
+      "  JOIN bill_requests br ON br.id = bri.bill_request_id\n" +
+      "  JOIN order_items oi ON oi.id = bri.order_item_id\n" +
+      "  JOIN orders o ON o.id = oi.order_id\n" +
+      "  JOIN tables t ON t.id = br.table_id\n" +
+      "  LEFT JOIN menu_items mi ON mi.id = oi.menu_item_id\n" +
+      "  WHERE " + tableFilter + " AND br.status = 'PAID_CONFIRMED'\n" +
+      "    AND (br.confirmed_at BETWEEN :headFrom AND :headTo OR br.confirmed_at BETWEEN :tailFrom AND :tailTo)\n" +
+      "    AND (:waiterId IS NULL OR o.handled_by_staff_id = :waiterId)\n" +
+      ") x\n" +
+      "GROUP BY x.menu_item_id, x.name\n" +
+      "ORDER BY gross_cents DESC\n" +
+      "LIMIT :limit";
+    return jdbc.query(sql, p, (rs, rowNum) -> new TopItemRow(
+      rs.getLong("menu_item_id"),
+      rs.getString("name"),
+      rs.getLong("qty"),
+      rs.getLong("gross_cents")
+    ));
+  }
+
+  /**
+   * Rolled-up closed days inside the range plus the raw head/tail around them (inclusive bounds,
+   * like the raw BETWEEN queries). Null when filters need raw rows or no closed day is covered.
+   */
+  private record RollupSplit(
+    LocalDate firstDay,
+    LocalDate lastDay,
+    Instant headFrom,
+    Instant headTo,
+    Instant tailFrom,
+    Instant tailTo
+  ) {}
+
+  private RollupSplit rollupSplit(Map<String, Object> params) {
+    if (params.get("orderStatus") != null || params.get("guestPhone") != null
+      || params.get("shiftFrom") != null || params.get("shiftTo") != null) {
+      return null;
+    }
+    LocalDate mark = rollupService.rolledThrough();
+    if (mark == null) return null;
+    Instant from = ((Timestamp) params.get("fromTs")).toInstant();
+    Instant to = ((Timestamp) params.get("toTs")).toInstant();
+    if (to.isBefore(from)) return null;
+    LocalDate firstDay = dayStart(utcDay(from)).equals(from) ? utcDay(from) : utcDay(from).plusDays(1);
+    LocalDate lastDay = utcDay(to.plusNanos(1000)).minusDays(1);
+    if (lastDay.isAfter(mark)) lastDay = mark;
+    if (firstDay.isAfter(lastDay)) return null;
+    Instant firstStart = dayStart(firstDay);
+    Instant afterLast = dayStart(lastDay.plusDays(1));
+    boolean head = from.isBefore(firstStart);
+    boolean tail = !afterLast.isAfter(to);
+    // Timestamps are microsecond precision, so "boundary - 1us" closes the raw range just before the rollup.
+    return new RollupSplit(
+      firstDay,
+      lastDay,
+      head ? from : null,
+      head ? firstStart.minusNanos(1000) : null,
+      tail ? afterLast : null,
+      tail ? to : null
+    );
+  }
+
+  private static Map<String, Object> withDays(Map<String, Object> params, RollupSplit split) {
+    Map<String, Object> p = new HashMap<>(params);
+    p.put("dayFrom", Date.valueOf(split.firstDay()));
+    p.put("dayTo", Date.valueOf(split.lastDay()));
+    return p;
+  }
+
+  private static java.util.List<Map<String, Object>> rawParts(Map<String, Object> params, RollupSplit split) {
+    java.util.List<Map<String, Object>> out = new java.util.ArrayList<>(2);
+    if (split.headFrom() != null) {
+      Map<String, Object> p = new HashMap<>(params);
+      p.put("fromTs", Timestamp.from(split.headFrom()));
+      p.put("toTs", Timestamp.from(split.headTo()));
+      out.add(p);
+    }
+    if (split.tailFrom() != null) {
+      Map<String, Object> p = new HashMap<>(params);
+      p.put("fromTs", Timestamp.from(split.tailFrom()));
+      p.put("toTs", Timestamp.from(split.tailTo()));
+      out.add(p);
+    }
+    return out;
+  }
+
+  private static String rollupJoin(String tableFilter) {
+    return " JOIN tables t ON t.id = f.table_id AND t.branch_id = f.branch_id WHERE " + tableFilter
+      + " AND f.day BETWEEN :dayFrom AND :dayTo";
+  }
+
+  private static LocalDate utcDay(Instant ts) {
+    return ts.atZone(ZoneOffset.UTC).toLocalDate();
+  }
+
+  private static Instant dayStart(LocalDate day) {
+    return day.atStartOfDay(ZoneOffset.UTC).toInstant();
   }
 
   private String buildTenantTableFilter(Map<String, Object> params, Long branchId, Long hallId) {
@@ -638,6 +989,7 @@ public class StatsService {
   ) {
     Map<String, Object> params = baseParams(from, to);
     params.put("tenantId", tenantId);
+    params.put("waiterId", null);
     params.put("orderStatus", trimOrNull(orderStatus));
     putShiftParams(params, shiftFrom, shiftTo);
     putGuestPhone(params, guestPhone);
@@ -664,6 +1016,11 @@ public class StatsService {
     putGuestPhone(params, guestPhone);
     params.put("limit", Math.max(1, Math.min(limit, 200)));
     String tableFilter = buildTenantTableFilter(params, branchId, hallId);
+    RollupSplit split = rollupSplit(params);
+    if (split != null) {
+      params.put("waiterId", null);
+      return runTopItemsRollup(tableFilter, params, split);
+    }
     String sql =
       "SELECT oi.menu_item_id AS menu_item_id,\n" +
       "       COALESCE(oi.name_snapshot, mi.name_ru, 'Unknown') AS name,\n" +
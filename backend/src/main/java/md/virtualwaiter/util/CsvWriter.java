@@ -0,0 +1,41 @@
+package md.virtualwaiter.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/** RFC 4180 rows: fields containing a separator, quote or line break are quoted with quotes doubled. */
+public final class CsvWriter {
+  private final Writer out;
+
+  public CsvWriter(Writer out) {
+    this.out = out;
+  }
+
+  public CsvWriter row(Object... cells) throws IOException {
+    for (int i = 0; i < cells.length; i++) {
+      if (i > 0) out.write(',');
+      out.write(escape(cells[i]));
+    }
+    out.write('\n');
+    return this;
+  }
+
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  public static String escape(Object v) {
+    if (v == null) return "";
+    String s = v.toString();
+    boolean quote = false;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+        quote = true;
+        break;
+      }
+    }
+    if (!quote) return s;
+    return "\"" + s.replace("\"", "\"\"") + "\"";
+  }
+}
@@ -0,0 +1,43 @@
+package md.virtualwaiter.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+
+public final class MenuText {
+  private MenuText() {}
+
+  public static String normalizeLocale(String s) {
+    if (s == null) return "ru";
+    String v = s.trim().toLowerCase(Locale.ROOT);
+    return switch (v) { case "ru", "ro", "en" -> v; default -> "ru"; };
+  }
+
+  public static String pick(String locale, String ru, String ro, String en) {
+    if (locale == null) locale = "ru";
+    return switch (locale) {
+      case "ro" -> (ro != null && !ro.isBlank()) ? ro : ru;
+      case "en" -> (en != null && !en.isBlank()) ? en : ru;
+      default -> ru;
+    };
+  }
+
+  public static List<String> splitCsv(String s) {
+    if (s == null || s.isBlank()) return List.of();
+    String[] parts = s.split(",");
+    List<String> out = new ArrayList<>();
+    for (String p : parts) {
+      String v = p.trim();
+      if (!v.isEmpty()) out.add(v);
+    }
+    return out;
+  }
+
+  /** Inline CSV tags first, then linked tag names, without duplicates. */
+  public static List<String> mergeTags(String csvTags, List<String> linkedTags) {
+    LinkedHashSet<String> out = new LinkedHashSet<>(splitCsv(csvTags));
+    if (linkedTags != null) out.addAll(linkedTags);
+    return new ArrayList<>(out);
+  }
+}
@@ -0,0 +1,120 @@
+package md.virtualwaiter.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hierarchical timing wheel keyed by {@code K}. Scheduling and cancelling are O(1); {@link #advance}
+ * costs one slot per elapsed tick plus the timers that come due or move down a level. Cancelled and
+ * rescheduled timers are dropped lazily when their slot is reached. Not thread-safe.
+ */
+public final class TimingWheel<K> {
+  private record Timer<K>(K key, long deadlineTick) {}
+
+  private final long tickMillis;
+  private final int bits;
+  private final int mask;
+  private final int levels;
+  private final ArrayList<Timer<K>>[][] slots;
+  private final Map<K, Long> deadlines = new HashMap<>();
+  private long currentTick;
+
+  /**
+   * @param slotBits each level has {@code 2^slotBits} slots; level {@code n} spans {@code 2^(slotBits*(n+1))} ticks
+   */
+  @SuppressWarnings("unchecked")
+  public TimingWheel(long tickMillis, int slotBits, int levels, long startMillis) {
+    if (tickMillis <= 0 || slotBits < 1 || levels < 1 || slotBits * levels > 62) {
+      throw new IllegalArgumentException("Invalid timing wheel shape");
+    }
+    this.tickMillis = tickMillis;
+    this.bits = slotBits;
+    this.mask = (1 << slotBits) - 1;
+    this.levels = levels;
+    this.slots = new ArrayList[levels][1 << slotBits];
+    for (int l = 0; l < levels; l++) {
+      for (int s = 0; s <= mask; s++) slots[l][s] = new ArrayList<>();
+    }
+    this.currentTick = Math.floorDiv(startMillis, tickMillis);
+  }
+
+  /** Schedules or reschedules {@code key}. A deadline in the past fires on the next tick. */
+  public void schedule(K key, long deadlineMillis) {
+    long tick = Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis);
+    deadlines.put(key, tick);
+    place(new Timer<>(key, tick), currentTick + 1);
+  }
+
+  public boolean cancel(K key) {
+    return deadlines.remove(key) != null;
+  }
+
+  public boolean contains(K key) {
+    return deadlines.containsKey(key);
+  }
+
+  public int size() {
+    return deadlines.size();
+  }
+
+  /** Moves the wheel to {@code nowMillis} and returns the keys that came due, in deadline order per tick. */
+  public List<K> advance(long nowMillis) {
+    long target = Math.floorDiv(nowMillis, tickMillis);
+    List<K> due = new ArrayList<>();
+    while (currentTick < target) {
+      currentTick++;
+      for (int l = levels - 1; l >= 1; l--) {
+        int shift = bits * l;
+        if ((currentTick & ((1L << shift) - 1)) == 0) {
+          cascade(l, (int) ((currentTick >>> shift) & mask));
+        }
+      }
+      ArrayList<Timer<K>> slot = slots[0][(int) (currentTick & mask)];
+      if (slot.isEmpty()) continue;
+      slots[0][(int) (currentTick & mask)] = new ArrayList<>();
+      for (Timer<K> t : slot) {
+        if (!isLive(t)) continue;
+        if (t.deadlineTick() <= currentTick) {
+          deadlines.remove(t.key());
+          due.add(t.key());
+        } else {
+          place(t, currentTick + 1);
+        }
+      }
+    }
+    return due;
+  }
+
+  private void cascade(int level, int index) {
+    ArrayList<Timer<K>> slot = slots[level][index];
+    if (slot.isEmpty()) return;
+    slots[level][index] = new ArrayList<>();
+    for (Timer<K> t : slot) {
+      // The level-0 slot for currentTick is drained right after cascading, so it may receive timers.
+      if (isLive(t)) place(t, currentTick);
+    }
+  }
+
+  private void place(Timer<K> t, long minTick) {
+    long due = Math.max(t.deadlineTick(), minTick);
+    long delta = due - currentTick;
+    for (int l = 0; l < levels; l++) {
+      int shift = bits * l;
+      if (delta < (1L << (shift + bits))) {
+        slots[l][(int) ((due >>> shift) & mask)].add(t);
+        return;
+      }
+    }
+    // Beyond the top level: park in its farthest slot and re-place when that slot cascades.
+    int shift = bits * (levels - 1);
+    long parked = currentTick + (1L << (shift + bits)) - 1;
+    slots[levels - 1][(int) ((parked >>> shift) & mask)].add(t);
+  }
+
+  private boolean isLive(Timer<K> t) {
+    Long d = deadlines.get(t.key());
+    return d != null && d == t.deadlineTick();
+  }
+}
@@ -0,0 +1,5 @@
+ALTER TABLE notification_events
+ADD COLUMN IF NOT EXISTS table_id BIGINT;
+
+ALTER TABLE notification_events
+ADD COLUMN IF NOT EXISTS hall_id BIGINT;
@@ -0,0 +1,44 @@
+-- Indexes for the hot staff/guest/SLA finders.
+-- Only CONCURRENTLY statements here, so Flyway runs the script outside a transaction
+-- and large production tables are not locked against writes while building.
+
+-- Staff/admin active order lists: table_id IN (...) AND status NOT IN ('CLOSED','CANCELLED') ORDER BY created_at DESC
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_orders_active_table_created_at
+  ON orders(table_id, created_at DESC)
+  WHERE status NOT IN ('CLOSED', 'CANCELLED');
+
+-- Table history (any status)
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_orders_table_created_at
+  ON orders(table_id, created_at DESC);
+
+-- Guest order history
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_orders_guest_session_created_at
+  ON orders(guest_session_id, created_at DESC);
+
+-- SLA scans: status IN (...) AND created_at > cutoff
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_orders_status_created_at
+  ON orders(status, created_at);
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_order_items_order_id
+  ON order_items(order_id);
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_waiter_calls_table_created_at
+  ON waiter_calls(table_id, created_at DESC);
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_waiter_calls_status_created_at
+  ON waiter_calls(status, created_at);
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_guest_sessions_party_id
+  ON guest_sessions(party_id)
+  WHERE party_id IS NOT NULL;
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_guest_sessions_verified_phone_id
+  ON guest_sessions(verified_phone, id DESC)
+  WHERE verified_phone IS NOT NULL;
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_guest_sessions_table_id_id
+  ON guest_sessions(table_id, id DESC);
+
+-- Retention cleanup
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_guest_sessions_expires_at
+  ON guest_sessions(expires_at);
@@ -0,0 +1,58 @@
+-- Daily stats rollups (UTC days), filled by StatsRollupService for closed days only.
+
+CREATE TABLE IF NOT EXISTS stats_rollup_state (
+  id INT PRIMARY KEY,
+  rolled_through DATE NULL,
+  updated_at TIMESTAMPTZ NULL
+);
+
+INSERT INTO stats_rollup_state(id, rolled_through) VALUES (1, NULL) ON CONFLICT (id) DO NOTHING;
+
+-- One row per branch/day/table with any activity.
+CREATE TABLE IF NOT EXISTS stats_daily_table (
+  branch_id BIGINT NOT NULL,
+  day DATE NOT NULL,
+  table_id BIGINT NOT NULL,
+  orders_count BIGINT NOT NULL DEFAULT 0,
+  calls_count BIGINT NOT NULL DEFAULT 0,
+  paid_bills_count BIGINT NOT NULL DEFAULT 0,
+  gross_cents BIGINT NOT NULL DEFAULT 0,
+  tips_cents BIGINT NOT NULL DEFAULT 0,
+  sla_minutes_sum DOUBLE PRECISION NOT NULL DEFAULT 0,
+  sla_count BIGINT NOT NULL DEFAULT 0,
+  PRIMARY KEY (branch_id, day, table_id)
+);
+
+CREATE INDEX IF NOT EXISTS idx_stats_daily_table_day ON stats_daily_table(day);
+
+-- Orders and paid bill lines attributed to the waiter who handled the order.
+CREATE TABLE IF NOT EXISTS stats_daily_waiter (
+  branch_id BIGINT NOT NULL,
+  day DATE NOT NULL,
+  table_id BIGINT NOT NULL,
+  staff_id BIGINT NOT NULL,
+  orders_count BIGINT NOT NULL DEFAULT 0,
+  paid_bills_count BIGINT NOT NULL DEFAULT 0,
+  gross_cents BIGINT NOT NULL DEFAULT 0,
+  tips_cents BIGINT NOT NULL DEFAULT 0,
+  sla_minutes_sum DOUBLE PRECISION NOT NULL DEFAULT 0,
+  sla_count BIGINT NOT NULL DEFAULT 0,
+  PRIMARY KEY (branch_id, day, table_id, staff_id)
+);
+
+CREATE INDEX IF NOT EXISTS idx_stats_daily_waiter_staff_day ON stats_daily_waiter(staff_id, day);
+
+-- Paid bill lines per menu item; staff_id = 0 when the order had no handler.
+CREATE TABLE IF NOT EXISTS stats_daily_item (
+  branch_id BIGINT NOT NULL,
+  day DATE NOT NULL,
+  table_id BIGINT NOT NULL,
+  staff_id BIGINT NOT NULL,
+  menu_item_id BIGINT NOT NULL,
+  name TEXT NOT NULL,
+  qty BIGINT NOT NULL DEFAULT 0,
+  gross_cents BIGINT NOT NULL DEFAULT 0,
+  PRIMARY KEY (branch_id, day, table_id, staff_id, menu_item_id, name)
+);
+
+CREATE INDEX IF NOT EXISTS idx_stats_daily_item_day ON stats_daily_item(day);
@@ -0,0 +1,7 @@
+-- Keyset cursors for the streaming CSV exports: branch_id = ? AND id > ? ORDER BY id LIMIT ?
+-- Only CONCURRENTLY statements here, so Flyway runs the script outside a transaction.
+-- audit_logs already has idx_audit_logs_branch_id_id (V18).
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_chat_messages_branch_id_id ON chat_messages(branch_id, id);
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_branch_reviews_branch_id_id ON branch_reviews(branch_id, id);
@@ -0,0 +1,21 @@
+-- One row per guest chat, kept current on every message, so the staff inbox
+-- pages threads by last_message_id instead of scanning chat_messages.
+-- Per-staff unread state stays in chat_reads.
+CREATE TABLE IF NOT EXISTS chat_threads (
+  guest_session_id BIGINT PRIMARY KEY,
+  branch_id BIGINT NOT NULL,
+  table_id BIGINT NOT NULL,
+  last_message_id BIGINT NOT NULL,
+  last_sender_role VARCHAR(20) NOT NULL,
+  last_message TEXT NOT NULL,
+  last_at TIMESTAMPTZ NOT NULL
+);
+
+INSERT INTO chat_threads(guest_session_id, branch_id, table_id, last_message_id, last_sender_role, last_message, last_at)
+SELECT DISTINCT ON (m.guest_session_id)
+  m.guest_session_id, m.branch_id, m.table_id, m.id, m.sender_role, m.message, m.created_at
+FROM chat_messages m
+ORDER BY m.guest_session_id, m.id DESC
+ON CONFLICT (guest_session_id) DO NOTHING;
+
+CREATE INDEX IF NOT EXISTS idx_chat_threads_branch_last ON chat_threads(branch_id, last_message_id DESC);
@@ -0,0 +1,12 @@
+-- Per-branch SLA alert thresholds in minutes; NULL falls back to app.slaAlerts.*.
+ALTER TABLE branch_settings
+  ADD COLUMN IF NOT EXISTS sla_order_crit_min INT;
+
+ALTER TABLE branch_settings
+  ADD COLUMN IF NOT EXISTS sla_kitchen_crit_min INT;
+
+ALTER TABLE branch_settings
+  ADD COLUMN IF NOT EXISTS sla_call_crit_min INT;
+
+ALTER TABLE branch_settings
+  ADD COLUMN IF NOT EXISTS sla_bill_crit_min INT;
@@ -0,0 +1,25 @@
+-- Outbound staff alerts (email, Telegram) written in the caller's transaction and
+-- delivered by a background dispatcher, so order placement never waits on SMTP or HTTP.
+-- PENDING rows with the same dedupe key are coalesced; RETRY rows are not touched.
+CREATE TABLE IF NOT EXISTS alert_outbox (
+  id BIGSERIAL PRIMARY KEY,
+  channel VARCHAR(16) NOT NULL,
+  dedupe_key VARCHAR(128),
+  subject TEXT,
+  message TEXT NOT NULL,
+  status VARCHAR(16) NOT NULL DEFAULT 'PENDING',
+  attempts INT NOT NULL DEFAULT 0,
+  coalesced INT NOT NULL DEFAULT 0,
+  next_attempt_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+  last_error TEXT,
+  created_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+  sent_at TIMESTAMPTZ
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS ux_alert_outbox_pending_dedupe
+  ON alert_outbox(channel, dedupe_key) WHERE status = 'PENDING';
+
+CREATE INDEX IF NOT EXISTS idx_alert_outbox_due
+  ON alert_outbox(channel, next_attempt_at) WHERE status IN ('PENDING', 'RETRY', 'SENDING');
+
+CREATE INDEX IF NOT EXISTS idx_alert_outbox_created ON alert_outbox(created_at);
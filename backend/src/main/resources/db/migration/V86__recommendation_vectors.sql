@@ -0,0 +1,33 @@
+-- Precomputed inputs for personal recommendations.
+-- guest_item_affinity holds a recency-decayed quantity per (branch, phone, item): on every write the stored
+-- score is decayed from updated_at to the write time and the new quantity is added.
+CREATE TABLE IF NOT EXISTS guest_item_affinity (
+  branch_id BIGINT NOT NULL,
+  phone VARCHAR(32) NOT NULL,
+  menu_item_id BIGINT NOT NULL,
+  score DOUBLE PRECISION NOT NULL,
+  updated_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+  PRIMARY KEY (branch_id, phone, menu_item_id)
+);
+
+-- Item-to-item neighbours per branch, rebuilt by a background job from recent orders.
+CREATE TABLE IF NOT EXISTS menu_item_cooccurrence (
+  branch_id BIGINT NOT NULL,
+  item_id BIGINT NOT NULL,
+  other_item_id BIGINT NOT NULL,
+  score DOUBLE PRECISION NOT NULL,
+  PRIMARY KEY (branch_id, item_id, other_item_id)
+);
+
+-- Seed affinity from existing history of verified guests with the default 45-day half-life.
+-- exp() raises on underflow in Postgres, hence the clamp.
+INSERT INTO guest_item_affinity(branch_id, phone, menu_item_id, score, updated_at)
+SELECT t.branch_id, s.verified_phone, oi.menu_item_id,
+  SUM(oi.qty * exp(-LEAST(700, ln(2) * EXTRACT(EPOCH FROM (now() - o.created_at)) / (45 * 86400)))), now()
+FROM orders o
+JOIN guest_sessions s ON s.id = o.guest_session_id
+JOIN tables t ON t.id = o.table_id
+JOIN order_items oi ON oi.order_id = o.id
+WHERE s.verified_phone IS NOT NULL AND s.verified_phone <> ''
+GROUP BY t.branch_id, s.verified_phone, oi.menu_item_id
+ON CONFLICT (branch_id, phone, menu_item_id) DO NOTHING;
@@ -0,0 +1,24 @@
+-- Verified payment provider callbacks, acknowledged as soon as they are stored and applied by a background
+-- worker one intent at a time. Provider retries of the same event hit the unique dedupe key.
+CREATE TABLE IF NOT EXISTS payment_webhook_inbox (
+  id BIGSERIAL PRIMARY KEY,
+  provider VARCHAR(16) NOT NULL,
+  dedupe_key VARCHAR(200) NOT NULL,
+  intent_id BIGINT NOT NULL,
+  event_status VARCHAR(24) NOT NULL,
+  body TEXT,
+  state VARCHAR(16) NOT NULL DEFAULT 'PENDING',
+  result VARCHAR(16),
+  attempts INT NOT NULL DEFAULT 0,
+  next_attempt_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+  last_error TEXT,
+  received_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+  processed_at TIMESTAMPTZ
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS ux_payment_webhook_inbox_dedupe ON payment_webhook_inbox(provider, dedupe_key);
+
+CREATE INDEX IF NOT EXISTS idx_payment_webhook_inbox_open
+  ON payment_webhook_inbox(intent_id, id) WHERE state IN ('PENDING', 'RETRY');
+
+CREATE INDEX IF NOT EXISTS idx_payment_webhook_inbox_received ON payment_webhook_inbox(received_at);
@@ -0,0 +1,25 @@
+-- One loyalty account per (branch_id, phone). Concurrent first bills of a phone could each open an account,
+-- and every later credit then went to all of them. Fold duplicates into the oldest row, with the balance
+-- rebuilt from the points log (bill accrual is the only writer and always logs), then make the lookup
+-- index unique so accrual can upsert.
+WITH dup AS (
+  SELECT branch_id, phone, MIN(id) AS keep_id
+  FROM loyalty_accounts
+  GROUP BY branch_id, phone
+  HAVING COUNT(*) > 1
+)
+UPDATE loyalty_accounts a
+SET points_balance = COALESCE((
+      SELECT SUM(l.delta_points) FROM loyalty_points_log l
+      WHERE l.branch_id = dup.branch_id AND l.phone = dup.phone
+    ), a.points_balance),
+    updated_at = now()
+FROM dup
+WHERE a.id = dup.keep_id;
+
+DELETE FROM loyalty_accounts a
+USING loyalty_accounts k
+WHERE k.branch_id = a.branch_id AND k.phone = a.phone AND k.id < a.id;
+
+DROP INDEX IF EXISTS idx_loyalty_accounts_branch_phone;
+CREATE UNIQUE INDEX IF NOT EXISTS uq_loyalty_accounts_branch_phone ON loyalty_accounts(branch_id, phone);
@@ -0,0 +1,3 @@
+-- Persisted public menu version. Every instance derives the same menu ETag from it, across restarts,
+-- and it only moves when the branch's menu changes.
+ALTER TABLE branches ADD COLUMN IF NOT EXISTS menu_version BIGINT NOT NULL DEFAULT 0;
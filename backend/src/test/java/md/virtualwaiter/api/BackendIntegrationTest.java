@@ -112,7 +112,8 @@ class BackendIntegrationTest {
     }
 
     // Menu + ensure item
-    Map<String, Object> menu = getJson("/api/public/menu?tablePublicId=" + tablePublicId + "&sig=" + sig + "&ts=" + ts + "&locale=ru", null);
+    String menuPath = "/api/public/menu?tablePublicId=" + tablePublicId + "&sig=" + sig + "&ts=" + ts + "&locale=ru";
+    Map<String, Object> menu = getJson(menuPath, null);
     int itemId = firstMenuItemId(menu);
     if (itemId == 0) {
       Map<String, Object> cat = postJson("/api/admin/menu/categories", adminCookie, Map.of(
@@ -138,6 +139,14 @@ class BackendIntegrationTest {
     }
     assertThat(itemId).isGreaterThan(0);
 
+    // Conditional menu GET
+    String menuEtag = exchange(menuPath, null, null, HttpMethod.GET).getHeaders().getETag();
+    assertThat(menuEtag).isNotBlank();
+    HttpHeaders conditional = new HttpHeaders();
+    conditional.setIfNoneMatch(menuEtag);
+    ResponseEntity<String> notModified = rest.exchange(url(menuPath), HttpMethod.GET, new HttpEntity<>(conditional), String.class);
+    assertThat(notModified.getStatusCode().value()).isEqualTo(304);
+
     // Order
     Map<String, Object> order = postJson("/api/public/orders", sessionSecret, Map.of(
       "guestSessionId", guestSessionId,
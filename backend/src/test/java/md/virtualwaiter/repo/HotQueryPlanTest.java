@@ -0,0 +1,389 @@
+package md.virtualwaiter.repo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import md.virtualwaiter.service.ChatThreadService;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Calls each hot repository finder against a seeded dataset, EXPLAINs the statements it actually sent
+ * and fails when the planner falls back to a sequential scan of the filtered table.
+ */
+@Testcontainers
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class HotQueryPlanTest {
+
+  private static final int TABLES = 200;
+  private static final int SESSIONS = 20000;
+  private static final int ORDERS = 60000;
+  private static final int CALLS = 20000;
+
+  @Container
+  static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16")
+    .withDatabaseName("vw")
+    .withUsername("vw")
+    .withPassword("vw");
+
+  @DynamicPropertySource
+  static void props(DynamicPropertyRegistry registry) {
+    if (!POSTGRES.isRunning()) {
+      POSTGRES.start();
+    }
+    registry.add("spring.datasource.url", POSTGRES::getJdbcUrl);
+    registry.add("spring.datasource.username", POSTGRES::getUsername);
+    registry.add("spring.datasource.password", POSTGRES::getPassword);
+    registry.add("app.qr.hmacSecret", () -> "test_qr_hmac_secret");
+    registry.add("app.auth.cookieSecret", () -> "test_auth_cookie_secret");
+  }
+
+  @Autowired
+  JdbcTemplate jdbc;
+
+  @Autowired
+  OrderRepo orderRepo;
+
+  @Autowired
+  OrderItemRepo orderItemRepo;
+
+  @Autowired
+  WaiterCallRepo waiterCallRepo;
+
+  @Autowired
+  GuestSessionRepo guestSessionRepo;
+
+  @Autowired
+  ChatThreadService chatThreadService;
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  private long firstTableId;
+  private long firstSessionId;
+  private long firstPartyId;
+
+  @BeforeAll
+  void seed() {
+    jdbc.update(
+      "insert into tables(branch_id, number, public_id) " +
+        "select 1, 1000 + g, 'TBL_PLAN_' || g from generate_series(1, ?) g",
+      TABLES
+    );
+    firstTableId = jdbc.queryForObject("select min(id) from tables where public_id like 'TBL_PLAN_%'", Long.class);
+
+    jdbc.update(
+      "insert into table_parties(table_id, pin, expires_at) " +
+        "select ? + (g - 1), '1234', now() + interval '1 hour' from generate_series(1, ?) g",
+      firstTableId, TABLES
+    );
+    firstPartyId = jdbc.queryForObject("select min(id) from table_parties", Long.class);
+
+    // 10% verified guests with distinct phones, 1% joined to a party.
+    jdbc.update(
+      "insert into guest_sessions(table_id, locale, expires_at, verified_phone, party_id) " +
+        "select ? + g % ?, 'ru', now() + interval '1 day', " +
+        "case when g % 10 = 0 then '+3736' || lpad((g / 10)::text, 7, '0') end, " +
+        "case when g % 100 = 0 then ? + (g / 100) % ? end " +
+        "from generate_series(1, ?) g",
+      firstTableId, TABLES, firstPartyId, TABLES, SESSIONS
+    );
+    firstSessionId = jdbc.queryForObject("select min(id) from guest_sessions where locale = 'ru' and table_id >= ?", Long.class, firstTableId);
+
+    // Two months of history; only a slice of the last day is still active, like a real branch.
+    jdbc.update(
+      "insert into orders(table_id, guest_session_id, status, created_at) " +
+        "select ? + g % ?, ? + g % ?, " +
+        "case when g % 1440 < 24 and g % 4 = 0 then 'NEW' " +
+        "when g % 1440 < 24 and g % 4 = 1 then 'READY' " +
+        "when g % 97 = 0 then 'CANCELLED' else 'CLOSED' end, " +
+        "now() - (g % 1440) * interval '1 hour' " +
+        "from generate_series(1, ?) g",
+      firstTableId, TABLES, firstSessionId, SESSIONS, ORDERS
+    );
+    jdbc.update(
+      "insert into order_items(order_id, menu_item_id, name_snapshot, unit_price_cents, qty) " +
+        "select o.id, 1, 'Americano', 3500, n from orders o cross join generate_series(1, 2) n"
+    );
+    jdbc.update(
+      "insert into waiter_calls(table_id, guest_session_id, status, created_at) " +
+        "select ? + g % ?, ? + g % ?, " +
+        "case when g % 1440 < 24 and g % 2 = 0 then 'NEW' else 'CLOSED' end, " +
+        "now() - (g % 1440) * interval '1 hour' " +
+        "from generate_series(1, ?) g",
+      firstTableId, TABLES, firstSessionId, SESSIONS, CALLS
+    );
+    // Every session chatted once; threads of branch 1 in last-message order.
+    jdbc.update(
+      "insert into chat_threads(guest_session_id, branch_id, table_id, last_message_id, last_sender_role, last_message, last_at) " +
+        "select id, 1, table_id, id, case when id % 2 = 0 then 'GUEST' else 'STAFF' end, 'hi', now() " +
+        "from guest_sessions where id >= ?",
+      firstSessionId
+    );
+    jdbc.execute("analyze tables");
+    jdbc.execute("analyze table_parties");
+    jdbc.execute("analyze guest_sessions");
+    jdbc.execute("analyze orders");
+    jdbc.execute("analyze order_items");
+    jdbc.execute("analyze waiter_calls");
+    jdbc.execute("analyze chat_threads");
+  }
+
+  @Test
+  void activeOrdersForTables() {
+    assertNoSeqScan("orders", () -> orderRepo.findTop100ByTableIdInAndStatusNotInOrderByCreatedAtDesc(
+      tableIds(5), List.of("CLOSED", "CANCELLED")));
+  }
+
+  @Test
+  void activeOrdersForTablesSince() {
+    assertNoSeqScan("orders", () -> orderRepo.findByTableIdInAndStatusNotInAndCreatedAtAfterOrderByCreatedAtDesc(
+      tableIds(5), List.of("CLOSED", "CANCELLED"), Instant.now().minus(1, ChronoUnit.DAYS)));
+  }
+
+  @Test
+  void tableOrderHistory() {
+    assertNoSeqScan("orders", () -> orderRepo.findTop50ByTableIdOrderByCreatedAtDesc(firstTableId));
+  }
+
+  @Test
+  void guestOrderHistory() {
+    assertNoSeqScan("orders", () -> orderRepo.findTop200ByGuestSessionIdOrderByCreatedAtDesc(firstSessionId + 7));
+  }
+
+  @Test
+  void slaActiveOrders() {
+    // Same statuses as SlaAlertService.rebuild
+    assertNoSeqScan("orders", () -> orderRepo.findByStatusInAndCreatedAtAfter(
+      List.of("NEW", "ACCEPTED", "IN_PROGRESS", "READY", "COOKING"), Instant.now().minus(1, ChronoUnit.DAYS)));
+  }
+
+  @Test
+  void itemsForOrders() {
+    List<Long> ids = jdbc.queryForList("select id from orders order by created_at desc limit 20", Long.class);
+    assertNoSeqScan("order_items", () -> orderItemRepo.findByOrderIdIn(ids));
+  }
+
+  @Test
+  void openCallsForTables() {
+    assertNoSeqScan("waiter_calls", () -> waiterCallRepo.findTop100ByTableIdInAndStatusNotOrderByCreatedAtDesc(
+      tableIds(5), "CLOSED"));
+  }
+
+  @Test
+  void slaActiveCalls() {
+    assertNoSeqScan("waiter_calls", () -> waiterCallRepo.findByStatusInAndCreatedAtAfter(
+      List.of("NEW", "ACKNOWLEDGED"), Instant.now().minus(1, ChronoUnit.DAYS)));
+  }
+
+  @Test
+  void sessionsByParty() {
+    assertNoSeqScan("guest_sessions", () -> guestSessionRepo.findByPartyId(firstPartyId + 3));
+    assertNoSeqScan("guest_sessions", () -> guestSessionRepo.findByPartyIdIn(List.of(firstPartyId, firstPartyId + 1)));
+  }
+
+  @Test
+  void sessionsByVerifiedPhone() {
+    assertNoSeqScan("guest_sessions", () -> guestSessionRepo.findTop200ByVerifiedPhoneOrderByIdDesc("+37360000123"));
+  }
+
+  @Test
+  void sessionsByTable() {
+    assertNoSeqScan("guest_sessions", () -> guestSessionRepo.findByTableIdOrderByIdDesc(firstTableId));
+  }
+
+  @Test
+  void staffChatInboxPage() {
+    assertNoSeqScan("chat_threads", () -> chatThreadService.inbox(1L, 1L, null, firstSessionId + SESSIONS / 2, 50));
+  }
+
+  private List<Long> tableIds(int count) {
+    List<Long> ids = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      ids.add(firstTableId + i * 7L);
+    }
+    return ids;
+  }
+
+  /** Runs the finder, then EXPLAINs every statement it sent with the exact SQL and bind values it used. */
+  private void assertNoSeqScan(String relation, Runnable finder) {
+    List<StatementCapture.Captured> statements = StatementCapture.during(finder);
+    assertThat(statements).as("statements sent by the finder").isNotEmpty();
+    for (StatementCapture.Captured st : statements) {
+      String json = explain(st);
+      JsonNode plan;
+      try {
+        plan = mapper.readTree(json).get(0).get("Plan");
+      } catch (Exception e) {
+        throw new IllegalStateException("Unreadable plan for: " + st.sql(), e);
+      }
+      List<String> seqScans = new ArrayList<>();
+      collectSeqScans(plan, seqScans);
+      assertThat(seqScans)
+        .as("Seq Scan on %s for: %s%nPlan: %s", relation, st.sql(), json)
+        .doesNotContain(relation);
+    }
+  }
+
+  private String explain(StatementCapture.Captured st) {
+    return jdbc.execute((ConnectionCallback<String>) con -> {
+      try (PreparedStatement ps = con.prepareStatement("explain (format json) " + st.sql())) {
+        st.bind(ps);
+        try (ResultSet rs = ps.executeQuery()) {
+          rs.next();
+          return rs.getString(1);
+        }
+      }
+    });
+  }
+
+  private static void collectSeqScans(JsonNode node, List<String> out) {
+    if (node == null) return;
+    if ("Seq Scan".equals(node.path("Node Type").asText())) {
+      out.add(node.path("Relation Name").asText());
+    }
+    for (JsonNode child : node.path("Plans")) {
+      collectSeqScans(child, out);
+    }
+  }
+
+  @TestConfiguration
+  static class CaptureConfig {
+    @Bean
+    static BeanPostProcessor capturingDataSource() {
+      return new BeanPostProcessor() {
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+          return bean instanceof DataSource ds ? StatementCapture.wrap(ds) : bean;
+        }
+      };
+    }
+  }
+
+  /**
+   * Records the SQL and the parameter setter calls of every prepared statement executed on the current
+   * thread inside {@link #during}, so the plan is taken for what Hibernate or JdbcTemplate actually sent.
+   */
+  static final class StatementCapture {
+
+    record Bind(Method setter, Object[] args) {}
+
+    record Captured(String sql, List<Bind> binds) {
+      void bind(PreparedStatement ps) throws SQLException {
+        for (Bind b : binds) {
+          try {
+            b.setter().invoke(ps, b.args());
+          } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof SQLException se ? se : new SQLException(e.getCause());
+          } catch (IllegalAccessException e) {
+            throw new SQLException(e);
+          }
+        }
+      }
+    }
+
+    private static final ThreadLocal<List<Captured>> CURRENT = new ThreadLocal<>();
+
+    private StatementCapture() {}
+
+    static List<Captured> during(Runnable action) {
+      List<Captured> out = new ArrayList<>();
+      CURRENT.set(out);
+      try {
+        action.run();
+      } finally {
+        CURRENT.remove();
+      }
+      return out;
+    }
+
+    static DataSource wrap(DataSource target) {
+      return new DelegatingDataSource(target) {
+        @Override
+        public Connection getConnection() throws SQLException {
+          return connection(super.getConnection());
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+          return connection(super.getConnection(username, password));
+        }
+      };
+    }
+
+    private static Connection connection(Connection target) {
+      InvocationHandler h = (p, m, args) -> {
+        if (m.getDeclaringClass() == Object.class && !m.getName().equals("toString")) {
+          return m.getName().equals("equals") ? (Object) (p == args[0]) : (Object) System.identityHashCode(p);
+        }
+        Object result = invoke(target, m, args);
+        if (result instanceof PreparedStatement ps && m.getName().equals("prepareStatement")) {
+          return statement(ps, (String) args[0]);
+        }
+        return result;
+      };
+      return (Connection) Proxy.newProxyInstance(
+        StatementCapture.class.getClassLoader(), new Class<?>[] {Connection.class}, h);
+    }
+
+    private static PreparedStatement statement(PreparedStatement target, String sql) {
+      List<Bind> binds = new ArrayList<>();
+      InvocationHandler h = (p, m, args) -> {
+        if (m.getDeclaringClass() == Object.class && !m.getName().equals("toString")) {
+          return m.getName().equals("equals") ? (Object) (p == args[0]) : (Object) System.identityHashCode(p);
+        }
+        if (m.getName().startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+          binds.add(new Bind(m, args.clone()));
+        } else if (m.getName().equals("clearParameters")) {
+          binds.clear();
+        } else if (m.getName().startsWith("execute")) {
+          List<Captured> out = CURRENT.get();
+          if (out != null) out.add(new Captured(sql, List.copyOf(binds)));
+        }
+        return invoke(target, m, args);
+      };
+      return (PreparedStatement) Proxy.newProxyInstance(
+        StatementCapture.class.getClassLoader(), new Class<?>[] {PreparedStatement.class}, h);
+    }
+
+    private static Object invoke(Object target, Method m, Object[] args) throws Throwable {
+      try {
+        return m.invoke(target, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package md.virtualwaiter.security;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.Test;
+
+public class HmacSignerTest {
+  @Test
+  void signsLikeThePlainJdkEncoding() throws Exception {
+    HmacSigner signer = new HmacSigner("secret-a", null);
+    for (String payload : new String[] {"", "TBL_1|1773500000", "Столик 5|42", "emoji 🍕|7", "bad \uD800 surrogate"}) {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec("secret-a".getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+      String expected = Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(mac.doFinal(payload.getBytes(StandardCharsets.UTF_8)));
+      assertEquals(expected, signer.sign(signer.payload().append(payload)));
+      assertTrue(signer.verify(signer.payload().append(payload), expected));
+    }
+  }
+
+  @Test
+  void rejectsTamperedOrMisSizedSignatures() {
+    HmacSigner signer = new HmacSigner("secret-a", null);
+    String sig = signer.sign(signer.payload().append("TBL_1").append('|').append(1773500000L));
+    char last = sig.charAt(sig.length() - 1);
+    String tampered = sig.substring(0, sig.length() - 1) + (last == 'A' ? 'B' : 'A');
+    assertFalse(signer.verify(signer.payload().append("TBL_1|1773500000"), tampered));
+    assertFalse(signer.verify(signer.payload().append("TBL_1|1773500000"), sig + "="));
+    assertFalse(signer.verify(signer.payload().append("TBL_1|1773500001"), sig));
+    assertFalse(signer.verify(signer.payload().append("TBL_1|1773500000"), null));
+  }
+
+  @Test
+  void acceptsThePreviousKeyOnlyForVerification() {
+    HmacSigner old = new HmacSigner("secret-a", null);
+    HmacSigner rotated = new HmacSigner("secret-b", "secret-a");
+    String oldSig = old.sign(old.payload().append("TBL_1|5"));
+    assertTrue(rotated.verify(rotated.payload().append("TBL_1|5"), oldSig));
+    String newSig = rotated.sign(rotated.payload().append("TBL_1|5"));
+    assertFalse(old.verify(old.payload().append("TBL_1|5"), newSig));
+    assertFalse(new HmacSigner("secret-b", null).verify(rotated.payload().append("TBL_1|5"), oldSig));
+  }
+
+  @Test
+  void authTokensSurviveRotationAndRejectGarbage() {
+    AuthTokenService old = new AuthTokenService("cookie-a", null);
+    AuthTokenService rotated = new AuthTokenService("cookie-b", "cookie-a");
+    String token = old.mint("waiter1", 60);
+    assertEquals("waiter1", old.verify(token));
+    assertEquals("waiter1", rotated.verify(token));
+    assertNull(new AuthTokenService("cookie-b", null).verify(token));
+    assertNull(old.verify("not-base64!." + token.substring(token.indexOf('.') + 1)));
+    assertNull(old.verify("no-dot"));
+  }
+}
@@ -0,0 +1,228 @@
+package md.virtualwaiter.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/**
+ * Drives the alert outbox through its states on a real database with a stubbed mail sender:
+ * coalescing of pending alerts, backoff into RETRY, giving up as FAILED, lease re-claim and SENT.
+ */
+@Testcontainers
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class AlertOutboxServiceTest {
+
+  private static final String BOT_TOKEN = "123456:TEST_bot_SECRET";
+  private static final int MAX_ATTEMPTS = 3;
+
+  @Container
+  static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16")
+    .withDatabaseName("vw")
+    .withUsername("vw")
+    .withPassword("vw");
+
+  @DynamicPropertySource
+  static void props(DynamicPropertyRegistry registry) {
+    if (!POSTGRES.isRunning()) {
+      POSTGRES.start();
+    }
+    registry.add("spring.datasource.url", POSTGRES::getJdbcUrl);
+    registry.add("spring.datasource.username", POSTGRES::getUsername);
+    registry.add("spring.datasource.password", POSTGRES::getPassword);
+    registry.add("app.qr.hmacSecret", () -> "test_qr_hmac_secret");
+    registry.add("app.auth.cookieSecret", () -> "test_auth_cookie_secret");
+    registry.add("app.alerts.email.enabled", () -> "true");
+    registry.add("app.alerts.email.to", () -> "ops@example.test");
+    // Telegram stays off; the token is only set so its redaction can be checked.
+    registry.add("app.alerts.telegram.botToken", () -> BOT_TOKEN);
+    registry.add("app.alerts.outbox.maxAttempts", () -> String.valueOf(MAX_ATTEMPTS));
+    registry.add("app.alerts.outbox.backoffBaseSeconds", () -> "60");
+    // The test dispatches by hand.
+    registry.add("app.alerts.outbox.pollMs", () -> "3600000");
+  }
+
+  /** Records sent mail; fails while {@code failure} is set and can hold the first send until released. */
+  static final class StubMailSender extends JavaMailSenderImpl {
+    final List<String> sent = new CopyOnWriteArrayList<>();
+    final AtomicInteger calls = new AtomicInteger();
+    volatile RuntimeException failure;
+    volatile CountDownLatch holdFirst;
+    volatile RuntimeException firstFailure;
+
+    @Override
+    public void send(SimpleMailMessage message) {
+      send(new SimpleMailMessage[] {message});
+    }
+
+    @Override
+    public void send(SimpleMailMessage... messages) {
+      CountDownLatch gate = holdFirst;
+      if (calls.incrementAndGet() == 1 && gate != null) {
+        try {
+          gate.await(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        throw firstFailure;
+      }
+      RuntimeException f = failure;
+      if (f != null) throw f;
+      for (SimpleMailMessage m : messages) sent.add(m.getSubject());
+    }
+  }
+
+  @TestConfiguration
+  static class StubMailConfig {
+    @Bean
+    @Primary
+    StubMailSender stubMailSender() {
+      return new StubMailSender();
+    }
+  }
+
+  @Autowired
+  AlertOutboxService outbox;
+
+  @Autowired
+  StubMailSender mail;
+
+  @Autowired
+  JdbcTemplate jdbc;
+
+  @BeforeEach
+  void reset() {
+    jdbc.update("delete from alert_outbox");
+    mail.sent.clear();
+    mail.calls.set(0);
+    mail.failure = null;
+    mail.holdFirst = null;
+    mail.firstFailure = null;
+  }
+
+  @Test
+  void pendingAlertWithTheSameKeyIsCoalesced() {
+    outbox.enqueue("order:1", "New order", "first");
+    outbox.enqueue("order:1", "New order", "second");
+
+    List<Map<String, Object>> rows = jdbc.queryForList("select message, coalesced from alert_outbox where dedupe_key = 'order:1'");
+    assertThat(rows).hasSize(1);
+    assertThat(rows.get(0).get("message")).isEqualTo("second");
+    assertThat(rows.get(0).get("coalesced")).isEqualTo(1);
+  }
+
+  @Test
+  void successfulSendMarksTheRowSent() throws Exception {
+    outbox.enqueue("order:2", "Table 5 is waiting", "Please check table 5");
+    outbox.dispatch();
+
+    long id = onlyRowId();
+    awaitStatus(id, "SENT");
+    assertThat(mail.sent).containsExactly("Table 5 is waiting");
+    assertThat(jdbc.queryForObject("select sent_at from alert_outbox where id = ?", Timestamp.class, id)).isNotNull();
+    assertThat(jdbc.queryForObject("select attempts from alert_outbox where id = ?", Integer.class, id)).isEqualTo(1);
+  }
+
+  @Test
+  void failedSendBacksOffAndRedactsTheBotToken() throws Exception {
+    mail.failure = new MailSendException("relay refused, see https://api.telegram.org/bot" + BOT_TOKEN + "/sendMessage");
+    outbox.enqueue("order:3", "Bill requested", "Table 7");
+    Instant before = Instant.now();
+    outbox.dispatch();
+
+    long id = onlyRowId();
+    awaitStatus(id, "RETRY");
+    Map<String, Object> row = jdbc.queryForMap("select attempts, next_attempt_at, last_error from alert_outbox where id = ?", id);
+    assertThat(row.get("attempts")).isEqualTo(1);
+    assertThat(((Timestamp) row.get("next_attempt_at")).toInstant()).isAfter(before.plus(Duration.ofSeconds(30)));
+    assertThat((String) row.get("last_error")).doesNotContain(BOT_TOKEN).doesNotContain("SECRET").contains("bot***");
+  }
+
+  @Test
+  void rowFailsAfterMaxAttempts() throws Exception {
+    mail.failure = new MailSendException("mailbox unavailable");
+    outbox.enqueue("order:4", "Kitchen delay", "Order 4");
+    long id = onlyRowId();
+
+    for (int attempt = 1; attempt < MAX_ATTEMPTS; attempt++) {
+      outbox.dispatch();
+      awaitStatus(id, "RETRY");
+      jdbc.update("update alert_outbox set next_attempt_at = now() where id = ?", id);
+    }
+    outbox.dispatch();
+    awaitStatus(id, "FAILED");
+    assertThat(jdbc.queryForObject("select attempts from alert_outbox where id = ?", Integer.class, id)).isEqualTo(MAX_ATTEMPTS);
+    assertThat(mail.sent).isEmpty();
+  }
+
+  @Test
+  void expiredLeaseIsClaimedAgainAndTheLateOutcomeIsIgnored() throws Exception {
+    // The first send hangs past its lease and then fails.
+    mail.holdFirst = new CountDownLatch(1);
+    mail.firstFailure = new MailSendException("late failure");
+    outbox.enqueue("order:5", "Call waiter", "Table 9");
+    long id = onlyRowId();
+    outbox.dispatch();
+    awaitCalls(1);
+    assertThat(jdbc.queryForObject("select status from alert_outbox where id = ?", String.class, id)).isEqualTo("SENDING");
+
+    jdbc.update("update alert_outbox set next_attempt_at = now() - interval '1 second' where id = ?", id);
+    outbox.dispatch();
+    awaitStatus(id, "SENT");
+    assertThat(jdbc.queryForObject("select attempts from alert_outbox where id = ?", Integer.class, id)).isEqualTo(2);
+
+    mail.holdFirst.countDown();
+    Thread.sleep(300);
+    Map<String, Object> row = jdbc.queryForMap("select status, attempts, last_error from alert_outbox where id = ?", id);
+    assertThat(row.get("status")).isEqualTo("SENT");
+    assertThat(row.get("attempts")).isEqualTo(2);
+    assertThat(row.get("last_error")).isNull();
+  }
+
+  private long onlyRowId() {
+    return jdbc.queryForObject("select id from alert_outbox", Long.class);
+  }
+
+  private void awaitStatus(long id, String status) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!status.equals(jdbc.queryForObject("select status from alert_outbox where id = ?", String.class, id))) {
+      assertThat(System.nanoTime()).as("alert %d reached %s in time", id, status).isLessThan(deadline);
+      Thread.sleep(20);
+    }
+  }
+
+  private void awaitCalls(int calls) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (mail.calls.get() < calls) {
+      assertThat(System.nanoTime()).as("mail sender called %d time(s) in time", calls).isLessThan(deadline);
+      Thread.sleep(20);
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package md.virtualwaiter.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class AuditServiceTest {
+  private static final int COLUMNS = 9;
+
+  /** One multi-row insert as seen by the database: how many rows, and which thread sent it. */
+  private record Insert(int rows, String thread) {}
+
+  /** Records inserts instead of running them; flusher inserts wait for {@code release} when one is set. */
+  private static final class RecordingJdbc extends JdbcTemplate {
+    final LinkedBlockingQueue<Insert> inserts = new LinkedBlockingQueue<>();
+    final CountDownLatch blocked = new CountDownLatch(1);
+    volatile CountDownLatch release;
+
+    @Override
+    public int update(String sql, Object... args) {
+      String thread = Thread.currentThread().getName();
+      CountDownLatch gate = release;
+      if (gate != null && thread.equals("audit-flusher")) {
+        blocked.countDown();
+        try {
+          gate.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      inserts.add(new Insert(args.length / COLUMNS, thread));
+      return args.length / COLUMNS;
+    }
+  }
+
+  private static AuditService audit(RecordingJdbc db, int queueCapacity, long flushMs, int batchSize, MeterRegistry meters) {
+    return new AuditService(
+      new NamedParameterJdbcTemplate(db), 4000, 2000, 4096, true, queueCapacity, flushMs, batchSize, 10, meters
+    );
+  }
+
+  private static void logOne(AuditService audit, int i) {
+    audit.log(null, "TEST", "Thing", (long) i, null);
+  }
+
+  @Test
+  void fullBatchIsWrittenWithoutWaitingForTheFlushInterval() throws Exception {
+    RecordingJdbc db = new RecordingJdbc();
+    AuditService audit = audit(db, 100, 30_000, 3, null);
+    try {
+      for (int i = 0; i < 3; i++) logOne(audit, i);
+      Insert insert = db.inserts.poll(5, TimeUnit.SECONDS);
+      assertNotNull(insert);
+      assertEquals(3, insert.rows());
+      assertEquals("audit-flusher", insert.thread());
+      assertNull(db.inserts.poll(100, TimeUnit.MILLISECONDS));
+    } finally {
+      audit.shutdown();
+    }
+  }
+
+  @Test
+  void partialBatchIsWrittenAfterTheFlushInterval() throws Exception {
+    RecordingJdbc db = new RecordingJdbc();
+    AuditService audit = audit(db, 100, 100, 200, null);
+    try {
+      logOne(audit, 1);
+      logOne(audit, 2);
+      Insert insert = db.inserts.poll(5, TimeUnit.SECONDS);
+      assertNotNull(insert);
+      assertEquals(2, insert.rows());
+      assertEquals("audit-flusher", insert.thread());
+    } finally {
+      audit.shutdown();
+    }
+  }
+
+  @Test
+  void recordsLoggedInATransactionAreQueuedOnlyAfterCommit() throws Exception {
+    RecordingJdbc db = new RecordingJdbc();
+    AuditService audit = audit(db, 100, 20, 200, null);
+    try {
+      TransactionSynchronizationManager.initSynchronization();
+      try {
+        logOne(audit, 1);
+        assertNull(db.inserts.poll(200, TimeUnit.MILLISECONDS));
+        for (TransactionSynchronization s : TransactionSynchronizationManager.getSynchronizations()) {
+          s.afterCommit();
+        }
+      } finally {
+        TransactionSynchronizationManager.clearSynchronization();
+      }
+      Insert insert = db.inserts.poll(5, TimeUnit.SECONDS);
+      assertNotNull(insert);
+      assertEquals(1, insert.rows());
+
+      TransactionSynchronizationManager.initSynchronization();
+      try {
+        logOne(audit, 2);
+        for (TransactionSynchronization s : TransactionSynchronizationManager.getSynchronizations()) {
+          s.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+      } finally {
+        TransactionSynchronizationManager.clearSynchronization();
+      }
+      assertNull(db.inserts.poll(200, TimeUnit.MILLISECONDS));
+    } finally {
+      audit.shutdown();
+    }
+  }
+
+  @Test
+  void callerWritesItsOwnRecordWhenTheQueueStaysFull() throws Exception {
+    RecordingJdbc db = new RecordingJdbc();
+    db.release = new CountDownLatch(1);
+    SimpleMeterRegistry meters = new SimpleMeterRegistry();
+    AuditService audit = audit(db, 1, 20, 1, meters);
+    try {
+      // The flusher takes the first record and blocks in its insert; the second fills the queue.
+      logOne(audit, 1);
+      assertTrue(db.blocked.await(5, TimeUnit.SECONDS));
+      logOne(audit, 2);
+      logOne(audit, 3);
+
+      Insert insert = db.inserts.poll(5, TimeUnit.SECONDS);
+      assertNotNull(insert);
+      assertEquals(1, insert.rows());
+      assertEquals(Thread.currentThread().getName(), insert.thread());
+      assertEquals(1.0, meters.get("vw.audit.sync_fallback").counter().count());
+    } finally {
+      db.release.countDown();
+      audit.shutdown();
+    }
+    assertEquals(2, db.inserts.size());
+  }
+
+  @Test
+  void shutdownWritesWhatIsStillQueued() throws Exception {
+    RecordingJdbc db = new RecordingJdbc();
+    db.release = new CountDownLatch(1);
+    AuditService audit = audit(db, 100, 20, 200, null);
+
+    logOne(audit, 0);
+    assertTrue(db.blocked.await(5, TimeUnit.SECONDS));
+    for (int i = 1; i <= 5; i++) logOne(audit, i);
+
+    Thread stopper = new Thread(audit::shutdown, "audit-stopper");
+    stopper.start();
+    // Once the stopper waits for the flusher, the running flag is already down.
+    waitUntil(() -> stopper.getState() == Thread.State.TIMED_WAITING);
+    db.release.countDown();
+    stopper.join(10_000);
+    assertFalse(stopper.isAlive());
+
+    Insert first = db.inserts.poll();
+    Insert rest = db.inserts.poll();
+    assertNotNull(first);
+    assertNotNull(rest);
+    assertEquals(1, first.rows());
+    assertEquals("audit-flusher", first.thread());
+    assertEquals(5, rest.rows());
+    assertEquals("audit-stopper", rest.thread());
+    assertNull(db.inserts.poll());
+  }
+
+  private static void waitUntil(java.util.function.BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() < deadline, "condition not reached in time");
+      Thread.sleep(5);
+    }
+  }
+}
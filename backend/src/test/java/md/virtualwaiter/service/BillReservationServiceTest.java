@@ -0,0 +1,191 @@
+package md.virtualwaiter.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import md.virtualwaiter.domain.BillRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.server.ResponseStatusException;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/**
+ * Races bill reservations against each other on a real database: every order line must end up on
+ * exactly one bill and a limited coupon must never be used more often than allowed.
+ */
+@Testcontainers
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class BillReservationServiceTest {
+
+  private static final int THREADS = 8;
+
+  @Container
+  static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16")
+    .withDatabaseName("vw")
+    .withUsername("vw")
+    .withPassword("vw");
+
+  @DynamicPropertySource
+  static void props(DynamicPropertyRegistry registry) {
+    if (!POSTGRES.isRunning()) {
+      POSTGRES.start();
+    }
+    registry.add("spring.datasource.url", POSTGRES::getJdbcUrl);
+    registry.add("spring.datasource.username", POSTGRES::getUsername);
+    registry.add("spring.datasource.password", POSTGRES::getPassword);
+    registry.add("app.qr.hmacSecret", () -> "test_qr_hmac_secret");
+    registry.add("app.auth.cookieSecret", () -> "test_auth_cookie_secret");
+  }
+
+  @Autowired
+  BillReservationService service;
+
+  @Autowired
+  JdbcTemplate jdbc;
+
+  @Test
+  void wholeTablePressedByEveryoneAtOnceBillsEachLineOnce() throws Exception {
+    long tableId = newTable(901, "TBL_RACE_WHOLE");
+    long sessionId = newSession(tableId);
+    List<Long> itemIds = newOrderItems(tableId, sessionId, 12);
+
+    List<Future<Long>> results = race(THREADS, i -> service.reserve(newBill(tableId, sessionId), itemIds, null).id);
+
+    List<Long> won = new ArrayList<>();
+    int conflicts = 0;
+    for (Future<Long> f : results) {
+      try {
+        won.add(f.get(30, TimeUnit.SECONDS));
+      } catch (ExecutionException e) {
+        assertThat(e.getCause()).isInstanceOf(ResponseStatusException.class);
+        assertThat(((ResponseStatusException) e.getCause()).getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+        conflicts++;
+      }
+    }
+    assertThat(won).hasSize(1);
+    assertThat(conflicts).isEqualTo(THREADS - 1);
+
+    Long winner = won.get(0);
+    assertThat(jdbc.queryForObject(
+      "select count(*) from bill_requests where table_id = ?", Long.class, tableId)).isEqualTo(1L);
+    assertThat(jdbc.queryForObject(
+      "select count(*) from bill_request_items where bill_request_id = ?", Long.class, winner)).isEqualTo(12L);
+    assertThat(jdbc.queryForObject(
+      "select count(*) from order_items oi join orders o on o.id = oi.order_id " +
+        "where o.table_id = ? and oi.bill_request_id is distinct from ?", Long.class, tableId, winner)).isZero();
+  }
+
+  @Test
+  void limitedCouponIsNotOverused() throws Exception {
+    long tableId = newTable(902, "TBL_RACE_COUPON");
+    long sessionId = newSession(tableId);
+    List<Long> itemIds = newOrderItems(tableId, sessionId, THREADS);
+    jdbc.update(
+      "insert into branch_discounts(branch_id, scope, code, type, value, max_uses) values (1, 'COUPON', 'RACE3', 'PERCENT', 10, 3)"
+    );
+    long couponId = jdbc.queryForObject("select id from branch_discounts where code = 'RACE3'", Long.class);
+
+    // Each guest pays a different line, so only the coupon is contended.
+    List<Future<Long>> results = race(THREADS, i -> service.reserve(
+      newBill(tableId, sessionId),
+      List.of(itemIds.get(i)),
+      new BillReservationService.DiscountUse(couponId, true)
+    ).id);
+
+    int won = 0;
+    for (Future<Long> f : results) {
+      try {
+        f.get(30, TimeUnit.SECONDS);
+        won++;
+      } catch (ExecutionException e) {
+        assertThat(((ResponseStatusException) e.getCause()).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+      }
+    }
+    assertThat(won).isEqualTo(3);
+    assertThat(jdbc.queryForObject("select used_count from branch_discounts where id = ?", Integer.class, couponId))
+      .isEqualTo(3);
+    // Refused bills are rolled back together with their line claims.
+    assertThat(jdbc.queryForObject(
+      "select count(*) from order_items oi join orders o on o.id = oi.order_id " +
+        "where o.table_id = ? and oi.bill_request_id is not null", Long.class, tableId)).isEqualTo(3L);
+  }
+
+  private interface Attempt {
+    Long run(int index) throws Exception;
+  }
+
+  private List<Future<Long>> race(int threads, Attempt attempt) throws InterruptedException {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    CountDownLatch ready = new CountDownLatch(threads);
+    CountDownLatch go = new CountDownLatch(1);
+    List<Future<Long>> out = new ArrayList<>();
+    try {
+      for (int i = 0; i < threads; i++) {
+        int index = i;
+        Callable<Long> task = () -> {
+          ready.countDown();
+          go.await();
+          return attempt.run(index);
+        };
+        out.add(pool.submit(task));
+      }
+      ready.await(10, TimeUnit.SECONDS);
+      go.countDown();
+    } finally {
+      pool.shutdown();
+    }
+    pool.awaitTermination(60, TimeUnit.SECONDS);
+    return out;
+  }
+
+  private long newTable(int number, String publicId) {
+    jdbc.update("insert into tables(branch_id, number, public_id) values (1, ?, ?)", number, publicId);
+    return jdbc.queryForObject("select id from tables where public_id = ?", Long.class, publicId);
+  }
+
+  private long newSession(long tableId) {
+    jdbc.update(
+      "insert into guest_sessions(table_id, locale, expires_at) values (?, 'ru', now() + interval '1 hour')",
+      tableId
+    );
+    return jdbc.queryForObject("select max(id) from guest_sessions where table_id = ?", Long.class, tableId);
+  }
+
+  private List<Long> newOrderItems(long tableId, long sessionId, int count) {
+    jdbc.update("insert into orders(table_id, guest_session_id, status) values (?, ?, 'NEW')", tableId, sessionId);
+    long orderId = jdbc.queryForObject("select max(id) from orders where table_id = ?", Long.class, tableId);
+    jdbc.update(
+      "insert into order_items(order_id, menu_item_id, name_snapshot, unit_price_cents, qty) " +
+        "select ?, 1, 'Americano', 3500, 1 from generate_series(1, ?)",
+      orderId, count
+    );
+    return jdbc.queryForList("select id from order_items where order_id = ? order by id", Long.class, orderId);
+  }
+
+  private static BillRequest newBill(long tableId, long sessionId) {
+    BillRequest br = new BillRequest();
+    br.tableId = tableId;
+    br.guestSessionId = sessionId;
+    br.mode = "WHOLE_TABLE";
+    br.paymentMethod = "CASH";
+    return br;
+  }
+}
@@ -0,0 +1,94 @@
+package md.virtualwaiter.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.context.request.async.DeferredResult;
+
+public class GuestEventHubTest {
+  private static final long SESSION = 42L;
+
+  private static GuestEventHub hub(int maxEvents) {
+    CacheInvalidationBus bus = new CacheInvalidationBus(false, false, "", 6379, "", 2000, null);
+    return new GuestEventHub(bus, 25_000, maxEvents, 4, 1800);
+  }
+
+  private static GuestEventHub.Updates answered(DeferredResult<GuestEventHub.Updates> result) {
+    assertTrue(result.hasResult(), "poll should have been answered");
+    return (GuestEventHub.Updates) result.getResult();
+  }
+
+  @Test
+  void firstPollWithoutCursorAlwaysResyncs() {
+    GuestEventHub hub = hub(50);
+    GuestEventHub.Updates first = answered(hub.poll(SESSION, null));
+    assertTrue(first.resync());
+    assertTrue(first.events().isEmpty());
+
+    // A later first poll (reloaded tab) resyncs too, even though the session is known by now.
+    assertTrue(answered(hub.poll(SESSION, null)).resync());
+  }
+
+  @Test
+  void replyBetweenInitialLoadAndFirstPollIsNotLost() {
+    GuestEventHub hub = hub(50);
+    // The guest loaded the chat, then the staff reply lands before the first poll reaches the hub.
+    hub.publish(SESSION, GuestEventHub.CHAT, 10L, null);
+
+    GuestEventHub.Updates first = answered(hub.poll(SESSION, null));
+    assertTrue(first.resync(), "the client must catch up with afterId fetches");
+
+    DeferredResult<GuestEventHub.Updates> parked = hub.poll(SESSION, first.cursor());
+    assertFalse(parked.hasResult());
+    hub.publish(SESSION, GuestEventHub.CHAT, 11L, null);
+    GuestEventHub.Updates next = answered(parked);
+    assertFalse(next.resync());
+    assertEquals(List.of(11L), next.events().stream().map(GuestEventHub.GuestEvent::refId).toList());
+  }
+
+  @Test
+  void eventsPublishedBetweenPollsAreReturnedInOrder() {
+    GuestEventHub hub = hub(50);
+    long cursor = answered(hub.poll(SESSION, null)).cursor();
+
+    DeferredResult<GuestEventHub.Updates> parked = hub.poll(SESSION, cursor);
+    hub.publish(SESSION, GuestEventHub.ORDER, 7L, "ACCEPTED");
+    GuestEventHub.Updates woken = answered(parked);
+    assertEquals(1, woken.events().size());
+
+    // Published while the client was between requests.
+    hub.publish(SESSION, GuestEventHub.ORDER, 7L, "READY");
+    hub.publish(SESSION, GuestEventHub.CHAT, 12L, null);
+    GuestEventHub.Updates missed = answered(hub.poll(SESSION, woken.cursor()));
+    assertFalse(missed.resync());
+    assertEquals(List.of("ORDER", "CHAT"), missed.events().stream().map(GuestEventHub.GuestEvent::type).toList());
+    assertEquals("READY", missed.events().get(0).status());
+    assertTrue(missed.events().get(0).seq() < missed.events().get(1).seq());
+    assertEquals(missed.events().get(1).seq(), missed.cursor());
+  }
+
+  @Test
+  void eventForUnknownSessionForcesResyncOnNextPoll() {
+    GuestEventHub hub = hub(50);
+    long cursor = answered(hub.poll(SESSION, null)).cursor();
+    hub.evictIdleBefore(Long.MAX_VALUE);
+
+    // No state on this instance any more: the event is not kept, but the old cursor must not look current.
+    hub.publish(SESSION, GuestEventHub.CHAT, 13L, null);
+    assertTrue(answered(hub.poll(SESSION, cursor)).resync());
+  }
+
+  @Test
+  void cursorOlderThanTheRingResyncs() {
+    GuestEventHub hub = hub(2);
+    long cursor = answered(hub.poll(SESSION, null)).cursor();
+    hub.publish(SESSION, GuestEventHub.CHAT, 1L, null);
+    hub.publish(SESSION, GuestEventHub.CHAT, 2L, null);
+    hub.publish(SESSION, GuestEventHub.CHAT, 3L, null);
+    assertTrue(answered(hub.poll(SESSION, cursor)).resync());
+  }
+}
@@ -0,0 +1,153 @@
+package md.virtualwaiter.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import md.virtualwaiter.domain.BillRequest;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/**
+ * Races loyalty accrual on a real database: concurrent first bills of one phone must share a single
+ * account, and a bill applied twice at once (confirm and webhook) must be credited once.
+ */
+@Testcontainers
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class LoyaltyServiceTest {
+
+  private static final int THREADS = 8;
+
+  @Container
+  static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16")
+    .withDatabaseName("vw")
+    .withUsername("vw")
+    .withPassword("vw");
+
+  @DynamicPropertySource
+  static void props(DynamicPropertyRegistry registry) {
+    if (!POSTGRES.isRunning()) {
+      POSTGRES.start();
+    }
+    registry.add("spring.datasource.url", POSTGRES::getJdbcUrl);
+    registry.add("spring.datasource.username", POSTGRES::getUsername);
+    registry.add("spring.datasource.password", POSTGRES::getPassword);
+    registry.add("app.qr.hmacSecret", () -> "test_qr_hmac_secret");
+    registry.add("app.auth.cookieSecret", () -> "test_auth_cookie_secret");
+  }
+
+  @Autowired
+  LoyaltyService service;
+
+  @Autowired
+  JdbcTemplate jdbc;
+
+  private long tableId;
+
+  @BeforeAll
+  void enableLoyalty() {
+    jdbc.update(
+      "insert into branch_settings(branch_id, loyalty_enabled, loyalty_points_per_100cents) values (1, true, 1) " +
+        "on conflict (branch_id) do update set loyalty_enabled = true, loyalty_points_per_100cents = 1"
+    );
+    jdbc.update("insert into tables(branch_id, number, public_id) values (1, 951, 'TBL_LOYALTY_RACE')");
+    tableId = jdbc.queryForObject("select id from tables where public_id = 'TBL_LOYALTY_RACE'", Long.class);
+  }
+
+  @Test
+  void concurrentFirstBillsOfOnePhoneOpenOneAccount() throws Exception {
+    String phone = "+37369000001";
+    List<BillRequest> bills = new ArrayList<>();
+    for (int i = 0; i < THREADS; i++) {
+      bills.add(newBill(70_000L + i, newSession(phone), 10_000));
+    }
+
+    race(THREADS, i -> service.applyBillPaid(bills.get(i)));
+
+    assertThat(jdbc.queryForObject(
+      "select count(*) from loyalty_accounts where branch_id = 1 and phone = ?", Long.class, phone)).isEqualTo(1L);
+    assertThat(jdbc.queryForObject(
+      "select points_balance from loyalty_accounts where branch_id = 1 and phone = ?", Integer.class, phone))
+      .isEqualTo(THREADS * 100);
+    assertThat(service.getProfile(1L, phone).pointsBalance()).isEqualTo(THREADS * 100);
+  }
+
+  @Test
+  void sameBillAppliedConcurrentlyIsCreditedOnce() throws Exception {
+    String phone = "+37369000002";
+    BillRequest bill = newBill(71_000L, newSession(phone), 25_000);
+
+    race(THREADS, i -> service.applyBillPaid(bill));
+
+    assertThat(jdbc.queryForObject(
+      "select points_balance from loyalty_accounts where branch_id = 1 and phone = ?", Integer.class, phone))
+      .isEqualTo(250);
+    assertThat(jdbc.queryForObject(
+      "select count(*) from loyalty_points_log where bill_request_id = ?", Long.class, bill.id)).isEqualTo(1L);
+  }
+
+  private interface Attempt {
+    void run(int index) throws Exception;
+  }
+
+  private void race(int threads, Attempt attempt) throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    CountDownLatch ready = new CountDownLatch(threads);
+    CountDownLatch go = new CountDownLatch(1);
+    List<Future<Void>> out = new ArrayList<>();
+    try {
+      for (int i = 0; i < threads; i++) {
+        int index = i;
+        Callable<Void> task = () -> {
+          ready.countDown();
+          go.await();
+          attempt.run(index);
+          return null;
+        };
+        out.add(pool.submit(task));
+      }
+      ready.await(10, TimeUnit.SECONDS);
+      go.countDown();
+    } finally {
+      pool.shutdown();
+    }
+    // Rethrows the first failure, such as a duplicate key from an account insert.
+    for (Future<Void> f : out) {
+      f.get(30, TimeUnit.SECONDS);
+    }
+  }
+
+  private long newSession(String phone) {
+    jdbc.update(
+      "insert into guest_sessions(table_id, locale, expires_at, verified_phone) values (?, 'ru', now() + interval '1 hour', ?)",
+      tableId, phone
+    );
+    return jdbc.queryForObject("select max(id) from guest_sessions where table_id = ?", Long.class, tableId);
+  }
+
+  // Accrual keys on the bill id only, so the bill rows themselves are not needed.
+  private static BillRequest newBill(long id, long sessionId, int totalCents) {
+    BillRequest br = new BillRequest();
+    br.id = id;
+    br.guestSessionId = sessionId;
+    br.totalCents = totalCents;
+    return br;
+  }
+}
@@ -0,0 +1,182 @@
+package md.virtualwaiter.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/**
+ * Runs verified webhooks through the durable inbox on a real database: each event is stored once,
+ * applied by its intent's worker in arrival order, and skipped while another transaction holds the intent.
+ */
+@Testcontainers
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class PaymentWebhookInboxServiceTest {
+
+  @Container
+  static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16")
+    .withDatabaseName("vw")
+    .withUsername("vw")
+    .withPassword("vw");
+
+  @DynamicPropertySource
+  static void props(DynamicPropertyRegistry registry) {
+    if (!POSTGRES.isRunning()) {
+      POSTGRES.start();
+    }
+    registry.add("spring.datasource.url", POSTGRES::getJdbcUrl);
+    registry.add("spring.datasource.username", POSTGRES::getUsername);
+    registry.add("spring.datasource.password", POSTGRES::getPassword);
+    registry.add("app.qr.hmacSecret", () -> "test_qr_hmac_secret");
+    registry.add("app.auth.cookieSecret", () -> "test_auth_cookie_secret");
+    // The test polls by hand, so leftovers are picked up only when it says so.
+    registry.add("app.payments.webhook.pollMs", () -> "0");
+  }
+
+  @Autowired
+  PaymentWebhookInboxService inbox;
+
+  @Autowired
+  JdbcTemplate jdbc;
+
+  @Autowired
+  PlatformTransactionManager txManager;
+
+  @Test
+  void acceptedEventIsStoredOnceAndConfirmsTheBill() throws Exception {
+    long tableId = newTable(951, "TBL_WEBHOOK_PAID");
+    long sessionId = newSession(tableId);
+    long billId = newBill(tableId, sessionId);
+    long intentId = newIntent(tableId, sessionId, billId);
+
+    assertThat(inbox.accept("MAIB", "evt-paid-1", intentId, "PAID", "{}")).isTrue();
+    assertThat(inbox.accept("MAIB", "evt-paid-1", intentId, "PAID", "{}")).isFalse();
+    awaitDone(intentId, 1);
+
+    assertThat(jdbc.queryForObject(
+      "select count(*) from payment_webhook_inbox where intent_id = ?", Long.class, intentId)).isEqualTo(1L);
+    assertThat(jdbc.queryForObject(
+      "select result from payment_webhook_inbox where intent_id = ?", String.class, intentId)).isEqualTo("applied");
+    assertThat(jdbc.queryForObject(
+      "select status from payment_intents where id = ?", String.class, intentId)).isEqualTo("PAID");
+    assertThat(jdbc.queryForObject(
+      "select count(*) from payment_transactions where intent_id = ?", Long.class, intentId)).isEqualTo(1L);
+    assertThat(jdbc.queryForObject(
+      "select status from bill_requests where id = ?", String.class, billId)).isEqualTo("PAID_CONFIRMED");
+  }
+
+  @Test
+  void eventsOfOneIntentApplyInArrivalOrder() throws Exception {
+    long tableId = newTable(952, "TBL_WEBHOOK_ORDER");
+    long sessionId = newSession(tableId);
+    long intentId = newIntent(tableId, sessionId, null);
+
+    String[] statuses = {"PENDING", "FAILED", "PENDING", "PAID"};
+    for (int i = 0; i < statuses.length; i++) {
+      assertThat(inbox.accept("PAYNET", "evt-order-" + i, intentId, statuses[i], null)).isTrue();
+    }
+    awaitDone(intentId, statuses.length);
+
+    assertThat(jdbc.queryForList(
+      "select status from payment_transactions where intent_id = ? order by id", String.class, intentId
+    )).containsExactly(statuses);
+    assertThat(jdbc.queryForObject(
+      "select status from payment_intents where id = ?", String.class, intentId)).isEqualTo("PAID");
+  }
+
+  @Test
+  void lockedIntentIsSkippedUntilTheNextPoll() throws Exception {
+    long tableId = newTable(953, "TBL_WEBHOOK_LOCK");
+    long sessionId = newSession(tableId);
+    long lockedIntent = newIntent(tableId, sessionId, null);
+    long freeIntent = newIntent(tableId, sessionId, null);
+
+    // Another instance is applying this intent: it holds the row lock until released.
+    CountDownLatch locked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Thread holder = new Thread(() -> new TransactionTemplate(txManager).executeWithoutResult(status -> {
+      jdbc.queryForList("select id from payment_intents where id = ? for update", Long.class, lockedIntent);
+      locked.countDown();
+      try {
+        release.await(30, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }), "intent-lock-holder");
+    holder.start();
+    assertThat(locked.await(10, TimeUnit.SECONDS)).isTrue();
+
+    try {
+      assertThat(inbox.accept("MAIB", "evt-lock-1", lockedIntent, "PAID", null)).isTrue();
+      assertThat(inbox.accept("MAIB", "evt-lock-2", freeIntent, "PAID", null)).isTrue();
+      // The worker for the other intent is not held up by the locked one.
+      awaitDone(freeIntent, 1);
+      Thread.sleep(300);
+      assertThat(jdbc.queryForObject(
+        "select state from payment_webhook_inbox where intent_id = ?", String.class, lockedIntent)).isEqualTo("PENDING");
+    } finally {
+      release.countDown();
+      holder.join(10_000);
+    }
+
+    inbox.poll();
+    awaitDone(lockedIntent, 1);
+    assertThat(jdbc.queryForObject(
+      "select count(*) from payment_transactions where intent_id = ?", Long.class, lockedIntent)).isEqualTo(1L);
+  }
+
+  private void awaitDone(long intentId, int events) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (true) {
+      Long done = jdbc.queryForObject(
+        "select count(*) from payment_webhook_inbox where intent_id = ? and state = 'DONE'", Long.class, intentId
+      );
+      if (done != null && done == events) return;
+      assertThat(System.nanoTime()).as("inbox events of intent %d applied in time", intentId).isLessThan(deadline);
+      Thread.sleep(20);
+    }
+  }
+
+  private long newTable(int number, String publicId) {
+    jdbc.update("insert into tables(branch_id, number, public_id) values (1, ?, ?)", number, publicId);
+    return jdbc.queryForObject("select id from tables where public_id = ?", Long.class, publicId);
+  }
+
+  private long newSession(long tableId) {
+    jdbc.update(
+      "insert into guest_sessions(table_id, locale, expires_at) values (?, 'ru', now() + interval '1 hour')",
+      tableId
+    );
+    return jdbc.queryForObject("select max(id) from guest_sessions where table_id = ?", Long.class, tableId);
+  }
+
+  private long newBill(long tableId, long sessionId) {
+    return jdbc.queryForObject(
+      "insert into bill_requests(table_id, guest_session_id, mode, payment_method, subtotal_cents, total_cents) " +
+        "values (?, ?, 'WHOLE_TABLE', 'ONLINE', 3500, 3500) returning id",
+      Long.class, tableId, sessionId
+    );
+  }
+
+  private long newIntent(long tableId, long sessionId, Long billId) {
+    return jdbc.queryForObject(
+      "insert into payment_intents(branch_id, table_id, guest_session_id, bill_request_id, provider, status, " +
+        "amount_cents, currency_code) values (1, ?, ?, ?, 'MAIB', 'CREATED', 3500, 'MDL') returning id",
+      Long.class, tableId, sessionId, billId
+    );
+  }
+}
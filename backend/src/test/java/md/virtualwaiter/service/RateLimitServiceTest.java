@@ -0,0 +1,65 @@
+package md.virtualwaiter.service;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class RateLimitServiceTest {
+  private static final long T0 = 1_700_000_000_000L;
+
+  private static RateLimitService limiter(int maxKeys) {
+    return new RateLimitService("", 6379, "", false, 2000, maxKeys, null);
+  }
+
+  @Test
+  void deniesOnceTheLimitIsReachedWithinTheWindow() {
+    RateLimitService rl = limiter(100);
+    for (int i = 0; i < 3; i++) {
+      assertTrue(rl.allow("otp:1.2.3.4", 3, 60, T0 + i));
+    }
+    assertFalse(rl.allow("otp:1.2.3.4", 3, 60, T0 + 10));
+    assertTrue(rl.allow("otp:5.6.7.8", 3, 60, T0 + 10));
+  }
+
+  @Test
+  void previousWindowIsWeightedByItsOverlap() {
+    RateLimitService rl = limiter(100);
+    long windowStart = (T0 / 60_000L + 1) * 60_000L;
+    for (int i = 0; i < 10; i++) {
+      assertTrue(rl.allow("menu:ip", 10, 60, windowStart - 1_000 + i));
+    }
+    // A quarter into the next window 75% of the previous ten still count, so only three more fit.
+    long quarter = windowStart + 15_000;
+    for (int i = 0; i < 3; i++) {
+      assertTrue(rl.allow("menu:ip", 10, 60, quarter));
+    }
+    assertFalse(rl.allow("menu:ip", 10, 60, quarter));
+    // Two windows later nothing overlaps any more.
+    assertTrue(rl.allow("menu:ip", 10, 60, windowStart + 120_000));
+  }
+
+  @Test
+  void keyFloodDoesNotThrottleNewClients() {
+    RateLimitService rl = limiter(8);
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(rl.allow("order:10.0." + (i / 256) + "." + (i % 256), 1, 60, T0));
+    }
+    assertTrue(rl.trackedKeys() <= 8, "map must stay at its cap, was " + rl.trackedKeys());
+
+    // An honest client arriving during the flood gets its own window, not a shared exhausted one.
+    assertTrue(rl.allow("order:192.168.1.10", 1, 60, T0 + 1));
+    assertFalse(rl.allow("order:192.168.1.10", 1, 60, T0 + 2));
+  }
+
+  @Test
+  void idleKeysAreEvictedBeforeActiveOnes() {
+    RateLimitService rl = limiter(2);
+    assertTrue(rl.allow("call:idle", 1, 1, T0));
+    assertTrue(rl.allow("call:active", 1, 60, T0 + 5_000));
+    // The 1s key is idle five seconds later; the 60s key is mid-window and must keep its count.
+    assertTrue(rl.allow("call:new", 1, 60, T0 + 5_000));
+    assertTrue(rl.trackedKeys() <= 2);
+    assertFalse(rl.allow("call:active", 1, 60, T0 + 5_001));
+  }
+}
@@ -0,0 +1,241 @@
+package md.virtualwaiter.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/**
+ * Seeds several days of orders, calls and paid bills, rolls the closed days up and checks that every
+ * report served from the rollups matches the same report computed from the raw tables only.
+ */
+@Testcontainers
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class StatsRollupServiceTest {
+
+  private static final int DAYS = 4;
+
+  @Container
+  static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16")
+    .withDatabaseName("vw")
+    .withUsername("vw")
+    .withPassword("vw");
+
+  @DynamicPropertySource
+  static void props(DynamicPropertyRegistry registry) {
+    if (!POSTGRES.isRunning()) {
+      POSTGRES.start();
+    }
+    registry.add("spring.datasource.url", POSTGRES::getJdbcUrl);
+    registry.add("spring.datasource.username", POSTGRES::getUsername);
+    registry.add("spring.datasource.password", POSTGRES::getPassword);
+    registry.add("app.qr.hmacSecret", () -> "test_qr_hmac_secret");
+    registry.add("app.auth.cookieSecret", () -> "test_auth_cookie_secret");
+    // The test rolls up explicitly; keep the scheduled run out of the way.
+    registry.add("app.stats.rollup.initialDelayMs", () -> "86400000");
+  }
+
+  @Autowired
+  StatsService stats;
+
+  @Autowired
+  StatsRollupService rollupService;
+
+  @Autowired
+  JdbcTemplate jdbc;
+
+  @Autowired
+  NamedParameterJdbcTemplate namedJdbc;
+
+  @Autowired
+  PlatformTransactionManager txManager;
+
+  private StatsService raw;
+  private LocalDate today;
+  private long tenantId;
+  private long alphaId;
+  private long betaId;
+  private long waiterId;
+  private long tableA1;
+  private Instant from;
+  private Instant to;
+
+  @BeforeAll
+  void seedAndRollUp() {
+    raw = new StatsService(namedJdbc, new StatsRollupService(namedJdbc, txManager, false, 2, 31));
+    today = LocalDate.now(ZoneOffset.UTC);
+
+    tenantId = insertId("insert into tenants(name) values ('Rollup Tenant') returning id");
+    alphaId = insertId("insert into branches(tenant_id, name) values (?, 'Alpha') returning id", tenantId);
+    betaId = insertId("insert into branches(tenant_id, name) values (?, 'Beta') returning id", tenantId);
+    waiterId = insertId(
+      "insert into staff_users(branch_id, username, password_hash, role) values (?, 'rollup_waiter', 'x', 'WAITER') returning id",
+      alphaId
+    );
+    long categoryId = insertId(
+      "insert into menu_categories(branch_id, name_ru) values (?, 'Rollup') returning id", alphaId
+    );
+    long tea = insertId(
+      "insert into menu_items(category_id, name_ru, price_cents) values (?, 'Tea', 2500) returning id", categoryId
+    );
+    long cake = insertId(
+      "insert into menu_items(category_id, name_ru, price_cents) values (?, 'Cake', 4200) returning id", categoryId
+    );
+
+    tableA1 = insertId("insert into tables(branch_id, number, public_id) values (?, 1, 'TBL_ROLLUP_A1') returning id", alphaId);
+    long tableA2 = insertId("insert into tables(branch_id, number, public_id) values (?, 2, 'TBL_ROLLUP_A2') returning id", alphaId);
+    long tableB1 = insertId("insert into tables(branch_id, number, public_id) values (?, 1, 'TBL_ROLLUP_B1') returning id", betaId);
+    jdbc.update("update tables set assigned_waiter_id = ? where id = ?", waiterId, tableA1);
+
+    for (int d = DAYS; d >= 0; d--) {
+      Instant dayStart = today.minusDays(d).atStartOfDay(ZoneOffset.UTC).toInstant();
+      // Early, late and right-before-midnight activity, so the head and tail cuts fall between events.
+      for (Duration at : List.of(Duration.ofHours(8), Duration.ofHours(19), Duration.ofHours(24).minusMillis(1))) {
+        Instant ts = dayStart.plus(at);
+        seedOrder(tableA1, waiterId, ts, tea, 1 + d, cake, 1, 10 * (d + 1));
+        seedOrder(tableA2, null, ts.plusSeconds(60), cake, 2, tea, d, 0);
+        seedOrder(tableB1, null, ts.plusSeconds(120), tea, 3, cake, 2, 15);
+        jdbc.update("insert into waiter_calls(table_id, created_at) values (?, ?)", tableA1, Timestamp.from(ts));
+        jdbc.update("insert into waiter_calls(table_id, created_at) values (?, ?)", tableB1, Timestamp.from(ts.plusSeconds(30)));
+      }
+    }
+
+    // Starts mid-morning four days back and ends late today: raw head, rolled-up middle, raw tail.
+    from = today.minusDays(DAYS).atStartOfDay(ZoneOffset.UTC).toInstant().plus(Duration.ofHours(10));
+    to = today.atStartOfDay(ZoneOffset.UTC).toInstant().plus(Duration.ofHours(23));
+
+    rollupService.rollup(today.minusDays(1));
+  }
+
+  @Test
+  void rollsUpEveryClosedDay() {
+    assertThat(rollupService.rolledThrough()).isEqualTo(today.minusDays(1));
+    assertThat(jdbc.queryForObject(
+      "select count(distinct day) from stats_daily_table where branch_id in (?, ?)", Long.class, alphaId, betaId
+    )).isEqualTo((long) DAYS);
+  }
+
+  @Test
+  void branchSummaryMatchesRawQuery() {
+    StatsService.Summary expected = raw.summaryForBranch(alphaId, from, to);
+    assertThat(expected.paidBillsCount()).isPositive();
+    assertSameSummary(stats.summaryForBranch(alphaId, from, to), expected);
+  }
+
+  @Test
+  void waiterAndTableFiltersMatchRawQuery() {
+    assertSameSummary(
+      stats.summaryForBranchFiltered(alphaId, from, to, null, waiterId, null),
+      raw.summaryForBranchFiltered(alphaId, from, to, null, waiterId, null)
+    );
+    assertSameSummary(
+      stats.summaryForBranchFiltered(alphaId, from, to, tableA1, null, null),
+      raw.summaryForBranchFiltered(alphaId, from, to, tableA1, null, null)
+    );
+  }
+
+  @Test
+  void dailySeriesMatchesRawQuery() {
+    List<StatsService.DailyRow> expected = raw.dailyForBranch(alphaId, from, to);
+    assertThat(expected).hasSize(DAYS + 1);
+    assertThat(stats.dailyForBranch(alphaId, from, to)).isEqualTo(expected);
+    assertThat(stats.dailyForBranchFiltered(alphaId, from, to, null, waiterId, null))
+      .isEqualTo(raw.dailyForBranchFiltered(alphaId, from, to, null, waiterId, null));
+  }
+
+  @Test
+  void topItemsMatchRawQuery() {
+    assertThat(stats.topItemsForBranch(alphaId, from, to, null, null, null, 10))
+      .isEqualTo(raw.topItemsForBranch(alphaId, from, to, null, null, null, 10));
+    assertThat(stats.topItemsForBranch(alphaId, from, to, null, waiterId, null, 10))
+      .isEqualTo(raw.topItemsForBranch(alphaId, from, to, null, waiterId, null, 10));
+    assertThat(stats.topItemsForTenant(tenantId, from, to, null, null, null, null, null, null, 10))
+      .isEqualTo(raw.topItemsForTenant(tenantId, from, to, null, null, null, null, null, null, 10));
+  }
+
+  @Test
+  void tenantSummariesMatchRawQuery() {
+    assertSameSummary(stats.summaryForTenant(tenantId, from, to), raw.summaryForTenant(tenantId, from, to));
+    List<StatsService.BranchSummaryRow> expected = raw.summaryByBranchForTenant(tenantId, from, to);
+    assertThat(expected).extracting(StatsService.BranchSummaryRow::branchId).containsExactly(alphaId, betaId);
+    assertThat(stats.summaryByBranchForTenant(tenantId, from, to)).isEqualTo(expected);
+  }
+
+  private void seedOrder(long tableId, Long staffId, Instant ts, long itemA, int qtyA, long itemB, int qtyB, int tipsCents) {
+    long sessionId = insertId(
+      "insert into guest_sessions(table_id, locale, expires_at) values (?, 'ru', ?) returning id",
+      tableId, Timestamp.from(ts.plus(Duration.ofHours(1)))
+    );
+    long orderId = insertId(
+      "insert into orders(table_id, guest_session_id, status, created_at, ready_at, handled_by_staff_id) " +
+        "values (?, ?, 'CLOSED', ?, ?, ?) returning id",
+      tableId, sessionId, Timestamp.from(ts), Timestamp.from(ts.plusSeconds(60L * (qtyA + 4))), staffId
+    );
+    long lineA = insertId(
+      "insert into order_items(order_id, menu_item_id, name_snapshot, unit_price_cents, qty) " +
+        "select ?, id, name_ru, price_cents, ? from menu_items where id = ? returning id",
+      orderId, qtyA, itemA
+    );
+    Long lineB = qtyB == 0 ? null : insertId(
+      "insert into order_items(order_id, menu_item_id, name_snapshot, unit_price_cents, qty) " +
+        "select ?, id, name_ru, price_cents, ? from menu_items where id = ? returning id",
+      orderId, qtyB, itemB
+    );
+    long subtotal = jdbc.queryForObject(
+      "select sum(unit_price_cents * qty) from order_items where order_id = ?", Long.class, orderId
+    );
+    // Paid a little after the order, so bills made just before midnight are confirmed on the next day.
+    long billId = insertId(
+      "insert into bill_requests(table_id, guest_session_id, mode, payment_method, status, subtotal_cents, " +
+        "tips_amount_cents, total_cents, created_at, confirmed_at) " +
+        "values (?, ?, 'WHOLE_TABLE', 'CASH', 'PAID_CONFIRMED', ?, ?, ?, ?, ?) returning id",
+      tableId, sessionId, subtotal, tipsCents, subtotal + tipsCents, Timestamp.from(ts), Timestamp.from(ts.plusSeconds(90))
+    );
+    for (Long line : lineB == null ? List.of(lineA) : List.of(lineA, lineB)) {
+      jdbc.update(
+        "insert into bill_request_items(bill_request_id, order_item_id, line_total_cents) " +
+          "select ?, id, unit_price_cents * qty from order_items where id = ?",
+        billId, line
+      );
+      jdbc.update("update order_items set bill_request_id = ?, is_closed = true where id = ?", billId, line);
+    }
+  }
+
+  private long insertId(String sql, Object... args) {
+    return jdbc.queryForObject(sql, Long.class, args);
+  }
+
+  private static void assertSameSummary(StatsService.Summary actual, StatsService.Summary expected) {
+    assertThat(actual.ordersCount()).isEqualTo(expected.ordersCount());
+    assertThat(actual.callsCount()).isEqualTo(expected.callsCount());
+    assertThat(actual.paidBillsCount()).isEqualTo(expected.paidBillsCount());
+    assertThat(actual.grossCents()).isEqualTo(expected.grossCents());
+    assertThat(actual.tipsCents()).isEqualTo(expected.tipsCents());
+    assertThat(actual.activeTablesCount()).isEqualTo(expected.activeTablesCount());
+    if (expected.avgSlaMinutes() == null) {
+      assertThat(actual.avgSlaMinutes()).isNull();
+    } else {
+      assertThat(actual.avgSlaMinutes()).isCloseTo(expected.avgSlaMinutes(), within(1e-6));
+    }
+  }
+}
@@ -0,0 +1,21 @@
+package md.virtualwaiter.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.StringWriter;
+
+import org.junit.jupiter.api.Test;
+
+public class CsvWriterTest {
+  @Test
+  void quotesOnlyFieldsThatNeedIt() throws Exception {
+    StringWriter out = new StringWriter();
+    CsvWriter csv = new CsvWriter(out);
+    csv.row(1L, "plain", null, "a,b", "say \"hi\"", "line1\nline2", "cr\r", 2.5);
+    csv.flush();
+    assertEquals(
+      "1,plain,,\"a,b\",\"say \"\"hi\"\"\",\"line1\nline2\",\"cr\r\",2.5\n",
+      out.toString()
+    );
+  }
+}
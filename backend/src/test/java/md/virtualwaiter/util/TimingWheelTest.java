@@ -0,0 +1,55 @@
+package md.virtualwaiter.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class TimingWheelTest {
+  @Test
+  void firesEachTimerOnItsTickAcrossLevels() {
+    // 4 slots per level, 3 levels: 1s, 4s and 16s granularity, 64s span.
+    TimingWheel<String> wheel = new TimingWheel<>(1000, 2, 3, 0);
+    wheel.schedule("a", 3_000);
+    wheel.schedule("b", 9_500);
+    wheel.schedule("c", 40_000);
+    wheel.schedule("d", 200_000);
+
+    List<String> fired = new ArrayList<>();
+    List<Long> at = new ArrayList<>();
+    for (long now = 1_000; now <= 200_000; now += 1_000) {
+      for (String k : wheel.advance(now)) {
+        fired.add(k);
+        at.add(now);
+      }
+    }
+    assertEquals(List.of("a", "b", "c", "d"), fired);
+    assertEquals(List.of(3_000L, 10_000L, 40_000L, 200_000L), at);
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  void cancelAndRescheduleDropTheOldDeadline() {
+    TimingWheel<String> wheel = new TimingWheel<>(1000, 2, 3, 0);
+    wheel.schedule("a", 5_000);
+    wheel.schedule("b", 5_000);
+    assertTrue(wheel.cancel("a"));
+    wheel.schedule("b", 20_000);
+    assertTrue(wheel.contains("b"));
+
+    assertEquals(List.of(), wheel.advance(19_000));
+    assertEquals(List.of("b"), wheel.advance(20_000));
+    assertFalse(wheel.contains("b"));
+  }
+
+  @Test
+  void pastDeadlineFiresOnNextTick() {
+    TimingWheel<String> wheel = new TimingWheel<>(1000, 2, 3, 10_000);
+    wheel.schedule("late", 1_000);
+    assertEquals(List.of("late"), wheel.advance(11_000));
+  }
+}
@@ -1,6 +1,6 @@
 "use client";
 
-import { useCallback, useEffect, useMemo, useState } from "react";
+import { useCallback, useEffect, useMemo, useRef, useState } from "react";
 import Image from "next/image";
 import { t, type Lang } from "@/app/i18n";
 
@@ -1184,13 +1184,12 @@ export default function TablePage({ params, searchParams }: any) {
     return () => clearInterval(id);
   }, [billRequestId, refreshBillStatus, session]);
 
+  const chatLastIdRef = useRef<number | null>(null);
+  const orderIdRef = useRef<number | null>(null);
+
   useEffect(() => {
-    if (!orderId || !session) return;
-    const id = setInterval(() => {
-      refreshOrderStatus();
-    }, 10000);
-    return () => clearInterval(id);
-  }, [orderId, refreshOrderStatus, session]);
+    orderIdRef.current = orderId;
+  }, [orderId]);
 
   const loadChat = useCallback(async () => {
     if (!session) return;
@@ -1198,27 +1197,89 @@ export default function TablePage({ params, searchParams }: any) {
       headers: { ...sessionHeaders() },
     });
     if (res.ok) {
-      setChatMessages(await res.json());
+      const body = await res.json();
+      chatLastIdRef.current = body.length ? body[body.length - 1].id : null;
+      setChatMessages(body);
     }
   }, [session, sessionHeaders]);
 
+  const loadChatAfter = useCallback(async () => {
+    if (!session) return;
+    const afterId = chatLastIdRef.current;
+    if (afterId == null) return loadChat();
+    const res = await fetch(`${API_BASE}/api/public/chat/messages?guestSessionId=${session.guestSessionId}&afterId=${afterId}`, {
+      headers: { ...sessionHeaders() },
+    });
+    if (res.ok) {
+      const body = await res.json();
+      if (!body.length) return;
+      chatLastIdRef.current = body[body.length - 1].id;
+      setChatMessages((prev) => [...prev, ...body.filter((m: { id: number }) => !prev.some((p) => p.id === m.id))]);
+    }
+  }, [loadChat, session, sessionHeaders]);
+
+  // Long poll for staff replies and status changes. The first poll (no cursor) always answers with a
+  // resync, so nothing sent between the initial loads and the first poll is lost; a resync (restart,
+  // eviction, another instance) catches both lists up, and errors back off before retrying.
   useEffect(() => {
     if (!session) return;
-    loadChat();
-    const id = setInterval(() => {
+    let stopped = false;
+    const controller = new AbortController();
+    const sleep = (ms: number) => new Promise((r) => setTimeout(r, ms));
+    const run = async () => {
+      let cursor: number | null = null;
       loadChat();
-    }, 8000);
-    return () => clearInterval(id);
-  }, [session, loadChat]);
+      loadOrdersHistory();
+      while (!stopped) {
+        try {
+          const since = cursor == null ? "" : `&since=${cursor}`;
+          const res = await fetch(`${API_BASE}/api/public/updates?guestSessionId=${session.guestSessionId}${since}`, {
+            headers: { ...sessionHeaders() },
+            signal: controller.signal,
+          });
+          if (!res.ok) {
+            if (res.status === 403 || res.status === 404 || res.status === 410) return;
+            await sleep(8000);
+            continue;
+          }
+          const body = await res.json();
+          cursor = body.cursor;
+          if (body.resync) {
+            loadChatAfter();
+            loadOrdersHistory();
+            continue;
+          }
+          const events: { type: string; refId: number; status?: string | null }[] = body.events ?? [];
+          if (events.some((e) => e.type === "CHAT")) loadChatAfter();
+          for (const e of events) {
+            if (e.type !== "ORDER" || !e.status) continue;
+            setOrdersHistory((prev) => prev.map((o) => (o.id === e.refId ? { ...o, status: e.status } : o)));
+            if (orderIdRef.current === e.refId) setOrderStatus(e.status);
+          }
+        } catch {
+          if (stopped) return;
+          await sleep(8000);
+        }
+      }
+    };
+    run();
+    return () => {
+      stopped = true;
+      controller.abort();
+    };
+  }, [session, sessionHeaders, loadChat, loadChatAfter, loadOrdersHistory]);
 
+  // Slow safety net next to the long poll: events raised on another instance only reach this one when
+  // the Redis invalidation bus is enabled, so catch up on a timer as well.
   useEffect(() => {
     if (!session) return;
-    loadOrdersHistory();
     const id = setInterval(() => {
+      loadChatAfter();
       loadOrdersHistory();
-    }, 15000);
+      if (orderIdRef.current) refreshOrderStatus();
+    }, 45000);
     return () => clearInterval(id);
-  }, [session, loadOrdersHistory]);
+  }, [session, loadChatAfter, loadOrdersHistory, refreshOrderStatus]);
 
   function orderStatusLabel(status: string) {
     const s = (status || "").toUpperCase();